@@ -1,11 +1,27 @@
 package org.dnplugins.dNStorage;
 
+import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.dnplugins.dNStorage.api.StorageService;
 import org.dnplugins.dNStorage.commands.CommandHandler;
+import org.dnplugins.dNStorage.core.AuditLog;
+import org.dnplugins.dNStorage.core.BackupManager;
+import org.dnplugins.dNStorage.core.CacheSyncManager;
 import org.dnplugins.dNStorage.core.DatabaseManager;
+import org.dnplugins.dNStorage.core.InventorySortEngine;
 import org.dnplugins.dNStorage.core.LanguageManager;
+import org.dnplugins.dNStorage.core.LeaderboardManager;
+import org.dnplugins.dNStorage.core.QuotaManager;
+import org.dnplugins.dNStorage.core.ReadLoadTest;
+import org.dnplugins.dNStorage.core.SearchIndex;
 import org.dnplugins.dNStorage.core.SoundManager;
+import org.dnplugins.dNStorage.core.SpecialItemStore;
 import org.dnplugins.dNStorage.core.StorageManager;
+import org.dnplugins.dNStorage.core.StorageServiceImpl;
+import org.dnplugins.dNStorage.core.StorageTransfer;
+import org.dnplugins.dNStorage.enums.ItemCategory;
+import org.dnplugins.dNStorage.gui.AdminStorageGUI;
+import org.dnplugins.dNStorage.gui.SpecialStorageGUI;
 import org.dnplugins.dNStorage.gui.StorageGUI;
 import org.dnplugins.dNStorage.listeners.AutoPickupListener;
 
@@ -18,6 +34,15 @@ public final class DNStorage extends JavaPlugin {
     private CommandHandler commandHandler;
     private AutoPickupListener autoPickupListener;
     private SoundManager soundManager;
+    private LeaderboardManager leaderboardManager;
+    private QuotaManager quotaManager;
+    private StorageTransfer storageTransfer;
+    private BackupManager backupManager;
+    private CacheSyncManager cacheSyncManager;
+    private SearchIndex searchIndex;
+    private InventorySortEngine sortEngine;
+    private SpecialItemStore specialItemStore;
+    private AuditLog auditLog;
 
     @Override
     public void onEnable() {
@@ -30,20 +55,62 @@ public final class DNStorage extends JavaPlugin {
         // Khởi tạo SoundManager
         soundManager = new SoundManager(this, languageManager);
 
+        // Nạp danh mục vật phẩm từ categories.yml
+        ItemCategory.load(this);
+
         // Khởi tạo DatabaseManager
         databaseManager = new DatabaseManager(this, languageManager);
 
+        // Khởi tạo hạn mức dung lượng kho
+        quotaManager = new QuotaManager(this, databaseManager);
+
+        // Nhật ký giao dịch kho
+        auditLog = new AuditLog(this);
+
+        // Kho vật phẩm đặc biệt (giữ nguyên NBT)
+        specialItemStore = new SpecialItemStore(this, databaseManager, auditLog);
+
         // Khởi tạo StorageManager
-        storageManager = new StorageManager(this, databaseManager, languageManager);
+        storageManager = new StorageManager(this, databaseManager, languageManager, quotaManager, auditLog);
+
+        // Khởi tạo bảng xếp hạng
+        leaderboardManager = new LeaderboardManager(this, databaseManager);
 
         // Khởi tạo AutoPickupListener
         autoPickupListener = new AutoPickupListener(this, storageManager, databaseManager, languageManager);
 
+        // Đồng bộ cache khi nhiều server dùng chung database
+        cacheSyncManager = new CacheSyncManager(this, databaseManager, storageManager, autoPickupListener,
+                quotaManager);
+
         // Khởi tạo StorageGUI
-        storageGUI = new StorageGUI(this, storageManager, autoPickupListener, languageManager, soundManager);
+        searchIndex = new SearchIndex(languageManager);
+        sortEngine = new InventorySortEngine(this, languageManager);
+        storageGUI = new StorageGUI(this, storageManager, autoPickupListener, languageManager, soundManager,
+                searchIndex, sortEngine);
+        AdminStorageGUI adminStorageGUI = new AdminStorageGUI(this, storageManager, storageGUI, languageManager,
+                soundManager);
+        SpecialStorageGUI specialStorageGUI = new SpecialStorageGUI(this, specialItemStore, storageGUI,
+                languageManager, soundManager);
+
+        // Sao lưu định kỳ
+        backupManager = new BackupManager(this, databaseManager);
+
+        // Xuất/nhập dữ liệu kho; sau khi import thì làm mới các số liệu được giữ trong memory
+        storageTransfer = new StorageTransfer(this, databaseManager, languageManager, () -> {
+            storageManager.clearAllCache();
+            quotaManager.resetUsage();
+            leaderboardManager.invalidate();
+        });
+
+        // API cho các plugin khác
+        getServer().getServicesManager().register(StorageService.class,
+                new StorageServiceImpl(this, storageManager), this, ServicePriority.Normal);
 
         // Khởi tạo CommandHandler
-        commandHandler = new CommandHandler(storageGUI, languageManager, this);
+        commandHandler = new CommandHandler(storageGUI, languageManager, this, leaderboardManager, storageTransfer,
+                auditLog, adminStorageGUI, specialStorageGUI, databaseManager,
+                new ReadLoadTest(this, databaseManager, languageManager));
 
         // Đăng ký lệnh
         getCommand("kho").setExecutor(commandHandler);
@@ -64,10 +131,23 @@ public final class DNStorage extends JavaPlugin {
 
         // Reload language manager
         languageManager.reload();
+        // Dựng lại chỉ mục tìm kiếm theo ngôn ngữ mới
+        searchIndex.rebuild();
+        // Reload thứ tự sắp xếp inventory
+        sortEngine.loadConfig();
+
+        // Reload cấu hình kho vật phẩm đặc biệt
+        specialItemStore.loadConfig();
 
         // Reload sound manager
         soundManager.loadConfig();
 
+        // Reload cấu hình auto-pickup
+        autoPickupListener.loadConfig();
+
+        // Reload hạn mức dung lượng kho
+        quotaManager.loadConfig();
+
         getLogger().info(languageManager.getMessage("plugin.reloaded"));
     }
 
@@ -80,6 +160,20 @@ public final class DNStorage extends JavaPlugin {
 
     @Override
     public void onDisable() {
+        getServer().getServicesManager().unregisterAll(this);
+
+        if (leaderboardManager != null) {
+            leaderboardManager.shutdown();
+        }
+
+        if (backupManager != null) {
+            backupManager.shutdown();
+        }
+
+        if (cacheSyncManager != null) {
+            cacheSyncManager.shutdown();
+        }
+
         // Lưu dữ liệu khi plugin tắt
         if (storageManager != null) {
             storageManager.shutdown();
@@ -89,6 +183,10 @@ public final class DNStorage extends JavaPlugin {
             databaseManager.closeConnection();
         }
 
+        if (auditLog != null) {
+            auditLog.shutdown();
+        }
+
         getLogger().info(languageManager.getMessage("plugin.disabled"));
     }
 }
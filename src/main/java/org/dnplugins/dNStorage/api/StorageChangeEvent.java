@@ -0,0 +1,128 @@
+package org.dnplugins.dNStorage.api;
+
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+import org.dnplugins.dNStorage.enums.ChangeSource;
+
+import java.util.*;
+
+/**
+ * Các thay đổi trên kho của một người chơi trong một tick, đã được gộp theo vật phẩm
+ * <p>
+ * Sự kiện được gọi trên main thread ở đầu tick kế tiếp, tối đa một lần mỗi tick cho mỗi người chơi, nên
+ * listener chỉ tốn chi phí theo lô thay vì theo từng vật phẩm được nhặt. Khi sự kiện bị hủy, các vật phẩm
+ * người chơi đã gửi vào trong lô (nhặt, GUI, lệnh) được lấy lại khỏi kho và trả vào túi đồ (thả xuống đất nếu
+ * túi đầy); lượt lấy ra và vật phẩm được thêm qua {@link StorageService} không bị hoàn lại. Việc hủy chỉ có tác
+ * dụng khi người chơi đang online.
+ */
+public class StorageChangeEvent extends Event implements Cancellable {
+
+    private static final HandlerList HANDLERS = new HandlerList();
+
+    private final UUID playerId;
+    private final Player player;
+    private final Map<Material, Integer> deposited;
+    private final Map<Material, Integer> withdrawn;
+    private final Set<ChangeSource> sources;
+    private final long totalDeposited;
+    private final long totalWithdrawn;
+    private boolean cancelled;
+
+    public StorageChangeEvent(UUID playerId, Player player, Map<Material, Integer> deposited,
+            Map<Material, Integer> withdrawn, Set<ChangeSource> sources) {
+        this.playerId = playerId;
+        this.player = player;
+        this.deposited = Collections.unmodifiableMap(deposited);
+        this.withdrawn = Collections.unmodifiableMap(withdrawn);
+        this.sources = Collections.unmodifiableSet(sources);
+        this.totalDeposited = sum(deposited);
+        this.totalWithdrawn = sum(withdrawn);
+    }
+
+    private static long sum(Map<Material, Integer> amounts) {
+        long total = 0;
+        for (int amount : amounts.values()) {
+            total += amount;
+        }
+        return total;
+    }
+
+    public UUID getPlayerId() {
+        return playerId;
+    }
+
+    /**
+     * Người chơi sở hữu kho (null nếu không online)
+     */
+    public Player getPlayer() {
+        return player;
+    }
+
+    /**
+     * Tổng số lượng đã thêm vào kho của từng vật phẩm
+     */
+    public Map<Material, Integer> getDeposited() {
+        return deposited;
+    }
+
+    /**
+     * Tổng số lượng đã lấy ra khỏi kho của từng vật phẩm
+     */
+    public Map<Material, Integer> getWithdrawn() {
+        return withdrawn;
+    }
+
+    /**
+     * Thay đổi ròng của một vật phẩm (thêm vào trừ lấy ra)
+     */
+    public int getNetChange(Material material) {
+        return deposited.getOrDefault(material, 0) - withdrawn.getOrDefault(material, 0);
+    }
+
+    /**
+     * Các vật phẩm có thay đổi trong lô
+     */
+    public Set<Material> getMaterials() {
+        Set<Material> materials = EnumSet.noneOf(Material.class);
+        materials.addAll(deposited.keySet());
+        materials.addAll(withdrawn.keySet());
+        return materials;
+    }
+
+    public long getTotalDeposited() {
+        return totalDeposited;
+    }
+
+    public long getTotalWithdrawn() {
+        return totalWithdrawn;
+    }
+
+    /**
+     * Nguồn của các thay đổi trong lô
+     */
+    public Set<ChangeSource> getSources() {
+        return sources;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public void setCancelled(boolean cancel) {
+        this.cancelled = cancel;
+    }
+
+    @Override
+    public HandlerList getHandlers() {
+        return HANDLERS;
+    }
+
+    public static HandlerList getHandlerList() {
+        return HANDLERS;
+    }
+}
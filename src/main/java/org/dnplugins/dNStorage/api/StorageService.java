@@ -0,0 +1,50 @@
+package org.dnplugins.dNStorage.api;
+
+import org.bukkit.Material;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * API kho dành cho các plugin khác, đăng ký qua ServicesManager của Bukkit:
+ * <pre>
+ * StorageService storage = Bukkit.getServicesManager().load(StorageService.class);
+ * storage.withdraw(playerId, Map.of(Material.DIAMOND, 3, Material.EMERALD, 5)).thenAccept(ok -> ...);
+ * </pre>
+ * Các phương thức có thể gọi từ bất kỳ luồng nào; future luôn hoàn thành trên main thread. Các thao tác
+ * nhiều vật phẩm chỉ tốn một truy vấn để đọc và một transaction để ghi, bất kể số loại vật phẩm.
+ */
+public interface StorageService {
+
+    /**
+     * Vật phẩm có thể được lưu trong kho không (thuộc một danh mục)
+     */
+    boolean isStorable(Material material);
+
+    /**
+     * Lấy số lượng một vật phẩm trong kho
+     */
+    CompletableFuture<Integer> getAmount(UUID playerId, Material material);
+
+    /**
+     * Lấy số lượng của nhiều vật phẩm (vật phẩm không có trong kho có số lượng 0)
+     */
+    CompletableFuture<Map<Material, Integer>> getAmounts(UUID playerId, Collection<Material> materials);
+
+    /**
+     * Thêm nhiều vật phẩm vào kho; vật phẩm không lưu được hoặc vượt hạn mức dung lượng chỉ được thêm một phần
+     *
+     * @return số lượng đã thêm của từng vật phẩm
+     */
+    CompletableFuture<Map<Material, Integer>> deposit(UUID playerId, Map<Material, Integer> items);
+
+    /**
+     * Lấy nhiều vật phẩm ra khỏi kho theo kiểu tất cả hoặc không: nếu thiếu bất kỳ vật phẩm nào thì kho
+     * không thay đổi
+     *
+     * @return true nếu đã lấy đủ tất cả vật phẩm
+     */
+    CompletableFuture<Boolean> withdraw(UUID playerId, Map<Material, Integer> items);
+}
@@ -1,5 +1,8 @@
 package org.dnplugins.dNStorage.commands;
 
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
@@ -7,25 +10,62 @@ import org.bukkit.command.TabCompleter;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.dnplugins.dNStorage.DNStorage;
+import org.dnplugins.dNStorage.core.AuditLog;
+import org.dnplugins.dNStorage.core.DatabaseManager;
 import org.dnplugins.dNStorage.core.LanguageManager;
+import org.dnplugins.dNStorage.core.LeaderboardManager;
+import org.dnplugins.dNStorage.core.ReadLoadTest;
+import org.dnplugins.dNStorage.core.StorageMetrics;
+import org.dnplugins.dNStorage.core.StorageTransfer;
+import org.dnplugins.dNStorage.enums.ItemCategory;
+import org.dnplugins.dNStorage.gui.AdminStorageGUI;
+import org.dnplugins.dNStorage.gui.SpecialStorageGUI;
 import org.dnplugins.dNStorage.gui.StorageGUI;
 
+import java.io.File;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * Xử lý các lệnh của plugin
  */
 public class CommandHandler implements CommandExecutor, TabCompleter {
 
+    // Số giao dịch hiển thị bởi /kho admin history
+    private static final int HISTORY_LIMIT = 15;
+    private static final DateTimeFormatter HISTORY_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+            .withZone(ZoneId.systemDefault());
+
     private final StorageGUI storageGUI;
     private final LanguageManager languageManager;
     private final JavaPlugin plugin;
+    private final LeaderboardManager leaderboardManager;
+    private final StorageTransfer storageTransfer;
+    private final AuditLog auditLog;
+    private final AdminStorageGUI adminStorageGUI;
+    private final SpecialStorageGUI specialStorageGUI;
+    private final DatabaseManager databaseManager;
+    private final ReadLoadTest readLoadTest;
 
-    public CommandHandler(StorageGUI storageGUI, LanguageManager languageManager, JavaPlugin plugin) {
+    public CommandHandler(StorageGUI storageGUI, LanguageManager languageManager, JavaPlugin plugin,
+            LeaderboardManager leaderboardManager, StorageTransfer storageTransfer, AuditLog auditLog,
+            AdminStorageGUI adminStorageGUI, SpecialStorageGUI specialStorageGUI, DatabaseManager databaseManager,
+            ReadLoadTest readLoadTest) {
         this.storageGUI = storageGUI;
         this.languageManager = languageManager;
         this.plugin = plugin;
+        this.leaderboardManager = leaderboardManager;
+        this.storageTransfer = storageTransfer;
+        this.auditLog = auditLog;
+        this.adminStorageGUI = adminStorageGUI;
+        this.specialStorageGUI = specialStorageGUI;
+        this.databaseManager = databaseManager;
+        this.readLoadTest = readLoadTest;
     }
 
     @Override
@@ -66,6 +106,103 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
                 return true;
             }
 
+            // Xử lý lệnh deposit
+            if (args.length > 0 && args[0].equalsIgnoreCase("deposit")) {
+                if (!(sender instanceof Player)) {
+                    sender.sendMessage(languageManager.getMessage("command.only_player"));
+                    return true;
+                }
+
+                Player player = (Player) sender;
+                if (!player.hasPermission("dnstorage.use")) {
+                    player.sendMessage(languageManager.getMessage("command.no_permission"));
+                    return true;
+                }
+
+                if (!checkReady(player)) {
+                    return true;
+                }
+                storageGUI.depositAll(player);
+                return true;
+            }
+
+            // Xử lý lệnh special
+            if (args.length > 0 && args[0].equalsIgnoreCase("special")) {
+                if (!(sender instanceof Player)) {
+                    sender.sendMessage(languageManager.getMessage("command.only_player"));
+                    return true;
+                }
+
+                Player player = (Player) sender;
+                if (!player.hasPermission("dnstorage.use")) {
+                    player.sendMessage(languageManager.getMessage("command.no_permission"));
+                    return true;
+                }
+
+                if (!checkReady(player)) {
+                    return true;
+                }
+                specialStorageGUI.open(player);
+                return true;
+            }
+
+            // Xử lý lệnh search
+            if (args.length > 0 && args[0].equalsIgnoreCase("search")) {
+                if (!(sender instanceof Player)) {
+                    sender.sendMessage(languageManager.getMessage("command.only_player"));
+                    return true;
+                }
+
+                Player player = (Player) sender;
+                if (!player.hasPermission("dnstorage.use")) {
+                    player.sendMessage(languageManager.getMessage("command.no_permission"));
+                    return true;
+                }
+                if (args.length < 2) {
+                    player.sendMessage(languageManager.getMessage("command.search.usage"));
+                    return true;
+                }
+
+                if (!checkReady(player)) {
+                    return true;
+                }
+                storageGUI.openSearch(player, String.join(" ", Arrays.copyOfRange(args, 1, args.length)));
+                return true;
+            }
+
+            // Xử lý lệnh top
+            if (args.length > 0 && args[0].equalsIgnoreCase("top")) {
+                if (!sender.hasPermission("dnstorage.use")) {
+                    sender.sendMessage(languageManager.getMessage("command.no_permission"));
+                    return true;
+                }
+
+                showLeaderboard(sender, args);
+                return true;
+            }
+
+            // Xử lý lệnh stats
+            if (args.length > 0 && args[0].equalsIgnoreCase("stats")) {
+                if (!sender.hasPermission("dnstorage.admin")) {
+                    sender.sendMessage(languageManager.getMessage("command.no_permission"));
+                    return true;
+                }
+
+                showStats(sender);
+                return true;
+            }
+
+            // Xử lý lệnh quản trị
+            if (args.length > 0 && args[0].equalsIgnoreCase("admin")) {
+                if (!sender.hasPermission("dnstorage.admin")) {
+                    sender.sendMessage(languageManager.getMessage("command.no_permission"));
+                    return true;
+                }
+
+                handleAdmin(sender, args);
+                return true;
+            }
+
             // Lệnh mở GUI (chỉ dành cho player)
             if (!(sender instanceof Player)) {
                 sender.sendMessage(languageManager.getMessage("command.only_player"));
@@ -78,6 +215,9 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
                 return true;
             }
 
+            if (!checkReady(player)) {
+                return true;
+            }
             storageGUI.openMainGUI(player);
             return true;
         }
@@ -85,6 +225,285 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
         return false;
     }
 
+    /**
+     * Khi server vừa khởi động, database có thể vẫn đang kết nối: báo thử lại sau thay vì mở kho trống
+     */
+    private boolean checkReady(CommandSender sender) {
+        if (databaseManager.isReady()) {
+            return true;
+        }
+        sender.sendMessage(languageManager.getMessage("message.storage.not_ready"));
+        return false;
+    }
+
+    /**
+     * Hiển thị tình trạng kết nối database và các bộ đếm của tầng lưu trữ
+     */
+    private void showStats(CommandSender sender) {
+        StorageMetrics metrics = databaseManager.getMetrics();
+        DatabaseManager.State state = databaseManager.getState();
+        sender.sendMessage(languageManager.getMessage("command.stats.header"));
+        sender.sendMessage(languageManager.getMessage("command.stats.backend")
+                .replace("{backend}", databaseManager.getBackend().getName())
+                .replace("{state}", languageManager.getMessage("command.stats.state."
+                        + state.name().toLowerCase())));
+        if (state == DatabaseManager.State.UNAVAILABLE) {
+            sender.sendMessage(languageManager.getMessage("command.stats.offline")
+                    .replace("{seconds}", String.valueOf(metrics.getCurrentOutageMillis() / 1000)));
+        }
+        sender.sendMessage(languageManager.getMessage("command.stats.pending")
+                .replace("{pending}", String.format("%,d", databaseManager.getUnwrittenChanges())));
+        sender.sendMessage(languageManager.getMessage("command.stats.writes")
+                .replace("{conflicts}", String.format("%,d", metrics.getWriteConflicts()))
+                .replace("{overdrafts}", String.format("%,d", metrics.getOverdrafts())));
+        sender.sendMessage(languageManager.getMessage("command.stats.outages")
+                .replace("{outages}", String.valueOf(metrics.getOutages()))
+                .replace("{seconds}", String.valueOf(metrics.getDowntimeMillis() / 1000)));
+        if (metrics.getLastError() != null) {
+            sender.sendMessage(languageManager.getMessage("command.stats.last_error")
+                    .replace("{error}", metrics.getLastError()));
+        }
+    }
+
+    /**
+     * Xử lý các lệnh /kho admin ...
+     */
+    private void handleAdmin(CommandSender sender, String[] args) {
+        String action = args.length > 1 ? args[1].toLowerCase() : "";
+        switch (action) {
+            case "export", "import" -> {
+                if (checkReady(sender)) {
+                    transferData(sender, action, args);
+                }
+            }
+            case "history" -> showHistory(sender, args);
+            case "view" -> {
+                if (checkReady(sender)) {
+                    viewStorage(sender, args);
+                }
+            }
+            case "loadtest" -> {
+                if (checkReady(sender)) {
+                    startLoadTest(sender, args);
+                }
+            }
+            default -> sender.sendMessage(languageManager.getMessage("command.admin.usage"));
+        }
+    }
+
+    /**
+     * Đo tải các thao tác đọc database: /kho admin loadtest [người chơi] [giây]
+     */
+    private void startLoadTest(CommandSender sender, String[] args) {
+        int players;
+        int seconds;
+        try {
+            players = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+            seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+        } catch (NumberFormatException e) {
+            sender.sendMessage(languageManager.getMessage("command.admin.usage"));
+            return;
+        }
+        players = Math.max(1, Math.min(players, ReadLoadTest.MAX_PLAYERS));
+        seconds = Math.max(1, Math.min(seconds, ReadLoadTest.MAX_SECONDS));
+
+        if (!readLoadTest.start(sender, players, seconds)) {
+            sender.sendMessage(languageManager.getMessage("command.admin.loadtest.busy"));
+            return;
+        }
+        sender.sendMessage(languageManager.getMessage("command.admin.loadtest.started")
+                .replace("{players}", String.valueOf(players))
+                .replace("{seconds}", String.valueOf(seconds))
+                .replace("{mode}", databaseManager.getReadMode()));
+    }
+
+    /**
+     * Xuất/nhập toàn bộ dữ liệu kho (chạy async)
+     */
+    private void transferData(CommandSender sender, String action, String[] args) {
+        if (args.length < 3) {
+            sender.sendMessage(languageManager.getMessage("command.admin.usage"));
+            return;
+        }
+
+        File file = storageTransfer.resolveFile(args[2]);
+        if (file == null) {
+            sender.sendMessage(languageManager.getMessage("command.admin.transfer.invalid_file")
+                    .replace("{file}", args[2]));
+            return;
+        }
+
+        boolean started;
+        if (action.equals("export")) {
+            started = storageTransfer.exportAsync(file, sender);
+        } else {
+            if (!file.isFile()) {
+                sender.sendMessage(languageManager.getMessage("command.admin.transfer.invalid_file")
+                        .replace("{file}", args[2]));
+                return;
+            }
+            started = storageTransfer.importAsync(file, sender);
+        }
+
+        if (started) {
+            sender.sendMessage(languageManager.getMessage("command.admin." + action + ".started")
+                    .replace("{file}", file.getName()));
+        } else {
+            sender.sendMessage(languageManager.getMessage("command.admin.transfer.busy"));
+        }
+    }
+
+    /**
+     * Hiển thị các giao dịch gần nhất của một người chơi (đọc nhật ký async)
+     */
+    private void showHistory(CommandSender sender, String[] args) {
+        if (args.length < 3) {
+            sender.sendMessage(languageManager.getMessage("command.admin.usage"));
+            return;
+        }
+        if (!auditLog.isEnabled()) {
+            sender.sendMessage(languageManager.getMessage("command.admin.history.disabled"));
+            return;
+        }
+
+        OfflinePlayer target = findPlayer(args[2]);
+        if (target == null) {
+            sender.sendMessage(languageManager.getMessage("command.admin.history.unknown_player")
+                    .replace("{player}", args[2]));
+            return;
+        }
+        Material material = null;
+        if (args.length > 3) {
+            material = Material.matchMaterial(args[3]);
+            if (material == null) {
+                sender.sendMessage(languageManager.getMessage("command.admin.history.unknown_item")
+                        .replace("{item}", args[3]));
+                return;
+            }
+        }
+
+        String playerName = target.getName() != null ? target.getName() : args[2];
+        auditLog.queryAsync(target.getUniqueId(), material, HISTORY_LIMIT, entries -> {
+            sender.sendMessage(languageManager.getMessage("command.admin.history.header")
+                    .replace("{player}", playerName));
+            if (entries.isEmpty()) {
+                sender.sendMessage(languageManager.getMessage("command.admin.history.empty"));
+                return;
+            }
+            for (AuditLog.Entry entry : entries) {
+                sender.sendMessage(languageManager.getMessage("command.admin.history.entry")
+                        .replace("{time}", HISTORY_TIME.format(Instant.ofEpochMilli(entry.time())))
+                        .replace("{source}", entry.source().name().toLowerCase())
+                        .replace("{delta}", String.format("%+,d", entry.delta()))
+                        .replace("{item}", entry.material().name()));
+            }
+        });
+    }
+
+    /**
+     * Mở kho của một người chơi (online hoặc offline) để xem và sửa
+     */
+    private void viewStorage(CommandSender sender, String[] args) {
+        if (!(sender instanceof Player)) {
+            sender.sendMessage(languageManager.getMessage("command.only_player"));
+            return;
+        }
+        if (args.length < 3) {
+            sender.sendMessage(languageManager.getMessage("command.admin.usage"));
+            return;
+        }
+
+        OfflinePlayer target = findPlayer(args[2]);
+        if (target == null) {
+            sender.sendMessage(languageManager.getMessage("command.admin.history.unknown_player")
+                    .replace("{player}", args[2]));
+            return;
+        }
+        ItemCategory.Category category = null;
+        if (args.length > 3) {
+            category = findCategory(args[3]);
+            if (category == null) {
+                sender.sendMessage(languageManager.getMessage("command.admin.view.unknown_category")
+                        .replace("{category}", args[3]));
+                return;
+            }
+        }
+
+        String playerName = target.getName() != null ? target.getName() : args[2];
+        adminStorageGUI.open((Player) sender, target.getUniqueId(), playerName, category);
+    }
+
+    /**
+     * Tìm người chơi theo tên hoặc UUID (kể cả offline nếu server đã biết tên)
+     */
+    private OfflinePlayer findPlayer(String name) {
+        Player online = Bukkit.getPlayerExact(name);
+        if (online != null) {
+            return online;
+        }
+        try {
+            return Bukkit.getOfflinePlayer(UUID.fromString(name));
+        } catch (IllegalArgumentException e) {
+            return Bukkit.getOfflinePlayerIfCached(name);
+        }
+    }
+
+    /**
+     * Hiển thị bảng xếp hạng theo vật phẩm hoặc danh mục
+     */
+    private void showLeaderboard(CommandSender sender, String[] args) {
+        if (args.length < 2) {
+            sender.sendMessage(languageManager.getMessage("command.top.usage"));
+            return;
+        }
+        if (!leaderboardManager.isReady()) {
+            sender.sendMessage(languageManager.getMessage("command.top.not_ready"));
+            return;
+        }
+
+        List<LeaderboardManager.Entry> entries;
+        String targetName;
+        ItemCategory.Category category = findCategory(args[1]);
+        if (category != null) {
+            entries = leaderboardManager.getTop(category);
+            targetName = languageManager.getCategoryName(category);
+        } else {
+            Material material = Material.matchMaterial(args[1]);
+            if (material == null || !ItemCategory.isCategorized(material)) {
+                sender.sendMessage(languageManager.getMessage("command.top.unknown").replace("{target}", args[1]));
+                return;
+            }
+            entries = leaderboardManager.getTop(material);
+            targetName = material.name();
+        }
+
+        sender.sendMessage(languageManager.getMessage("command.top.header").replace("{target}", targetName));
+        if (entries.isEmpty()) {
+            sender.sendMessage(languageManager.getMessage("command.top.empty"));
+            return;
+        }
+
+        int rank = 1;
+        for (LeaderboardManager.Entry entry : entries) {
+            String playerName = Bukkit.getOfflinePlayer(entry.playerId()).getName();
+            sender.sendMessage(languageManager.getMessage("command.top.entry")
+                    .replace("{rank}", String.valueOf(rank++))
+                    .replace("{player}", playerName != null ? playerName : entry.playerId().toString())
+                    .replace("{amount}", String.format("%,d", entry.amount())));
+        }
+    }
+
+    /**
+     * Tìm danh mục theo mã (không phân biệt hoa thường)
+     */
+    private ItemCategory.Category findCategory(String name) {
+        try {
+            return ItemCategory.Category.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
     @Override
     public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
         List<String> completions = new ArrayList<>();
@@ -95,6 +514,66 @@ public class CommandHandler implements CommandExecutor, TabCompleter {
             if (sender.hasPermission("dnstorage.use") && "sort".startsWith(args[0].toLowerCase())) {
                 completions.add("sort");
             }
+            if (sender.hasPermission("dnstorage.use") && "top".startsWith(args[0].toLowerCase())) {
+                completions.add("top");
+            }
+            if (sender.hasPermission("dnstorage.use") && "deposit".startsWith(args[0].toLowerCase())) {
+                completions.add("deposit");
+            }
+            if (sender.hasPermission("dnstorage.use") && "special".startsWith(args[0].toLowerCase())) {
+                completions.add("special");
+            }
+            if (sender.hasPermission("dnstorage.use") && "search".startsWith(args[0].toLowerCase())) {
+                completions.add("search");
+            }
+            if (sender.hasPermission("dnstorage.admin") && "stats".startsWith(args[0].toLowerCase())) {
+                completions.add("stats");
+            }
+            if (sender.hasPermission("dnstorage.admin") && "admin".startsWith(args[0].toLowerCase())) {
+                completions.add("admin");
+            }
+        } else if (args[0].equalsIgnoreCase("admin") && sender.hasPermission("dnstorage.admin")) {
+            if (args.length == 2) {
+                for (String action : List.of("export", "import", "history", "view", "loadtest")) {
+                    if (action.startsWith(args[1].toLowerCase())) {
+                        completions.add(action);
+                    }
+                }
+            } else if (args.length == 3 && args[1].equalsIgnoreCase("import")) {
+                for (String name : storageTransfer.listFiles()) {
+                    if (name.toLowerCase().startsWith(args[2].toLowerCase())) {
+                        completions.add(name);
+                    }
+                }
+            } else if (args.length == 3 && (args[1].equalsIgnoreCase("history")
+                    || args[1].equalsIgnoreCase("view"))) {
+                for (Player player : Bukkit.getOnlinePlayers()) {
+                    if (player.getName().toLowerCase().startsWith(args[2].toLowerCase())) {
+                        completions.add(player.getName());
+                    }
+                }
+            } else if (args.length == 4 && args[1].equalsIgnoreCase("view")) {
+                for (ItemCategory.Category category : ItemCategory.Category.values()) {
+                    if (category.name().toLowerCase().startsWith(args[3].toLowerCase())) {
+                        completions.add(category.name().toLowerCase());
+                    }
+                }
+            }
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("top") && sender.hasPermission("dnstorage.use")) {
+            String prefix = args[1].toLowerCase();
+            for (ItemCategory.Category category : ItemCategory.Category.values()) {
+                if (category.name().toLowerCase().startsWith(prefix)) {
+                    completions.add(category.name().toLowerCase());
+                }
+            }
+            // Chỉ gợi ý vật phẩm khi đã gõ vài ký tự để danh sách không quá dài
+            if (prefix.length() >= 2) {
+                for (Material material : Material.values()) {
+                    if (material.name().toLowerCase().startsWith(prefix) && ItemCategory.isCategorized(material)) {
+                        completions.add(material.name().toLowerCase());
+                    }
+                }
+            }
         }
         return completions;
     }
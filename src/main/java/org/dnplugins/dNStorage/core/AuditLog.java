@@ -0,0 +1,425 @@
+package org.dnplugins.dNStorage.core;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.dnplugins.dNStorage.enums.ChangeSource;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Nhật ký giao dịch kho: mọi thay đổi của {@link StorageManager} (người chơi, vật phẩm, số lượng, nguồn,
+ * thời điểm) dùng để tra cứu bằng {@code /kho admin history}
+ * <p>
+ * Việc ghi nhận chỉ là một lần CAS và một lần ghi mảng vào ring buffer không khóa, nên không làm chậm
+ * việc nhặt đồ. Một luồng riêng lấy các bản ghi theo lô và nối vào file của ngày tương ứng trong thư mục
+ * audit/ (mỗi dòng: thời điểm, UUID, nguồn, vật phẩm, số lượng, phân cách bằng tab). Khi buffer đầy, bản ghi
+ * mới bị bỏ và được đếm lại thay vì chặn main thread.
+ * <p>
+ * Tra cứu đọc file trên một luồng riêng để việc quét nhiều ngày nhật ký không làm dồn bản ghi trong buffer.
+ */
+public class AuditLog {
+
+    // Số bản ghi lấy ra khỏi buffer mỗi lần
+    private static final int DRAIN_BATCH = 4096;
+    private static final String FILE_SUFFIX = ".log";
+
+    private final JavaPlugin plugin;
+    private final File directory;
+    private final int retentionDays;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private volatile Ring ring;
+    private ScheduledExecutorService executor;
+    private ExecutorService queryExecutor;
+    private final LongAdder dropped = new LongAdder();
+
+    // Chỉ truy cập trên luồng audit: file của ngày đang ghi
+    private BufferedWriter writer;
+    private LocalDate writerDate;
+    private long dayStart;
+    private long dayEnd;
+
+    /**
+     * Một thay đổi trên kho
+     *
+     * @param time  Thời điểm (epoch millis)
+     * @param delta Số lượng thay đổi (dương khi thêm, âm khi lấy ra)
+     */
+    public record Entry(long time, UUID playerId, Material material, int delta, ChangeSource source) {
+    }
+
+    public AuditLog(JavaPlugin plugin) {
+        this.plugin = plugin;
+        this.directory = new File(plugin.getDataFolder(), "audit");
+
+        FileConfiguration config = plugin.getConfig();
+        this.retentionDays = Math.max(0, config.getInt("audit.retention-days", 30));
+        if (!config.getBoolean("audit.enabled", true)) {
+            return;
+        }
+
+        ring = new Ring(config.getInt("audit.buffer-size", 65536));
+        long interval = Math.max(50, config.getLong("audit.flush-interval-ms", 1000));
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DNStorage-Audit");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        queryExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DNStorage-Audit-Query");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.execute(this::applyRetention);
+        executor.scheduleWithFixedDelay(this::drain, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Nhật ký có đang bật không
+     */
+    public boolean isEnabled() {
+        return ring != null;
+    }
+
+    /**
+     * Ghi nhận một thay đổi (không chặn, gọi được từ bất kỳ luồng nào)
+     */
+    public void record(UUID playerId, Material material, int delta, ChangeSource source) {
+        Ring ring = this.ring;
+        if (ring != null && !ring.offer(new Entry(System.currentTimeMillis(), playerId, material, delta, source))) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Tìm các thay đổi gần nhất của một người chơi, mới nhất trước. Luồng audit ghi nốt các bản ghi đang chờ
+     * rồi chụp lại danh sách file cùng độ dài hiện tại; việc đọc chạy trên luồng tra cứu và chỉ đọc tới độ
+     * dài đã chụp. Callback được gọi trên main thread.
+     *
+     * @param material Chỉ lấy thay đổi của vật phẩm này (null = mọi vật phẩm)
+     */
+    public void queryAsync(UUID playerId, Material material, int limit, Consumer<List<Entry>> callback) {
+        executor.execute(() -> {
+            drain();
+            List<Snapshot> files = new ArrayList<>();
+            for (File file : listFiles(true)) {
+                files.add(new Snapshot(file, file.length()));
+            }
+            try {
+                queryExecutor.execute(() -> {
+                    List<Entry> result = query(files, playerId, material, limit);
+                    Bukkit.getScheduler().runTask(plugin, () -> callback.accept(result));
+                });
+            } catch (RejectedExecutionException e) {
+                // Plugin đang tắt
+            }
+        });
+    }
+
+    /**
+     * Một file nhật ký và độ dài của nó tại thời điểm tra cứu
+     */
+    private record Snapshot(File file, long length) {
+    }
+
+    /**
+     * Lấy các bản ghi trong buffer và nối vào file (chạy trên luồng audit)
+     */
+    private void drain() {
+        List<Entry> batch = new ArrayList<>(DRAIN_BATCH);
+        try {
+            while (ring.drainTo(batch, DRAIN_BATCH) > 0) {
+                for (Entry entry : batch) {
+                    write(entry);
+                }
+                batch.clear();
+            }
+            if (writer != null) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to write storage audit log", e);
+            closeWriter();
+        }
+
+        long lost = dropped.sumThenReset();
+        if (lost > 0) {
+            plugin.getLogger().warning("Storage audit buffer was full, " + lost + " records were dropped");
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        if (writer == null || entry.time() < dayStart || entry.time() >= dayEnd) {
+            openWriter(entry.time());
+        }
+        writer.write(Long.toString(entry.time()));
+        writer.write('\t');
+        writer.write(entry.playerId().toString());
+        writer.write('\t');
+        writer.write(entry.source().name());
+        writer.write('\t');
+        writer.write(entry.material().name());
+        writer.write('\t');
+        writer.write(Integer.toString(entry.delta()));
+        writer.write('\n');
+    }
+
+    /**
+     * Mở (nối tiếp) file của ngày chứa thời điểm cho trước
+     */
+    private void openWriter(long time) throws IOException {
+        LocalDate date = LocalDate.ofInstant(Instant.ofEpochMilli(time), zone);
+        closeWriter();
+        directory.mkdirs();
+        writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(directory, date + FILE_SUFFIX), true), StandardCharsets.UTF_8),
+                64 * 1024);
+        dayStart = date.atStartOfDay(zone).toInstant().toEpochMilli();
+        dayEnd = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        if (writerDate != null && !date.equals(writerDate)) {
+            applyRetention();
+        }
+        writerDate = date;
+    }
+
+    private void closeWriter() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to close storage audit log", e);
+        }
+        writer = null;
+    }
+
+    /**
+     * Đọc các file từ ngày mới nhất về trước cho đến khi đủ số bản ghi
+     */
+    private List<Entry> query(List<Snapshot> files, UUID playerId, Material material, int limit) {
+        List<Entry> result = new ArrayList<>();
+        String uuid = playerId.toString();
+        for (Snapshot snapshot : files) {
+            File file = snapshot.file();
+            // Chỉ giữ limit bản ghi cuối cùng của mỗi file
+            ArrayDeque<Entry> latest = new ArrayDeque<>(limit);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new Bounded(new FileInputStream(file), snapshot.length()), StandardCharsets.UTF_8), 64 * 1024)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.contains(uuid)) {
+                        continue;
+                    }
+                    Entry entry = parse(line);
+                    if (entry == null || !entry.playerId().equals(playerId)
+                            || (material != null && entry.material() != material)) {
+                        continue;
+                    }
+                    if (latest.size() == limit) {
+                        latest.pollFirst();
+                    }
+                    latest.addLast(entry);
+                }
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to read storage audit log " + file.getName(), e);
+            }
+
+            Iterator<Entry> newestFirst = latest.descendingIterator();
+            while (newestFirst.hasNext() && result.size() < limit) {
+                result.add(newestFirst.next());
+            }
+            if (result.size() >= limit) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Chỉ đọc tới một số byte cho trước, để phần luồng audit ghi thêm sau khi chụp không bị đọc dở dang
+     */
+    private static final class Bounded extends FilterInputStream {
+        private long remaining;
+
+        private Bounded(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+    }
+
+    private static Entry parse(String line) {
+        String[] parts = line.split("\t");
+        if (parts.length != 5) {
+            return null;
+        }
+        try {
+            return new Entry(Long.parseLong(parts[0]), UUID.fromString(parts[1]), Material.valueOf(parts[3]),
+                    Integer.parseInt(parts[4]), ChangeSource.valueOf(parts[2]));
+        } catch (IllegalArgumentException e) {
+            // Dòng bị hỏng hoặc vật phẩm không còn tồn tại
+            return null;
+        }
+    }
+
+    /**
+     * Các file nhật ký, sắp xếp theo ngày (tên file là ngày dạng yyyy-MM-dd)
+     */
+    private List<File> listFiles(boolean newestFirst) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(FILE_SUFFIX));
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        List<File> list = new ArrayList<>(Arrays.asList(files));
+        Comparator<File> byName = Comparator.comparing(File::getName);
+        list.sort(newestFirst ? byName.reversed() : byName);
+        return list;
+    }
+
+    /**
+     * Xóa các file cũ hơn số ngày được giữ
+     */
+    private void applyRetention() {
+        if (retentionDays <= 0) {
+            return;
+        }
+        String oldestKept = LocalDate.now(zone).minusDays(retentionDays) + FILE_SUFFIX;
+        for (File file : listFiles(false)) {
+            if (file.getName().compareTo(oldestKept) >= 0) {
+                break;
+            }
+            if (!file.delete()) {
+                plugin.getLogger().warning("Failed to delete old storage audit log " + file.getName());
+            }
+        }
+    }
+
+    /**
+     * Ghi nốt các bản ghi đang chờ và dừng luồng audit
+     */
+    public void shutdown() {
+        if (executor == null) {
+            return;
+        }
+
+        // Tra cứu đang chạy không còn main thread để trả kết quả nên dừng ngay
+        queryExecutor.shutdownNow();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Luồng audit đã dừng nên có thể lấy nốt buffer trên luồng hiện tại
+        drain();
+        closeWriter();
+        executor = null;
+        queryExecutor = null;
+        ring = null;
+    }
+
+    /**
+     * Ring buffer nhiều luồng ghi, một luồng đọc, không khóa. Luồng ghi giành một vị trí bằng CAS trên tail
+     * rồi mới đặt bản ghi vào ô; luồng đọc dừng ở ô chưa có bản ghi (đã được giành nhưng chưa ghi xong).
+     */
+    private static final class Ring {
+        private final AtomicReferenceArray<Entry> slots;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        // Chỉ luồng đọc ghi vào head
+        private volatile long head;
+
+        private Ring(int capacity) {
+            int size = Integer.highestOneBit(Math.max(1024, capacity - 1)) << 1;
+            slots = new AtomicReferenceArray<>(size);
+            mask = size - 1;
+        }
+
+        private boolean offer(Entry entry) {
+            long seq;
+            do {
+                seq = tail.get();
+                if (seq - head >= slots.length()) {
+                    return false;
+                }
+            } while (!tail.compareAndSet(seq, seq + 1));
+            slots.setRelease((int) seq & mask, entry);
+            return true;
+        }
+
+        private int drainTo(List<Entry> out, int max) {
+            long position = head;
+            int count = 0;
+            while (count < max) {
+                int index = (int) position & mask;
+                Entry entry = slots.getAcquire(index);
+                if (entry == null) {
+                    break;
+                }
+                slots.setPlain(index, null);
+                out.add(entry);
+                position++;
+                count++;
+            }
+            // Ghi volatile: các ô đã được làm trống trước khi luồng ghi thấy head mới
+            head = position;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package org.dnplugins.dNStorage.core;
+
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.dnplugins.dNStorage.core.backend.ItemDefinitionBackend;
+import org.dnplugins.dNStorage.core.backend.StorageException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Sao lưu dữ liệu kho định kỳ: một bản đầy đủ, sau đó là các bản tăng dần chỉ chứa những vật phẩm
+ * đã thay đổi kể từ lần sao lưu trước
+ * <p>
+ * Các thay đổi được ghi nhận ngay sau khi luồng writer commit xuống database nên bản tăng dần luôn
+ * đọc được giá trị đã lưu. File dùng cùng định dạng với {@code /kho admin export}; để khôi phục, nhập
+ * bản đầy đủ rồi lần lượt các bản tăng dần theo thứ tự thời gian bằng {@code /kho admin import}.
+ * Việc sao lưu chạy trên một luồng riêng có độ ưu tiên thấp. Kho đặc biệt được sao lưu cùng cách: bản đầy đủ
+ * chứa toàn bộ, bản tăng dần chứa các dòng đã thay đổi kèm định nghĩa của chúng.
+ */
+public class BackupManager {
+
+    private static final String FULL_SUFFIX = "-full" + StorageTransfer.FILE_EXTENSION;
+    private static final String INCREMENTAL_SUFFIX = "-incr" + StorageTransfer.FILE_EXTENSION;
+
+    private final JavaPlugin plugin;
+    private final DatabaseManager databaseManager;
+    private final File directory;
+    private final int fullEvery;
+    private final int keepFull;
+    private ScheduledExecutorService executor;
+    // Các vật phẩm đã thay đổi kể từ lần sao lưu trước (chỉ truy cập khi giữ lock của this)
+    private Set<ItemKey> changed = new HashSet<>();
+    // Các vật phẩm đặc biệt đã thay đổi kể từ lần sao lưu trước (cùng lock)
+    private Set<SpecialKey> changedSpecial = new HashSet<>();
+    // Số bản tăng dần kể từ bản đầy đủ gần nhất (-1 = cần bản đầy đủ)
+    private int incrementalCount = -1;
+    private final Consumer<List<StorageDelta>> commitListener = this::onCommitted;
+    private final BiConsumer<String, Integer> specialListener = this::onSpecialCommitted;
+
+    private record ItemKey(String playerUuid, String category, String material) {
+    }
+
+    private record SpecialKey(String playerUuid, int definitionId) {
+    }
+
+    /**
+     * Các thay đổi lấy ra cho một bản sao lưu
+     */
+    private record Changes(Set<ItemKey> items, Set<SpecialKey> specials) {
+        private boolean isEmpty() {
+            return items.isEmpty() && specials.isEmpty();
+        }
+    }
+
+    public BackupManager(JavaPlugin plugin, DatabaseManager databaseManager) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        this.directory = new File(plugin.getDataFolder(), "backups");
+
+        FileConfiguration config = plugin.getConfig();
+        this.fullEvery = Math.max(0, config.getInt("backup.full-every", 24));
+        this.keepFull = Math.max(1, config.getInt("backup.keep-full", 3));
+        if (!config.getBoolean("backup.enabled", true)) {
+            return;
+        }
+
+        databaseManager.addCommitListener(commitListener);
+        databaseManager.addSpecialCommitListener(specialListener);
+        long interval = Math.max(1, config.getLong("backup.interval-minutes", 60));
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DNStorage-Backup");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::runBackup, interval, interval, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Ghi nhận các vật phẩm vừa được commit (chạy trên luồng writer)
+     */
+    private synchronized void onCommitted(List<StorageDelta> batch) {
+        for (StorageDelta delta : batch) {
+            if (delta.op() != StorageDelta.Op.AUTO_PICKUP) {
+                changed.add(new ItemKey(delta.playerUuid(), delta.category(), delta.material()));
+            }
+        }
+    }
+
+    /**
+     * Ghi nhận vật phẩm đặc biệt vừa được ghi (chạy trên luồng writer hoặc luồng import)
+     */
+    private synchronized void onSpecialCommitted(String playerUuid, int definitionId) {
+        changedSpecial.add(new SpecialKey(playerUuid, definitionId));
+    }
+
+    /**
+     * Lấy các vật phẩm đã thay đổi; các thay đổi sau thời điểm này thuộc về bản sao lưu tiếp theo
+     */
+    private synchronized Changes drainChanged() {
+        Changes keys = new Changes(changed, changedSpecial);
+        changed = new HashSet<>();
+        changedSpecial = new HashSet<>();
+        return keys;
+    }
+
+    /**
+     * Trả lại các vật phẩm chưa được sao lưu (khi sao lưu lỗi)
+     */
+    private synchronized void restoreChanged(Changes keys) {
+        changed.addAll(keys.items());
+        changedSpecial.addAll(keys.specials());
+    }
+
+    /**
+     * Tạo một bản sao lưu (chạy trên luồng backup)
+     */
+    private void runBackup() {
+        if (!databaseManager.isAvailable()) {
+            // Database đang kết nối hoặc mất kết nối: các thay đổi vẫn được giữ lại cho lần sao lưu sau
+            return;
+        }
+        Changes keys = drainChanged();
+        boolean full = incrementalCount < 0 || (fullEvery > 0 && incrementalCount >= fullEvery);
+        if (!full && keys.isEmpty()) {
+            return;
+        }
+
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        File file = new File(directory, timestamp + (full ? FULL_SUFFIX : INCREMENTAL_SUFFIX));
+        File temp = new File(file.getPath() + ".tmp");
+        long start = System.currentTimeMillis();
+        try {
+            directory.mkdirs();
+            long rows;
+            try (StorageTransfer.ArchiveWriter writer = new StorageTransfer.ArchiveWriter(temp)) {
+                if (full) {
+                    writeFull(writer);
+                } else {
+                    writeIncremental(writer, keys);
+                }
+                writer.finish();
+                rows = writer.getRows();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot rename " + temp.getName());
+            }
+
+            incrementalCount = full ? 0 : incrementalCount + 1;
+            plugin.getLogger().info("Storage backup " + file.getName() + " written (" + rows + " rows, "
+                    + (System.currentTimeMillis() - start) + " ms)");
+            applyRetention();
+        } catch (IOException | StorageException | UncheckedIOException e) {
+            temp.delete();
+            // Giữ lại các thay đổi để lần sau sao lưu tiếp
+            restoreChanged(keys);
+            plugin.getLogger().log(Level.WARNING, "Failed to write storage backup " + file.getName(), e);
+        } catch (RuntimeException e) {
+            temp.delete();
+            restoreChanged(keys);
+            plugin.getLogger().log(Level.SEVERE, "Unexpected error while writing storage backup", e);
+        }
+    }
+
+    /**
+     * Bản đầy đủ: đọc theo luồng toàn bộ database (một câu truy vấn nên là một snapshot nhất quán)
+     */
+    private void writeFull(StorageTransfer.ArchiveWriter writer) throws StorageException, IOException {
+        databaseManager.getBackend().forEachItem((playerUuid, category, material, amount) -> {
+            try {
+                writer.write(playerUuid, category, material, amount);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        if (databaseManager.getBackend() instanceof ItemDefinitionBackend definitions) {
+            writer.writeSpecialItems(definitions);
+        }
+    }
+
+    /**
+     * Bản tăng dần: số lượng hiện tại của các vật phẩm đã thay đổi (0 nếu đã bị xóa)
+     */
+    private void writeIncremental(StorageTransfer.ArchiveWriter writer, Changes keys)
+            throws StorageException, IOException {
+        Map<String, List<ItemKey>> byPlayer = new TreeMap<>();
+        for (ItemKey key : keys.items()) {
+            byPlayer.computeIfAbsent(key.playerUuid(), k -> new ArrayList<>()).add(key);
+        }
+
+        for (Map.Entry<String, List<ItemKey>> player : byPlayer.entrySet()) {
+            Map<String, Map<String, Integer>> profile = databaseManager.getBackend().loadProfile(player.getKey());
+            for (ItemKey key : player.getValue()) {
+                Map<String, Integer> items = profile.get(key.category());
+                int amount = items != null ? items.getOrDefault(key.material(), 0) : 0;
+                writer.write(key.playerUuid(), key.category(), key.material(), amount);
+            }
+        }
+        if (!keys.specials().isEmpty() && databaseManager.getBackend() instanceof ItemDefinitionBackend definitions) {
+            writeIncrementalSpecial(writer, definitions, keys.specials());
+        }
+    }
+
+    /**
+     * Số lượng hiện tại của các vật phẩm đặc biệt đã thay đổi (0 nếu đã bị lấy hết), sau định nghĩa của chúng
+     */
+    private void writeIncrementalSpecial(StorageTransfer.ArchiveWriter writer, ItemDefinitionBackend backend,
+            Set<SpecialKey> keys) throws StorageException, IOException {
+        Map<String, List<Integer>> byPlayer = new TreeMap<>();
+        Set<Integer> ids = new HashSet<>();
+        for (SpecialKey key : keys) {
+            byPlayer.computeIfAbsent(key.playerUuid(), k -> new ArrayList<>()).add(key.definitionId());
+            ids.add(key.definitionId());
+        }
+
+        Map<Integer, byte[]> definitions = backend.loadDefinitions(ids);
+        for (Map.Entry<Integer, byte[]> definition : definitions.entrySet()) {
+            writer.writeDefinition(definition.getKey(), definition.getValue());
+        }
+        for (Map.Entry<String, List<Integer>> player : byPlayer.entrySet()) {
+            Map<Integer, Integer> items = backend.loadSpecialItems(player.getKey());
+            for (int definitionId : player.getValue()) {
+                if (definitions.containsKey(definitionId)) {
+                    writer.writeSpecial(player.getKey(), definitionId, items.getOrDefault(definitionId, 0));
+                }
+            }
+        }
+    }
+
+    /**
+     * Chỉ giữ keepFull bản đầy đủ gần nhất cùng các bản tăng dần đi sau chúng
+     */
+    private void applyRetention() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(FULL_SUFFIX)
+                || name.endsWith(INCREMENTAL_SUFFIX));
+        if (files == null) {
+            return;
+        }
+
+        // Tên file bắt đầu bằng thời điểm nên thứ tự tên cũng là thứ tự thời gian
+        Arrays.sort(files, Comparator.comparing(File::getName));
+        List<File> fulls = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(FULL_SUFFIX)) {
+                fulls.add(file);
+            }
+        }
+        if (fulls.size() <= keepFull) {
+            return;
+        }
+
+        String oldestKept = fulls.get(fulls.size() - keepFull).getName();
+        for (File file : files) {
+            if (file.getName().compareTo(oldestKept) < 0 && !file.delete()) {
+                plugin.getLogger().warning("Failed to delete old storage backup " + file.getName());
+            }
+        }
+    }
+
+    /**
+     * Dừng luồng backup (bản sao lưu đang chạy được để chạy xong)
+     */
+    public void shutdown() {
+        if (executor == null) {
+            return;
+        }
+
+        databaseManager.removeCommitListener(commitListener);
+        databaseManager.removeSpecialCommitListener(specialListener);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Storage backup did not finish in time");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+    }
+}
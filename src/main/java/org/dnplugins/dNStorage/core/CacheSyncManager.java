@@ -0,0 +1,477 @@
+package org.dnplugins.dNStorage.core;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.dnplugins.dNStorage.core.backend.ChangeLogBackend;
+import org.dnplugins.dNStorage.core.backend.StorageException;
+import org.dnplugins.dNStorage.enums.ItemCategory;
+import org.dnplugins.dNStorage.listeners.AutoPickupListener;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Giữ cache nhất quán khi nhiều server dùng chung một database
+ * <p>
+ * Mỗi lô thay đổi được ghi kèm vào bảng change-log (người chơi, danh mục, server). Các server đọc
+ * change-log theo lô và chỉ bỏ cache của những người chơi và danh mục bị server khác thay đổi. Khi
+ * người chơi chuyển sang server này, cache của họ được bỏ và thiết lập được đọc lại trước khi vào.
+ * <p>
+ * Cache và thiết lập auto-pickup của người chơi còn thay đổi chưa được ghi xuống database (hoặc khi database
+ * mất kết nối) không bị đọc lại ngay, vì lúc đó sẽ lấy số lượng cũ và các thay đổi đang chờ bị áp lên sai gốc;
+ * chúng được đọc lại ở lần poll đầu tiên sau khi các thay đổi đó đã được ghi. Hạn mức không cần chờ: lệnh đọc
+ * của {@link QuotaManager} luôn xếp sau các thay đổi đang chờ ghi.
+ * <p>
+ * Khi người chơi chuyển server, server cũ có thể vẫn còn thay đổi chưa ghi của họ. Mỗi server giữ một dấu
+ * (bảng storage_handoff) cho người chơi đang chơi ở đó, và chỉ xóa dấu sau khi người chơi thoát và mọi thay đổi
+ * của họ đã được ghi. Server mới chưa đọc dữ liệu của người chơi từ database chừng nào server khác còn giữ dấu
+ * ({@link DatabaseManager#canLoad}); trong lúc đó người chơi vẫn chơi được như khi database mất kết nối. Dấu được
+ * làm mới định kỳ, dấu không được làm mới quá database.sync.handoff-timeout-seconds (server đã dừng hoặc mất
+ * kết nối) thì không còn được chờ.
+ */
+public class CacheSyncManager implements Listener {
+
+    // Số thay đổi tối đa đọc mỗi lần
+    private static final int POLL_LIMIT = 500;
+    // Id bị thiếu (transaction chưa commit hoặc bị rollback) được chờ bao lâu trước khi đọc tiếp các id sau nó;
+    // sau đó id vẫn được theo dõi riêng cho đến khi xuất hiện hoặc quá thời gian giữ change-log (ms)
+    private static final long GAP_TIMEOUT = 10000;
+    // Số id bị thiếu tối đa được theo dõi riêng
+    private static final int MAX_OPEN_GAPS = 1000;
+    // Change-log được giữ bao lâu trước khi bị xóa (ms)
+    private static final long RETENTION = 10 * 60 * 1000;
+    private static final long PRUNE_INTERVAL = 5 * 60 * 1000;
+    // Chu kỳ làm mới dấu giữ dữ liệu của server này (tick)
+    private static final long HEARTBEAT_TICKS = 30 * 20;
+    // Người chơi qua bước đăng nhập nhưng không vào server được bỏ trạng thái chờ sau thời gian này (ms)
+    private static final long LOGIN_TIMEOUT = 60 * 1000;
+
+    private final JavaPlugin plugin;
+    private final DatabaseManager databaseManager;
+    private final StorageManager storageManager;
+    private final AutoPickupListener autoPickupListener;
+    private final QuotaManager quotaManager;
+    private final ChangeLogBackend changeLog;
+    private final String serverId;
+    private BukkitTask pollTask;
+    private BukkitTask heartbeatTask;
+    private volatile boolean polling;
+    // Dấu của server khác không được làm mới lâu hơn thời gian này thì không còn được chờ (ms)
+    private final long handoffTimeout;
+
+    // Chỉ truy cập trên luồng poll: mọi id <= floorId đã được xử lý,
+    // seenAbove là các id > floorId đã xử lý (chờ các id còn thiếu)
+    private long floorId;
+    private final TreeSet<Long> seenAbove = new TreeSet<>();
+    private long gapSince;
+    private long lastPrune;
+    // Chỉ truy cập trên luồng poll: id bị thiếu đã bị vượt qua -> thời điểm bắt đầu theo dõi
+    private final TreeMap<Long, Long> openGaps = new TreeMap<>();
+    // Chỉ truy cập trên main thread: dữ liệu cần đọc lại nhưng người chơi còn thay đổi chưa ghi
+    private final Map<UUID, Deferred> deferred = new HashMap<>();
+    private volatile boolean hasDeferred;
+    // Người chơi đã thoát, dấu của server này được xóa khi mọi thay đổi của họ đã được ghi
+    private final Set<UUID> releasing = ConcurrentHashMap.newKeySet();
+    // Dấu chưa xóa được (database lỗi) -> thời điểm xóa, được thử lại ở lần làm mới sau
+    private final Map<UUID, Long> unreleased = new ConcurrentHashMap<>();
+    // Người chơi đang chờ server khác -> thời điểm đăng nhập
+    private final Map<UUID, Long> handoffSince = new ConcurrentHashMap<>();
+
+    /**
+     * Dữ liệu của một người chơi đang chờ được đọc lại
+     */
+    private static final class Deferred {
+        private final Set<ItemCategory.Category> categories = new HashSet<>();
+        // Thiết lập auto-pickup
+        private boolean settings;
+    }
+
+    public CacheSyncManager(JavaPlugin plugin, DatabaseManager databaseManager, StorageManager storageManager,
+            AutoPickupListener autoPickupListener, QuotaManager quotaManager) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        this.storageManager = storageManager;
+        this.autoPickupListener = autoPickupListener;
+        this.quotaManager = quotaManager;
+        this.serverId = databaseManager.getServerId();
+        this.changeLog = serverId != null ? (ChangeLogBackend) databaseManager.getBackend() : null;
+        this.handoffTimeout = Math.max(30,
+                plugin.getConfig().getLong("database.sync.handoff-timeout-seconds", 120)) * 1000;
+        if (changeLog == null) {
+            return;
+        }
+
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+
+        // Vị trí change-log và các dấu còn lại từ lần chạy trước được đọc khi database đã kết nối xong, sau đó
+        // mới bắt đầu đọc thay đổi
+        long interval = Math.max(1, plugin.getConfig().getLong("database.sync.poll-interval-ticks", 20));
+        databaseManager.runAsync(() -> {
+            List<String> claimed = Collections.emptyList();
+            try {
+                floorId = changeLog.getLatestChangeId();
+                claimed = changeLog.getClaimedPlayers();
+            } catch (StorageException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to read storage change-log position", e);
+            }
+            List<String> previous = claimed;
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                releasePrevious(previous);
+                pollTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::poll, interval, interval);
+                heartbeatTask = Bukkit.getScheduler().runTaskTimer(plugin, this::heartbeat, HEARTBEAT_TICKS,
+                        HEARTBEAT_TICKS);
+            });
+        });
+        plugin.getLogger().info("Cross-server cache sync enabled (server id " + serverId + ")");
+    }
+
+    /**
+     * Đọc change-log và bỏ cache của các người chơi bị server khác thay đổi (chạy trên luồng async)
+     */
+    private void poll() {
+        if (polling) {
+            return;
+        }
+        polling = true;
+
+        try {
+            Map<UUID, Set<String>> touched = new HashMap<>();
+            List<ChangeLogBackend.Change> changes = changeLog.pollChanges(floorId, POLL_LIMIT);
+            for (ChangeLogBackend.Change change : changes) {
+                if (change.id() <= floorId || !seenAbove.add(change.id())) {
+                    continue;
+                }
+                collect(touched, change);
+            }
+            advanceFloor();
+
+            long now = System.currentTimeMillis();
+            if (!openGaps.isEmpty()) {
+                // Transaction commit muộn: id của nó nhỏ hơn floorId nên chỉ đọc được theo id
+                for (ChangeLogBackend.Change change : changeLog.loadChanges(openGaps.keySet())) {
+                    if (openGaps.remove(change.id()) != null) {
+                        collect(touched, change);
+                    }
+                }
+                openGaps.values().removeIf(since -> now - since > RETENTION);
+            }
+
+            if (!touched.isEmpty()) {
+                apply(touched);
+            } else if (hasDeferred) {
+                Bukkit.getScheduler().runTask(plugin, this::invalidateDeferred);
+            }
+
+            for (UUID playerId : new ArrayList<>(databaseManager.getHandoffPending())) {
+                if (claim(playerId)) {
+                    Bukkit.getScheduler().runTask(plugin, () -> handedOff(playerId));
+                }
+            }
+
+            if (now - lastPrune >= PRUNE_INTERVAL) {
+                lastPrune = now;
+                changeLog.pruneChanges(now - RETENTION);
+            }
+        } catch (StorageException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to poll storage change-log", e);
+        } finally {
+            polling = false;
+        }
+    }
+
+    /**
+     * Ghi nhận một thay đổi của server khác
+     */
+    private void collect(Map<UUID, Set<String>> touched, ChangeLogBackend.Change change) {
+        if (serverId.equals(change.serverId())) {
+            return;
+        }
+        try {
+            touched.computeIfAbsent(UUID.fromString(change.playerUuid()), k -> new HashSet<>())
+                    .add(change.category());
+        } catch (IllegalArgumentException ignored) {
+            // UUID không hợp lệ
+        }
+    }
+
+    /**
+     * Tăng floorId qua các id liên tiếp đã xử lý. Nếu một id bị thiếu quá lâu (transaction chậm hoặc bị
+     * rollback, auto-increment nhảy cóc) thì đọc tiếp các id sau nó và theo dõi riêng id còn thiếu.
+     */
+    private void advanceFloor() {
+        while (!seenAbove.isEmpty() && seenAbove.first() == floorId + 1) {
+            floorId = seenAbove.pollFirst();
+        }
+        if (seenAbove.isEmpty()) {
+            gapSince = 0;
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (gapSince == 0) {
+            gapSince = now;
+        } else if (now - gapSince > GAP_TIMEOUT) {
+            long next = seenAbove.first();
+            for (long id = floorId + 1; id < next && openGaps.size() < MAX_OPEN_GAPS; id++) {
+                openGaps.put(id, now);
+            }
+            floorId = next - 1;
+            gapSince = 0;
+            advanceFloor();
+        }
+    }
+
+    /**
+     * Làm mới dữ liệu của các người chơi bị thay đổi (chạy trên luồng async)
+     */
+    private void apply(Map<UUID, Set<String>> touched) {
+        Bukkit.getScheduler().runTask(plugin, () -> {
+            for (Map.Entry<UUID, Set<String>> entry : touched.entrySet()) {
+                UUID playerId = entry.getKey();
+                Deferred pending = deferred.computeIfAbsent(playerId, k -> new Deferred());
+                for (String name : entry.getValue()) {
+                    if (name.isEmpty()) {
+                        pending.settings = true;
+                        continue;
+                    }
+                    try {
+                        pending.categories.add(ItemCategory.Category.valueOf(name));
+                    } catch (IllegalArgumentException ignored) {
+                        // Danh mục không có trên server này
+                    }
+                }
+                if (!pending.categories.isEmpty()) {
+                    // Lệnh đọc hạn mức xếp sau các thay đổi đang chờ ghi nên không cần chờ chúng
+                    quotaManager.refreshUsage(playerId);
+                }
+            }
+            invalidateDeferred();
+        });
+    }
+
+    /**
+     * Đọc lại dữ liệu bị server khác thay đổi nếu đọc lại được ngay (chạy trên main thread), giữ lại những
+     * người chơi còn thay đổi chưa ghi cho lần poll sau
+     */
+    private void invalidateDeferred() {
+        Iterator<Map.Entry<UUID, Deferred>> iterator = deferred.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, Deferred> entry = iterator.next();
+            UUID playerId = entry.getKey();
+            if (!canReload(playerId)) {
+                continue;
+            }
+            storageManager.invalidateCategories(playerId, entry.getValue().categories);
+            if (entry.getValue().settings) {
+                refreshSettingsAsync(playerId);
+            }
+            iterator.remove();
+        }
+        hasDeferred = !deferred.isEmpty();
+    }
+
+    /**
+     * Đọc lại thiết lập auto-pickup ở nền, hoặc để lần poll sau nếu chưa đọc được
+     */
+    private void refreshSettingsAsync(UUID playerId) {
+        databaseManager.runAsync(() -> {
+            if (!autoPickupListener.refreshAutoPickup(playerId)) {
+                deferSettings(playerId);
+            }
+        });
+    }
+
+    private void deferSettings(UUID playerId) {
+        Bukkit.getScheduler().runTask(plugin, () -> {
+            deferred.computeIfAbsent(playerId, k -> new Deferred()).settings = true;
+            hasDeferred = true;
+        });
+    }
+
+    /**
+     * Cache của người chơi có thể được đọc lại từ database mà không mất thay đổi nào của server này hay của
+     * server người chơi vừa rời đi
+     */
+    private boolean canReload(UUID playerId) {
+        return databaseManager.canLoad(playerId) && !databaseManager.hasUnwrittenChanges(playerId);
+    }
+
+    /**
+     * Giữ dữ liệu của người chơi cho server này
+     *
+     * @return true nếu đã giữ được và không server nào khác còn giữ (chạy trên luồng async)
+     */
+    private boolean claim(UUID playerId) {
+        if (!databaseManager.isAvailable()) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            changeLog.claimPlayer(playerId.toString(), now);
+            return !changeLog.isClaimedElsewhere(playerId.toString(), now - handoffTimeout);
+        } catch (StorageException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to claim storage of " + playerId, e);
+            return false;
+        }
+    }
+
+    /**
+     * Server cũ đã ghi xong dữ liệu của người chơi: đọc lại toàn bộ (chạy trên main thread). Cache lúc này chỉ
+     * chứa những gì người chơi thêm vào trong lúc chờ; nếu chúng chưa được ghi thì việc đọc lại chờ đến khi ghi.
+     */
+    private void handedOff(UUID playerId) {
+        handoffSince.remove(playerId);
+        if (!databaseManager.setHandoffPending(playerId, false) || Bukkit.getPlayer(playerId) == null) {
+            return;
+        }
+        Deferred pending = deferred.computeIfAbsent(playerId, k -> new Deferred());
+        pending.categories.addAll(Arrays.asList(ItemCategory.Category.values()));
+        pending.settings = true;
+        quotaManager.refreshUsage(playerId);
+        invalidateDeferred();
+    }
+
+    /**
+     * Xóa dấu của server này cho người chơi đã thoát, sau khi mọi thay đổi của họ đã được ghi
+     * (chạy trên main thread)
+     */
+    private void release(UUID playerId) {
+        if (Bukkit.getPlayer(playerId) != null || !releasing.remove(playerId)) {
+            // Người chơi đã vào lại server này
+            return;
+        }
+        long now = System.currentTimeMillis();
+        databaseManager.runAsync(() -> {
+            try {
+                changeLog.releasePlayer(playerId.toString(), now);
+            } catch (StorageException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to release storage claim of " + playerId, e);
+                unreleased.putIfAbsent(playerId, now);
+            }
+        });
+    }
+
+    /**
+     * Xóa các dấu còn lại từ lần chạy trước (server-id cố định), sau khi các thay đổi từ journal được ghi
+     */
+    private void releasePrevious(List<String> claimed) {
+        for (String uuid : claimed) {
+            UUID playerId;
+            try {
+                playerId = UUID.fromString(uuid);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (Bukkit.getPlayer(playerId) == null) {
+                releasing.add(playerId);
+                databaseManager.whenWritten(playerId, () -> release(playerId));
+            }
+        }
+    }
+
+    /**
+     * Làm mới dấu của những người chơi đang online hoặc còn thay đổi chưa ghi, xóa các dấu cũ của server này
+     * (chạy trên main thread, truy vấn ở nền)
+     */
+    private void heartbeat() {
+        long now = System.currentTimeMillis();
+        List<String> claims = new ArrayList<>();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            claims.add(player.getUniqueId().toString());
+        }
+        releasing.forEach(playerId -> claims.add(playerId.toString()));
+        // Đăng nhập nhưng không vào được server
+        handoffSince.entrySet().removeIf(entry -> now - entry.getValue() > LOGIN_TIMEOUT
+                && Bukkit.getPlayer(entry.getKey()) == null
+                && databaseManager.setHandoffPending(entry.getKey(), false));
+        if (!databaseManager.isAvailable()) {
+            return;
+        }
+
+        Map<UUID, Long> retry = new HashMap<>(unreleased);
+        unreleased.keySet().removeAll(retry.keySet());
+        databaseManager.runAsync(() -> {
+            try {
+                changeLog.refreshClaims(claims, now);
+                changeLog.releaseStaleClaims(now - handoffTimeout);
+                for (Map.Entry<UUID, Long> entry : retry.entrySet()) {
+                    changeLog.releasePlayer(entry.getKey().toString(), entry.getValue());
+                }
+            } catch (StorageException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to refresh storage claims", e);
+                retry.forEach(unreleased::putIfAbsent);
+            }
+        });
+    }
+
+    /**
+     * Giữ dữ liệu của người chơi cho server này trước khi họ vào server, rồi đọc lại thiết lập (có thể vừa chơi
+     * ở server khác). Nếu server khác còn giữ dữ liệu của họ thì dữ liệu chưa được đọc cho đến khi server đó ghi
+     * xong. Chạy trước các listener MONITOR chỉ tải dữ liệu khi chưa có. Hạn mức luôn được đọc lại khi vào server.
+     */
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        UUID playerId = event.getUniqueId();
+        // Người chơi vào lại trước khi dấu cũ của server này được xóa: giữ dấu
+        releasing.remove(playerId);
+        unreleased.remove(playerId);
+        if (!claim(playerId)) {
+            handoffSince.put(playerId, System.currentTimeMillis());
+            databaseManager.setHandoffPending(playerId, true);
+            return;
+        }
+        if (!autoPickupListener.refreshAutoPickup(playerId)) {
+            // Server này còn thay đổi chưa ghi của họ: đọc lại sau khi chúng được ghi
+            deferSettings(playerId);
+        }
+    }
+
+    /**
+     * Bỏ cache của người chơi khi vào server để kho được đọc lại từ database. Cache được giữ nếu server này
+     * còn thay đổi chưa ghi của họ hoặc database mất kết nối (thay đổi từ server khác vẫn đến qua change-log);
+     * người chơi đang chờ server khác thì cache cũ luôn bị bỏ (trừ khi còn thay đổi chưa ghi).
+     */
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        UUID playerId = event.getPlayer().getUniqueId();
+        boolean pending = databaseManager.getHandoffPending().contains(playerId);
+        if (!databaseManager.hasUnwrittenChanges(playerId) && (pending || databaseManager.isAvailable())) {
+            storageManager.clearCache(playerId);
+        }
+    }
+
+    /**
+     * Xóa dấu của server này sau khi mọi thay đổi của người chơi đã được ghi
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        UUID playerId = event.getPlayer().getUniqueId();
+        handoffSince.remove(playerId);
+        databaseManager.setHandoffPending(playerId, false);
+        releasing.add(playerId);
+        databaseManager.whenWritten(playerId, () -> release(playerId));
+    }
+
+    /**
+     * Dừng đọc change-log
+     */
+    public void shutdown() {
+        if (pollTask != null) {
+            pollTask.cancel();
+            pollTask = null;
+        }
+        if (heartbeatTask != null) {
+            heartbeatTask.cancel();
+            heartbeatTask = null;
+        }
+    }
+}
@@ -2,33 +2,212 @@ package org.dnplugins.dNStorage.core;
 
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.plugin.IllegalPluginAccessException;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.dnplugins.dNStorage.core.backend.*;
 
-import java.sql.*;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 
 /**
  * Quản lý kết nối và thao tác với database
+ * <p>
+ * Việc lưu trữ thực tế do {@link StorageBackend} đảm nhận; lớp này lo phần hàng đợi ghi,
+ * journal và chạy các thao tác ngoài main thread.
  */
 public class DatabaseManager {
 
+    // Số thay đổi tối đa được gộp vào một transaction
+    private static final int MAX_WRITE_BATCH = 512;
+    // Thời gian chờ tối đa giữa các lần thử kết nối lại khi ghi (ms)
+    private static final long MAX_WRITE_BACKOFF = 30000;
+
+    /**
+     * Trạng thái kết nối database
+     */
+    public enum State {
+        /** Đang kết nối và tạo schema lần đầu (các thay đổi được giữ trong journal/hàng đợi ghi) */
+        CONNECTING,
+        /** Đã sẵn sàng */
+        READY,
+        /**
+         * Mất kết nối sau khi đã sẵn sàng (circuit breaker mở): thay đổi được giữ trong journal/hàng đợi ghi và
+         * được ghi lại theo đúng thứ tự khi kết nối phục hồi, các thao tác đọc chỉ dùng cache
+         */
+        UNAVAILABLE
+    }
+
     private final JavaPlugin plugin;
     private final LanguageManager languageManager;
-    private Connection connection;
     private DatabaseType databaseType;
+    private StorageBackend backend;
+    private volatile boolean closed;
+    private volatile State state = State.CONNECTING;
+    // Được mở khi database sẵn sàng (hoặc khi plugin tắt trước đó)
+    private final CountDownLatch readyLatch = new CountDownLatch(1);
+    private Thread connectThread;
+    // Hàng đợi ghi tuần tự, chỉ được xử lý bởi một luồng writer duy nhất. Mỗi phần tử là một nhóm thay đổi
+    // luôn được ghi trong cùng một transaction (thường chỉ có một thay đổi), hoặc một thao tác ghi trực tiếp.
+    private final BlockingQueue<WriteGroup> writeQueue = new LinkedBlockingQueue<>();
+    private Thread writerThread;
+    private volatile boolean running;
+    // Được mở khi plugin tắt: đánh thức luồng writer đang chờ giữa hai lần thử ghi lại
+    private final CountDownLatch stopSignal = new CountDownLatch(1);
+    // Callback của các thao tác ghi trực tiếp chờ chạy trên main thread. Task của scheduler có thể bị hủy khi
+    // plugin tắt nên callback nằm ở đây cho đến khi chạy, phần còn lại được chạy trong closeConnection.
+    private final Queue<Runnable> mainThreadCallbacks = new ConcurrentLinkedQueue<>();
+    // Journal trên đĩa để không mất thay đổi khi server crash hoặc mất kết nối database
+    private StorageJournal journal;
+    // Đảm bảo chỉ một luồng ghi vào backend tại một thời điểm (writer và import)
+    private final Object writeLock = new Object();
+    // Số thay đổi chưa được ghi xuống database theo người chơi: cache của họ đang mới hơn database
+    private final Map<String, Integer> unwrittenByPlayer = new ConcurrentHashMap<>();
+    // Người chơi mà server khác có thể vẫn còn thay đổi chưa ghi (vừa chuyển server): chưa được đọc từ database
+    private final Set<UUID> handoffPending = ConcurrentHashMap.newKeySet();
+    // Callback chờ đến khi người chơi không còn thay đổi chưa ghi (xem whenWritten)
+    private final Map<String, List<Runnable>> writtenCallbacks = new ConcurrentHashMap<>();
+    // Chạy trên main thread mỗi khi database sẵn sàng (kết nối lần đầu hoặc phục hồi sau khi mất kết nối)
+    private final List<Runnable> readyListeners = new CopyOnWriteArrayList<>();
+    // Nhận các lô thay đổi đã được commit (chạy trên luồng ghi trong writeLock, phải thật nhanh)
+    private final List<Consumer<List<StorageDelta>>> commitListeners = new CopyOnWriteArrayList<>();
+    // Nhận (UUID, id định nghĩa) của vật phẩm đặc biệt vừa được ghi (chạy trong writeLock, phải thật nhanh)
+    private final List<BiConsumer<String, Integer>> specialListeners = new CopyOnWriteArrayList<>();
+    // Định danh server khi nhiều server dùng chung database (null nếu không đồng bộ)
+    private String serverId;
+    // Bộ đếm xung đột khi ghi và tình trạng kết nối
+    private final StorageMetrics metrics = new StorageMetrics();
+    // Chế độ virtual: mỗi thao tác đọc chạy trên một virtual thread (null = dùng async pool của Bukkit)
+    private ExecutorService readExecutor;
+    // Giới hạn số thao tác đọc đồng thời ở chế độ virtual; kết nối được mượn từ pool đọc của backend
+    // (database.read-connections), thao tác vượt quá số kết nối chờ trên Semaphore của pool đó
+    private Semaphore readPermits;
+
+    /**
+     * Phần tử của hàng đợi ghi
+     *
+     * @param changes Các thay đổi ghi trong cùng một transaction (rỗng nếu là thao tác ghi trực tiếp)
+     * @param task    Thao tác ghi trực tiếp lên backend (null nếu là nhóm thay đổi)
+     * @param abort   Báo thất bại cho nơi gọi khi thao tác không bao giờ được chạy (plugin tắt trước đó)
+     */
+    private record WriteGroup(List<StorageDelta> changes, Runnable task, Runnable abort) {
+
+        WriteGroup(List<StorageDelta> changes) {
+            this(changes, null, null);
+        }
+    }
 
     public enum DatabaseType {
         SQLITE,
-        MYSQL
+        MYSQL,
+        MVSTORE,
+        MEMORY
     }
 
     public DatabaseManager(JavaPlugin plugin, LanguageManager languageManager) {
         this.plugin = plugin;
         this.languageManager = languageManager;
         loadDatabaseConfig();
-        initializeDatabase();
+        backend = createBackend();
+        enableSync();
+        openJournal();
+        startWriter();
+        createReadExecutor();
+        connectAsync();
+    }
+
+    /**
+     * Tạo executor cho các thao tác đọc blocking theo database.executor.mode
+     */
+    private void createReadExecutor() {
+        FileConfiguration config = plugin.getConfig();
+        if (!config.getString("database.executor.mode", "platform").equalsIgnoreCase("virtual")) {
+            return;
+        }
+
+        int maxConcurrent = Math.max(1, config.getInt("database.executor.max-concurrent", 16));
+        readPermits = new Semaphore(maxConcurrent);
+        readExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("DNStorage-DB-Read-", 0)
+                .factory());
+        plugin.getLogger().info("Database reads run on virtual threads (max " + maxConcurrent + " concurrent)");
+    }
+
+    /**
+     * Chạy một thao tác database blocking ngoài main thread: trên một virtual thread riêng (chờ đến lượt nếu
+     * đã đủ số thao tác đồng thời) hoặc trên async pool của Bukkit, tùy database.executor.mode. Khi database
+     * còn đang kết nối, thao tác chờ đến khi sẵn sàng (bị bỏ qua nếu plugin tắt trước đó). Khi database đang
+     * mất kết nối thao tác vẫn chạy và sẽ nhận lỗi từ backend; nơi gọi nên kiểm tra {@link #isAvailable()}
+     * trước để báo lỗi ngay thay vì chờ timeout.
+     */
+    public void runAsync(Runnable task) {
+        ExecutorService executor = readExecutor;
+        if (executor == null) {
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+                if (awaitReady()) {
+                    task.run();
+                }
+            });
+            return;
+        }
+
+        executor.execute(() -> {
+            if (!awaitReady()) {
+                return;
+            }
+            try {
+                readPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                plugin.getLogger().log(Level.SEVERE, "Unhandled error in database task", e);
+            } finally {
+                readPermits.release();
+            }
+        });
+    }
+
+    /**
+     * Chế độ chạy thao tác đọc đang dùng (database.executor.mode)
+     */
+    public String getReadMode() {
+        return readExecutor != null ? "virtual" : "platform";
+    }
+
+    /**
+     * Chờ các thao tác đọc đang chạy trên virtual thread kết thúc
+     */
+    private void stopReadExecutor() {
+        if (readExecutor == null) {
+            return;
+        }
+
+        readExecutor.shutdown();
+        try {
+            if (!readExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                readExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        readExecutor = null;
     }
 
     /**
@@ -38,599 +217,879 @@ public class DatabaseManager {
         FileConfiguration config = plugin.getConfig();
         String type = config.getString("database.type", "sqlite").toLowerCase();
 
-        if (type.equals("mysql")) {
-            databaseType = DatabaseType.MYSQL;
-        } else {
-            databaseType = DatabaseType.SQLITE;
+        switch (type) {
+            case "mysql" -> databaseType = DatabaseType.MYSQL;
+            case "mvstore" -> databaseType = DatabaseType.MVSTORE;
+            case "memory" -> databaseType = DatabaseType.MEMORY;
+            default -> databaseType = DatabaseType.SQLITE;
         }
     }
 
     /**
-     * Khởi tạo kết nối database
+     * Tạo backend theo loại database
      */
-    private void initializeDatabase() {
-        try {
-            if (databaseType == DatabaseType.MYSQL) {
-                connectMySQL();
-            } else {
-                connectSQLite();
+    private StorageBackend createBackend() {
+        return switch (databaseType) {
+            case MYSQL -> new MySQLStorageBackend(plugin, languageManager, metrics);
+            case MVSTORE -> new MVStoreStorageBackend(new File(plugin.getDataFolder(), "storage.mvstore"), metrics);
+            case MEMORY -> new MemoryStorageBackend(metrics);
+            case SQLITE -> new H2StorageBackend(plugin, languageManager, metrics);
+        };
+    }
+
+    /**
+     * Kết nối database và tạo schema trên một luồng riêng để không chặn việc khởi động server. Khi thất bại,
+     * thử lại với thời gian chờ tăng gấp đôi sau mỗi lần, tối đa database.connect.max-backoff-ms.
+     */
+    private void connectAsync() {
+        FileConfiguration config = plugin.getConfig();
+        long initialBackoff = Math.max(100, config.getLong("database.connect.initial-backoff-ms", 1000));
+        long maxBackoff = Math.max(initialBackoff, config.getLong("database.connect.max-backoff-ms", 30000));
+
+        connectThread = new Thread(() -> connect(initialBackoff, maxBackoff), "DNStorage-DB-Connect");
+        connectThread.setDaemon(true);
+        connectThread.start();
+    }
+
+    private void connect(long initialBackoff, long maxBackoff) {
+        long start = System.currentTimeMillis();
+        long backoff = initialBackoff;
+        for (int attempt = 1; !closed; attempt++) {
+            try {
+                backend.open();
+                state = State.READY;
+                readyLatch.countDown();
+                plugin.getLogger().info(languageManager.getMessage("database.connected") + " ("
+                        + (System.currentTimeMillis() - start) + " ms)");
+                fireReady();
+                return;
+            } catch (StorageException | RuntimeException e) {
+                if (attempt == 1) {
+                    plugin.getLogger().log(Level.SEVERE, languageManager.getMessage("database.connection_failed"), e);
+                } else {
+                    plugin.getLogger().warning(languageManager.getMessage("database.connection_failed") + " ("
+                            + e.getMessage() + ")");
+                }
+                plugin.getLogger().info("Retrying database connection in " + backoff + " ms (attempt "
+                        + (attempt + 1) + ")");
             }
 
-            createTables();
-            plugin.getLogger().info(languageManager.getMessage("database.connected"));
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, languageManager.getMessage("database.connection_failed"), e);
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(backoff * 2, maxBackoff);
         }
     }
 
     /**
-     * Kết nối MySQL
+     * Chờ database sẵn sàng
+     *
+     * @return false nếu plugin tắt trước khi database sẵn sàng
      */
-    private void connectMySQL() throws SQLException {
+    private boolean awaitReady() {
         try {
-            // Load MySQL driver class
-            Class.forName("com.mysql.cj.jdbc.Driver");
-        } catch (ClassNotFoundException e) {
-            plugin.getLogger().log(Level.SEVERE,
-                    languageManager.getMessage("database.driver_not_found").replace("{driver}", "MySQL"), e);
-            throw new SQLException("MySQL Driver not found", e);
+            readyLatch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
+        return state != State.CONNECTING && !closed;
+    }
 
-        FileConfiguration config = plugin.getConfig();
+    /**
+     * Trạng thái kết nối database
+     */
+    public State getState() {
+        return state;
+    }
 
-        String host = config.getString("database.mysql.host", "localhost");
-        int port = config.getInt("database.mysql.port", 3306);
-        String database = config.getString("database.mysql.database", "dnstorage");
-        String username = config.getString("database.mysql.username", "root");
-        String password = config.getString("database.mysql.password", "");
+    /**
+     * Database đã kết nối xong lần đầu (schema đã có). Kho vẫn dùng được khi database tạm mất kết nối sau đó:
+     * thay đổi được giữ trong journal và dữ liệu đã tải được đọc từ cache.
+     */
+    public boolean isReady() {
+        return state != State.CONNECTING;
+    }
 
-        String url = String.format("jdbc:mysql://%s:%d/%s?useSSL=false&allowPublicKeyRetrieval=true",
-                host, port, database);
+    /**
+     * Database đang kết nối được (circuit breaker đóng): có thể đọc những dữ liệu chưa có trong cache
+     */
+    public boolean isAvailable() {
+        return state == State.READY;
+    }
 
-        connection = DriverManager.getConnection(url, username, password);
+    /**
+     * Có thể đọc dữ liệu của người chơi từ database: database sẵn sàng và không server nào khác còn giữ dữ liệu
+     * chưa ghi của họ. Khi không đọc được, dữ liệu của người chơi chỉ được phục vụ từ cache như lúc mất kết nối.
+     */
+    public boolean canLoad(UUID playerId) {
+        return isAvailable() && !handoffPending.contains(playerId);
     }
 
     /**
-     * Kết nối SQLite
+     * Đánh dấu/bỏ đánh dấu người chơi đang chờ server khác ghi xong dữ liệu của họ (xem {@link CacheSyncManager})
+     *
+     * @return true nếu trạng thái thay đổi
      */
-    private void connectSQLite() throws SQLException {
-        try {
-            // Load H2 driver class
-            Class.forName("org.h2.Driver");
-        } catch (ClassNotFoundException e) {
-            plugin.getLogger().log(Level.SEVERE,
-                    languageManager.getMessage("database.driver_not_found").replace("{driver}", "H2"), e);
-            throw new SQLException("H2 Driver not found", e);
-        }
-
-        String url = "jdbc:h2:file:" + plugin.getDataFolder().getAbsolutePath() +
-                "/storage;MODE=MySQL;DATABASE_TO_LOWER=TRUE";
-        connection = DriverManager.getConnection(url);
-    }
-
-    /**
-     * Tạo bảng trong database
-     */
-    private void createTables() throws SQLException {
-        String createTableSQL;
-
-        if (databaseType == DatabaseType.MYSQL) {
-            createTableSQL = "CREATE TABLE IF NOT EXISTS storage_items (" +
-                    "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
-                    "player_uuid VARCHAR(36) NOT NULL, " +
-                    "category VARCHAR(20) NOT NULL, " +
-                    "material VARCHAR(100) NOT NULL, " +
-                    "amount INT NOT NULL DEFAULT 0, " +
-                    "UNIQUE KEY unique_storage (player_uuid, category, material), " +
-                    "INDEX idx_player (player_uuid), " +
-                    "INDEX idx_category (category)" +
-                    ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
-        } else {
-            // SQLite/H2 syntax
-            createTableSQL = "CREATE TABLE IF NOT EXISTS storage_items (" +
-                    "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
-                    "player_uuid VARCHAR(36) NOT NULL, " +
-                    "category VARCHAR(20) NOT NULL, " +
-                    "material VARCHAR(100) NOT NULL, " +
-                    "amount INT NOT NULL DEFAULT 0, " +
-                    "UNIQUE (player_uuid, category, material)" +
-                    ")";
-        }
-
-        try (Statement statement = connection.createStatement()) {
-            statement.execute(createTableSQL);
-
-            // Tạo index cho SQLite
-            if (databaseType == DatabaseType.SQLITE) {
-                try {
-                    statement.execute("CREATE INDEX IF NOT EXISTS idx_player ON storage_items(player_uuid)");
-                    statement.execute("CREATE INDEX IF NOT EXISTS idx_category ON storage_items(category)");
-                } catch (SQLException e) {
-                    // Index có thể đã tồn tại
-                }
-            }
-        }
+    public boolean setHandoffPending(UUID playerId, boolean pending) {
+        return pending ? handoffPending.add(playerId) : handoffPending.remove(playerId);
+    }
 
-        // Tạo bảng player_settings để lưu trạng thái auto-pickup
-        createPlayerSettingsTable();
+    /**
+     * Người chơi đang chờ server khác ghi xong dữ liệu của họ
+     */
+    public Set<UUID> getHandoffPending() {
+        return Collections.unmodifiableSet(handoffPending);
     }
 
     /**
-     * Lấy kết nối database
+     * Bật change-log khi nhiều server dùng chung database (trước khi luồng writer ghi lô đầu tiên)
      */
-    public Connection getConnection() {
-        try {
-            if (connection == null || connection.isClosed()) {
-                if (databaseType == DatabaseType.MYSQL) {
-                    connectMySQL();
-                } else {
-                    connectSQLite();
-                }
-            }
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, languageManager.getMessage("database.reconnect_failed"), e);
-            return null;
+    private void enableSync() {
+        FileConfiguration config = plugin.getConfig();
+        if (!config.getBoolean("database.sync.enabled", false)) {
+            return;
+        }
+        if (!(backend instanceof ChangeLogBackend changeLog)) {
+            plugin.getLogger().warning("database.sync is not supported by the " + backend.getName()
+                    + " backend, ignoring");
+            return;
         }
 
-        if (connection == null) {
-            plugin.getLogger().severe(languageManager.getMessage("database.connection_null"));
+        serverId = config.getString("database.sync.server-id", "");
+        if (serverId == null || serverId.isEmpty()) {
+            serverId = UUID.randomUUID().toString();
+        } else if (serverId.length() > 36) {
+            // Cột server_id chỉ có 36 ký tự
+            serverId = serverId.substring(0, 36);
         }
+        changeLog.enableChangeLog(serverId);
+    }
 
-        return connection;
+    /**
+     * Định danh server trong change-log
+     *
+     * @return null nếu không đồng bộ với server khác
+     */
+    public String getServerId() {
+        return serverId;
     }
 
     /**
-     * Thêm hoặc cập nhật vật phẩm trong database (Async)
+     * Lấy backend lưu trữ (các thao tác đều blocking, không gọi trên main thread)
      */
-    public void upsertItem(String playerUuid, String category, String material, int amount) {
-        // Chạy async để không block main thread
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            upsertItemSync(playerUuid, category, material, amount);
-        });
+    public StorageBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Lấy bộ đếm của tầng lưu trữ
+     */
+    public StorageMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Lấy loại database đang dùng
+     */
+    public DatabaseType getDatabaseType() {
+        return databaseType;
     }
 
     /**
-     * Thêm hoặc cập nhật vật phẩm trong database (Synchronous - internal use)
+     * Mở journal và đưa các thay đổi chưa được commit từ lần chạy trước vào hàng đợi ghi
      */
-    private void upsertItemSync(String playerUuid, String category, String material, int amount) {
-        Connection conn = getConnection();
-        if (conn == null) {
-            plugin.getLogger().warning(languageManager.getMessage("database.cannot_add_item"));
+    private void openJournal() {
+        FileConfiguration config = plugin.getConfig();
+        if (!config.getBoolean("journal.enabled", true)) {
             return;
         }
 
-        if (databaseType == DatabaseType.MYSQL) {
-            String sql = "INSERT INTO storage_items (player_uuid, category, material, amount) " +
-                    "VALUES (?, ?, ?, ?) " +
-                    "ON DUPLICATE KEY UPDATE amount = amount + ?";
-
-            try (PreparedStatement statement = conn.prepareStatement(sql)) {
-                statement.setString(1, playerUuid);
-                statement.setString(2, category);
-                statement.setString(3, material);
-                statement.setInt(4, amount);
-                statement.setInt(5, amount);
-                statement.executeUpdate();
-            } catch (SQLException e) {
-                plugin.getLogger().log(Level.SEVERE, languageManager.getMessage("database.error.add_item"), e);
+        journal = new StorageJournal(new File(plugin.getDataFolder(), "storage.journal"), plugin.getLogger(),
+                config.getLong("journal.fsync-interval-ms", 50),
+                config.getLong("journal.max-size-kb", 1024) * 1024);
+        try {
+            // Replay idempotent: backend sẽ bỏ qua các seq đã commit
+            long recovered = journal.open(MAX_WRITE_BATCH,
+                    changes -> {
+                        track(changes);
+                        writeQueue.add(new WriteGroup(changes));
+                    });
+            if (recovered > 0) {
+                plugin.getLogger().info("Recovered " + recovered + " unflushed storage changes from journal");
             }
-        } else {
-            // SQLite/H2 - sử dụng UPDATE rồi INSERT
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to open storage journal, continuing without it", e);
+            journal.close();
+            journal = null;
+        }
+    }
+
+    /**
+     * Khởi động luồng writer xử lý hàng đợi ghi
+     */
+    private void startWriter() {
+        running = true;
+        writerThread = new Thread(this::runWriter, "DNStorage-DB-Writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Vòng lặp của luồng writer: gom các thay đổi đang chờ thành lô và ghi trong một transaction
+     * (một nhóm không bao giờ bị tách ra hai lô)
+     */
+    private void runWriter() {
+        // Các thay đổi trong lúc đang kết nối nằm sẵn trong journal và hàng đợi, được ghi khi database sẵn sàng
+        try {
+            while (running && !readyLatch.await(250, TimeUnit.MILLISECONDS)) {
+                // Chờ kết nối
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (state == State.CONNECTING) {
+            return;
+        }
+
+        List<StorageDelta> batch = new ArrayList<>(MAX_WRITE_BATCH);
+        // Ranh giới các nhóm trong lô, để khi database từ chối lô thì thử lại theo từng nhóm nguyên vẹn
+        List<List<StorageDelta>> groups = new ArrayList<>();
+        while (running || !writeQueue.isEmpty()) {
             try {
-                // Thử cập nhật trước
-                String updateSQL = "UPDATE storage_items SET amount = amount + ? " +
-                        "WHERE player_uuid = ? AND category = ? AND material = ?";
-                try (PreparedStatement updateStmt = conn.prepareStatement(updateSQL)) {
-                    updateStmt.setInt(1, amount);
-                    updateStmt.setString(2, playerUuid);
-                    updateStmt.setString(3, category);
-                    updateStmt.setString(4, material);
-                    int rows = updateStmt.executeUpdate();
-
-                    // Nếu không có dòng nào được cập nhật, thêm mới
-                    if (rows == 0) {
-                        String insertSQL = "INSERT INTO storage_items (player_uuid, category, material, amount) " +
-                                "VALUES (?, ?, ?, ?)";
-                        try (PreparedStatement insertStmt = conn.prepareStatement(insertSQL)) {
-                            insertStmt.setString(1, playerUuid);
-                            insertStmt.setString(2, category);
-                            insertStmt.setString(3, material);
-                            insertStmt.setInt(4, amount);
-                            insertStmt.executeUpdate();
+                WriteGroup group = writeQueue.poll(250, TimeUnit.MILLISECONDS);
+                while (group != null) {
+                    if (group.task() != null) {
+                        // Ghi các thay đổi xếp hàng trước thao tác, rồi chạy nó ngoài mọi transaction của lô
+                        if (!batch.isEmpty()) {
+                            if (!writeBatch(batch, groups)) {
+                                return;
+                            }
+                            batch.clear();
+                            groups.clear();
                         }
+                        synchronized (writeLock) {
+                            group.task().run();
+                        }
+                    } else {
+                        batch.addAll(group.changes());
+                        groups.add(group.changes());
                     }
+                    group = batch.size() < MAX_WRITE_BATCH ? writeQueue.poll() : null;
+                }
+                if (!batch.isEmpty() && !writeBatch(batch, groups)) {
+                    // Plugin đang tắt: lô này và các thay đổi sau nó ở lại journal cho lần khởi động sau
+                    return;
                 }
-            } catch (SQLException e) {
-                plugin.getLogger().log(Level.SEVERE, languageManager.getMessage("database.error.add_item"), e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+                groups.clear();
             }
         }
     }
 
     /**
-     * Lấy số lượng vật phẩm từ database (Synchronous - for backward compatibility)
+     * Ghi một lô thay đổi, thử lại với backoff khi mất kết nối database. Lỗi kết nối đầu tiên mở circuit
+     * breaker ({@link State#UNAVAILABLE}); mỗi lần thử lại là một lần kiểm tra kết nối, lô ghi được đầu tiên
+     * đóng nó lại. Trong lúc đó các thay đổi mới vẫn được xếp sau lô này nên được ghi lại đúng thứ tự. Lỗi
+     * tạm thời (xung đột compare-and-set, hết thời gian chờ khóa) cũng được thử lại nhưng không mở circuit
+     * breaker. Khi database từ chối hẳn lô, từng nhóm được ghi lại riêng và chỉ nhóm bị từ chối mới bị bỏ qua,
+     * luôn cả nhóm (các thay đổi của một nhóm không bao giờ được ghi một phần).
+     *
+     * @param groups Các nhóm tạo nên lô, theo đúng thứ tự
+     * @return false nếu plugin tắt trước khi ghi được (lô vẫn nằm trong journal)
      */
-    public int getItemAmount(String playerUuid, String category, String material) {
-        Connection conn = getConnection();
-        if (conn == null) {
-            plugin.getLogger().warning(languageManager.getMessage("database.cannot_get_amount"));
-            return 0;
-        }
-
-        String sql = "SELECT amount FROM storage_items " +
-                "WHERE player_uuid = ? AND category = ? AND material = ?";
-
-        try (PreparedStatement statement = conn.prepareStatement(sql)) {
-            statement.setString(1, playerUuid);
-            statement.setString(2, category);
-            statement.setString(3, material);
+    private boolean writeBatch(List<StorageDelta> batch, List<List<StorageDelta>> groups)
+            throws InterruptedException {
+        StorageJournal journal = this.journal;
+        long backoff = 500;
+        while (true) {
+            try {
+                synchronized (writeLock) {
+                    backend.applyBatch(batch, journal != null ? journal.getEpoch() : -1);
+                    notifyCommitted(batch);
+                }
+                if (journal != null) {
+                    journal.markApplied(batch.get(batch.size() - 1).seq());
+                }
+                if (state == State.UNAVAILABLE) {
+                    recovered();
+                }
+                untrack(batch);
+                return true;
+            } catch (StorageException e) {
+                if (e.isTransient()) {
+                    metrics.recordWriteConflict();
+                    plugin.getLogger().warning("Storage write of " + batch.size() + " changes hit a conflict ("
+                            + e.getMessage() + "), retrying in " + backoff + " ms");
+                } else if (!e.isConnectionError()) {
+                    if (groups.size() > 1) {
+                        // Ghi lại từng nhóm để một nhóm lỗi không làm mất cả lô
+                        for (List<StorageDelta> group : groups) {
+                            if (!writeBatch(group, List.of(group))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                    rejected(batch, e);
+                    return true;
+                } else if (state == State.READY) {
+                    unavailable(e);
+                }
+            }
 
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                return resultSet.getInt("amount");
+            if (!running) {
+                plugin.getLogger().warning(batch.size() + " storage changes could not be written and are kept in"
+                        + (journal != null ? " the journal until next start" : " memory only"));
+                return false;
             }
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, languageManager.getMessage("database.error.get_amount"), e);
+            // Plugin tắt trong lúc chờ: thử lần cuối ngay rồi dừng thay vì ngủ hết thời gian backoff
+            stopSignal.await(backoff, TimeUnit.MILLISECONDS);
+            backoff = Math.min(backoff * 2, MAX_WRITE_BACKOFF);
         }
-        return 0;
     }
 
     /**
-     * Lấy số lượng vật phẩm từ database (Async với callback)
+     * Bỏ qua một nhóm thay đổi bị database từ chối hẳn, ghi lại đủ từng thay đổi để quản trị viên xử lý tay
      */
-    public void getItemAmountAsync(String playerUuid, String category, String material, Consumer<Integer> callback) {
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            int amount = getItemAmount(playerUuid, category, material);
-            Bukkit.getScheduler().runTask(plugin, () -> callback.accept(amount));
-        });
+    private void rejected(List<StorageDelta> group, StorageException e) {
+        plugin.getLogger().log(Level.SEVERE, "Database rejected a group of " + group.size()
+                + " storage changes, dropped all of them", e);
+        for (StorageDelta delta : group) {
+            plugin.getLogger().severe("  dropped " + delta.op() + " " + delta.amount() + " " + delta.material()
+                    + " (" + delta.category() + ") of " + delta.playerUuid());
+        }
+        StorageJournal journal = this.journal;
+        if (journal != null) {
+            journal.markApplied(group.get(group.size() - 1).seq());
+        }
+        untrack(group);
     }
 
     /**
-     * Cập nhật số lượng vật phẩm (Async)
+     * Mở circuit breaker khi mất kết nối database (chạy trên luồng writer)
      */
-    public void updateItemAmount(String playerUuid, String category, String material, int newAmount) {
-        if (newAmount <= 0) {
-            // Xóa vật phẩm nếu số lượng <= 0
-            deleteItem(playerUuid, category, material);
+    private void unavailable(StorageException e) {
+        state = State.UNAVAILABLE;
+        metrics.recordOutage(e.getMessage());
+        plugin.getLogger().log(Level.WARNING, "Lost database connection, storage runs offline: changes are kept in"
+                + (journal != null ? " the journal" : " memory") + " and replayed once the database is back", e);
+    }
+
+    /**
+     * Đóng circuit breaker khi ghi lại được (chạy trên luồng writer)
+     */
+    private void recovered() {
+        state = State.READY;
+        long downtime = metrics.recordRecovery();
+        plugin.getLogger().info("Database connection restored after " + downtime / 1000 + " s, writing "
+                + getUnwrittenChanges() + " pending storage changes");
+        fireReady();
+    }
+
+    /**
+     * Đăng ký listener chạy trên main thread mỗi khi database chuyển sang {@link State#READY}, để tải lại dữ
+     * liệu không đọc được lúc đang kết nối hoặc mất kết nối
+     */
+    public void addReadyListener(Runnable listener) {
+        readyListeners.add(listener);
+    }
+
+    private void fireReady() {
+        if (readyListeners.isEmpty() || closed || !plugin.isEnabled()) {
             return;
         }
+        Bukkit.getScheduler().runTask(plugin, () -> readyListeners.forEach(Runnable::run));
+    }
 
-        // Chạy async để không block main thread
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            updateItemAmountSync(playerUuid, category, material, newAmount);
-        });
+    /**
+     * Đưa một thay đổi vào journal và hàng đợi ghi (giữ đúng thứ tự seq)
+     */
+    private synchronized void enqueue(StorageDelta.Op op, String playerUuid, String category, String material,
+            int amount) {
+        long seq = journal != null ? journal.append(op, playerUuid, category, material, amount) : 0;
+        List<StorageDelta> group = List.of(new StorageDelta(op, seq, playerUuid, category, material, amount));
+        track(group);
+        writeQueue.add(new WriteGroup(group));
     }
 
     /**
-     * Cập nhật số lượng vật phẩm (Synchronous - internal use)
+     * Ghi nhiều thay đổi trong cùng một transaction (Async qua hàng đợi ghi). Seq của các thay đổi truyền
+     * vào được bỏ qua và gán lại theo journal.
      */
-    private void updateItemAmountSync(String playerUuid, String category, String material, int newAmount) {
-        Connection conn = getConnection();
-        if (conn == null) {
-            plugin.getLogger().warning(languageManager.getMessage("database.cannot_update"));
+    public synchronized void enqueueAll(List<StorageDelta> changes) {
+        if (changes.isEmpty()) {
             return;
         }
 
-        String sql = "UPDATE storage_items SET amount = ? " +
-                "WHERE player_uuid = ? AND category = ? AND material = ?";
+        List<StorageDelta> group = new ArrayList<>(changes.size());
+        for (StorageDelta change : changes) {
+            long seq = journal != null ? journal.append(change.op(), change.playerUuid(), change.category(),
+                    change.material(), change.amount()) : 0;
+            group.add(new StorageDelta(change.op(), seq, change.playerUuid(), change.category(), change.material(),
+                    change.amount()));
+        }
+        track(group);
+        writeQueue.add(new WriteGroup(group));
+    }
 
-        try (PreparedStatement statement = conn.prepareStatement(sql)) {
-            statement.setInt(1, newAmount);
-            statement.setString(2, playerUuid);
-            statement.setString(3, category);
-            statement.setString(4, material);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, languageManager.getMessage("database.error.update"), e);
+    private void track(List<StorageDelta> changes) {
+        for (StorageDelta change : changes) {
+            unwrittenByPlayer.merge(change.playerUuid(), 1, Integer::sum);
+        }
+    }
+
+    private void untrack(List<StorageDelta> changes) {
+        List<Runnable> written = new ArrayList<>();
+        for (StorageDelta change : changes) {
+            unwrittenByPlayer.computeIfPresent(change.playerUuid(), (uuid, count) -> {
+                if (count > 1) {
+                    return count - 1;
+                }
+                List<Runnable> callbacks = writtenCallbacks.remove(uuid);
+                if (callbacks != null) {
+                    written.addAll(callbacks);
+                }
+                return null;
+            });
+        }
+        for (Runnable callback : written) {
+            callOnMainThread(callback);
         }
     }
 
     /**
-     * Xóa vật phẩm khỏi database (Async)
+     * Chạy callback trên main thread khi người chơi không còn thay đổi chưa ghi: ngay lập tức nếu hiện không
+     * có, nếu không thì sau khi thay đổi cuối cùng đang chờ của họ được ghi. Callback không được chạy nếu plugin
+     * tắt trước đó.
      */
-    public void deleteItem(String playerUuid, String category, String material) {
-        // Chạy async để không block main thread
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            deleteItemSync(playerUuid, category, material);
+    public void whenWritten(UUID playerId, Runnable callback) {
+        boolean[] pending = new boolean[1];
+        unwrittenByPlayer.computeIfPresent(playerId.toString(), (uuid, count) -> {
+            writtenCallbacks.computeIfAbsent(uuid, key -> new ArrayList<>()).add(callback);
+            pending[0] = true;
+            return count;
         });
+        if (!pending[0]) {
+            callOnMainThread(callback);
+        }
     }
 
     /**
-     * Xóa vật phẩm khỏi database (Synchronous - internal use)
+     * Người chơi còn thay đổi chưa được ghi xuống database (đọc lại database lúc này sẽ thấy số lượng cũ)
      */
-    private void deleteItemSync(String playerUuid, String category, String material) {
-        Connection conn = getConnection();
-        if (conn == null) {
-            plugin.getLogger().warning(languageManager.getMessage("database.cannot_delete"));
+    public boolean hasUnwrittenChanges(UUID playerId) {
+        return unwrittenByPlayer.containsKey(playerId.toString());
+    }
+
+    /**
+     * Chạy một thao tác ghi trực tiếp lên backend (không qua journal) trên luồng writer: sau mọi thay đổi đã
+     * xếp hàng trước nó và không bao giờ nằm trong transaction của một lô. Vì không có journal nên thao tác bị
+     * từ chối ngay khi database không sẵn sàng.
+     *
+     * @param task     Thao tác blocking, tự xử lý lỗi của backend
+     * @param callback Nhận kết quả, hoặc null nếu không chạy được (chạy trên main thread)
+     */
+    public <T> void submitWrite(Supplier<T> task, Consumer<T> callback) {
+        if (!isAvailable() || !running) {
+            callback.accept(null);
             return;
         }
+        writeQueue.add(new WriteGroup(List.of(), () -> {
+            T result = null;
+            try {
+                result = task.get();
+            } catch (RuntimeException e) {
+                plugin.getLogger().log(Level.SEVERE, "Storage write task failed", e);
+            }
+            T value = result;
+            callOnMainThread(() -> callback.accept(value));
+        }, () -> callOnMainThread(() -> callback.accept(null))));
+    }
 
-        String sql = "DELETE FROM storage_items " +
-                "WHERE player_uuid = ? AND category = ? AND material = ?";
+    /**
+     * Chạy callback trên main thread. Callback luôn được chạy đúng một lần: nếu plugin tắt trước khi task của
+     * scheduler kịp chạy, nó được chạy trong {@link #closeConnection()} (cũng trên main thread).
+     */
+    private void callOnMainThread(Runnable callback) {
+        mainThreadCallbacks.add(callback);
+        if (plugin.isEnabled()) {
+            try {
+                Bukkit.getScheduler().runTask(plugin, this::runMainThreadCallbacks);
+            } catch (IllegalPluginAccessException e) {
+                // Plugin vừa bị tắt: callback chờ closeConnection
+            }
+        }
+    }
 
-        try (PreparedStatement statement = conn.prepareStatement(sql)) {
-            statement.setString(1, playerUuid);
-            statement.setString(2, category);
-            statement.setString(3, material);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, languageManager.getMessage("database.error.delete"), e);
+    private void runMainThreadCallbacks() {
+        Runnable callback;
+        while ((callback = mainThreadCallbacks.poll()) != null) {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                plugin.getLogger().log(Level.SEVERE, "Storage write callback failed", e);
+            }
         }
     }
 
     /**
-     * Lấy tất cả vật phẩm trong một danh mục (Synchronous - for backward
-     * compatibility)
+     * Báo thất bại cho các thao tác ghi trực tiếp còn trong hàng đợi sau khi luồng writer đã dừng. Các nhóm
+     * thay đổi còn lại đã nằm trong journal và được ghi ở lần khởi động sau.
      */
-    public java.util.Map<String, Integer> getCategoryItems(String playerUuid, String category) {
-        java.util.Map<String, Integer> items = new java.util.HashMap<>();
+    private void abortPendingTasks() {
+        WriteGroup group;
+        while ((group = writeQueue.poll()) != null) {
+            if (group.abort() != null) {
+                group.abort().run();
+            }
+        }
+    }
 
-        Connection conn = getConnection();
-        if (conn == null) {
-            plugin.getLogger().warning(languageManager.getMessage("database.cannot_get_items"));
-            return items;
+    /**
+     * Ghi trực tiếp một lô thay đổi lớn (import), không qua journal và hàng đợi ghi
+     * (blocking, không gọi trên main thread)
+     */
+    public void applyImportBatch(List<StorageDelta> batch) throws StorageException {
+        synchronized (writeLock) {
+            backend.applyBatch(batch, -1);
+            notifyCommitted(batch);
         }
+    }
 
-        String sql = "SELECT material, amount FROM storage_items " +
-                "WHERE player_uuid = ? AND category = ?";
+    /**
+     * Đăng ký listener nhận các thay đổi sau khi đã được commit xuống database. Listener chạy trong lúc giữ
+     * khóa ghi, nên thứ tự nó nhận được đúng là thứ tự commit và không chen vào giữa {@link #scanCommitted}.
+     */
+    public void addCommitListener(Consumer<List<StorageDelta>> listener) {
+        commitListeners.add(listener);
+    }
 
-        try (PreparedStatement statement = conn.prepareStatement(sql)) {
-            statement.setString(1, playerUuid);
-            statement.setString(2, category);
+    public void removeCommitListener(Consumer<List<StorageDelta>> listener) {
+        commitListeners.remove(listener);
+    }
 
-            ResultSet resultSet = statement.executeQuery();
-            while (resultSet.next()) {
-                String material = resultSet.getString("material");
-                int amount = resultSet.getInt("amount");
-                items.put(material, amount);
+    /**
+     * Đăng ký listener nhận vật phẩm đặc biệt vừa thay đổi (người chơi, id định nghĩa) sau khi đã được ghi
+     */
+    public void addSpecialCommitListener(BiConsumer<String, Integer> listener) {
+        specialListeners.add(listener);
+    }
+
+    public void removeSpecialCommitListener(BiConsumer<String, Integer> listener) {
+        specialListeners.remove(listener);
+    }
+
+    /**
+     * Báo một vật phẩm đặc biệt vừa được ghi (gọi trong khóa ghi: thao tác ghi trực tiếp hoặc import)
+     */
+    void specialCommitted(String playerUuid, int definitionId) {
+        for (BiConsumer<String, Integer> listener : specialListeners) {
+            try {
+                listener.accept(playerUuid, definitionId);
+            } catch (RuntimeException e) {
+                plugin.getLogger().log(Level.SEVERE, "Storage commit listener failed", e);
             }
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, languageManager.getMessage("database.error.get_items"), e);
         }
+    }
 
-        return items;
+    /**
+     * Ghi trực tiếp một định nghĩa vật phẩm đặc biệt khi import (blocking, không gọi trên main thread)
+     *
+     * @return Id của định nghĩa trong database này
+     */
+    public int importDefinition(String hash, byte[] data) throws StorageException {
+        synchronized (writeLock) {
+            return definitionBackend().defineItem(hash, data);
+        }
     }
 
     /**
-     * Lấy tất cả vật phẩm trong một danh mục (Async với callback)
+     * Ghi đè số lượng một vật phẩm đặc biệt khi import, số lượng 0 xóa dòng (blocking, không gọi trên main thread)
      */
-    public void getCategoryItemsAsync(String playerUuid, String category, Consumer<Map<String, Integer>> callback) {
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            Map<String, Integer> items = getCategoryItems(playerUuid, category);
-            Bukkit.getScheduler().runTask(plugin, () -> callback.accept(items));
-        });
+    public void importSpecialItem(String playerUuid, int definitionId, int amount) throws StorageException {
+        synchronized (writeLock) {
+            definitionBackend().setSpecialItem(playerUuid, definitionId, amount);
+            specialCommitted(playerUuid, definitionId);
+        }
+    }
+
+    private ItemDefinitionBackend definitionBackend() throws StorageException {
+        if (!(backend instanceof ItemDefinitionBackend definitions)) {
+            throw new StorageException("Special items are not supported by the " + backend.getName() + " backend",
+                    false);
+        }
+        return definitions;
+    }
+
+    private void notifyCommitted(List<StorageDelta> batch) {
+        for (Consumer<List<StorageDelta>> listener : commitListeners) {
+            try {
+                listener.accept(batch);
+            } catch (RuntimeException e) {
+                plugin.getLogger().log(Level.SEVERE, "Storage commit listener failed", e);
+            }
+        }
     }
 
     /**
-     * Batch upsert nhiều items cùng lúc (Async)
-     * 
-     * @param items Map<Material, Amount> để upsert
+     * Đọc tuần tự toàn bộ vật phẩm trong database khi không có thay đổi nào đang được commit, rồi chạy
+     * onDone trong cùng khóa ghi: listener commit nhận đúng những thay đổi commit sau lần đọc này. Luồng
+     * writer phải chờ trong lúc đọc (các thay đổi mới vẫn nằm an toàn trong journal), blocking, không gọi
+     * trên main thread.
      */
-    public void batchUpsertItems(String playerUuid, String category, Map<String, Integer> items) {
-        if (items == null || items.isEmpty()) {
-            return;
+    public void scanCommitted(StorageBackend.RowVisitor visitor, Runnable onDone) throws StorageException {
+        synchronized (writeLock) {
+            backend.forEachItem(visitor);
+            onDone.run();
         }
+    }
 
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            batchUpsertItemsSync(playerUuid, category, items);
-        });
+    /**
+     * Số nhóm thay đổi đang chờ ghi xuống database
+     */
+    public int getPendingWrites() {
+        return writeQueue.size();
     }
 
     /**
-     * Batch upsert nhiều items cùng lúc (Synchronous - internal use)
+     * Số thay đổi chưa được ghi xuống database, kể cả lô đang được thử lại khi mất kết nối (khi tắt journal
+     * thì chỉ đếm các thay đổi trong hàng đợi ghi)
      */
-    private void batchUpsertItemsSync(String playerUuid, String category, Map<String, Integer> items) {
-        Connection conn = getConnection();
-        if (conn == null) {
-            plugin.getLogger().warning(languageManager.getMessage("database.cannot_add_item"));
-            return;
+    public long getUnwrittenChanges() {
+        StorageJournal journal = this.journal;
+        if (journal != null) {
+            return journal.getPendingCount();
         }
+        return writeQueue.stream().mapToLong(group -> group.changes().size()).sum();
+    }
 
-        try {
-            conn.setAutoCommit(false); // Bắt đầu transaction
-
-            if (databaseType == DatabaseType.MYSQL) {
-                String sql = "INSERT INTO storage_items (player_uuid, category, material, amount) " +
-                        "VALUES (?, ?, ?, ?) " +
-                        "ON DUPLICATE KEY UPDATE amount = amount + ?";
-
-                try (PreparedStatement statement = conn.prepareStatement(sql)) {
-                    for (Map.Entry<String, Integer> entry : items.entrySet()) {
-                        statement.setString(1, playerUuid);
-                        statement.setString(2, category);
-                        statement.setString(3, entry.getKey());
-                        statement.setInt(4, entry.getValue());
-                        statement.setInt(5, entry.getValue());
-                        statement.addBatch();
-                    }
-                    statement.executeBatch();
-                }
-            } else {
-                // SQLite/H2 - sử dụng batch operations
-                String updateSQL = "UPDATE storage_items SET amount = amount + ? " +
-                        "WHERE player_uuid = ? AND category = ? AND material = ?";
-                String insertSQL = "INSERT INTO storage_items (player_uuid, category, material, amount) " +
-                        "VALUES (?, ?, ?, ?)";
-
-                try (PreparedStatement updateStmt = conn.prepareStatement(updateSQL);
-                        PreparedStatement insertStmt = conn.prepareStatement(insertSQL)) {
-
-                    for (Map.Entry<String, Integer> entry : items.entrySet()) {
-                        String material = entry.getKey();
-                        int amount = entry.getValue();
-
-                        // Thử update trước
-                        updateStmt.setInt(1, amount);
-                        updateStmt.setString(2, playerUuid);
-                        updateStmt.setString(3, category);
-                        updateStmt.setString(4, material);
-                        updateStmt.addBatch();
-                    }
-                    updateStmt.executeBatch();
-
-                    // Kiểm tra và insert những items chưa tồn tại
-                    // (Cần query lại để biết items nào chưa được update)
-                    for (Map.Entry<String, Integer> entry : items.entrySet()) {
-                        String material = entry.getKey();
-                        int amount = entry.getValue();
-
-                        // Kiểm tra xem item đã tồn tại chưa
-                        String checkSQL = "SELECT amount FROM storage_items " +
-                                "WHERE player_uuid = ? AND category = ? AND material = ?";
-                        try (PreparedStatement checkStmt = conn.prepareStatement(checkSQL)) {
-                            checkStmt.setString(1, playerUuid);
-                            checkStmt.setString(2, category);
-                            checkStmt.setString(3, material);
-                            ResultSet rs = checkStmt.executeQuery();
-                            if (!rs.next()) {
-                                // Chưa tồn tại, insert
-                                insertStmt.setString(1, playerUuid);
-                                insertStmt.setString(2, category);
-                                insertStmt.setString(3, material);
-                                insertStmt.setInt(4, amount);
-                                insertStmt.addBatch();
-                            }
-                        }
-                    }
-                    insertStmt.executeBatch();
-                }
-            }
+    /**
+     * Thêm hoặc cập nhật vật phẩm trong database (Async qua hàng đợi ghi)
+     */
+    public void upsertItem(String playerUuid, String category, String material, int amount) {
+        enqueue(StorageDelta.Op.ADD, playerUuid, category, material, amount);
+    }
 
-            conn.commit(); // Commit transaction
-        } catch (SQLException e) {
-            try {
-                conn.rollback(); // Rollback nếu có lỗi
-            } catch (SQLException rollbackEx) {
-                plugin.getLogger().log(Level.SEVERE, "Failed to rollback transaction", rollbackEx);
-            }
-            plugin.getLogger().log(Level.SEVERE, languageManager.getMessage("database.error.add_item"), e);
-        } finally {
-            try {
-                conn.setAutoCommit(true);
-            } catch (SQLException e) {
-                plugin.getLogger().log(Level.SEVERE, "Failed to reset auto-commit", e);
-            }
+    /**
+     * Lấy số lượng vật phẩm từ database (Synchronous - for backward compatibility)
+     */
+    public int getItemAmount(String playerUuid, String category, String material) {
+        try {
+            return backend.getItemAmount(playerUuid, category, material);
+        } catch (StorageException e) {
+            plugin.getLogger().log(Level.SEVERE, languageManager.getMessage("database.error.get_amount"), e);
         }
+        return 0;
     }
 
     /**
-     * Tạo bảng player_settings để lưu các cài đặt của player
+     * Lấy số lượng vật phẩm từ database (Async với callback)
      */
-    private void createPlayerSettingsTable() throws SQLException {
-        String createTableSQL;
+    public void getItemAmountAsync(String playerUuid, String category, String material, Consumer<Integer> callback) {
+        runAsync(() -> {
+            int amount = getItemAmount(playerUuid, category, material);
+            Bukkit.getScheduler().runTask(plugin, () -> callback.accept(amount));
+        });
+    }
 
-        if (databaseType == DatabaseType.MYSQL) {
-            createTableSQL = "CREATE TABLE IF NOT EXISTS player_settings (" +
-                    "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
-                    "player_uuid VARCHAR(36) NOT NULL UNIQUE, " +
-                    "auto_pickup BOOLEAN NOT NULL DEFAULT FALSE, " +
-                    "INDEX idx_player (player_uuid)" +
-                    ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
-        } else {
-            // SQLite/H2 syntax
-            createTableSQL = "CREATE TABLE IF NOT EXISTS player_settings (" +
-                    "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
-                    "player_uuid VARCHAR(36) NOT NULL UNIQUE, " +
-                    "auto_pickup BOOLEAN NOT NULL DEFAULT FALSE" +
-                    ")";
+    /**
+     * Ghi đè số lượng vật phẩm (Async qua hàng đợi ghi). Khi lấy vật phẩm ra nên dùng
+     * {@link #removeItemAmount} để không ghi đè thay đổi của server khác.
+     */
+    public void updateItemAmount(String playerUuid, String category, String material, int newAmount) {
+        if (newAmount <= 0) {
+            // Xóa vật phẩm nếu số lượng <= 0
+            deleteItem(playerUuid, category, material);
+            return;
         }
 
-        try (Statement statement = connection.createStatement()) {
-            statement.execute(createTableSQL);
+        enqueue(StorageDelta.Op.SET, playerUuid, category, material, newAmount);
+    }
 
-            // Tạo index cho SQLite
-            if (databaseType == DatabaseType.SQLITE) {
-                try {
-                    statement.execute("CREATE INDEX IF NOT EXISTS idx_player_settings ON player_settings(player_uuid)");
-                } catch (SQLException e) {
-                    // Index có thể đã tồn tại
+    /**
+     * Lấy vật phẩm ra khỏi kho (Async qua hàng đợi ghi). Số lượng được trừ bằng compare-and-set trên
+     * cột version nên không cần khóa dòng trong lúc người chơi thao tác với GUI.
+     */
+    public void removeItemAmount(String playerUuid, String category, String material, int amount) {
+        if (amount > 0) {
+            enqueue(StorageDelta.Op.REMOVE, playerUuid, category, material, amount);
+        }
+    }
+
+    /**
+     * Lấy tối đa amount vật phẩm ra khỏi database chỉ trong phạm vi số lượng đang lưu, sau mọi thay đổi
+     * đang chờ ghi (qua luồng writer, không qua journal)
+     *
+     * @param callback Nhận số lượng đã thực sự lấy ra, hoặc null nếu database không sẵn sàng hoặc lỗi
+     *                 (chạy trên main thread)
+     */
+    public void withdrawItem(String playerUuid, String category, String material, int amount,
+            Consumer<Integer> callback) {
+        submitWrite(() -> {
+            try {
+                int taken = backend.withdraw(playerUuid, category, material, amount);
+                if (taken > 0) {
+                    // Thao tác ghi trực tiếp chạy trong khóa ghi như một lô
+                    notifyCommitted(List.of(new StorageDelta(StorageDelta.Op.REMOVE, 0, playerUuid, category,
+                            material, taken)));
                 }
+                return taken;
+            } catch (StorageException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to withdraw " + material + " of " + playerUuid, e);
+                return null;
             }
+        }, callback);
+    }
+
+    /**
+     * Xóa vật phẩm khỏi database (Async qua hàng đợi ghi)
+     */
+    public void deleteItem(String playerUuid, String category, String material) {
+        enqueue(StorageDelta.Op.DELETE, playerUuid, category, material, 0);
+    }
+
+    /**
+     * Lấy tất cả vật phẩm trong một danh mục (Synchronous - for backward
+     * compatibility)
+     */
+    public Map<String, Integer> getCategoryItems(String playerUuid, String category) {
+        try {
+            return backend.loadCategory(playerUuid, category);
+        } catch (StorageException e) {
+            plugin.getLogger().log(Level.SEVERE, languageManager.getMessage("database.error.get_items"), e);
         }
+        return new HashMap<>();
     }
 
     /**
-     * Lấy trạng thái auto-pickup của player
+     * Lấy tất cả vật phẩm trong một danh mục (Async với callback)
      */
-    public boolean getAutoPickup(String playerUuid) {
-        Connection conn = getConnection();
-        if (conn == null) {
-            plugin.getLogger().warning(languageManager.getMessage("database.cannot_get_amount"));
-            return false;
+    public void getCategoryItemsAsync(String playerUuid, String category, Consumer<Map<String, Integer>> callback) {
+        runAsync(() -> {
+            Map<String, Integer> items = getCategoryItems(playerUuid, category);
+            Bukkit.getScheduler().runTask(plugin, () -> callback.accept(items));
+        });
+    }
+
+    /**
+     * Batch upsert nhiều items cùng lúc (Async qua hàng đợi ghi, được gộp vào cùng một transaction)
+     *
+     * @param items Map<Material, Amount> để upsert
+     */
+    public void batchUpsertItems(String playerUuid, String category, Map<String, Integer> items) {
+        if (items == null || items.isEmpty()) {
+            return;
         }
 
-        String sql = "SELECT auto_pickup FROM player_settings WHERE player_uuid = ?";
-        try (PreparedStatement statement = conn.prepareStatement(sql)) {
-            statement.setString(1, playerUuid);
-            try (ResultSet resultSet = statement.executeQuery()) {
-                if (resultSet.next()) {
-                    return resultSet.getBoolean("auto_pickup");
-                }
-            }
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, languageManager.getMessage("database.error.get_amount"), e);
+        List<StorageDelta> changes = new ArrayList<>(items.size());
+        for (Map.Entry<String, Integer> entry : items.entrySet()) {
+            changes.add(new StorageDelta(StorageDelta.Op.ADD, 0, playerUuid, category, entry.getKey(),
+                    entry.getValue()));
         }
-        return false; // Mặc định là false
+        enqueueAll(changes);
     }
 
     /**
-     * Lưu trạng thái auto-pickup của player
+     * Lưu trạng thái auto-pickup của player (Async qua hàng đợi ghi)
      */
     public void setAutoPickup(String playerUuid, boolean enabled) {
-        Connection conn = getConnection();
-        if (conn == null) {
-            plugin.getLogger().warning(languageManager.getMessage("database.cannot_add_item"));
-            return;
+        enqueue(StorageDelta.Op.AUTO_PICKUP, playerUuid, "", "", enabled ? 1 : 0);
+    }
+
+    /**
+     * Dừng luồng writer sau khi ghi hết các thay đổi đang chờ. Luồng writer đang chờ để thử ghi lại được đánh
+     * thức ngay; nếu nó vẫn chưa dừng sau thời gian chờ (kẹt trong một thao tác của backend) thì bị interrupt.
+     *
+     * @return false nếu luồng writer vẫn còn chạy (journal và backend khi đó không được đóng)
+     */
+    private boolean stopWriter() {
+        if (writerThread == null) {
+            return true;
         }
 
-        if (databaseType == DatabaseType.MYSQL) {
-            // MySQL - sử dụng INSERT ... ON DUPLICATE KEY UPDATE
-            String sql = "INSERT INTO player_settings (player_uuid, auto_pickup) VALUES (?, ?) " +
-                    "ON DUPLICATE KEY UPDATE auto_pickup = ?";
-            try (PreparedStatement statement = conn.prepareStatement(sql)) {
-                statement.setString(1, playerUuid);
-                statement.setBoolean(2, enabled);
-                statement.setBoolean(3, enabled);
-                statement.executeUpdate();
-            } catch (SQLException e) {
-                plugin.getLogger().log(Level.SEVERE, languageManager.getMessage("database.error.add_item"), e);
+        running = false;
+        stopSignal.countDown();
+        try {
+            writerThread.join(10000);
+            if (writerThread.isAlive()) {
+                plugin.getLogger().warning("Database writer did not finish in time, interrupting it");
+                writerThread.interrupt();
+                writerThread.join(5000);
             }
-        } else {
-            // SQLite/H2 - sử dụng UPDATE rồi INSERT
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writerThread.isAlive()) {
+            plugin.getLogger().severe("Database writer is stuck, leaving the journal and database connection open; "
+                    + getUnwrittenChanges() + " storage changes are kept in the journal");
+            return false;
+        }
+        writerThread = null;
+        return true;
+    }
+
+    /**
+     * Dừng luồng kết nối (nếu database chưa sẵn sàng) và giải phóng các thao tác đang chờ
+     */
+    private void stopConnecting() {
+        if (connectThread != null) {
+            connectThread.interrupt();
             try {
-                // Thử cập nhật trước
-                String updateSQL = "UPDATE player_settings SET auto_pickup = ? WHERE player_uuid = ?";
-                try (PreparedStatement updateStmt = conn.prepareStatement(updateSQL)) {
-                    updateStmt.setBoolean(1, enabled);
-                    updateStmt.setString(2, playerUuid);
-                    int rows = updateStmt.executeUpdate();
-
-                    // Nếu không có dòng nào được cập nhật, thêm mới
-                    if (rows == 0) {
-                        String insertSQL = "INSERT INTO player_settings (player_uuid, auto_pickup) VALUES (?, ?)";
-                        try (PreparedStatement insertStmt = conn.prepareStatement(insertSQL)) {
-                            insertStmt.setString(1, playerUuid);
-                            insertStmt.setBoolean(2, enabled);
-                            insertStmt.executeUpdate();
-                        }
-                    }
-                }
-            } catch (SQLException e) {
-                plugin.getLogger().log(Level.SEVERE, languageManager.getMessage("database.error.add_item"), e);
+                connectThread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+            connectThread = null;
         }
+        readyLatch.countDown();
     }
 
     /**
      * Đóng kết nối database
      */
     public void closeConnection() {
-        try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-                plugin.getLogger().info(languageManager.getMessage("database.connection_closed"));
+        if (closed) {
+            return;
+        }
+        boolean wasReady = isReady();
+        closed = true;
+        stopConnecting();
+        stopReadExecutor();
+        boolean stopped = stopWriter();
+        abortPendingTasks();
+        // Callback có thể đưa thay đổi mới vào journal (ví dụ trả lại vật phẩm) nên chạy trước khi đóng nó
+        runMainThreadCallbacks();
+        if (!stopped) {
+            // Luồng writer vẫn có thể dùng journal và backend: chỉ đẩy journal xuống đĩa
+            if (journal != null) {
+                journal.sync();
             }
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, languageManager.getMessage("database.error.close"), e);
+            return;
+        }
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+
+        if (wasReady && (metrics.getWriteConflicts() > 0 || metrics.getOverdrafts() > 0)) {
+            plugin.getLogger().info("Storage write conflicts: " + metrics.getWriteConflicts() + " retried, "
+                    + metrics.getOverdrafts() + " withdrawals exceeded the stored amount");
+        }
+        if (metrics.getOutages() > 0) {
+            plugin.getLogger().info("Database outages: " + metrics.getOutages() + " (" + metrics.getDowntimeMillis()
+                    / 1000 + " s offline)");
+        }
+        backend.close();
+        if (wasReady) {
+            plugin.getLogger().info(languageManager.getMessage("database.connection_closed"));
         }
     }
 }
@@ -0,0 +1,197 @@
+package org.dnplugins.dNStorage.core;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.CreativeCategory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.dnplugins.dNStorage.enums.ItemCategory;
+
+import java.util.*;
+
+/**
+ * Sắp xếp túi đồ cho {@code /kho sort}
+ * <p>
+ * Các stack được gộp theo {@link ItemStack#isSimilar} (cùng vật phẩm và cùng NBT) nên vật phẩm có tên, phù
+ * phép, ... không bị gộp lẫn vào nhau. Khóa sắp xếp của mỗi nhóm được tính một lần trước khi sắp xếp. Kết
+ * quả là một kế hoạch chỉ gồm các ô thay đổi so với hiện tại, thay vì xóa rồi đặt lại toàn bộ túi đồ.
+ */
+public class InventorySortEngine {
+
+    /**
+     * Các tiêu chí sắp xếp (cấu hình sort.order, áp dụng lần lượt)
+     */
+    public enum Order {
+        /** Tổng số lượng giảm dần */
+        AMOUNT,
+        /** Tên hiển thị theo bảng chữ cái */
+        NAME,
+        /** Theo thứ tự danh mục kho (vật phẩm không thuộc danh mục nào đứng cuối) */
+        CATEGORY,
+        /** Theo tab trong creative */
+        CREATIVE,
+        /** Theo mã vật phẩm */
+        MATERIAL
+    }
+
+    private static final List<Order> DEFAULT_ORDER = List.of(Order.AMOUNT, Order.NAME, Order.MATERIAL);
+
+    private final JavaPlugin plugin;
+    private final LanguageManager languageManager;
+    private Comparator<Group> comparator;
+
+    /**
+     * Kế hoạch sắp xếp
+     *
+     * @param changes  Ô -> vật phẩm mới (null = để trống), chỉ gồm các ô thay đổi
+     * @param overflow Vật phẩm không còn chỗ (chỉ xảy ra khi túi đồ có stack vượt kích thước tối đa)
+     * @param groups   Số nhóm vật phẩm khác nhau
+     */
+    public record Plan(Map<Integer, ItemStack> changes, List<ItemStack> overflow, int groups) {
+    }
+
+    /**
+     * Một nhóm stack giống nhau cùng các khóa sắp xếp đã tính sẵn
+     */
+    private static final class Group {
+        private final ItemStack template;
+        private int amount;
+        private String name;
+        private int category;
+        private int creative;
+
+        private Group(ItemStack template) {
+            this.template = template;
+        }
+    }
+
+    public InventorySortEngine(JavaPlugin plugin, LanguageManager languageManager) {
+        this.plugin = plugin;
+        this.languageManager = languageManager;
+        loadConfig();
+    }
+
+    /**
+     * Tải thứ tự sắp xếp từ config.yml
+     */
+    public void loadConfig() {
+        List<Order> orders = new ArrayList<>();
+        for (String name : plugin.getConfig().getStringList("sort.order")) {
+            try {
+                orders.add(Order.valueOf(name.toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                plugin.getLogger().warning("Unknown sort order '" + name + "', ignoring");
+            }
+        }
+        if (orders.isEmpty()) {
+            orders = DEFAULT_ORDER;
+        }
+
+        Comparator<Group> result = null;
+        for (Order order : orders) {
+            Comparator<Group> next = switch (order) {
+                case AMOUNT -> Comparator.comparingInt((Group group) -> group.amount).reversed();
+                case NAME -> Comparator.comparing((Group group) -> group.name);
+                case CATEGORY -> Comparator.comparingInt((Group group) -> group.category);
+                case CREATIVE -> Comparator.comparingInt((Group group) -> group.creative);
+                case MATERIAL -> Comparator.comparing((Group group) -> group.template.getType().name());
+            };
+            result = result == null ? next : result.thenComparing(next);
+        }
+        // Thứ tự cố định cho các nhóm bằng nhau theo mọi tiêu chí (ví dụ cùng vật phẩm khác NBT)
+        comparator = result.thenComparing(group -> group.template.getType().name());
+    }
+
+    /**
+     * Tính kế hoạch sắp xếp cho các ô của túi đồ (không thay đổi mảng truyền vào)
+     */
+    public Plan plan(ItemStack[] contents) {
+        // Gộp các stack giống nhau; chỉ so sánh NBT giữa các stack cùng loại vật phẩm
+        Map<Material, List<Group>> byMaterial = new EnumMap<>(Material.class);
+        List<Group> groups = new ArrayList<>();
+        for (ItemStack item : contents) {
+            if (item == null || item.getType() == Material.AIR) {
+                continue;
+            }
+
+            List<Group> candidates = byMaterial.computeIfAbsent(item.getType(), k -> new ArrayList<>(1));
+            Group group = null;
+            for (Group candidate : candidates) {
+                if (candidate.template.isSimilar(item)) {
+                    group = candidate;
+                    break;
+                }
+            }
+            if (group == null) {
+                group = new Group(item.clone());
+                candidates.add(group);
+                groups.add(group);
+            }
+            group.amount += item.getAmount();
+        }
+
+        for (Group group : groups) {
+            computeKeys(group);
+        }
+        groups.sort(comparator);
+
+        // Bố trí lại theo thứ tự, mỗi stack tối đa kích thước cho phép của vật phẩm
+        ItemStack[] target = new ItemStack[contents.length];
+        List<ItemStack> overflow = new ArrayList<>();
+        int slot = 0;
+        for (Group group : groups) {
+            int remaining = group.amount;
+            int maxStackSize = Math.max(1, group.template.getMaxStackSize());
+            while (remaining > 0) {
+                int stackAmount = Math.min(remaining, maxStackSize);
+                ItemStack stack = group.template.clone();
+                stack.setAmount(stackAmount);
+                if (slot < target.length) {
+                    target[slot++] = stack;
+                } else {
+                    overflow.add(stack);
+                }
+                remaining -= stackAmount;
+            }
+        }
+
+        // Chỉ giữ các ô khác với hiện tại
+        Map<Integer, ItemStack> changes = new LinkedHashMap<>();
+        for (int i = 0; i < contents.length; i++) {
+            if (!sameStack(contents[i], target[i])) {
+                changes.put(i, target[i]);
+            }
+        }
+        return new Plan(changes, overflow, groups.size());
+    }
+
+    @SuppressWarnings("deprecation")
+    private void computeKeys(Group group) {
+        ItemStack template = group.template;
+        Material material = template.getType();
+        String name = null;
+        if (template.hasItemMeta()) {
+            ItemMeta meta = template.getItemMeta();
+            if (meta != null && meta.hasDisplayName()) {
+                name = meta.getDisplayName().replaceAll("§.", "");
+            }
+        }
+        if (name == null) {
+            name = languageManager.getItemName(material);
+        }
+        group.name = name.toLowerCase(languageManager.getLocale());
+
+        ItemCategory.Category category = ItemCategory.getCategory(material);
+        group.category = category != null ? category.ordinal() : Integer.MAX_VALUE;
+        CreativeCategory creative = material.getCreativeCategory();
+        group.creative = creative != null ? creative.ordinal() : Integer.MAX_VALUE;
+    }
+
+    private static boolean sameStack(ItemStack current, ItemStack target) {
+        boolean currentEmpty = current == null || current.getType() == Material.AIR;
+        if (currentEmpty || target == null) {
+            return currentEmpty && target == null;
+        }
+        return current.getAmount() == target.getAmount() && current.isSimilar(target);
+    }
+}
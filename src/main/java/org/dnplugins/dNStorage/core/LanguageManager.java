@@ -1,8 +1,10 @@
 package org.dnplugins.dNStorage.core;
 
+import org.bukkit.Material;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.dnplugins.dNStorage.enums.ItemCategory;
 
 import java.io.File;
 import java.io.InputStream;
@@ -10,6 +12,7 @@ import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Quản lý ngôn ngữ và thông điệp
@@ -135,6 +138,45 @@ public class LanguageManager {
         return message.replace("&", "§");
     }
 
+    /**
+     * Lấy tên hiển thị của danh mục (key category.<mã> trong file ngôn ngữ,
+     * nếu không có thì dùng display-name trong categories.yml)
+     */
+    public String getCategoryName(ItemCategory.Category category) {
+        String message = languageConfig.getString("category." + category.name().toLowerCase());
+        if (message == null) {
+            message = category.getDisplayName();
+        }
+        return message.replace("&", "§");
+    }
+
+    /**
+     * Lấy tên hiển thị của vật phẩm (key item.<mã> trong file ngôn ngữ, nếu không có thì tạo từ mã vật phẩm,
+     * ví dụ DIAMOND_ORE thành "Diamond Ore")
+     */
+    public String getItemName(Material material) {
+        String message = languageConfig.getString("item." + material.name().toLowerCase());
+        if (message != null) {
+            return message.replace("&", "§");
+        }
+        return getDefaultItemName(material);
+    }
+
+    /**
+     * Tên vật phẩm tạo từ mã vật phẩm (không phụ thuộc ngôn ngữ)
+     */
+    public static String getDefaultItemName(Material material) {
+        String name = material.name().toLowerCase().replace("_", " ");
+        String[] words = name.split(" ");
+        StringBuilder result = new StringBuilder();
+        for (String word : words) {
+            if (result.length() > 0)
+                result.append(" ");
+            result.append(word.substring(0, 1).toUpperCase()).append(word.substring(1));
+        }
+        return result.toString();
+    }
+
     /**
      * Lấy thông điệp với placeholder
      */
@@ -162,6 +204,13 @@ public class LanguageManager {
         return currentLanguage;
     }
 
+    /**
+     * Locale của ngôn ngữ hiện tại (dùng khi chuẩn hóa chữ hoa/thường)
+     */
+    public Locale getLocale() {
+        return Locale.forLanguageTag(currentLanguage);
+    }
+
     /**
      * Lấy danh sách các ngôn ngữ có sẵn
      */
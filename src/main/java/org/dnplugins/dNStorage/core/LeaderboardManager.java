@@ -0,0 +1,356 @@
+package org.dnplugins.dNStorage.core;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.dnplugins.dNStorage.core.backend.StorageException;
+import org.dnplugins.dNStorage.enums.ItemCategory;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Bảng xếp hạng kho toàn server theo vật phẩm và theo danh mục
+ * <p>
+ * Mỗi bảng chỉ giữ khoảng 2K ứng viên dẫn đầu, được dựng một lần bằng cách đọc tuần tự toàn bộ
+ * database, sau đó cập nhật dần từ các thay đổi đã được commit xuống database (lần đọc và việc thay
+ * bảng diễn ra trong khóa ghi, nên mỗi thay đổi được tính đúng một lần). Người chơi ngoài danh
+ * sách ứng viên có thể vượt lên mà bảng chưa biết chính xác số lượng, nên bảng bị đánh dấu "lệch"
+ * và được dựng lại ở lần đối chiếu định kỳ tiếp theo.
+ */
+public class LeaderboardManager {
+
+    // Khoảng cách tối thiểu giữa hai lần dựng lại do bảng bị lệch (ms)
+    private static final long MIN_DRIFT_REBUILD_INTERVAL = 5 * 60 * 1000;
+
+    private final JavaPlugin plugin;
+    private final DatabaseManager databaseManager;
+    private final int size;
+    private final int capacity;
+    // Thời gian tối đa giữa hai lần đối chiếu với database (ms)
+    private final long reconcileInterval;
+    private volatile long lastRebuild;
+    private BukkitTask reconcileTask;
+    private volatile boolean rebuilding;
+    private final Consumer<List<StorageDelta>> commitListener = this::onCommitted;
+
+    // Chỉ truy cập khi giữ lock của this
+    private Map<String, Board> materialBoards = new HashMap<>();
+    private Map<String, Board> categoryBoards = new HashMap<>();
+    private boolean ready;
+
+    /**
+     * Một dòng trên bảng xếp hạng
+     */
+    public record Entry(UUID playerId, long amount) {
+    }
+
+    public LeaderboardManager(JavaPlugin plugin, DatabaseManager databaseManager) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        FileConfiguration config = plugin.getConfig();
+        this.size = Math.max(1, config.getInt("leaderboard.size", 10));
+        // Giữ thêm ứng viên dự phòng để không phải dựng lại mỗi khi người dẫn đầu bị giảm
+        this.capacity = size * 2;
+
+        this.reconcileInterval = Math.max(1, config.getLong("leaderboard.reconcile-minutes", 30)) * 60 * 1000;
+        databaseManager.addCommitListener(commitListener);
+
+        // Dựng bảng lần đầu ngay sau khi khởi động; sau đó mỗi phút kiểm tra xem có bảng nào bị lệch
+        // hoặc đã đến lúc đối chiếu định kỳ
+        reconcileTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, () -> {
+            if (!databaseManager.isAvailable()) {
+                return;
+            }
+            long sinceLastRebuild = System.currentTimeMillis() - lastRebuild;
+            if (!isReady() || sinceLastRebuild >= reconcileInterval
+                    || (sinceLastRebuild >= MIN_DRIFT_REBUILD_INTERVAL && hasDrift())) {
+                rebuild();
+            }
+        }, 20L, 60 * 20L);
+    }
+
+    /**
+     * Số người tối đa hiển thị trên một bảng
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Bảng xếp hạng đã được dựng lần đầu chưa
+     */
+    public synchronized boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Top người chơi theo một vật phẩm
+     */
+    public synchronized List<Entry> getTop(Material material) {
+        return top(materialBoards.get(material.name()));
+    }
+
+    /**
+     * Top người chơi theo tổng số lượng trong một danh mục
+     */
+    public synchronized List<Entry> getTop(ItemCategory.Category category) {
+        return top(categoryBoards.get(category.name()));
+    }
+
+    private List<Entry> top(Board board) {
+        if (board == null) {
+            return Collections.emptyList();
+        }
+
+        List<Entry> entries = new ArrayList<>(board.candidates.size());
+        for (Map.Entry<UUID, Long> candidate : board.candidates.entrySet()) {
+            entries.add(new Entry(candidate.getKey(), candidate.getValue()));
+        }
+        entries.sort(Comparator.comparingLong(Entry::amount).reversed());
+        return entries.size() > size ? entries.subList(0, size) : entries;
+    }
+
+    /**
+     * Cập nhật bảng từ một lô thay đổi vừa được commit (chạy trên luồng writer, trong khóa ghi)
+     */
+    private synchronized void onCommitted(List<StorageDelta> batch) {
+        if (!ready) {
+            return;
+        }
+
+        for (StorageDelta change : batch) {
+            int delta = switch (change.op()) {
+                case ADD -> change.amount();
+                case REMOVE -> -change.amount();
+                case SET, DELETE -> {
+                    // Không biết số lượng trước đó: đánh dấu để dựng lại
+                    materialBoards.computeIfAbsent(change.material(), k -> new Board()).drift = true;
+                    categoryBoards.computeIfAbsent(change.category(), k -> new Board()).drift = true;
+                    yield 0;
+                }
+                default -> 0;
+            };
+            UUID playerId = delta != 0 ? parseUuid(change.playerUuid()) : null;
+            if (playerId == null) {
+                continue;
+            }
+
+            materialBoards.computeIfAbsent(change.material(), k -> new Board()).apply(playerId, delta, size, capacity);
+            categoryBoards.computeIfAbsent(change.category(), k -> new Board()).apply(playerId, delta, size, capacity);
+        }
+    }
+
+    /**
+     * Dựng lại toàn bộ bảng xếp hạng từ database (chạy trên luồng async, luồng writer chờ trong lúc đọc)
+     */
+    private void rebuild() {
+        if (rebuilding) {
+            return;
+        }
+        rebuilding = true;
+
+        try {
+            Map<String, Builder> materialBuilders = new HashMap<>();
+            Map<String, Builder> categoryBuilders = new HashMap<>();
+            // Dữ liệu được đọc theo thứ tự người chơi, nên chỉ cần cộng dồn danh mục của người hiện tại
+            Map<String, Long> playerCategoryTotals = new HashMap<>();
+            UUID[] currentPlayer = new UUID[1];
+            String[] currentUuid = new String[1];
+
+            long start = System.currentTimeMillis();
+            databaseManager.scanCommitted((playerUuid, category, material, amount) -> {
+                if (!playerUuid.equals(currentUuid[0])) {
+                    flushCategoryTotals(categoryBuilders, currentPlayer[0], playerCategoryTotals);
+                    currentUuid[0] = playerUuid;
+                    currentPlayer[0] = parseUuid(playerUuid);
+                }
+                if (currentPlayer[0] == null || amount <= 0) {
+                    return;
+                }
+
+                materialBuilders.computeIfAbsent(material, k -> new Builder(capacity)).offer(currentPlayer[0], amount);
+                playerCategoryTotals.merge(category, (long) amount, Long::sum);
+            }, () -> {
+                flushCategoryTotals(categoryBuilders, currentPlayer[0], playerCategoryTotals);
+
+                Map<String, Board> materials = new HashMap<>(materialBuilders.size() * 2);
+                materialBuilders.forEach((key, builder) -> materials.put(key, builder.build()));
+                Map<String, Board> categories = new HashMap<>(categoryBuilders.size() * 2);
+                categoryBuilders.forEach((key, builder) -> categories.put(key, builder.build()));
+
+                // Thay bảng trước khi nhả khóa ghi: các thay đổi commit sau lần đọc đi vào bảng mới
+                synchronized (this) {
+                    materialBoards = materials;
+                    categoryBoards = categories;
+                    ready = true;
+                }
+            });
+            lastRebuild = System.currentTimeMillis();
+            plugin.getLogger().fine("Leaderboards rebuilt in " + (lastRebuild - start) + " ms");
+        } catch (StorageException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to rebuild storage leaderboards", e);
+        } finally {
+            rebuilding = false;
+        }
+    }
+
+    private synchronized boolean hasDrift() {
+        for (Board board : materialBoards.values()) {
+            if (board.drift) {
+                return true;
+            }
+        }
+        for (Board board : categoryBoards.values()) {
+            if (board.drift) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void flushCategoryTotals(Map<String, Builder> builders, UUID playerId, Map<String, Long> totals) {
+        if (playerId != null) {
+            for (Map.Entry<String, Long> total : totals.entrySet()) {
+                builders.computeIfAbsent(total.getKey(), k -> new Builder(capacity))
+                        .offer(playerId, total.getValue());
+            }
+        }
+        totals.clear();
+    }
+
+    private static UUID parseUuid(String value) {
+        try {
+            return UUID.fromString(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Đánh dấu để dựng lại ở lần kiểm tra tiếp theo (sau khi dữ liệu bị thay đổi ngoài
+     * {@link StorageManager}, ví dụ import)
+     */
+    public void invalidate() {
+        lastRebuild = 0;
+    }
+
+    /**
+     * Dừng đối chiếu định kỳ và ngừng nhận các thay đổi đã commit
+     */
+    public void shutdown() {
+        databaseManager.removeCommitListener(commitListener);
+        if (reconcileTask != null) {
+            reconcileTask.cancel();
+            reconcileTask = null;
+        }
+    }
+
+    /**
+     * Các ứng viên dẫn đầu của một vật phẩm hoặc danh mục
+     */
+    private static final class Board {
+        private final Map<UUID, Long> candidates;
+        // Không ai ngoài danh sách ứng viên có số lượng lớn hơn floor (tại thời điểm dựng)
+        private long floor;
+        // true nếu danh sách ứng viên chứa tất cả người chơi có vật phẩm này
+        private boolean complete;
+        // Bảng có thể không còn chính xác, cần dựng lại
+        private boolean drift;
+
+        private Board() {
+            this(new HashMap<>(), 0, true);
+        }
+
+        private Board(Map<UUID, Long> candidates, long floor, boolean complete) {
+            this.candidates = candidates;
+            this.floor = floor;
+            this.complete = complete;
+        }
+
+        private void apply(UUID playerId, int delta, int size, int capacity) {
+            Long current = candidates.get(playerId);
+            if (current != null) {
+                long amount = current + delta;
+                if (amount > 0) {
+                    candidates.put(playerId, amount);
+                } else {
+                    candidates.remove(playerId);
+                }
+                // Người ngoài danh sách có thể đã vượt lên
+                if (!complete && delta < 0 && (amount < floor || candidates.size() < size)) {
+                    drift = true;
+                }
+                return;
+            }
+
+            if (!complete) {
+                // Không biết số lượng thực của người ngoài danh sách (tối đa floor + delta)
+                if (delta > 0 && (candidates.size() < size || floor + delta > minAmount())) {
+                    drift = true;
+                }
+                return;
+            }
+
+            // Danh sách đầy đủ: người chơi chưa có vật phẩm này, số lượng chính là delta
+            if (delta <= 0) {
+                return;
+            }
+            candidates.put(playerId, (long) delta);
+            if (candidates.size() > capacity) {
+                UUID lowest = null;
+                long lowestAmount = Long.MAX_VALUE;
+                for (Map.Entry<UUID, Long> entry : candidates.entrySet()) {
+                    if (entry.getValue() < lowestAmount) {
+                        lowest = entry.getKey();
+                        lowestAmount = entry.getValue();
+                    }
+                }
+                candidates.remove(lowest);
+                complete = false;
+                floor = lowestAmount;
+            }
+        }
+
+        private long minAmount() {
+            long min = Long.MAX_VALUE;
+            for (long amount : candidates.values()) {
+                min = Math.min(min, amount);
+            }
+            return min;
+        }
+    }
+
+    /**
+     * Gom top ứng viên bằng min-heap khi đọc database
+     */
+    private static final class Builder {
+        private final int capacity;
+        private final PriorityQueue<Entry> heap = new PriorityQueue<>(Comparator.comparingLong(Entry::amount));
+        private long floor;
+        private boolean complete = true;
+
+        private Builder(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private void offer(UUID playerId, long amount) {
+            heap.add(new Entry(playerId, amount));
+            if (heap.size() > capacity) {
+                floor = Math.max(floor, heap.poll().amount());
+                complete = false;
+            }
+        }
+
+        private Board build() {
+            Map<UUID, Long> candidates = new HashMap<>(heap.size() * 2);
+            for (Entry entry : heap) {
+                candidates.put(entry.playerId(), entry.amount());
+            }
+            return new Board(candidates, floor, complete);
+        }
+    }
+}
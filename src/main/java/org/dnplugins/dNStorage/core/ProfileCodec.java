@@ -0,0 +1,101 @@
+package org.dnplugins.dNStorage.core;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Mã hóa/giải mã kho của một người chơi thành một mảng byte gọn (varint)
+ * <p>
+ * Định dạng: categoryCount, rồi với mỗi danh mục: tên, itemCount, rồi từng cặp (tên vật phẩm, số lượng)
+ */
+public final class ProfileCodec {
+
+    private ProfileCodec() {
+    }
+
+    /**
+     * Mã hóa kho (category -> material -> amount)
+     */
+    public static byte[] encode(Map<String, Map<String, Integer>> profile) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        int categories = 0;
+        for (Map<String, Integer> items : profile.values()) {
+            if (!items.isEmpty()) {
+                categories++;
+            }
+        }
+
+        writeVarInt(out, categories);
+        for (Map.Entry<String, Map<String, Integer>> category : profile.entrySet()) {
+            if (category.getValue().isEmpty()) {
+                continue;
+            }
+            writeString(out, category.getKey());
+            writeVarInt(out, category.getValue().size());
+            for (Map.Entry<String, Integer> item : category.getValue().entrySet()) {
+                writeString(out, item.getKey());
+                writeVarInt(out, item.getValue());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Giải mã kho (category -> material -> amount)
+     */
+    public static Map<String, Map<String, Integer>> decode(byte[] data) {
+        Map<String, Map<String, Integer>> profile = new HashMap<>();
+        if (data == null || data.length == 0) {
+            return profile;
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(data);
+        int categories = readVarInt(in);
+        for (int i = 0; i < categories; i++) {
+            String category = readString(in);
+            int count = readVarInt(in);
+            Map<String, Integer> items = new HashMap<>(Math.max(16, count * 2));
+            for (int j = 0; j < count; j++) {
+                String material = readString(in);
+                items.put(material, readVarInt(in));
+            }
+            profile.put(category, items);
+        }
+        return profile;
+    }
+
+    static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("VarInt too long");
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
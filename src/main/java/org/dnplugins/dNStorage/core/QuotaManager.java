@@ -0,0 +1,370 @@
+package org.dnplugins.dNStorage.core;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.dnplugins.dNStorage.core.backend.StorageException;
+import org.dnplugins.dNStorage.enums.ItemCategory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Giới hạn dung lượng kho theo quyền (tổng và theo từng danh mục)
+ * <p>
+ * Mỗi mức trong config ứng với quyền {@code dnstorage.quota.<tên>} (mức {@code default} áp dụng cho mọi
+ * người); người chơi có nhiều mức thì nhận giới hạn lớn nhất của từng loại. Số lượng đang dùng được tải
+ * một lần khi người chơi vào server, sau đó cộng dồn theo từng thay đổi của {@link StorageManager} nên
+ * việc kiểm tra không cần duyệt kho hay truy vấn database.
+ * <p>
+ * Lệnh đọc số lượng đang dùng được xếp vào hàng đợi ghi ({@link DatabaseManager#submitWrite}) nên thấy mọi
+ * thay đổi xếp hàng trước nó; các thay đổi đến sau khi lệnh đọc được xếp hàng được gom riêng và cộng vào kết
+ * quả. Vì vậy số liệu không bị thiếu hay tính hai lần, kể cả khi người chơi còn thay đổi chưa ghi.
+ * <p>
+ * Khi chưa biết số lượng đang dùng (đang tải, hoặc database không truy cập được) thì vẫn cho thêm vào kho
+ * để người chơi không mất chức năng nhặt đồ vì sự cố database. Các thay đổi đó nằm trong hàng đợi ghi nên
+ * lần tải sau sẽ tính đủ; người chơi đã vượt hạn mức thì chỉ không thêm được cho đến khi lấy bớt ra.
+ */
+public class QuotaManager implements StorageDeltaListener, Listener {
+
+    // Không giới hạn
+    public static final long UNLIMITED = -1;
+
+    private final JavaPlugin plugin;
+    private final DatabaseManager databaseManager;
+    private volatile boolean enabled;
+    private List<Tier> tiers = Collections.emptyList();
+    // Giới hạn của người chơi đang online (tính khi vào server, chỉ dùng trên main thread)
+    private final Map<UUID, Limits> limits = new HashMap<>();
+    // Số lượng đang dùng của người chơi đang online
+    private final Map<UUID, Usage> usages = new ConcurrentHashMap<>();
+    // Người chơi đang được tải số lượng đang dùng -> các thay đổi đến sau khi lệnh đọc đã được xếp hàng
+    private final Map<UUID, Usage> loading = new ConcurrentHashMap<>();
+    // Người chơi cần đọc lại ngay sau lần tải đang chạy (server khác vừa thay đổi kho của họ)
+    private final Set<UUID> reloadAfterLoading = new HashSet<>();
+
+    /**
+     * Một mức giới hạn trong config
+     */
+    private record Tier(String permission, long total, Map<String, Long> categories) {
+    }
+
+    /**
+     * Giới hạn đã tính cho một người chơi (theo ordinal của danh mục)
+     */
+    private record Limits(long total, long[] categories) {
+    }
+
+    /**
+     * Số lượng đang dùng của một người chơi
+     */
+    private static final class Usage {
+        private long total;
+        private final long[] categories = new long[ItemCategory.Category.values().length];
+
+        private synchronized void add(ItemCategory.Category category, long delta) {
+            total += delta;
+            categories[category.ordinal()] += delta;
+        }
+
+        private synchronized void addAll(Usage other) {
+            synchronized (other) {
+                total += other.total;
+                for (int i = 0; i < categories.length; i++) {
+                    categories[i] += other.categories[i];
+                }
+            }
+        }
+    }
+
+    public QuotaManager(JavaPlugin plugin, DatabaseManager databaseManager) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        loadConfig();
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+        // Tải lại số lượng đang dùng của người chơi vào server lúc database chưa sẵn sàng
+        databaseManager.addReadyListener(this::loadOnlinePlayers);
+    }
+
+    private void loadOnlinePlayers() {
+        if (!enabled) {
+            return;
+        }
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            requestUsage(player.getUniqueId());
+        }
+    }
+
+    /**
+     * Tải các mức giới hạn từ config.yml và tính lại cho người chơi đang online
+     */
+    public void loadConfig() {
+        enabled = plugin.getConfig().getBoolean("quota.enabled", false);
+
+        List<Tier> loaded = new ArrayList<>();
+        ConfigurationSection section = plugin.getConfig().getConfigurationSection("quota.tiers");
+        if (section != null) {
+            for (String name : section.getKeys(false)) {
+                ConfigurationSection tier = section.getConfigurationSection(name);
+                if (tier == null) {
+                    continue;
+                }
+
+                Map<String, Long> categories = new HashMap<>();
+                ConfigurationSection categorySection = tier.getConfigurationSection("categories");
+                if (categorySection != null) {
+                    for (String category : categorySection.getKeys(false)) {
+                        categories.put(category.toUpperCase(Locale.ROOT), categorySection.getLong(category));
+                    }
+                }
+                String permission = name.equalsIgnoreCase("default") ? null : "dnstorage.quota." + name;
+                loaded.add(new Tier(permission, tier.getLong("total", UNLIMITED), categories));
+            }
+        }
+        tiers = loaded;
+
+        limits.clear();
+        if (!enabled) {
+            return;
+        }
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            UUID playerId = player.getUniqueId();
+            limits.put(playerId, resolveLimits(player));
+            requestUsage(playerId);
+        }
+    }
+
+    /**
+     * Hạn mức có đang bật không
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Tính giới hạn của người chơi từ các mức mà họ có quyền
+     */
+    private Limits resolveLimits(Player player) {
+        if (player.hasPermission("dnstorage.quota.bypass")) {
+            return null;
+        }
+
+        ItemCategory.Category[] categories = ItemCategory.Category.values();
+        long total = 0;
+        long[] byCategory = new long[categories.length];
+        boolean matched = false;
+        for (Tier tier : tiers) {
+            if (tier.permission() != null && !player.hasPermission(tier.permission())) {
+                continue;
+            }
+            total = matched ? max(total, tier.total()) : tier.total();
+            for (ItemCategory.Category category : categories) {
+                long limit = tier.categories().getOrDefault(category.name(), UNLIMITED);
+                byCategory[category.ordinal()] = matched ? max(byCategory[category.ordinal()], limit) : limit;
+            }
+            matched = true;
+        }
+        return matched ? new Limits(total, byCategory) : null;
+    }
+
+    /**
+     * Giới hạn lớn hơn giữa hai giá trị, trong đó UNLIMITED lớn hơn mọi giới hạn
+     */
+    private static long max(long a, long b) {
+        return a == UNLIMITED || b == UNLIMITED ? UNLIMITED : Math.max(a, b);
+    }
+
+    /**
+     * Số lượng có thể thêm vào kho mà không vượt hạn mức (O(1))
+     *
+     * @return số lượng được chấp nhận, từ 0 đến amount
+     */
+    public int getAllowance(UUID playerId, ItemCategory.Category category, int amount) {
+        if (!enabled) {
+            return amount;
+        }
+        Limits playerLimits = limits.get(playerId);
+        // Người chơi offline hoặc có quyền bỏ qua
+        if (playerLimits == null) {
+            return amount;
+        }
+        Usage usage = usages.get(playerId);
+        if (usage == null) {
+            // Chưa biết số lượng đang dùng: cho thêm, lần tải xếp sau thay đổi này sẽ tính cả nó
+            requestUsage(playerId);
+            return amount;
+        }
+
+        long allowed = amount;
+        synchronized (usage) {
+            if (playerLimits.total() != UNLIMITED) {
+                allowed = Math.min(allowed, playerLimits.total() - usage.total);
+            }
+            long categoryLimit = playerLimits.categories()[category.ordinal()];
+            if (categoryLimit != UNLIMITED) {
+                allowed = Math.min(allowed, categoryLimit - usage.categories[category.ordinal()]);
+            }
+        }
+        return (int) Math.max(0, allowed);
+    }
+
+    /**
+     * Tổng số vật phẩm trong kho nếu đang được theo dõi
+     *
+     * @return -1 nếu chưa có số liệu
+     */
+    public long getTotal(UUID playerId) {
+        Usage usage = usages.get(playerId);
+        if (usage == null) {
+            return -1;
+        }
+        synchronized (usage) {
+            return usage.total;
+        }
+    }
+
+    /**
+     * Giới hạn tổng của người chơi đang online
+     *
+     * @return UNLIMITED nếu không bị giới hạn
+     */
+    public long getTotalLimit(UUID playerId) {
+        Limits playerLimits = enabled ? limits.get(playerId) : null;
+        return playerLimits != null ? playerLimits.total() : UNLIMITED;
+    }
+
+    /**
+     * Bỏ số liệu đang dùng và tải lại từ database cho người chơi đang online (sau khi dữ liệu bị thay
+     * đổi ngoài {@link StorageManager}, ví dụ import)
+     */
+    public void resetUsage() {
+        usages.clear();
+        if (!enabled) {
+            return;
+        }
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            loadUsage(player.getUniqueId(), true);
+        }
+    }
+
+    @Override
+    public void onDelta(UUID playerId, ItemCategory.Category category, Material material, int delta) {
+        Usage usage = usages.get(playerId);
+        if (usage != null) {
+            usage.add(category, delta);
+        }
+        // Thay đổi xếp hàng sau lệnh đọc đang chờ: lệnh đọc sẽ không thấy nó
+        Usage buffered = loading.get(playerId);
+        if (buffered != null) {
+            buffered.add(category, delta);
+        }
+    }
+
+    /**
+     * Tải số lượng đang dùng ở nền nếu chưa có (chạy trên main thread)
+     */
+    private void requestUsage(UUID playerId) {
+        if (!usages.containsKey(playerId)) {
+            loadUsage(playerId, false);
+        }
+    }
+
+    /**
+     * Đọc lại số lượng đang dùng kể cả khi đã tải (khi server khác vừa thay đổi kho), chạy trên main thread
+     */
+    public void refreshUsage(UUID playerId) {
+        if (enabled && Bukkit.getPlayer(playerId) != null) {
+            loadUsage(playerId, true);
+        }
+    }
+
+    /**
+     * Xếp lệnh đọc số lượng đang dùng vào hàng đợi ghi (chạy trên main thread, cùng luồng với các thay đổi
+     * nên không thay đổi nào vừa được lệnh đọc thấy vừa bị gom vào phần đến sau). Mỗi người chơi chỉ một lần
+     * tải cùng lúc; yêu cầu đọc lại trong lúc đang tải được chạy sau lần tải đó.
+     *
+     * @param replace Thay số liệu đã có
+     */
+    private void loadUsage(UUID playerId, boolean replace) {
+        if (!enabled || !databaseManager.canLoad(playerId)) {
+            return;
+        }
+        if (loading.containsKey(playerId)) {
+            if (replace) {
+                reloadAfterLoading.add(playerId);
+            }
+            return;
+        }
+
+        loading.put(playerId, new Usage());
+        databaseManager.submitWrite(() -> readUsage(playerId), usage -> {
+            Usage buffered = loading.remove(playerId);
+            boolean reload = reloadAfterLoading.remove(playerId);
+            if (usage != null && buffered != null && Bukkit.getPlayer(playerId) != null) {
+                usage.addAll(buffered);
+                if (replace || reload) {
+                    usages.put(playerId, usage);
+                } else {
+                    usages.putIfAbsent(playerId, usage);
+                }
+            }
+            if (reload) {
+                refreshUsage(playerId);
+            }
+        });
+    }
+
+    private Usage readUsage(UUID playerId) {
+        Map<String, Map<String, Integer>> profile;
+        try {
+            profile = databaseManager.getBackend().loadProfile(playerId.toString());
+        } catch (StorageException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to load storage usage for " + playerId, e);
+            return null;
+        }
+
+        Usage usage = new Usage();
+        for (Map.Entry<String, Map<String, Integer>> category : profile.entrySet()) {
+            long sum = 0;
+            for (int amount : category.getValue().values()) {
+                sum += amount;
+            }
+            usage.total += sum;
+            try {
+                usage.categories[ItemCategory.Category.valueOf(category.getKey()).ordinal()] += sum;
+            } catch (IllegalArgumentException ignored) {
+                // Danh mục đã bị xóa khỏi categories.yml, chỉ tính vào tổng
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * Tính giới hạn và tải số lượng đang dùng khi player vào server
+     */
+    @EventHandler
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        if (enabled) {
+            UUID playerId = event.getPlayer().getUniqueId();
+            limits.put(playerId, resolveLimits(event.getPlayer()));
+            requestUsage(playerId);
+        }
+    }
+
+    /**
+     * Bỏ số liệu của người chơi khi thoát: lần vào sau đọc lại sau mọi thay đổi đang chờ ghi của họ
+     */
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        UUID playerId = event.getPlayer().getUniqueId();
+        limits.remove(playerId);
+        usages.remove(playerId);
+    }
+}
@@ -0,0 +1,122 @@
+package org.dnplugins.dNStorage.core;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.dnplugins.dNStorage.core.backend.StorageException;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Đo tải của các thao tác đọc database (/kho admin loadtest) để so sánh database.executor.mode
+ * <p>
+ * Mỗi người chơi giả liên tục tải kho của mình qua {@link DatabaseManager#runAsync}, lần sau bắt đầu ngay khi lần
+ * trước xong, giống một đợt nhiều người chơi vào server và mở kho cùng lúc. Người chơi giả có UUID ngẫu nhiên
+ * nên chỉ đọc (kho rỗng), không ghi gì vào database. Độ trễ tính cả thời gian chờ đến lượt. Chạy server với
+ * {@code -Djdk.tracePinnedThreads=short} để in ra console các virtual thread bị ghim vào carrier trong lúc đo.
+ */
+public class ReadLoadTest {
+
+    public static final int MAX_PLAYERS = 5000;
+    public static final int MAX_SECONDS = 300;
+
+    private final JavaPlugin plugin;
+    private final DatabaseManager databaseManager;
+    private final LanguageManager languageManager;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * Một lần đo
+     */
+    private static final class Run {
+        private volatile boolean active = true;
+        // Độ trễ của các thao tác đã xong (ns)
+        private final Queue<Long> latencies = new ConcurrentLinkedQueue<>();
+        private final LongAdder errors = new LongAdder();
+    }
+
+    public ReadLoadTest(JavaPlugin plugin, DatabaseManager databaseManager, LanguageManager languageManager) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        this.languageManager = languageManager;
+    }
+
+    /**
+     * Bắt đầu đo (gọi trên main thread); kết quả được gửi cho sender và ghi vào log khi hết thời gian
+     *
+     * @return false nếu đang có lần đo khác
+     */
+    public boolean start(CommandSender sender, int players, int seconds) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+
+        Run run = new Run();
+        for (int i = 0; i < players; i++) {
+            issue(run, UUID.randomUUID().toString());
+        }
+        long start = System.nanoTime();
+        Bukkit.getScheduler().runTaskLater(plugin, () -> {
+            run.active = false;
+            report(sender, run, players, (System.nanoTime() - start) / 1_000_000_000.0);
+            running.set(false);
+        }, seconds * 20L);
+        return true;
+    }
+
+    private void issue(Run run, String playerUuid) {
+        long start = System.nanoTime();
+        databaseManager.runAsync(() -> {
+            try {
+                databaseManager.getBackend().loadProfile(playerUuid);
+            } catch (StorageException e) {
+                run.errors.increment();
+            }
+            run.latencies.add(System.nanoTime() - start);
+            if (run.active) {
+                issue(run, playerUuid);
+            }
+        });
+    }
+
+    private void report(CommandSender sender, Run run, int players, double seconds) {
+        long[] latencies = run.latencies.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(latencies);
+        String mode = databaseManager.getReadMode();
+        String rate = String.format("%,.0f", latencies.length / seconds);
+        String p50 = formatMillis(percentile(latencies, 0.50));
+        String p99 = formatMillis(percentile(latencies, 0.99));
+        long errors = run.errors.sum();
+
+        plugin.getLogger().info("Read load test (" + mode + ", " + players + " players, "
+                + String.format("%.1f", seconds) + " s): " + latencies.length + " reads, " + rate + "/s, p50 "
+                + p50 + " ms, p99 " + p99 + " ms, " + errors + " errors, jdk.tracePinnedThreads="
+                + System.getProperty("jdk.tracePinnedThreads", "off"));
+        sender.sendMessage(languageManager.getMessage("command.admin.loadtest.result")
+                .replace("{mode}", mode)
+                .replace("{reads}", String.format("%,d", latencies.length))
+                .replace("{rate}", rate)
+                .replace("{p50}", p50)
+                .replace("{p99}", p99)
+                .replace("{errors}", String.format("%,d", errors)));
+        if (System.getProperty("jdk.tracePinnedThreads") == null) {
+            sender.sendMessage(languageManager.getMessage("command.admin.loadtest.trace_hint"));
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format("%.2f", nanos / 1_000_000.0);
+    }
+}
@@ -0,0 +1,239 @@
+package org.dnplugins.dNStorage.core;
+
+import org.bukkit.Material;
+import org.dnplugins.dNStorage.enums.ItemCategory;
+
+import java.text.Normalizer;
+import java.util.*;
+
+/**
+ * Chỉ mục tìm kiếm vật phẩm theo tên hiển thị, dùng cho {@code /kho search}
+ * <p>
+ * Được dựng một lần khi tải ngôn ngữ (và khi reload) từ tên của mọi vật phẩm thuộc một danh mục: tên theo
+ * ngôn ngữ hiện tại và tên tiếng Anh tạo từ mã vật phẩm. Tên được chuẩn hóa theo locale của ngôn ngữ (chữ
+ * thường, bỏ dấu, bỏ mã màu) để "kim cuong" vẫn tìm thấy "Kim cương". Truy vấn ngắn hơn 3 ký tự dùng chỉ mục
+ * tiền tố của từng từ (tìm nhị phân trên mảng đã sắp xếp); truy vấn dài hơn lấy giao các danh sách của từng
+ * trigram rồi chỉ kiểm tra lại các ứng viên, nên không phải duyệt toàn bộ vật phẩm.
+ */
+public class SearchIndex {
+
+    private static final int TRIGRAM = 3;
+
+    private final LanguageManager languageManager;
+    private volatile Index index;
+
+    /**
+     * Dữ liệu chỉ mục (không đổi sau khi dựng, thay thế nguyên khối khi reload)
+     *
+     * @param materials Vật phẩm theo id
+     * @param names     Các tên đã chuẩn hóa của từng vật phẩm
+     * @param words     Các từ đã sắp xếp (chỉ mục tiền tố)
+     * @param wordIds   Id vật phẩm của từng từ
+     * @param trigrams  Trigram -> danh sách id vật phẩm tăng dần
+     */
+    private record Index(Locale locale, Material[] materials, String[][] names, String[] words, int[] wordIds,
+            Map<Long, int[]> trigrams) {
+    }
+
+    public SearchIndex(LanguageManager languageManager) {
+        this.languageManager = languageManager;
+        rebuild();
+    }
+
+    /**
+     * Dựng lại chỉ mục theo ngôn ngữ hiện tại
+     */
+    public void rebuild() {
+        Locale locale = languageManager.getLocale();
+        List<Material> materials = new ArrayList<>();
+        for (Material material : Material.values()) {
+            if (ItemCategory.isCategorized(material)) {
+                materials.add(material);
+            }
+        }
+
+        String[][] names = new String[materials.size()][];
+        List<Map.Entry<String, Integer>> words = new ArrayList<>();
+        Map<Long, List<Integer>> trigramLists = new HashMap<>();
+        for (int id = 0; id < materials.size(); id++) {
+            Material material = materials.get(id);
+            Set<String> materialNames = new LinkedHashSet<>();
+            materialNames.add(normalize(languageManager.getItemName(material), locale));
+            materialNames.add(normalize(LanguageManager.getDefaultItemName(material), locale));
+            materialNames.remove("");
+            names[id] = materialNames.toArray(new String[0]);
+
+            Set<String> materialWords = new HashSet<>();
+            Set<Long> materialTrigrams = new HashSet<>();
+            for (String name : names[id]) {
+                materialWords.addAll(Arrays.asList(name.split(" ")));
+                for (int i = 0; i + TRIGRAM <= name.length(); i++) {
+                    materialTrigrams.add(trigram(name, i));
+                }
+            }
+            for (String word : materialWords) {
+                words.add(Map.entry(word, id));
+            }
+            for (long trigram : materialTrigrams) {
+                // Id được thêm theo thứ tự tăng dần nên danh sách luôn đã sắp xếp
+                trigramLists.computeIfAbsent(trigram, k -> new ArrayList<>()).add(id);
+            }
+        }
+
+        words.sort(Map.Entry.comparingByKey());
+        String[] sortedWords = new String[words.size()];
+        int[] wordIds = new int[words.size()];
+        for (int i = 0; i < words.size(); i++) {
+            sortedWords[i] = words.get(i).getKey();
+            wordIds[i] = words.get(i).getValue();
+        }
+
+        Map<Long, int[]> trigrams = new HashMap<>(trigramLists.size() * 2);
+        for (Map.Entry<Long, List<Integer>> entry : trigramLists.entrySet()) {
+            trigrams.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        index = new Index(locale, materials.toArray(new Material[0]), names, sortedWords, wordIds, trigrams);
+    }
+
+    /**
+     * Tìm các vật phẩm có tên chứa chuỗi tìm kiếm. Kết quả khớp ở đầu tên đứng trước, rồi khớp ở đầu một từ,
+     * rồi khớp ở giữa từ; cùng mức thì theo tên.
+     */
+    public List<Material> search(String query) {
+        Index index = this.index;
+        String normalized = normalize(query, index.locale());
+        if (normalized.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        int[] candidates = normalized.length() < TRIGRAM
+                ? prefixCandidates(index, normalized)
+                : trigramCandidates(index, normalized);
+
+        List<int[]> ranked = new ArrayList<>();
+        for (int id : candidates) {
+            int rank = rank(index.names()[id], normalized);
+            if (rank >= 0) {
+                ranked.add(new int[]{rank, id});
+            }
+        }
+        ranked.sort((a, b) -> a[0] != b[0] ? Integer.compare(a[0], b[0])
+                : index.names()[a[1]][0].compareTo(index.names()[b[1]][0]));
+
+        List<Material> result = new ArrayList<>(ranked.size());
+        for (int[] entry : ranked) {
+            result.add(index.materials()[entry[1]]);
+        }
+        return result;
+    }
+
+    /**
+     * Mức khớp của một vật phẩm (0 = đầu tên, 1 = đầu một từ, 2 = giữa từ, -1 = không khớp)
+     */
+    private static int rank(String[] names, String query) {
+        int best = -1;
+        for (String name : names) {
+            int position = name.indexOf(query);
+            if (position < 0) {
+                continue;
+            }
+            int rank = position == 0 ? 0 : name.contains(" " + query) ? 1 : 2;
+            if (best < 0 || rank < best) {
+                best = rank;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Các vật phẩm có một từ bắt đầu bằng chuỗi tìm kiếm (tìm nhị phân trên các từ đã sắp xếp)
+     */
+    private static int[] prefixCandidates(Index index, String prefix) {
+        String[] words = index.words();
+        int low = 0;
+        int high = words.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (words[middle].compareTo(prefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        BitSet ids = new BitSet(index.materials().length);
+        for (int i = low; i < words.length && words[i].startsWith(prefix); i++) {
+            ids.set(index.wordIds()[i]);
+        }
+        return ids.stream().toArray();
+    }
+
+    /**
+     * Các vật phẩm chứa mọi trigram của chuỗi tìm kiếm (giao các danh sách, bắt đầu từ danh sách ngắn nhất)
+     */
+    private static int[] trigramCandidates(Index index, String query) {
+        List<int[]> lists = new ArrayList<>();
+        for (int i = 0; i + TRIGRAM <= query.length(); i++) {
+            int[] ids = index.trigrams().get(trigram(query, i));
+            if (ids == null) {
+                return new int[0];
+            }
+            lists.add(ids);
+        }
+        lists.sort(Comparator.comparingInt(ids -> ids.length));
+
+        int[] result = lists.get(0);
+        for (int i = 1; i < lists.size() && result.length > 0; i++) {
+            result = intersect(result, lists.get(i));
+        }
+        return result;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static long trigram(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    /**
+     * Chuẩn hóa tên/chuỗi tìm kiếm: bỏ mã màu, chữ thường theo locale, bỏ dấu, các ký tự khác chữ/số thành
+     * một khoảng trắng
+     */
+    static String normalize(String text, Locale locale) {
+        String plain = text.replaceAll("§.", "").toLowerCase(locale).replace('đ', 'd');
+        String stripped = Normalizer.normalize(plain, Normalizer.Form.NFD).replaceAll("\\p{M}+", "");
+        StringBuilder result = new StringBuilder(stripped.length());
+        boolean space = false;
+        for (int i = 0; i < stripped.length(); i++) {
+            char c = stripped.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && result.length() > 0) {
+                    result.append(' ');
+                }
+                result.append(c);
+                space = false;
+            } else {
+                space = true;
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,288 @@
+package org.dnplugins.dNStorage.core;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.dnplugins.dNStorage.core.backend.ItemDefinitionBackend;
+import org.dnplugins.dNStorage.core.backend.StorageException;
+import org.dnplugins.dNStorage.enums.ChangeSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Kho vật phẩm đặc biệt (/kho special): lưu nguyên ItemStack kể cả NBT (tên, phù phép, thuốc, ...)
+ * <p>
+ * Mỗi loại vật phẩm được serialize một lần (số lượng 1) và lưu theo SHA-256 của dữ liệu, nên hàng nghìn
+ * vật phẩm giống nhau chỉ tốn một định nghĩa; kho của người chơi chỉ lưu id định nghĩa và số lượng. Định
+ * nghĩa không bao giờ thay đổi nên được cache trong bộ nhớ theo cả hash và id. Kho đặc biệt không được cache
+ * mà luôn đọc từ database khi mở GUI, vì vậy không cần đồng bộ giữa các server.
+ * <p>
+ * Vật phẩm đã lấy ra khỏi kho mà không trả được cho người chơi (họ đã thoát và không cất lại được vào kho) được
+ * giữ trong special-returns.yml và trả lại khi họ vào server lần sau.
+ */
+public class SpecialItemStore {
+
+    /**
+     * Một vật phẩm trong kho đặc biệt
+     *
+     * @param definitionId Id định nghĩa
+     * @param item         Vật phẩm mẫu (số lượng 1)
+     * @param amount       Số lượng đang lưu
+     */
+    public record StoredItem(int definitionId, ItemStack item, int amount) {
+    }
+
+    private final JavaPlugin plugin;
+    private final DatabaseManager databaseManager;
+    private final AuditLog auditLog;
+    // Vật phẩm chờ trả lại: UUID -> danh sách stack đã serialize (base64), chỉ dùng trên main thread
+    private final File returnsFile;
+    private final YamlConfiguration returns;
+    private final Map<String, Integer> idsByHash = new ConcurrentHashMap<>();
+    private final Map<Integer, ItemStack> definitions = new ConcurrentHashMap<>();
+    private boolean enabled;
+
+    public SpecialItemStore(JavaPlugin plugin, DatabaseManager databaseManager, AuditLog auditLog) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        this.auditLog = auditLog;
+        this.returnsFile = new File(plugin.getDataFolder(), "special-returns.yml");
+        this.returns = YamlConfiguration.loadConfiguration(returnsFile);
+        loadConfig();
+    }
+
+    /**
+     * Tải cấu hình special-items từ config.yml
+     */
+    public void loadConfig() {
+        enabled = plugin.getConfig().getBoolean("special-items.enabled", true);
+        if (enabled && !(databaseManager.getBackend() instanceof ItemDefinitionBackend)) {
+            plugin.getLogger().warning("Special item storage is not supported by the "
+                    + databaseManager.getBackend().getName() + " backend");
+            enabled = false;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Vật phẩm có dữ liệu riêng (NBT) sẽ mất khi được lưu dưới dạng số lượng trong kho thường
+     */
+    public static boolean isSpecial(ItemStack item) {
+        return item != null && item.getType() != Material.AIR && item.hasItemMeta();
+    }
+
+    /**
+     * Đưa một stack vào kho đặc biệt. Phải gọi trên main thread; stack được serialize ngay. Người gọi chỉ nên lấy
+     * stack khỏi túi đồ sau khi callback báo đã lưu, nếu không lấy được thì hoàn tác bằng {@link #undoDeposit}.
+     *
+     * @param callback Nhận true nếu đã lưu (chạy trên main thread)
+     */
+    public void deposit(UUID playerId, ItemStack stack, Consumer<Boolean> callback) {
+        int amount = stack.getAmount();
+        Material material = stack.getType();
+        byte[] data = stack.asQuantity(1).serializeAsBytes();
+        String hash = hash(data);
+        ItemStack template = stack.asQuantity(1);
+
+        write(() -> {
+            try {
+                Integer id = idsByHash.get(hash);
+                if (id == null) {
+                    id = backend().defineItem(hash, data);
+                    idsByHash.put(hash, id);
+                    definitions.putIfAbsent(id, template);
+                }
+                backend().addSpecialItem(playerId.toString(), id, amount);
+                databaseManager.specialCommitted(playerId.toString(), id);
+                auditLog.record(playerId, material, amount, ChangeSource.SPECIAL);
+                return true;
+            } catch (StorageException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to store special item for " + playerId, e);
+                return false;
+            }
+        }, callback);
+    }
+
+    /**
+     * Lấy vật phẩm ra khỏi kho đặc biệt chỉ khi còn đủ số lượng
+     *
+     * @param callback Nhận true nếu đã lấy ra (chạy trên main thread)
+     */
+    public void withdraw(UUID playerId, int definitionId, int amount, Consumer<Boolean> callback) {
+        ItemStack template = definitions.get(definitionId);
+        Material material = template != null ? template.getType() : Material.AIR;
+        write(() -> {
+            try {
+                if (!backend().withdrawSpecialItem(playerId.toString(), definitionId, amount)) {
+                    return false;
+                }
+                databaseManager.specialCommitted(playerId.toString(), definitionId);
+                auditLog.record(playerId, material, -amount, ChangeSource.SPECIAL);
+                return true;
+            } catch (StorageException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to withdraw special item for " + playerId, e);
+                return false;
+            }
+        }, callback);
+    }
+
+    /**
+     * Lấy lại một phần của lần cất vừa lưu xong mà không lấy được khỏi túi đồ (stack đã bị di chuyển, dùng hết
+     * hoặc người chơi đã thoát), để vật phẩm không tồn tại ở cả hai nơi
+     */
+    public void undoDeposit(UUID playerId, ItemStack stack, int amount) {
+        Integer id = idsByHash.get(hash(stack.asQuantity(1).serializeAsBytes()));
+        if (id == null) {
+            plugin.getLogger().severe("Could not undo special item deposit of " + amount + " " + stack.getType()
+                    + " for " + playerId + ": unknown item definition");
+            return;
+        }
+        withdraw(playerId, id, amount, taken -> {
+            if (!taken) {
+                plugin.getLogger().severe("Could not undo special item deposit of " + amount + " " + stack.getType()
+                        + " (definition " + id + ") for " + playerId + ", the items now exist twice");
+            }
+        });
+    }
+
+    /**
+     * Giữ vật phẩm để trả cho người chơi khi họ vào server lần sau (main thread). File được ghi ngay để vật phẩm
+     * không mất khi server dừng.
+     */
+    public void holdForReturn(UUID playerId, ItemStack stack) {
+        List<String> held = new ArrayList<>(returns.getStringList(playerId.toString()));
+        String data = Base64.getEncoder().encodeToString(stack.serializeAsBytes());
+        held.add(data);
+        returns.set(playerId.toString(), held);
+        if (!saveReturns()) {
+            plugin.getLogger().severe("Lost special item return for " + playerId + ", item data: " + data);
+        }
+    }
+
+    /**
+     * Lấy (và xóa khỏi file) các vật phẩm đang chờ trả cho người chơi (main thread)
+     */
+    public List<ItemStack> takeReturns(UUID playerId) {
+        List<String> held = returns.getStringList(playerId.toString());
+        if (held.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<ItemStack> items = new ArrayList<>(held.size());
+        for (String data : held) {
+            try {
+                items.add(ItemStack.deserializeBytes(Base64.getDecoder().decode(data)));
+            } catch (RuntimeException e) {
+                plugin.getLogger().log(Level.SEVERE, "Could not read special item return for " + playerId
+                        + ", item data: " + data, e);
+            }
+        }
+        returns.set(playerId.toString(), null);
+        if (!saveReturns()) {
+            // Giữ lại trong file để không trả hai lần khi file chưa được cập nhật
+            returns.set(playerId.toString(), held);
+            return Collections.emptyList();
+        }
+        return items;
+    }
+
+    private boolean saveReturns() {
+        try {
+            returns.save(returnsFile);
+            return true;
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to save " + returnsFile.getName(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Đọc kho đặc biệt của người chơi
+     *
+     * @param callback Nhận danh sách theo thứ tự lưu, hoặc null nếu lỗi (chạy trên main thread)
+     */
+    public void loadAsync(UUID playerId, Consumer<List<StoredItem>> callback) {
+        if (!databaseManager.isAvailable()) {
+            callback.accept(null);
+            return;
+        }
+        databaseManager.runAsync(() -> {
+            Map<Integer, Integer> amounts;
+            Map<Integer, byte[]> missing;
+            try {
+                amounts = backend().loadSpecialItems(playerId.toString());
+                List<Integer> unknown = new ArrayList<>();
+                for (int id : amounts.keySet()) {
+                    if (!definitions.containsKey(id)) {
+                        unknown.add(id);
+                    }
+                }
+                missing = unknown.isEmpty() ? Collections.emptyMap() : backend().loadDefinitions(unknown);
+            } catch (StorageException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to load special items for " + playerId, e);
+                Bukkit.getScheduler().runTask(plugin, () -> callback.accept(null));
+                return;
+            }
+
+            // Giải mã trên main thread vì cần registry của server
+            Bukkit.getScheduler().runTask(plugin, () -> callback.accept(resolve(amounts, missing)));
+        });
+    }
+
+    private List<StoredItem> resolve(Map<Integer, Integer> amounts, Map<Integer, byte[]> missing) {
+        for (Map.Entry<Integer, byte[]> entry : missing.entrySet()) {
+            try {
+                definitions.putIfAbsent(entry.getKey(), ItemStack.deserializeBytes(entry.getValue()));
+            } catch (RuntimeException e) {
+                // Dữ liệu từ phiên bản server không đọc được (ví dụ vật phẩm của plugin đã gỡ)
+                plugin.getLogger().log(Level.WARNING, "Could not read item definition " + entry.getKey(), e);
+            }
+        }
+
+        List<StoredItem> items = new ArrayList<>(amounts.size());
+        for (Map.Entry<Integer, Integer> entry : amounts.entrySet()) {
+            ItemStack item = definitions.get(entry.getKey());
+            if (item != null) {
+                items.add(new StoredItem(entry.getKey(), item.clone(), entry.getValue()));
+            }
+        }
+        return items;
+    }
+
+    private ItemDefinitionBackend backend() {
+        return (ItemDefinitionBackend) databaseManager.getBackend();
+    }
+
+    /**
+     * Chạy thao tác ghi trên luồng writer (tách biệt với transaction của các lô thay đổi) rồi trả kết quả về
+     * main thread. Kho đặc biệt không đi qua journal nên không ghi được khi database mất kết nối.
+     */
+    private void write(Supplier<Boolean> task, Consumer<Boolean> callback) {
+        databaseManager.submitWrite(task, result -> callback.accept(Boolean.TRUE.equals(result)));
+    }
+
+    /**
+     * Khóa của định nghĩa: SHA-256 (hex) của vật phẩm đã serialize
+     */
+    static String hash(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            // Mọi JVM đều phải hỗ trợ SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
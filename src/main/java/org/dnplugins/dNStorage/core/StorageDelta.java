@@ -0,0 +1,27 @@
+package org.dnplugins.dNStorage.core;
+
+/**
+ * Một thay đổi trên kho của người chơi đang chờ ghi xuống database
+ *
+ * @param op         Loại thay đổi
+ * @param seq        Số thứ tự trong journal (0 nếu journal bị tắt)
+ * @param playerUuid UUID người chơi
+ * @param category   Tên danh mục
+ * @param material   Tên vật phẩm
+ * @param amount     Số lượng cộng thêm (ADD), lấy ra (REMOVE) hoặc số lượng mới (SET)
+ */
+public record StorageDelta(Op op, long seq, String playerUuid, String category, String material, int amount) {
+
+    public enum Op {
+        /** Cộng thêm số lượng (tạo dòng mới nếu chưa có) */
+        ADD,
+        /** Ghi đè số lượng */
+        SET,
+        /** Xóa vật phẩm */
+        DELETE,
+        /** Trừ số lượng (compare-and-set theo version, không ghi đè thay đổi của server khác) */
+        REMOVE,
+        /** Lưu trạng thái auto-pickup (amount = 1 nếu bật, category/material để trống) */
+        AUTO_PICKUP
+    }
+}
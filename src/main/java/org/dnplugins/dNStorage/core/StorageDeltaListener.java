@@ -0,0 +1,18 @@
+package org.dnplugins.dNStorage.core;
+
+import org.bukkit.Material;
+import org.dnplugins.dNStorage.enums.ItemCategory;
+
+import java.util.UUID;
+
+/**
+ * Nhận các thay đổi số lượng vật phẩm do {@link StorageManager} tạo ra (gọi trên main thread)
+ */
+@FunctionalInterface
+public interface StorageDeltaListener {
+
+    /**
+     * @param delta Số lượng thay đổi (dương khi thêm, âm khi lấy ra)
+     */
+    void onDelta(UUID playerId, ItemCategory.Category category, Material material, int delta);
+}
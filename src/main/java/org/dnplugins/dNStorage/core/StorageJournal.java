@@ -0,0 +1,603 @@
+package org.dnplugins.dNStorage.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+/**
+ * Journal ghi nối tiếp (append-only) trên đĩa cho các thay đổi chưa được ghi xuống database.
+ * Mỗi thay đổi được ghi vào journal trước khi đưa vào hàng đợi ghi, fsync theo lô định kỳ,
+ * và journal chỉ được cắt ngắn khi database đã xác nhận commit tất cả các thay đổi.
+ * <p>
+ * Khi file đang ghi vượt quá kích thước tối đa mà database vẫn chưa ghi kịp (tải cao liên tục hoặc mất kết
+ * nối), file được đóng lại thành một segment ({@code storage.journal.<seq cuối>}) và ghi tiếp sang file mới.
+ * Segment bị xóa ngay khi mọi thay đổi trong đó đã được commit, nên dung lượng trên đĩa chỉ tương ứng với
+ * các thay đổi chưa được ghi. Mỗi segment có header và từ điển tên riêng.
+ * <p>
+ * Định dạng file:
+ * <pre>
+ * Header : magic(int) version(byte) epoch(long) baseSeq(long)
+ * DEFINE : type(1) id(varint) len(varint) utf8 crc32c(int)
+ * DELTA  : type(2..6) seqDelta(varlong) player(varint) category(varint) material(varint) amount(zigzag) crc32c(int)
+ * </pre>
+ * Tên người chơi/danh mục/vật phẩm được ghi một lần dưới dạng DEFINE và sau đó chỉ tham chiếu bằng id,
+ * nên một bản ghi nhặt đồ thông thường chỉ tốn khoảng 10 byte.
+ */
+public class StorageJournal {
+
+    private static final int MAGIC = 0x444E534A; // "DNSJ"
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 1 + 8 + 8;
+
+    private static final byte TYPE_DEFINE = 1;
+    private static final byte TYPE_ADD = 2;
+    private static final byte TYPE_SET = 3;
+    private static final byte TYPE_DELETE = 4;
+    private static final byte TYPE_AUTO_PICKUP = 5;
+    private static final byte TYPE_REMOVE = 6;
+
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+    // Kích thước buffer đọc ban đầu khi replay (tự tăng nếu gặp bản ghi lớn hơn)
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // Độ dài tối đa của một tên trong DEFINE (UUID, danh mục, vật phẩm); dài hơn là dữ liệu hỏng
+    private static final int MAX_NAME_LENGTH = 1024;
+
+    private final File file;
+    private final Logger logger;
+    private final long maxSizeBytes;
+    private final ScheduledExecutorService flusher;
+    private final CRC32C crc = new CRC32C();
+
+    private FileChannel channel;
+    private long epoch;
+    private long lastSeq;
+    private long lastWrittenSeq;
+    private long appliedSeq;
+    private long fileSize;
+    private boolean dirty;
+
+    // Từ điển tên -> id của file hiện tại
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    // Các segment đã đóng, theo seq cuối cùng trong segment
+    private final TreeMap<Long, File> segments = new TreeMap<>();
+
+    /**
+     * Kết quả đọc một file journal
+     *
+     * @param epoch       Epoch trong header
+     * @param lastSeq     Seq của bản ghi hợp lệ cuối cùng (hoặc seq gốc trong header)
+     * @param validLength Độ dài phần file hợp lệ
+     */
+    private record Replay(long epoch, long lastSeq, long validLength) {
+    }
+
+    // Buffer ghi tạm trước khi đẩy xuống FileChannel
+    private byte[] buffer = new byte[8192];
+    private int bufferSize;
+
+    public StorageJournal(File file, Logger logger, long fsyncIntervalMs, long maxSizeBytes) {
+        this.file = file;
+        this.logger = logger;
+        this.maxSizeBytes = maxSizeBytes;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "DNStorage-Journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::sync, fsyncIntervalMs, fsyncIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Mở journal và đọc lại các thay đổi còn sót lại từ lần chạy trước (theo đúng thứ tự) theo luồng, các
+     * segment trước rồi đến file đang ghi. Phần đuôi bị hỏng (ghi dở khi crash) sẽ bị cắt bỏ.
+     *
+     * @param batchSize Số thay đổi tối đa mỗi lần gọi recovered
+     * @param recovered Nhận các thay đổi đọc được theo từng nhóm
+     * @return Tổng số thay đổi đọc được
+     */
+    public synchronized long open(int batchSize, Consumer<List<StorageDelta>> recovered) throws IOException {
+        List<StorageDelta> pending = new ArrayList<>(batchSize);
+        long[] first = { -1 };
+        long[] count = { 0 };
+        Consumer<StorageDelta> sink = delta -> {
+            if (first[0] < 0) {
+                first[0] = delta.seq();
+            }
+            count[0]++;
+            pending.add(delta);
+            if (pending.size() >= batchSize) {
+                recovered.accept(new ArrayList<>(pending));
+                pending.clear();
+            }
+        };
+
+        epoch = -1;
+        lastSeq = 0;
+        for (File segment : findSegments()) {
+            try (FileChannel in = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+                Replay replay = replay(in, epoch, sink);
+                if (replay == null) {
+                    logger.warning("Ignoring journal segment with an invalid header: " + segment.getName());
+                    continue;
+                }
+                epoch = replay.epoch();
+                lastSeq = replay.lastSeq();
+                segments.put(replay.lastSeq(), segment);
+            }
+        }
+
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        Replay active = channel.size() > 0 ? replay(channel, epoch, sink) : null;
+        if (!pending.isEmpty()) {
+            recovered.accept(new ArrayList<>(pending));
+            pending.clear();
+        }
+
+        if (active == null) {
+            if (channel.size() > 0) {
+                logger.warning("Journal header is invalid, starting a new journal: " + file.getName());
+            }
+            if (epoch < 0) {
+                epoch = new Random().nextLong() & Long.MAX_VALUE;
+            }
+            // Seq tiếp nối các segment (nếu có); phần dữ liệu cũ sau header bị bỏ
+            dictionary.clear();
+            channel.truncate(0);
+            writeHeader();
+        } else {
+            epoch = active.epoch();
+            lastSeq = active.lastSeq();
+            // Cắt bỏ phần đuôi hỏng nếu có
+            if (channel.size() > active.validLength()) {
+                logger.warning("Journal has a torn tail, truncated " + (channel.size() - active.validLength())
+                        + " bytes");
+                channel.truncate(active.validLength());
+            }
+            channel.position(active.validLength());
+            fileSize = active.validLength();
+        }
+
+        lastWrittenSeq = lastSeq;
+        appliedSeq = first[0] < 0 ? lastSeq : first[0] - 1;
+        return count[0];
+    }
+
+    /**
+     * Các segment đã đóng, theo thứ tự seq
+     */
+    private Collection<File> findSegments() {
+        TreeMap<Long, File> found = new TreeMap<>();
+        String prefix = file.getName() + ".";
+        File[] files = file.getAbsoluteFile().getParentFile().listFiles((dir, name) -> name.startsWith(prefix));
+        if (files != null) {
+            for (File segment : files) {
+                try {
+                    found.put(Long.parseLong(segment.getName().substring(prefix.length())), segment);
+                } catch (NumberFormatException e) {
+                    // Không phải segment
+                }
+            }
+        }
+        return found.values();
+    }
+
+    /**
+     * Đọc header và các bản ghi hợp lệ của một file theo luồng. Từ điển tên được thay bằng từ điển của file.
+     *
+     * @param expectedEpoch Epoch bắt buộc (-1 = bất kỳ)
+     * @return null nếu header không hợp lệ hoặc khác epoch
+     */
+    private Replay replay(FileChannel in, long expectedEpoch, Consumer<StorageDelta> out) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        in.position(0);
+        while (header.hasRemaining() && in.read(header) >= 0) {
+            // Đọc đủ header
+        }
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.get() != VERSION) {
+            return null;
+        }
+        long fileEpoch = header.getLong();
+        if (expectedEpoch >= 0 && fileEpoch != expectedEpoch) {
+            return null;
+        }
+        long seq = header.getLong();
+
+        dictionary.clear();
+        Map<Integer, String> names = new HashMap<>();
+        ByteBuffer data = ByteBuffer.allocate(READ_BUFFER_SIZE).flip();
+        long validLength = HEADER_SIZE;
+        boolean eof = false;
+        while (true) {
+            int start = data.position();
+            try {
+                byte type = data.get();
+                StorageDelta delta = null;
+                int definedId = -1;
+                String definedName = null;
+
+                if (type == TYPE_DEFINE) {
+                    definedId = readVarInt(data);
+                    int length = readVarInt(data);
+                    if (length < 0 || length > MAX_NAME_LENGTH) {
+                        break;
+                    }
+                    byte[] bytes = new byte[length];
+                    data.get(bytes);
+                    definedName = new String(bytes, StandardCharsets.UTF_8);
+                } else if (type >= TYPE_ADD && type <= TYPE_REMOVE) {
+                    long deltaSeq = seq + readVarLong(data);
+                    String player = names.get(readVarInt(data));
+                    String category = names.get(readVarInt(data));
+                    String material = names.get(readVarInt(data));
+                    int amount = decodeZigZag(readVarInt(data));
+                    if (player == null || category == null || material == null) {
+                        break;
+                    }
+                    delta = new StorageDelta(toOp(type), deltaSeq, player, category, material, amount);
+                } else {
+                    break;
+                }
+
+                int end = data.position();
+                crc.reset();
+                crc.update(data.array(), start, end - start);
+                if (data.getInt() != (int) crc.getValue()) {
+                    break;
+                }
+
+                if (definedName != null) {
+                    names.put(definedId, definedName);
+                    dictionary.put(definedName, definedId);
+                }
+                if (delta != null) {
+                    seq = delta.seq();
+                    out.accept(delta);
+                }
+                validLength += data.position() - start;
+            } catch (BufferUnderflowException e) {
+                if (eof) {
+                    // Bản ghi cuối bị ghi dở
+                    break;
+                }
+                // Giữ lại phần bản ghi đang đọc dở và đọc thêm từ file
+                data.position(start);
+                data.compact();
+                if (!data.hasRemaining()) {
+                    data = ByteBuffer.allocate(data.capacity() * 2).put(data.flip());
+                }
+                eof = in.read(data) < 0;
+                data.flip();
+            } catch (RuntimeException e) {
+                // Dữ liệu hỏng: dừng tại bản ghi hợp lệ cuối cùng
+                break;
+            }
+        }
+        return new Replay(fileEpoch, seq, validLength);
+    }
+
+    /**
+     * Ghi một thay đổi vào journal và trả về số thứ tự của nó
+     */
+    public synchronized long append(StorageDelta.Op op, String playerUuid, String category, String material,
+            int amount) {
+        int playerId = define(playerUuid);
+        int categoryId = define(category);
+        int materialId = define(material);
+
+        long seq = ++lastSeq;
+        int start = bufferSize;
+        ensureCapacity(32);
+        buffer[bufferSize++] = toType(op);
+        writeVarLong(seq - lastWrittenSeq);
+        writeVarInt(playerId);
+        writeVarInt(categoryId);
+        writeVarInt(materialId);
+        writeVarInt(encodeZigZag(amount));
+        writeCrc(start);
+        lastWrittenSeq = seq;
+
+        if (bufferSize >= FLUSH_THRESHOLD) {
+            flushBuffer();
+        }
+        return seq;
+    }
+
+    /**
+     * Đánh dấu các thay đổi đến seq đã được database commit. Các segment đã commit hết bị xóa.
+     */
+    public synchronized void markApplied(long seq) {
+        if (seq > appliedSeq) {
+            appliedSeq = seq;
+        }
+        while (!segments.isEmpty() && segments.firstKey() <= appliedSeq) {
+            File segment = segments.pollFirstEntry().getValue();
+            if (!segment.delete()) {
+                logger.warning("Failed to delete journal segment " + segment.getName());
+            }
+        }
+        limitSize();
+    }
+
+    /**
+     * Khi file đang ghi vượt quá kích thước tối đa: làm rỗng nếu mọi thay đổi đã commit, nếu không thì đóng
+     * thành segment và ghi tiếp sang file mới
+     */
+    private void limitSize() {
+        if (channel == null || fileSize + bufferSize <= maxSizeBytes) {
+            return;
+        }
+        if (appliedSeq >= lastSeq) {
+            truncate();
+        } else {
+            roll();
+        }
+    }
+
+    /**
+     * Số thứ tự cuối cùng đã được database commit
+     */
+    public synchronized long getAppliedSeq() {
+        return appliedSeq;
+    }
+
+    /**
+     * Số thay đổi đang chờ database commit
+     */
+    public synchronized long getPendingCount() {
+        return lastSeq - appliedSeq;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Đẩy buffer xuống file và fsync (được gọi định kỳ bởi luồng flusher)
+     */
+    public void sync() {
+        FileChannel target;
+        synchronized (this) {
+            flushBuffer();
+            // Database không ghi kịp (hoặc mất kết nối) thì markApplied không được gọi, nên kiểm tra cả ở đây
+            limitSize();
+            if (!dirty || channel == null) {
+                return;
+            }
+            dirty = false;
+            target = channel;
+        }
+
+        try {
+            target.force(false);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to fsync storage journal", e);
+        }
+    }
+
+    /**
+     * Đóng journal. Nếu mọi thay đổi đã được commit thì file được làm rỗng.
+     */
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (channel == null) {
+                return;
+            }
+            if (appliedSeq >= lastSeq) {
+                truncate();
+            }
+        }
+        sync();
+        synchronized (this) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Failed to close storage journal", e);
+            }
+            channel = null;
+        }
+    }
+
+    private int define(String name) {
+        Integer id = dictionary.get(name);
+        if (id != null) {
+            return id;
+        }
+
+        int newId = dictionary.size();
+        dictionary.put(name, newId);
+
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int start = bufferSize;
+        ensureCapacity(bytes.length + 16);
+        buffer[bufferSize++] = TYPE_DEFINE;
+        writeVarInt(newId);
+        writeVarInt(bytes.length);
+        System.arraycopy(bytes, 0, buffer, bufferSize, bytes.length);
+        bufferSize += bytes.length;
+        writeCrc(start);
+        return newId;
+    }
+
+    private void truncate() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            bufferSize = 0;
+            dictionary.clear();
+            lastWrittenSeq = lastSeq;
+            channel.truncate(0);
+            writeHeader();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to truncate storage journal", e);
+        }
+    }
+
+    /**
+     * Đóng file đang ghi thành một segment (đã fsync) và mở file mới tiếp nối seq
+     */
+    private void roll() {
+        File segment = new File(file.getAbsoluteFile().getParentFile(), file.getName() + "." + lastSeq);
+        try {
+            flushBuffer();
+            channel.force(false);
+            channel.close();
+            Files.move(file.toPath(), segment.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            segments.put(lastSeq, segment);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to roll storage journal", e);
+        }
+
+        try {
+            if (segments.containsValue(segment)) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                dictionary.clear();
+                lastWrittenSeq = lastSeq;
+                writeHeader();
+            } else if (!channel.isOpen()) {
+                // Không đổi tên được: ghi tiếp vào file cũ
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                channel.position(channel.size());
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to reopen storage journal", e);
+            channel = null;
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).put(VERSION).putLong(epoch).putLong(lastSeq).flip();
+        channel.position(0);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        fileSize = HEADER_SIZE;
+        dirty = true;
+    }
+
+    private void flushBuffer() {
+        if (bufferSize == 0 || channel == null) {
+            return;
+        }
+        try {
+            ByteBuffer data = ByteBuffer.wrap(buffer, 0, bufferSize);
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            fileSize += bufferSize;
+            bufferSize = 0;
+            dirty = true;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to write storage journal", e);
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (bufferSize + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, bufferSize + extra));
+        }
+    }
+
+    private void writeCrc(int start) {
+        crc.reset();
+        crc.update(buffer, start, bufferSize - start);
+        int value = (int) crc.getValue();
+        ensureCapacity(4);
+        buffer[bufferSize++] = (byte) (value >>> 24);
+        buffer[bufferSize++] = (byte) (value >>> 16);
+        buffer[bufferSize++] = (byte) (value >>> 8);
+        buffer[bufferSize++] = (byte) value;
+    }
+
+    private void writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[bufferSize++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[bufferSize++] = (byte) value;
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[bufferSize++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[bufferSize++] = (byte) value;
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("VarInt too long");
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("VarLong too long");
+    }
+
+    private static int encodeZigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int decodeZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static byte toType(StorageDelta.Op op) {
+        return switch (op) {
+            case ADD -> TYPE_ADD;
+            case SET -> TYPE_SET;
+            case DELETE -> TYPE_DELETE;
+            case AUTO_PICKUP -> TYPE_AUTO_PICKUP;
+            case REMOVE -> TYPE_REMOVE;
+        };
+    }
+
+    private static StorageDelta.Op toOp(byte type) {
+        return switch (type) {
+            case TYPE_ADD -> StorageDelta.Op.ADD;
+            case TYPE_SET -> StorageDelta.Op.SET;
+            case TYPE_AUTO_PICKUP -> StorageDelta.Op.AUTO_PICKUP;
+            case TYPE_REMOVE -> StorageDelta.Op.REMOVE;
+            default -> StorageDelta.Op.DELETE;
+        };
+    }
+}
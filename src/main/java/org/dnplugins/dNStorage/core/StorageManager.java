@@ -1,10 +1,18 @@
 package org.dnplugins.dNStorage.core;
 
+import org.bukkit.Bukkit;
 import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.dnplugins.dNStorage.api.StorageChangeEvent;
+import org.dnplugins.dNStorage.core.backend.StorageException;
+import org.dnplugins.dNStorage.enums.ChangeSource;
 import org.dnplugins.dNStorage.enums.ItemCategory;
 
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 
 /**
  * Quản lý lưu trữ vật phẩm theo danh mục cho từng người chơi
@@ -12,6 +20,9 @@ import java.util.*;
  */
 public class StorageManager {
 
+    // Kích thước tối đa của cache warm (vùng nhớ ByteBuffer tối đa 2 GB)
+    private static final long MAX_WARM_SIZE_MB = 2047;
+
     private final JavaPlugin plugin;
     private final DatabaseManager databaseManager;
     private final LanguageManager languageManager;
@@ -19,23 +30,274 @@ public class StorageManager {
     private final Map<UUID, Map<ItemCategory.Category, Map<Material, Integer>>> cache;
     // Track các category đã được load để tránh load lại không cần thiết
     private final Map<UUID, Set<ItemCategory.Category>> loadedCategories;
-
-    public StorageManager(JavaPlugin plugin, DatabaseManager databaseManager, LanguageManager languageManager) {
+    // Kho đã nén của người chơi vừa thoát, giữ ngoài heap (null nếu bị tắt)
+    private final WarmProfileCache warmCache;
+    // Các listener nhận thay đổi số lượng (bảng xếp hạng, ...)
+    private final List<StorageDeltaListener> deltaListeners = new ArrayList<>();
+    // Hạn mức dung lượng kho
+    private final QuotaManager quotaManager;
+    // Nhật ký giao dịch
+    private final AuditLog auditLog;
+    // Thay đổi trong tick hiện tại chờ gọi StorageChangeEvent, gộp theo người chơi
+    private Map<UUID, PendingChanges> pendingChanges = new LinkedHashMap<>();
+    private boolean changeFlushScheduled;
+    // Đang hoàn lại vật phẩm của sự kiện bị hủy (không ghi nhận vào lô mới)
+    private boolean revertingChanges;
+    // Kho của người chơi offline vừa được đưa vào cache nóng (API, quản trị viên), trả về cache warm ở tick sau
+    private final Set<UUID> offlineProfiles = new HashSet<>();
+    private boolean offlineDemotionScheduled;
+    // Số lần đọc lẻ từ database đang chạy của mỗi người chơi, và người chơi có thay đổi trong lúc đó
+    private final Map<UUID, Integer> readsInFlight = new HashMap<>();
+    private final Set<UUID> staleReads = new HashSet<>();
+
+    public StorageManager(JavaPlugin plugin, DatabaseManager databaseManager, LanguageManager languageManager,
+            QuotaManager quotaManager, AuditLog auditLog) {
         this.plugin = plugin;
         this.databaseManager = databaseManager;
         this.languageManager = languageManager;
+        this.quotaManager = quotaManager;
+        this.auditLog = auditLog;
         this.cache = new HashMap<>();
         this.loadedCategories = new HashMap<>();
+        // Số lượng đang dùng của hạn mức được cập nhật theo từng thay đổi
+        addDeltaListener(quotaManager);
+
+        long warmSizeMb = plugin.getConfig().getLong("cache.warm-size-mb", 16);
+        if (warmSizeMb > MAX_WARM_SIZE_MB) {
+            plugin.getLogger().warning("cache.warm-size-mb is limited to " + MAX_WARM_SIZE_MB + " MB");
+            warmSizeMb = MAX_WARM_SIZE_MB;
+        }
+        this.warmCache = warmSizeMb > 0 ? new WarmProfileCache((int) (warmSizeMb * 1024 * 1024)) : null;
+    }
+
+    /**
+     * Đăng ký listener nhận thay đổi số lượng vật phẩm
+     */
+    public void addDeltaListener(StorageDeltaListener listener) {
+        deltaListeners.add(listener);
+    }
+
+    private void fireDelta(UUID playerId, ItemCategory.Category category, Material material, int delta,
+            ChangeSource source) {
+        auditLog.record(playerId, material, delta, source);
+        markReadsStale(playerId);
+        for (StorageDeltaListener listener : deltaListeners) {
+            listener.onDelta(playerId, category, material, delta);
+        }
+        // Chỉ gộp khi có plugin lắng nghe, để việc nhặt đồ không tốn thêm gì
+        if (!revertingChanges && StorageChangeEvent.getHandlerList().getRegisteredListeners().length > 0) {
+            queueChange(playerId, material, delta, source);
+        }
+    }
+
+    /**
+     * Bắt đầu một lần đọc lẻ từ database (main thread)
+     */
+    private void beginRead(UUID playerId) {
+        readsInFlight.merge(playerId, 1, Integer::sum);
+    }
+
+    /**
+     * Kết thúc một lần đọc lẻ (main thread)
+     *
+     * @return true nếu kho của người chơi không thay đổi kể từ khi bắt đầu đọc, tức có thể đưa kết quả vào cache
+     */
+    private boolean endRead(UUID playerId) {
+        boolean fresh = !staleReads.contains(playerId);
+        if (readsInFlight.merge(playerId, -1, Integer::sum) <= 0) {
+            readsInFlight.remove(playerId);
+            staleReads.remove(playerId);
+        }
+        return fresh;
+    }
+
+    /**
+     * Kết quả của các lần đọc đang chạy có thể đã cũ (có thay đổi hoặc cache vừa bị bỏ)
+     */
+    private void markReadsStale(UUID playerId) {
+        if (readsInFlight.containsKey(playerId)) {
+            staleReads.add(playerId);
+        }
+    }
+
+    /**
+     * Có thể đọc thẳng từ database không: database phải sẵn sàng và mọi thay đổi của người chơi đã được ghi,
+     * nếu không kết quả sẽ thiếu các thay đổi đang chờ
+     */
+    private boolean canReadDatabase(UUID playerId) {
+        return databaseManager.canLoad(playerId) && !databaseManager.hasUnwrittenChanges(playerId);
+    }
+
+    /**
+     * Các thay đổi của một người chơi trong một tick
+     */
+    private static final class PendingChanges {
+        private final Map<Material, Integer> deposited = new EnumMap<>(Material.class);
+        private final Map<Material, Integer> withdrawn = new EnumMap<>(Material.class);
+        // Vật phẩm do người chơi gửi vào, được trả lại nếu sự kiện bị hủy
+        private final Map<Material, Integer> returnable = new EnumMap<>(Material.class);
+        private final Set<ChangeSource> sources = EnumSet.noneOf(ChangeSource.class);
+    }
+
+    private void queueChange(UUID playerId, Material material, int delta, ChangeSource source) {
+        PendingChanges changes = pendingChanges.computeIfAbsent(playerId, k -> new PendingChanges());
+        changes.sources.add(source);
+        if (delta > 0) {
+            changes.deposited.merge(material, delta, Integer::sum);
+            if (source == ChangeSource.PICKUP || source == ChangeSource.GUI || source == ChangeSource.COMMAND) {
+                changes.returnable.merge(material, delta, Integer::sum);
+            }
+        } else {
+            changes.withdrawn.merge(material, -delta, Integer::sum);
+        }
+
+        if (!changeFlushScheduled) {
+            changeFlushScheduled = true;
+            Bukkit.getScheduler().runTask(plugin, this::fireChangeEvents);
+        }
+    }
+
+    /**
+     * Gọi StorageChangeEvent cho từng người chơi có thay đổi trong tick vừa qua
+     */
+    private void fireChangeEvents() {
+        changeFlushScheduled = false;
+        Map<UUID, PendingChanges> batches = pendingChanges;
+        pendingChanges = new LinkedHashMap<>();
+
+        for (Map.Entry<UUID, PendingChanges> entry : batches.entrySet()) {
+            UUID playerId = entry.getKey();
+            PendingChanges changes = entry.getValue();
+            Player player = Bukkit.getPlayer(playerId);
+            StorageChangeEvent event = new StorageChangeEvent(playerId, player, changes.deposited,
+                    changes.withdrawn, changes.sources);
+            Bukkit.getPluginManager().callEvent(event);
+            if (event.isCancelled() && player != null && !changes.returnable.isEmpty()) {
+                returnDeposits(player, changes.returnable);
+            }
+        }
+    }
+
+    /**
+     * Lấy lại các vật phẩm của lô bị hủy khỏi kho và trả vào túi đồ người chơi
+     */
+    private void returnDeposits(Player player, Map<Material, Integer> deposits) {
+        revertingChanges = true;
+        try {
+            for (Map.Entry<Material, Integer> entry : deposits.entrySet()) {
+                Material material = entry.getKey();
+                // Chỉ lấy theo số lượng trong cache (removeItem không đọc database); phần đã bị lấy ra trong
+                // cùng tick không còn trong kho để trả lại
+                int removed = removeItem(player.getUniqueId(), material, entry.getValue(), ChangeSource.API);
+                if (removed < entry.getValue()) {
+                    plugin.getLogger().warning("Could not return " + (entry.getValue() - removed) + " of "
+                            + entry.getValue() + " " + material + " from a cancelled storage change of "
+                            + player.getName() + ": already withdrawn");
+                }
+                int maxStackSize = material.getMaxStackSize();
+                while (removed > 0) {
+                    int stackAmount = Math.min(removed, maxStackSize);
+                    for (ItemStack leftover : player.getInventory().addItem(new ItemStack(material, stackAmount))
+                            .values()) {
+                        player.getWorld().dropItemNaturally(player.getLocation(), leftover);
+                    }
+                    removed -= stackAmount;
+                }
+            }
+        } finally {
+            revertingChanges = false;
+        }
+    }
+
+    /**
+     * Lấy kho của người chơi trong cache (giải nén từ cache warm nếu người chơi vừa thoát)
+     *
+     * @return null nếu chưa có trong cache
+     */
+    private Map<ItemCategory.Category, Map<Material, Integer>> getCachedStorage(UUID playerId) {
+        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = cache.get(playerId);
+        if (playerStorage == null && warmCache != null) {
+            Map<ItemCategory.Category, Map<Material, Integer>> restored = new HashMap<>();
+            Set<ItemCategory.Category> loaded = new HashSet<>();
+            if (warmCache.promote(playerId, restored, loaded)) {
+                cache.put(playerId, restored);
+                if (!loaded.isEmpty()) {
+                    loadedCategories.put(playerId, loaded);
+                }
+                playerStorage = restored;
+                scheduleDemotionIfOffline(playerId);
+            }
+        }
+        return playerStorage;
+    }
+
+    /**
+     * Kho của người chơi offline chỉ được giữ trong cache nóng đến hết tick hiện tại
+     */
+    private void scheduleDemotionIfOffline(UUID playerId) {
+        if (Bukkit.getPlayer(playerId) != null || !offlineProfiles.add(playerId) || offlineDemotionScheduled) {
+            return;
+        }
+        offlineDemotionScheduled = true;
+        Bukkit.getScheduler().runTask(plugin, this::demoteOfflineProfiles);
+    }
+
+    private void demoteOfflineProfiles() {
+        offlineDemotionScheduled = false;
+        for (UUID playerId : offlineProfiles) {
+            if (Bukkit.getPlayer(playerId) != null) {
+                continue;
+            }
+            if (warmCache != null) {
+                demoteProfile(playerId);
+            } else {
+                clearCache(playerId);
+            }
+        }
+        offlineProfiles.clear();
+    }
+
+    /**
+     * Lấy kho của người chơi trong cache, tạo mới nếu chưa có
+     */
+    private Map<ItemCategory.Category, Map<Material, Integer>> getOrCreateStorage(UUID playerId) {
+        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = getCachedStorage(playerId);
+        if (playerStorage == null) {
+            playerStorage = new HashMap<>();
+            cache.put(playerId, playerStorage);
+            scheduleDemotionIfOffline(playerId);
+        }
+        return playerStorage;
     }
 
     /**
      * Thêm vật phẩm vào kho
+     *
+     * @param source Nguồn của thay đổi (ghi vào nhật ký giao dịch)
+     * @return số lượng đã thêm (có thể ít hơn amount nếu vượt hạn mức)
      */
-    public int addItem(UUID playerId, Material material, int amount) {
+    public int addItem(UUID playerId, Material material, int amount, ChangeSource source) {
+        return addItem(playerId, material, amount, source, true);
+    }
+
+    /**
+     * Trả lại vật phẩm vừa lấy ra khỏi kho (ví dụ khi inventory đầy), không kiểm tra hạn mức
+     */
+    public void restoreItem(UUID playerId, Material material, int amount, ChangeSource source) {
+        addItem(playerId, material, amount, source, false);
+    }
+
+    private int addItem(UUID playerId, Material material, int amount, ChangeSource source, boolean checkQuota) {
         ItemCategory.Category category = ItemCategory.getCategory(material);
         if (category == null) {
             return 0; // Vật phẩm không thuộc danh mục nào
         }
+        if (checkQuota) {
+            amount = quotaManager.getAllowance(playerId, category, amount);
+            if (amount <= 0) {
+                return 0;
+            }
+        }
 
         String playerUuid = playerId.toString();
         String categoryName = category.name();
@@ -45,26 +307,28 @@ public class StorageManager {
         databaseManager.upsertItem(playerUuid, categoryName, materialName, amount);
 
         // Cập nhật cache (optimistic update)
-        cache.computeIfAbsent(playerId, k -> new HashMap<>());
-        cache.get(playerId).computeIfAbsent(category, k -> new HashMap<>());
-        Map<Material, Integer> categoryStorage = cache.get(playerId).get(category);
+        Map<Material, Integer> categoryStorage = getOrCreateStorage(playerId)
+                .computeIfAbsent(category, k -> new HashMap<>());
         int currentAmount = categoryStorage.getOrDefault(material, 0);
         categoryStorage.put(material, currentAmount + amount);
+        fireDelta(playerId, category, material, amount, source);
 
         return amount;
     }
 
     /**
-     * Batch add nhiều items cùng lúc (sử dụng batch operations)
+     * Batch add nhiều items cùng lúc; mọi danh mục được ghi xuống database trong một transaction
+     *
+     * @return số lượng đã thêm của từng vật phẩm (có thể ít hơn yêu cầu nếu vượt hạn mức)
      */
-    public void batchAddItems(UUID playerId, Map<Material, Integer> items) {
+    public Map<Material, Integer> batchAddItems(UUID playerId, Map<Material, Integer> items, ChangeSource source) {
+        Map<Material, Integer> accepted = new HashMap<>();
         if (items == null || items.isEmpty()) {
-            return;
+            return accepted;
         }
 
-        // Nhóm items theo category
-        Map<ItemCategory.Category, Map<String, Integer>> itemsByCategory = new HashMap<>();
-
+        String playerUuid = playerId.toString();
+        List<StorageDelta> changes = new ArrayList<>(items.size());
         for (Map.Entry<Material, Integer> entry : items.entrySet()) {
             Material material = entry.getKey();
             ItemCategory.Category category = ItemCategory.getCategory(material);
@@ -72,42 +336,268 @@ public class StorageManager {
                 continue;
             }
 
-            itemsByCategory.computeIfAbsent(category, k -> new HashMap<>())
-                    .put(material.name(), entry.getValue());
+            // Cập nhật cache; mỗi vật phẩm được kiểm tra hạn mức sau khi vật phẩm trước đã được cộng
+            int amount = quotaManager.getAllowance(playerId, category, entry.getValue());
+            if (amount <= 0) {
+                continue;
+            }
+
+            Map<Material, Integer> categoryStorage = getOrCreateStorage(playerId)
+                    .computeIfAbsent(category, k -> new HashMap<>());
+            categoryStorage.merge(material, amount, Integer::sum);
+            changes.add(new StorageDelta(StorageDelta.Op.ADD, 0, playerUuid, category.name(), material.name(),
+                    amount));
+            accepted.put(material, amount);
+            fireDelta(playerId, category, material, amount, source);
+        }
+
+        // Batch upsert vào database
+        databaseManager.enqueueAll(changes);
+        return accepted;
+    }
+
+    /**
+     * Lấy nhiều vật phẩm ra khỏi kho: chỉ lấy khi đủ số lượng của tất cả vật phẩm, ghi xuống database trong
+     * một transaction. Các danh mục liên quan phải đã được tải (xem {@link #loadCategoriesAsync}).
+     *
+     * @return false nếu thiếu bất kỳ vật phẩm nào (kho không thay đổi)
+     */
+    public boolean removeItems(UUID playerId, Map<Material, Integer> items, ChangeSource source) {
+        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = getCachedStorage(playerId);
+        for (Map.Entry<Material, Integer> entry : items.entrySet()) {
+            ItemCategory.Category category = ItemCategory.getCategory(entry.getKey());
+            if (category == null || playerStorage == null) {
+                return false;
+            }
+            Map<Material, Integer> categoryStorage = playerStorage.get(category);
+            if (categoryStorage == null || categoryStorage.getOrDefault(entry.getKey(), 0) < entry.getValue()) {
+                return false;
+            }
         }
 
-        // Batch upsert từng category
         String playerUuid = playerId.toString();
-        for (Map.Entry<ItemCategory.Category, Map<String, Integer>> entry : itemsByCategory.entrySet()) {
-            ItemCategory.Category category = entry.getKey();
-            Map<String, Integer> categoryItems = entry.getValue();
-
-            // Batch upsert vào database
-            databaseManager.batchUpsertItems(playerUuid, category.name(), categoryItems);
-
-            // Cập nhật cache
-            cache.computeIfAbsent(playerId, k -> new HashMap<>());
-            cache.get(playerId).computeIfAbsent(category, k -> new HashMap<>());
-            Map<Material, Integer> categoryStorage = cache.get(playerId).get(category);
-
-            for (Map.Entry<String, Integer> itemEntry : categoryItems.entrySet()) {
-                try {
-                    Material material = Material.valueOf(itemEntry.getKey());
-                    int amount = itemEntry.getValue();
-                    int currentAmount = categoryStorage.getOrDefault(material, 0);
-                    categoryStorage.put(material, currentAmount + amount);
-                } catch (IllegalArgumentException e) {
-                    plugin.getLogger().warning(languageManager.getMessage("storage.invalid_material")
-                            .replace("{material}", itemEntry.getKey()));
+        List<StorageDelta> changes = new ArrayList<>(items.size());
+        for (Map.Entry<Material, Integer> entry : items.entrySet()) {
+            Material material = entry.getKey();
+            int amount = entry.getValue();
+            if (amount <= 0) {
+                continue;
+            }
+
+            ItemCategory.Category category = ItemCategory.getCategory(material);
+            Map<Material, Integer> categoryStorage = playerStorage.get(category);
+            int newAmount = categoryStorage.get(material) - amount;
+            if (newAmount > 0) {
+                categoryStorage.put(material, newAmount);
+            } else {
+                // Giữ map rỗng để danh mục vẫn được coi là đã tải
+                categoryStorage.remove(material);
+            }
+            changes.add(new StorageDelta(StorageDelta.Op.REMOVE, 0, playerUuid, category.name(), material.name(),
+                    amount));
+            fireDelta(playerId, category, material, -amount, source);
+        }
+        databaseManager.enqueueAll(changes);
+        return true;
+    }
+
+    /**
+     * Tải các danh mục chưa có trong cache bằng một truy vấn rồi gọi callback trên main thread
+     *
+     * @param callback Nhận false nếu không đọc được database
+     */
+    public void loadCategoriesAsync(UUID playerId, Collection<ItemCategory.Category> categories,
+            Consumer<Boolean> callback) {
+        Set<ItemCategory.Category> missing = new HashSet<>();
+        // Khôi phục từ cache warm (kèm danh sách danh mục đã tải) nếu có
+        getCachedStorage(playerId);
+        Set<ItemCategory.Category> loaded = loadedCategories.getOrDefault(playerId, Collections.emptySet());
+        for (ItemCategory.Category category : categories) {
+            if (!loaded.contains(category)) {
+                missing.add(category);
+            }
+        }
+        if (missing.isEmpty()) {
+            callback.accept(true);
+            return;
+        }
+        if (!databaseManager.canLoad(playerId)) {
+            // Database đang mất kết nối (hoặc server khác chưa ghi xong kho của người chơi): chỉ phục vụ từ cache,
+            // báo lỗi ngay thay vì chờ timeout
+            callback.accept(false);
+            return;
+        }
+
+        databaseManager.runAsync(() -> {
+            Map<String, Map<String, Integer>> profile;
+            try {
+                profile = databaseManager.getBackend().loadProfile(playerId.toString());
+            } catch (StorageException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to load storage of " + playerId, e);
+                Bukkit.getScheduler().runTask(plugin, () -> callback.accept(false));
+                return;
+            }
+
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = getOrCreateStorage(playerId);
+                Set<ItemCategory.Category> nowLoaded = loadedCategories.computeIfAbsent(playerId,
+                        k -> new HashSet<>());
+                for (ItemCategory.Category category : missing) {
+                    // Danh mục có thể đã được tải trong lúc chờ
+                    if (nowLoaded.add(category)) {
+                        Map<String, Integer> items = profile.get(category.name());
+                        playerStorage.put(category, toMaterials(items != null ? items : Collections.emptyMap()));
+                    }
                 }
+                callback.accept(true);
+            });
+        });
+    }
+
+    /**
+     * Số lượng của các vật phẩm trong những danh mục đã được tải (không truy vấn database)
+     */
+    public Map<Material, Integer> getLoadedAmounts(UUID playerId, Collection<Material> materials) {
+        Map<Material, Integer> result = new HashMap<>();
+        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = getCachedStorage(playerId);
+        for (Material material : materials) {
+            ItemCategory.Category category = ItemCategory.getCategory(material);
+            Map<Material, Integer> categoryStorage = playerStorage != null && category != null
+                    ? playerStorage.get(category) : null;
+            result.put(material, categoryStorage != null ? categoryStorage.getOrDefault(material, 0) : 0);
+        }
+        return result;
+    }
+
+    /**
+     * Vật phẩm của một danh mục đang có trong cache (không truy vấn database)
+     */
+    public Map<Material, Integer> getLoadedCategoryItems(UUID playerId, ItemCategory.Category category) {
+        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = getCachedStorage(playerId);
+        Map<Material, Integer> categoryStorage = playerStorage != null ? playerStorage.get(category) : null;
+        return categoryStorage != null ? new HashMap<>(categoryStorage) : new HashMap<>();
+    }
+
+    /**
+     * Danh mục đã được tải đầy đủ từ database (số lượng trong cache là chính xác)
+     */
+    private boolean isLoaded(UUID playerId, ItemCategory.Category category) {
+        Set<ItemCategory.Category> loaded = loadedCategories.get(playerId);
+        return loaded != null && loaded.contains(category);
+    }
+
+    /**
+     * Tất cả vật phẩm trong những danh mục đã được tải (không truy vấn database)
+     */
+    public Map<Material, Integer> getLoadedItems(UUID playerId) {
+        Map<Material, Integer> result = new HashMap<>();
+        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = getCachedStorage(playerId);
+        if (playerStorage != null) {
+            for (Map<Material, Integer> categoryStorage : playerStorage.values()) {
+                result.putAll(categoryStorage);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Đọc toàn bộ kho của một người chơi để xem. Người chơi online được đọc từ phiên đang chạy (cache);
+     * kho của người chơi offline được đọc bằng một truy vấn và không được đưa vào cache.
+     *
+     * @param callback Nhận null nếu không đọc được database (gọi trên main thread)
+     */
+    public void loadSnapshotAsync(UUID playerId, Consumer<Map<Material, Integer>> callback) {
+        if (Bukkit.getPlayer(playerId) != null) {
+            loadCategoriesAsync(playerId, Arrays.asList(ItemCategory.Category.values()),
+                    loaded -> callback.accept(loaded ? getLoadedItems(playerId) : null));
+            return;
+        }
+        if (!databaseManager.canLoad(playerId)) {
+            callback.accept(null);
+            return;
+        }
+
+        databaseManager.runAsync(() -> {
+            Map<String, Map<String, Integer>> profile;
+            try {
+                profile = databaseManager.getBackend().loadProfile(playerId.toString());
+            } catch (StorageException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to load storage of " + playerId, e);
+                Bukkit.getScheduler().runTask(plugin, () -> callback.accept(null));
+                return;
             }
+
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                Map<Material, Integer> items = new HashMap<>();
+                for (Map<String, Integer> categoryItems : profile.values()) {
+                    items.putAll(toMaterials(categoryItems));
+                }
+                callback.accept(items);
+            });
+        });
+    }
+
+    /**
+     * Thêm vật phẩm vào kho của một người chơi thay cho họ (quản trị viên), không kiểm tra hạn mức. Người chơi
+     * online được thay đổi qua phiên đang chạy như mọi thao tác khác trên main thread; với người chơi offline
+     * thay đổi được ghi thẳng xuống database và cache cũ của họ bị bỏ.
+     *
+     * @return số lượng đã thêm thực tế
+     */
+    public int giveItem(UUID playerId, Material material, int amount, ChangeSource source) {
+        ItemCategory.Category category = ItemCategory.getCategory(material);
+        if (category == null || amount <= 0) {
+            return 0;
+        }
+        if (Bukkit.getPlayer(playerId) != null) {
+            return addItem(playerId, material, amount, source, false);
+        }
+
+        clearCache(playerId);
+        databaseManager.upsertItem(playerId.toString(), category.name(), material.name(), amount);
+        fireDelta(playerId, category, material, amount, source);
+        return amount;
+    }
+
+    /**
+     * Lấy vật phẩm ra khỏi kho của một người chơi thay cho họ (quản trị viên). Với người chơi offline, số
+     * lượng được trừ trên luồng writer chỉ trong phạm vi đang lưu trong database (sau mọi thay đổi đang chờ
+     * ghi), nên hai quản trị viên hay một bản xem cũ không thể lấy ra nhiều hơn số đang có.
+     *
+     * @param callback Nhận số lượng đã thực sự lấy ra, 0 nếu không lấy được (chạy trên main thread)
+     */
+    public void takeItem(UUID playerId, Material material, int amount, ChangeSource source,
+            Consumer<Integer> callback) {
+        ItemCategory.Category category = ItemCategory.getCategory(material);
+        if (category == null || amount <= 0) {
+            callback.accept(0);
+            return;
+        }
+        if (Bukkit.getPlayer(playerId) != null) {
+            callback.accept(removeItem(playerId, material, amount, source));
+            return;
         }
+
+        clearCache(playerId);
+        databaseManager.withdrawItem(playerId.toString(), category.name(), material.name(), amount, taken -> {
+            int removed = taken == null ? 0 : taken;
+            if (removed > 0) {
+                if (Bukkit.getPlayer(playerId) != null) {
+                    // Người chơi vào game trong lúc chờ ghi: kho vừa tải có thể chưa trừ số lượng này
+                    invalidateCategories(playerId, List.of(category));
+                }
+                fireDelta(playerId, category, material, -removed, source);
+            }
+            callback.accept(removed);
+        });
     }
 
     /**
      * Lấy vật phẩm từ kho
+     *
+     * @param source Nguồn của thay đổi (ghi vào nhật ký giao dịch)
      */
-    public int removeItem(UUID playerId, Material material, int amount) {
+    public int removeItem(UUID playerId, Material material, int amount, ChangeSource source) {
         ItemCategory.Category category = ItemCategory.getCategory(material);
         if (category == null) {
             return 0;
@@ -117,24 +607,14 @@ public class StorageManager {
         String categoryName = category.name();
         String materialName = material.name();
 
-        // Kiểm tra cache trước (Lazy loading)
+        // Chỉ lấy theo cache: database có thể chưa trừ các lần lấy ra đang chờ ghi. Danh mục chưa được tải chỉ
+        // chứa những gì đã thêm trong phiên này (chắc chắn có trong database).
         int currentAmount = 0;
-        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = cache.get(playerId);
+        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = getCachedStorage(playerId);
         if (playerStorage != null) {
             Map<Material, Integer> categoryStorage = playerStorage.get(category);
-            if (categoryStorage != null && categoryStorage.containsKey(material)) {
-                currentAmount = categoryStorage.get(material);
-            }
-        }
-
-        // Nếu không có trong cache, lấy từ database (synchronous fallback)
-        if (currentAmount == 0) {
-            currentAmount = databaseManager.getItemAmount(playerUuid, categoryName, materialName);
-            // Cập nhật cache
-            if (currentAmount > 0) {
-                cache.computeIfAbsent(playerId, k -> new HashMap<>());
-                cache.get(playerId).computeIfAbsent(category, k -> new HashMap<>());
-                cache.get(playerId).get(category).put(material, currentAmount);
+            if (categoryStorage != null) {
+                currentAmount = categoryStorage.getOrDefault(material, 0);
             }
         }
 
@@ -145,23 +625,16 @@ public class StorageManager {
         int removed = Math.min(amount, currentAmount);
         int newAmount = currentAmount - removed;
 
-        // Cập nhật database (async)
-        databaseManager.updateItemAmount(playerUuid, categoryName, materialName, newAmount);
+        // Cập nhật database (async); trừ theo số lượng đã lấy để không ghi đè thay đổi của server khác
+        databaseManager.removeItemAmount(playerUuid, categoryName, materialName, removed);
+        fireDelta(playerId, category, material, -removed, source);
 
-        // Cập nhật cache (optimistic update)
-        if (playerStorage != null) {
-            Map<Material, Integer> categoryStorage = playerStorage.get(category);
-            if (categoryStorage != null) {
-                if (newAmount > 0) {
-                    categoryStorage.put(material, newAmount);
-                } else {
-                    categoryStorage.remove(material);
-                    if (categoryStorage.isEmpty()) {
-                        playerStorage.remove(category);
-                        loadedCategories.getOrDefault(playerId, new HashSet<>()).remove(category);
-                    }
-                }
-            }
+        // Cập nhật cache (danh mục rỗng vẫn được giữ là đã tải để không phải đọc lại database)
+        Map<Material, Integer> categoryStorage = playerStorage.get(category);
+        if (newAmount > 0) {
+            categoryStorage.put(material, newAmount);
+        } else {
+            categoryStorage.remove(material);
         }
 
         return removed;
@@ -176,16 +649,15 @@ public class StorageManager {
             return 0;
         }
 
-        // Kiểm tra cache trước (Lazy loading)
-        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = cache.get(playerId);
-        if (playerStorage != null) {
-            Map<Material, Integer> categoryStorage = playerStorage.get(category);
-            if (categoryStorage != null && categoryStorage.containsKey(material)) {
-                return categoryStorage.get(material);
-            }
+        // Kiểm tra cache trước (Lazy loading); danh mục đã tải là số lượng chính xác
+        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = getCachedStorage(playerId);
+        Map<Material, Integer> categoryStorage = playerStorage != null ? playerStorage.get(category) : null;
+        int cached = categoryStorage != null ? categoryStorage.getOrDefault(material, 0) : 0;
+        if (cached > 0 || isLoaded(playerId, category) || !canReadDatabase(playerId)) {
+            return cached;
         }
 
-        // Nếu không có trong cache, lấy từ database (synchronous fallback)
+        // Nếu không có trong cache, lấy từ database (synchronous fallback, chỉ khi database sẵn sàng)
         String playerUuid = playerId.toString();
         String categoryName = category.name();
         String materialName = material.name();
@@ -193,9 +665,7 @@ public class StorageManager {
 
         // Cập nhật cache
         if (amount > 0) {
-            cache.computeIfAbsent(playerId, k -> new HashMap<>());
-            cache.get(playerId).computeIfAbsent(category, k -> new HashMap<>());
-            cache.get(playerId).get(category).put(material, amount);
+            getOrCreateStorage(playerId).computeIfAbsent(category, k -> new HashMap<>()).put(material, amount);
         }
 
         return amount;
@@ -211,14 +681,16 @@ public class StorageManager {
             return;
         }
 
-        // Kiểm tra cache trước (Lazy loading)
-        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = cache.get(playerId);
-        if (playerStorage != null) {
-            Map<Material, Integer> categoryStorage = playerStorage.get(category);
-            if (categoryStorage != null && categoryStorage.containsKey(material)) {
-                callback.accept(categoryStorage.get(material));
-                return;
-            }
+        // Kiểm tra cache trước (Lazy loading); danh mục đã tải là số lượng chính xác
+        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = getCachedStorage(playerId);
+        Map<Material, Integer> categoryStorage = playerStorage != null ? playerStorage.get(category) : null;
+        if (categoryStorage != null && categoryStorage.containsKey(material)) {
+            callback.accept(categoryStorage.get(material));
+            return;
+        }
+        if (isLoaded(playerId, category) || !canReadDatabase(playerId)) {
+            callback.accept(0);
+            return;
         }
 
         // Nếu không có trong cache, lấy từ database async
@@ -226,12 +698,13 @@ public class StorageManager {
         String categoryName = category.name();
         String materialName = material.name();
 
+        beginRead(playerId);
         databaseManager.getItemAmountAsync(playerUuid, categoryName, materialName, amount -> {
-            // Cập nhật cache
-            if (amount > 0) {
-                cache.computeIfAbsent(playerId, k -> new HashMap<>());
-                cache.get(playerId).computeIfAbsent(category, k -> new HashMap<>());
-                cache.get(playerId).get(category).put(material, amount);
+            // Chỉ cập nhật cache khi kết quả chắc chắn còn đúng: không có thay đổi nào trong lúc đọc
+            if (endRead(playerId) && amount > 0 && !isLoaded(playerId, category)
+                    && !databaseManager.hasUnwrittenChanges(playerId)) {
+                getOrCreateStorage(playerId).computeIfAbsent(category, k -> new HashMap<>()).putIfAbsent(material,
+                        amount);
             }
             callback.accept(amount);
         });
@@ -243,32 +716,26 @@ public class StorageManager {
      */
     public Map<Material, Integer> getCategoryItems(UUID playerId, ItemCategory.Category category) {
         // Kiểm tra cache trước (Lazy loading)
-        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = cache.get(playerId);
+        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = getCachedStorage(playerId);
         if (playerStorage != null && playerStorage.containsKey(category)) {
             return new HashMap<>(playerStorage.get(category));
         }
+        if (!canReadDatabase(playerId)) {
+            // Không chờ kết nối đã mất trên main thread; database chưa có các thay đổi đang chờ ghi
+            return new HashMap<>();
+        }
 
-        // Nếu không có trong cache, lấy từ database
+        // Nếu không có trong cache, lấy từ database (synchronous fallback, chỉ khi database sẵn sàng)
         String playerUuid = playerId.toString();
         String categoryName = category.name();
         Map<String, Integer> items = databaseManager.getCategoryItems(playerUuid, categoryName);
 
         // Chuyển đổi sang Map<Material, Integer>
-        Map<Material, Integer> result = new HashMap<>();
-        for (Map.Entry<String, Integer> entry : items.entrySet()) {
-            try {
-                Material material = Material.valueOf(entry.getKey());
-                result.put(material, entry.getValue());
-            } catch (IllegalArgumentException e) {
-                plugin.getLogger().warning(languageManager.getMessage("storage.invalid_material")
-                        .replace("{material}", entry.getKey()));
-            }
-        }
+        Map<Material, Integer> result = toMaterials(items);
 
         // Cập nhật cache
         if (!result.isEmpty()) {
-            cache.computeIfAbsent(playerId, k -> new HashMap<>());
-            cache.get(playerId).put(category, new HashMap<>(result));
+            getOrCreateStorage(playerId).put(category, new HashMap<>(result));
             loadedCategories.computeIfAbsent(playerId, k -> new HashSet<>()).add(category);
         }
 
@@ -281,33 +748,32 @@ public class StorageManager {
     public void getCategoryItemsAsync(UUID playerId, ItemCategory.Category category,
             java.util.function.Consumer<Map<Material, Integer>> callback) {
         // Kiểm tra cache trước (Lazy loading)
-        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = cache.get(playerId);
+        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = getCachedStorage(playerId);
         if (playerStorage != null && playerStorage.containsKey(category)) {
             callback.accept(new HashMap<>(playerStorage.get(category)));
             return;
         }
 
+        if (!canReadDatabase(playerId)) {
+            callback.accept(new HashMap<>());
+            return;
+        }
+
         // Nếu không có trong cache, lấy từ database async
         String playerUuid = playerId.toString();
         String categoryName = category.name();
 
+        beginRead(playerId);
         databaseManager.getCategoryItemsAsync(playerUuid, categoryName, items -> {
             // Chuyển đổi sang Map<Material, Integer>
-            Map<Material, Integer> result = new HashMap<>();
-            for (Map.Entry<String, Integer> entry : items.entrySet()) {
-                try {
-                    Material material = Material.valueOf(entry.getKey());
-                    result.put(material, entry.getValue());
-                } catch (IllegalArgumentException e) {
-                    plugin.getLogger().warning(languageManager.getMessage("storage.invalid_material")
-                            .replace("{material}", entry.getKey()));
-                }
-            }
-
-            // Cập nhật cache
-            if (!result.isEmpty()) {
-                cache.computeIfAbsent(playerId, k -> new HashMap<>());
-                cache.get(playerId).put(category, new HashMap<>(result));
+            Map<Material, Integer> result = toMaterials(items);
+
+            // Chỉ cập nhật cache khi kết quả chắc chắn còn đúng và danh mục chưa được tải hay thay đổi trong lúc đọc
+            boolean fresh = endRead(playerId);
+            Map<ItemCategory.Category, Map<Material, Integer>> current = getCachedStorage(playerId);
+            if (fresh && !result.isEmpty() && (current == null || !current.containsKey(category))
+                    && !databaseManager.hasUnwrittenChanges(playerId)) {
+                getOrCreateStorage(playerId).put(category, new HashMap<>(result));
                 loadedCategories.computeIfAbsent(playerId, k -> new HashSet<>()).add(category);
             }
 
@@ -315,12 +781,35 @@ public class StorageManager {
         });
     }
 
+    /**
+     * Chuyển tên vật phẩm từ database sang Material (bỏ qua vật phẩm không còn tồn tại)
+     */
+    private Map<Material, Integer> toMaterials(Map<String, Integer> items) {
+        Map<Material, Integer> result = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : items.entrySet()) {
+            try {
+                Material material = Material.valueOf(entry.getKey());
+                result.put(material, entry.getValue());
+            } catch (IllegalArgumentException e) {
+                plugin.getLogger().warning(languageManager.getMessage("storage.invalid_material")
+                        .replace("{material}", entry.getKey()));
+            }
+        }
+        return result;
+    }
+
     /**
      * Lấy tổng số vật phẩm trong kho của người chơi
      */
     public int getTotalItems(UUID playerId) {
+        // Dùng số liệu của hạn mức nếu đang được theo dõi
+        long tracked = quotaManager.getTotal(playerId);
+        if (tracked >= 0) {
+            return (int) Math.min(Integer.MAX_VALUE, tracked);
+        }
+
         int total = 0;
-        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = cache.get(playerId);
+        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = getCachedStorage(playerId);
 
         if (playerStorage != null) {
             for (Map<Material, Integer> categoryItems : playerStorage.values()) {
@@ -345,8 +834,58 @@ public class StorageManager {
      * Xóa cache của một người chơi (để reload từ database)
      */
     public void clearCache(UUID playerId) {
+        markReadsStale(playerId);
         cache.remove(playerId);
         loadedCategories.remove(playerId);
+        if (warmCache != null) {
+            warmCache.invalidate(playerId);
+        }
+    }
+
+    /**
+     * Bỏ cache của các danh mục vừa bị server khác thay đổi. Người chơi không có trong cache nóng
+     * thì bỏ luôn bản trong cache warm (không cần giải nén chỉ để xóa một phần).
+     */
+    public void invalidateCategories(UUID playerId, Collection<ItemCategory.Category> categories) {
+        markReadsStale(playerId);
+        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = cache.get(playerId);
+        if (playerStorage == null) {
+            if (warmCache != null) {
+                warmCache.invalidate(playerId);
+            }
+            return;
+        }
+
+        Set<ItemCategory.Category> loaded = loadedCategories.get(playerId);
+        for (ItemCategory.Category category : categories) {
+            playerStorage.remove(category);
+            if (loaded != null) {
+                loaded.remove(category);
+            }
+        }
+    }
+
+    /**
+     * Chuyển kho của người chơi vừa thoát sang cache warm (nén, ngoài heap)
+     */
+    public void demoteProfile(UUID playerId) {
+        if (warmCache == null) {
+            return;
+        }
+
+        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = cache.remove(playerId);
+        Set<ItemCategory.Category> loaded = loadedCategories.remove(playerId);
+        if (playerStorage != null && !playerStorage.isEmpty()) {
+            // Nếu không đủ chỗ, kho sẽ được tải lại từ database khi cần
+            warmCache.demote(playerId, playerStorage, loaded);
+        }
+    }
+
+    /**
+     * Lấy cache warm (null nếu bị tắt)
+     */
+    public WarmProfileCache getWarmCache() {
+        return warmCache;
     }
 
     /**
@@ -354,7 +893,8 @@ public class StorageManager {
      * cần)
      */
     public void clearCategoryCache(UUID playerId, ItemCategory.Category category) {
-        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = cache.get(playerId);
+        markReadsStale(playerId);
+        Map<ItemCategory.Category, Map<Material, Integer>> playerStorage = getCachedStorage(playerId);
         if (playerStorage != null) {
             playerStorage.remove(category);
             loadedCategories.getOrDefault(playerId, new HashSet<>()).remove(category);
@@ -365,7 +905,12 @@ public class StorageManager {
      * Xóa toàn bộ cache
      */
     public void clearAllCache() {
+        staleReads.addAll(readsInFlight.keySet());
         cache.clear();
+        loadedCategories.clear();
+        if (warmCache != null) {
+            warmCache.clear();
+        }
     }
 
     /**
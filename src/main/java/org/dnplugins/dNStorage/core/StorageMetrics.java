@@ -0,0 +1,89 @@
+package org.dnplugins.dNStorage.core;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bộ đếm và tình trạng kết nối của tầng lưu trữ (được ghi từ luồng writer, đọc từ bất kỳ luồng nào)
+ */
+public class StorageMetrics {
+
+    // Số lần compare-and-set thất bại vì dòng vừa bị server/luồng khác thay đổi (đã đọc lại và thử lại)
+    private final LongAdder writeConflicts = new LongAdder();
+    // Số lần lấy ra nhiều hơn số lượng còn trong database (số lượng được giới hạn về 0)
+    private final LongAdder overdrafts = new LongAdder();
+    // Số lần mất kết nối database sau khi đã sẵn sàng
+    private final LongAdder outages = new LongAdder();
+    // Tổng thời gian mất kết nối của các lần đã phục hồi (ms)
+    private final LongAdder downtimeMillis = new LongAdder();
+    // Thời điểm bắt đầu lần mất kết nối hiện tại (0 = đang kết nối được)
+    private volatile long outageStart;
+    // Lỗi kết nối gần nhất
+    private volatile String lastError;
+
+    public void recordWriteConflict() {
+        writeConflicts.increment();
+    }
+
+    public void recordOverdraft() {
+        overdrafts.increment();
+    }
+
+    /**
+     * Ghi nhận bắt đầu một lần mất kết nối
+     */
+    public void recordOutage(String error) {
+        outages.increment();
+        lastError = error;
+        outageStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Ghi nhận kết nối đã phục hồi
+     *
+     * @return Thời gian mất kết nối (ms)
+     */
+    public long recordRecovery() {
+        long downtime = getCurrentOutageMillis();
+        downtimeMillis.add(downtime);
+        outageStart = 0;
+        return downtime;
+    }
+
+    public long getWriteConflicts() {
+        return writeConflicts.sum();
+    }
+
+    public long getOverdrafts() {
+        return overdrafts.sum();
+    }
+
+    public long getOutages() {
+        return outages.sum();
+    }
+
+    /**
+     * Tổng thời gian mất kết nối, kể cả lần đang diễn ra (ms)
+     */
+    public long getDowntimeMillis() {
+        return downtimeMillis.sum() + getCurrentOutageMillis();
+    }
+
+    /**
+     * Thời gian của lần mất kết nối đang diễn ra (ms)
+     *
+     * @return 0 nếu đang kết nối được
+     */
+    public long getCurrentOutageMillis() {
+        long start = outageStart;
+        return start == 0 ? 0 : System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Lỗi kết nối gần nhất
+     *
+     * @return null nếu chưa từng mất kết nối
+     */
+    public String getLastError() {
+        return lastError;
+    }
+}
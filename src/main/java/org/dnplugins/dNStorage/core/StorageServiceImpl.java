@@ -0,0 +1,124 @@
+package org.dnplugins.dNStorage.core;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.dnplugins.dNStorage.api.StorageService;
+import org.dnplugins.dNStorage.enums.ChangeSource;
+import org.dnplugins.dNStorage.enums.ItemCategory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Cài đặt {@link StorageService} trên {@link StorageManager}
+ * <p>
+ * Mọi thao tác chạy trên main thread (nơi StorageManager được dùng). Các danh mục cần đọc được tải
+ * bằng một truy vấn duy nhất, các thay đổi của một lời gọi được ghi xuống database như một nhóm.
+ */
+public class StorageServiceImpl implements StorageService {
+
+    private final JavaPlugin plugin;
+    private final StorageManager storageManager;
+
+    public StorageServiceImpl(JavaPlugin plugin, StorageManager storageManager) {
+        this.plugin = plugin;
+        this.storageManager = storageManager;
+    }
+
+    @Override
+    public boolean isStorable(Material material) {
+        return ItemCategory.isCategorized(material);
+    }
+
+    @Override
+    public CompletableFuture<Integer> getAmount(UUID playerId, Material material) {
+        return getAmounts(playerId, List.of(material)).thenApply(amounts -> amounts.get(material));
+    }
+
+    @Override
+    public CompletableFuture<Map<Material, Integer>> getAmounts(UUID playerId, Collection<Material> materials) {
+        List<Material> copy = List.copyOf(materials);
+        CompletableFuture<Map<Material, Integer>> future = new CompletableFuture<>();
+        runOnMainThread(future, () -> storageManager.loadCategoriesAsync(playerId, categoriesOf(copy), loaded -> {
+            if (loaded) {
+                future.complete(storageManager.getLoadedAmounts(playerId, copy));
+            } else {
+                future.completeExceptionally(new IllegalStateException("Failed to load storage of " + playerId));
+            }
+        }));
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Map<Material, Integer>> deposit(UUID playerId, Map<Material, Integer> items) {
+        Map<Material, Integer> copy = validate(items);
+        CompletableFuture<Map<Material, Integer>> future = new CompletableFuture<>();
+        runOnMainThread(future, () -> {
+            Map<Material, Integer> accepted = storageManager.batchAddItems(playerId, copy, ChangeSource.API);
+            for (Material material : copy.keySet()) {
+                accepted.putIfAbsent(material, 0);
+            }
+            future.complete(accepted);
+        });
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> withdraw(UUID playerId, Map<Material, Integer> items) {
+        Map<Material, Integer> copy = validate(items);
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        runOnMainThread(future, () -> storageManager.loadCategoriesAsync(playerId, categoriesOf(copy.keySet()),
+                loaded -> {
+                    if (loaded) {
+                        future.complete(storageManager.removeItems(playerId, copy, ChangeSource.API));
+                    } else {
+                        future.completeExceptionally(
+                                new IllegalStateException("Failed to load storage of " + playerId));
+                    }
+                }));
+        return future;
+    }
+
+    /**
+     * Sao chép và kiểm tra danh sách vật phẩm (số lượng phải dương)
+     */
+    private static Map<Material, Integer> validate(Map<Material, Integer> items) {
+        Map<Material, Integer> copy = new HashMap<>(items);
+        for (Map.Entry<Material, Integer> entry : copy.entrySet()) {
+            if (entry.getValue() == null || entry.getValue() <= 0) {
+                throw new IllegalArgumentException("Amount of " + entry.getKey() + " must be positive");
+            }
+        }
+        return copy;
+    }
+
+    private static Set<ItemCategory.Category> categoriesOf(Collection<Material> materials) {
+        Set<ItemCategory.Category> categories = new HashSet<>();
+        for (Material material : materials) {
+            ItemCategory.Category category = ItemCategory.getCategory(material);
+            if (category != null) {
+                categories.add(category);
+            }
+        }
+        return categories;
+    }
+
+    /**
+     * Chạy tác vụ trên main thread; lỗi trong tác vụ được chuyển vào future
+     */
+    private void runOnMainThread(CompletableFuture<?> future, Runnable task) {
+        Runnable guarded = () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        };
+        if (Bukkit.isPrimaryThread()) {
+            guarded.run();
+        } else {
+            Bukkit.getScheduler().runTask(plugin, guarded);
+        }
+    }
+}
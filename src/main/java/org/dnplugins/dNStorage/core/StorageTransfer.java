@@ -0,0 +1,412 @@
+package org.dnplugins.dNStorage.core;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.dnplugins.dNStorage.core.backend.ItemDefinitionBackend;
+import org.dnplugins.dNStorage.core.backend.StorageException;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Xuất/nhập toàn bộ dữ liệu kho ra file (dùng khi chuyển server hoặc sao lưu)
+ * <p>
+ * Dữ liệu được đọc theo luồng từ backend và ghi thẳng ra file nén nên bộ nhớ dùng không phụ thuộc
+ * số dòng. Định dạng file (GZIP): magic "DNSX", version, thời điểm xuất, sau đó là chuỗi bản ghi
+ * PLAYER (uuid) / ITEM (danh mục, vật phẩm, số lượng), kết thúc bằng END (tổng số dòng).
+ * <p>
+ * Từ version 2 file còn chứa kho đặc biệt: DEFINITION (id trong file, dữ liệu vật phẩm) đứng trước mọi dòng
+ * SPECIAL (id trong file, số lượng) dùng nó. Id chỉ có nghĩa trong file; khi nhập, định nghĩa được tìm hoặc tạo
+ * theo hash nội dung nên id trong database đích có thể khác.
+ */
+public class StorageTransfer {
+
+    private static final int MAGIC = 0x444E5358; // "DNSX"
+    private static final short VERSION = 2;
+    private static final byte RECORD_END = 0;
+    private static final byte RECORD_PLAYER = 1;
+    private static final byte RECORD_ITEM = 2;
+    private static final byte RECORD_DEFINITION = 3;
+    private static final byte RECORD_SPECIAL = 4;
+
+    public static final String FILE_EXTENSION = ".dnsx";
+    // Số dòng trong một transaction khi import
+    private static final int IMPORT_BATCH_SIZE = 5000;
+    // Báo tiến độ sau mỗi số dòng này
+    private static final long PROGRESS_INTERVAL = 100000;
+
+    private final JavaPlugin plugin;
+    private final DatabaseManager databaseManager;
+    private final LanguageManager languageManager;
+    // Chạy trên main thread sau khi import xong (làm mới cache, hạn mức, bảng xếp hạng)
+    private final Runnable afterImport;
+    private final File directory;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public StorageTransfer(JavaPlugin plugin, DatabaseManager databaseManager, LanguageManager languageManager,
+            Runnable afterImport) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        this.languageManager = languageManager;
+        this.afterImport = afterImport;
+        this.directory = new File(plugin.getDataFolder(), "exports");
+    }
+
+    /**
+     * Lấy file trong thư mục exports, hoặc trong thư mục dữ liệu của plugin nếu tên có chứa thư mục
+     * (ví dụ "backups/...") - null nếu tên file trỏ ra ngoài
+     */
+    public File resolveFile(String name) {
+        if (!name.contains(".")) {
+            name += FILE_EXTENSION;
+        }
+        File base = name.contains("/") ? plugin.getDataFolder() : directory;
+        File file = new File(base, name);
+        try {
+            if (!file.getCanonicalPath().startsWith(base.getCanonicalPath() + File.separator)) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Liệt kê các file trong thư mục exports (dùng cho tab-complete)
+     */
+    public List<String> listFiles() {
+        List<String> names = new ArrayList<>();
+        File[] files = directory.listFiles(File::isFile);
+        if (files != null) {
+            for (File file : files) {
+                names.add(file.getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Xuất toàn bộ dữ liệu kho ra file (chạy async)
+     *
+     * @return false nếu đang có thao tác xuất/nhập khác
+     */
+    public boolean exportAsync(File file, CommandSender sender) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            long start = System.currentTimeMillis();
+            File temp = new File(file.getPath() + ".tmp");
+            try {
+                directory.mkdirs();
+                long rows = export(temp, sender);
+                if (file.exists() && !file.delete()) {
+                    throw new IOException("Cannot replace " + file.getName());
+                }
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Cannot rename " + temp.getName());
+                }
+                send(sender, languageManager.getMessage("command.admin.export.done")
+                        .replace("{rows}", String.format("%,d", rows))
+                        .replace("{file}", file.getName())
+                        .replace("{seconds}", formatSeconds(start)));
+            } catch (IOException | StorageException | UncheckedIOException e) {
+                temp.delete();
+                plugin.getLogger().log(Level.SEVERE, "Failed to export storage to " + file.getName(), e);
+                send(sender, languageManager.getMessage("command.admin.export.failed")
+                        .replace("{error}", String.valueOf(e.getMessage())));
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    private long export(File file, CommandSender sender) throws IOException, StorageException {
+        try (ArchiveWriter writer = new ArchiveWriter(file)) {
+            databaseManager.getBackend().forEachItem((playerUuid, category, material, amount) -> {
+                try {
+                    writer.write(playerUuid, category, material, amount);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                if (writer.getRows() % PROGRESS_INTERVAL == 0) {
+                    sendProgress(sender, writer.getRows());
+                }
+            });
+            if (databaseManager.getBackend() instanceof ItemDefinitionBackend definitions) {
+                writer.writeSpecialItems(definitions);
+            }
+            writer.finish();
+            return writer.getRows();
+        }
+    }
+
+    /**
+     * Nhập dữ liệu từ file (chạy async). Số lượng trong file ghi đè số lượng hiện tại, các vật phẩm
+     * không có trong file được giữ nguyên.
+     *
+     * @return false nếu đang có thao tác xuất/nhập khác
+     */
+    public boolean importAsync(File file, CommandSender sender) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            long start = System.currentTimeMillis();
+            long[] imported = new long[1];
+            try {
+                importFrom(file, sender, imported);
+                send(sender, languageManager.getMessage("command.admin.import.done")
+                        .replace("{rows}", String.format("%,d", imported[0]))
+                        .replace("{file}", file.getName())
+                        .replace("{seconds}", formatSeconds(start)));
+            } catch (IOException | StorageException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to import storage from " + file.getName()
+                        + " after " + imported[0] + " rows", e);
+                send(sender, languageManager.getMessage("command.admin.import.failed")
+                        .replace("{rows}", String.format("%,d", imported[0]))
+                        .replace("{error}", String.valueOf(e.getMessage())));
+            } finally {
+                running.set(false);
+                // Dữ liệu có thể đã thay đổi một phần kể cả khi lỗi
+                if (imported[0] > 0) {
+                    Bukkit.getScheduler().runTask(plugin, afterImport);
+                }
+            }
+        });
+        return true;
+    }
+
+    private void importFrom(File file, CommandSender sender, long[] imported) throws IOException, StorageException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file), 64 * 1024), 64 * 1024))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a DN-Storage export file");
+            }
+            short version = in.readShort();
+            if (version > VERSION) {
+                throw new IOException("Unsupported export version " + version);
+            }
+            in.readLong(); // Thời điểm xuất
+
+            List<StorageDelta> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+            // Id định nghĩa trong file -> id trong database này
+            Map<Integer, Integer> definitionIds = new HashMap<>();
+            String playerUuid = null;
+            while (true) {
+                byte record;
+                try {
+                    record = in.readByte();
+                } catch (EOFException e) {
+                    throw new IOException("File is truncated", e);
+                }
+
+                if (record == RECORD_PLAYER) {
+                    playerUuid = in.readUTF();
+                } else if (record == RECORD_ITEM) {
+                    String category = in.readUTF();
+                    String material = in.readUTF();
+                    int amount = in.readInt();
+                    if (playerUuid == null) {
+                        throw new IOException("Item record before player record");
+                    }
+                    batch.add(new StorageDelta(StorageDelta.Op.SET, 0, playerUuid, category, material, amount));
+                    if (batch.size() >= IMPORT_BATCH_SIZE) {
+                        flush(batch, sender, imported);
+                    }
+                } else if (record == RECORD_DEFINITION) {
+                    int id = in.readInt();
+                    byte[] data = new byte[in.readInt()];
+                    in.readFully(data);
+                    definitionIds.put(id, databaseManager.importDefinition(SpecialItemStore.hash(data), data));
+                } else if (record == RECORD_SPECIAL) {
+                    int id = in.readInt();
+                    int amount = in.readInt();
+                    Integer definitionId = definitionIds.get(id);
+                    if (playerUuid == null || definitionId == null) {
+                        throw new IOException("Special item record before its player or definition record");
+                    }
+                    databaseManager.importSpecialItem(playerUuid, definitionId, amount);
+                    imported[0]++;
+                    if (imported[0] % PROGRESS_INTERVAL == 0) {
+                        sendProgress(sender, imported[0]);
+                    }
+                } else if (record == RECORD_END) {
+                    long expected = in.readLong();
+                    flush(batch, sender, imported);
+                    if (expected != imported[0]) {
+                        throw new IOException("Expected " + expected + " rows but read " + imported[0]);
+                    }
+                    return;
+                } else {
+                    throw new IOException("Unknown record type " + record);
+                }
+            }
+        }
+    }
+
+    private void flush(List<StorageDelta> batch, CommandSender sender, long[] imported) throws StorageException {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        databaseManager.applyImportBatch(batch);
+        long before = imported[0];
+        imported[0] += batch.size();
+        batch.clear();
+        if (imported[0] / PROGRESS_INTERVAL != before / PROGRESS_INTERVAL) {
+            sendProgress(sender, imported[0]);
+        }
+    }
+
+    private void sendProgress(CommandSender sender, long rows) {
+        send(sender, languageManager.getMessage("command.admin.transfer.progress")
+                .replace("{rows}", String.format("%,d", rows)));
+    }
+
+    /**
+     * Gửi tin nhắn trên main thread
+     */
+    private void send(CommandSender sender, String message) {
+        Bukkit.getScheduler().runTask(plugin, () -> sender.sendMessage(message));
+    }
+
+    private static String formatSeconds(long start) {
+        return String.format("%.1f", (System.currentTimeMillis() - start) / 1000.0);
+    }
+
+    /**
+     * Ghi file theo định dạng xuất (dùng chung cho export và backup)
+     */
+    public static final class ArchiveWriter implements Closeable {
+        private final DataOutputStream out;
+        private String currentPlayer;
+        private long rows;
+
+        public ArchiveWriter(File file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(new FileOutputStream(file), 64 * 1024), 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(System.currentTimeMillis());
+        }
+
+        /**
+         * Ghi một dòng; các dòng của cùng người chơi nên được ghi liền nhau để uuid chỉ được ghi một lần.
+         * Số lượng 0 nghĩa là vật phẩm đã bị xóa (khi nhập sẽ xóa dòng tương ứng).
+         */
+        public void write(String playerUuid, String category, String material, int amount) throws IOException {
+            writePlayer(playerUuid);
+            out.writeByte(RECORD_ITEM);
+            out.writeUTF(category);
+            out.writeUTF(material);
+            out.writeInt(amount);
+            rows++;
+        }
+
+        /**
+         * Ghi một định nghĩa vật phẩm đặc biệt; phải đứng trước mọi dòng dùng nó
+         */
+        public void writeDefinition(int id, byte[] data) throws IOException {
+            out.writeByte(RECORD_DEFINITION);
+            out.writeInt(id);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+
+        /**
+         * Ghi một dòng của kho đặc biệt (số lượng 0 nghĩa là đã bị lấy hết)
+         */
+        public void writeSpecial(String playerUuid, int definitionId, int amount) throws IOException {
+            writePlayer(playerUuid);
+            out.writeByte(RECORD_SPECIAL);
+            out.writeInt(definitionId);
+            out.writeInt(amount);
+            rows++;
+        }
+
+        /**
+         * Ghi toàn bộ kho đặc biệt: mọi định nghĩa rồi mọi dòng. Dòng dùng định nghĩa được tạo sau khi đã duyệt
+         * xong các định nghĩa (hiếm) được ghi ở cuối, sau định nghĩa của nó.
+         */
+        public void writeSpecialItems(ItemDefinitionBackend backend) throws IOException, StorageException {
+            Set<Integer> written = new HashSet<>();
+            backend.forEachDefinition((id, data) -> {
+                try {
+                    writeDefinition(id, data);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                written.add(id);
+            });
+
+            List<SpecialRow> late = new ArrayList<>();
+            backend.forEachSpecialItem((playerUuid, definitionId, amount) -> {
+                if (!written.contains(definitionId)) {
+                    late.add(new SpecialRow(playerUuid, definitionId, amount));
+                    return;
+                }
+                try {
+                    writeSpecial(playerUuid, definitionId, amount);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            if (late.isEmpty()) {
+                return;
+            }
+
+            Set<Integer> ids = new HashSet<>();
+            for (SpecialRow row : late) {
+                ids.add(row.definitionId());
+            }
+            Map<Integer, byte[]> definitions = backend.loadDefinitions(ids);
+            for (Map.Entry<Integer, byte[]> definition : definitions.entrySet()) {
+                writeDefinition(definition.getKey(), definition.getValue());
+            }
+            for (SpecialRow row : late) {
+                if (definitions.containsKey(row.definitionId())) {
+                    writeSpecial(row.playerUuid(), row.definitionId(), row.amount());
+                }
+            }
+        }
+
+        private record SpecialRow(String playerUuid, int definitionId, int amount) {
+        }
+
+        private void writePlayer(String playerUuid) throws IOException {
+            if (!playerUuid.equals(currentPlayer)) {
+                out.writeByte(RECORD_PLAYER);
+                out.writeUTF(playerUuid);
+                currentPlayer = playerUuid;
+            }
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * Ghi bản ghi kết thúc; file không có bản ghi này được coi là bị cắt ngang khi nhập
+         */
+        public void finish() throws IOException {
+            out.writeByte(RECORD_END);
+            out.writeLong(rows);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package org.dnplugins.dNStorage.core;
+
+import org.bukkit.Material;
+import org.dnplugins.dNStorage.enums.ItemCategory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Cache "warm" cho kho của người chơi vừa thoát
+ * <p>
+ * Kho được nén thành varint (dùng ordinal của danh mục và vật phẩm) và giữ trong một vùng nhớ
+ * ngoài heap ({@link ByteBuffer#allocateDirect}). Khi đầy, vùng nhớ được dồn lại; nếu vẫn không đủ
+ * thì kho ít được dùng nhất bị bỏ (sẽ được tải lại từ database khi cần).
+ */
+public class WarmProfileCache {
+
+    private static final Material[] MATERIALS = Material.values();
+
+    private final ByteBuffer arena;
+    // Vị trí của từng kho trong vùng nhớ, theo thứ tự truy cập (cũ nhất trước)
+    private final LinkedHashMap<UUID, Slot> index = new LinkedHashMap<>(64, 0.75f, true);
+    // Vị trí ghi tiếp theo trong vùng nhớ
+    private int top;
+
+    private record Slot(int offset, int length) {
+    }
+
+    public WarmProfileCache(int capacityBytes) {
+        this.arena = ByteBuffer.allocateDirect(capacityBytes);
+    }
+
+    /**
+     * Nén và lưu kho của người chơi
+     *
+     * @param storage Kho (danh mục -> vật phẩm -> số lượng)
+     * @param loaded  Các danh mục đã được tải đầy đủ từ database
+     * @return false nếu kho quá lớn so với vùng nhớ
+     */
+    public synchronized boolean demote(UUID playerId, Map<ItemCategory.Category, Map<Material, Integer>> storage,
+            Set<ItemCategory.Category> loaded) {
+        index.remove(playerId);
+        byte[] data = encode(storage, loaded);
+        if (data.length > arena.capacity()) {
+            return false;
+        }
+
+        if (top + data.length > arena.capacity()) {
+            compact();
+            // Bỏ các kho cũ nhất cho đến khi đủ chỗ
+            Iterator<Slot> eldest = index.values().iterator();
+            int live = top;
+            while (live + data.length > arena.capacity() && eldest.hasNext()) {
+                live -= eldest.next().length();
+                eldest.remove();
+            }
+            compact();
+        }
+
+        arena.put(top, data);
+        index.put(playerId, new Slot(top, data.length));
+        top += data.length;
+        return true;
+    }
+
+    /**
+     * Giải nén kho của người chơi và xóa khỏi cache warm
+     *
+     * @param storage Map nhận kho đã giải nén
+     * @param loaded  Set nhận các danh mục đã được tải đầy đủ
+     * @return false nếu người chơi không có trong cache warm
+     */
+    public synchronized boolean promote(UUID playerId, Map<ItemCategory.Category, Map<Material, Integer>> storage,
+            Set<ItemCategory.Category> loaded) {
+        Slot slot = index.remove(playerId);
+        if (slot == null) {
+            return false;
+        }
+
+        byte[] data = new byte[slot.length()];
+        arena.get(slot.offset(), data);
+        decode(data, storage, loaded);
+        if (slot.offset() + slot.length() == top) {
+            // Trả lại chỗ ngay nếu là kho được ghi sau cùng
+            top = slot.offset();
+        }
+        return true;
+    }
+
+    /**
+     * Xóa kho của người chơi khỏi cache warm
+     */
+    public synchronized void invalidate(UUID playerId) {
+        index.remove(playerId);
+    }
+
+    /**
+     * Xóa toàn bộ cache warm
+     */
+    public synchronized void clear() {
+        index.clear();
+        top = 0;
+    }
+
+    /**
+     * Số kho đang được giữ
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Số byte đang được dùng trong vùng nhớ
+     */
+    public synchronized int getUsedBytes() {
+        int used = 0;
+        for (Slot slot : index.values()) {
+            used += slot.length();
+        }
+        return used;
+    }
+
+    /**
+     * Dồn các kho còn lại về đầu vùng nhớ (giữ nguyên thứ tự truy cập)
+     */
+    private void compact() {
+        List<Map.Entry<UUID, Slot>> byOffset = new ArrayList<>(index.entrySet());
+        byOffset.sort(Comparator.comparingInt(entry -> entry.getValue().offset()));
+
+        Map<UUID, Slot> moved = new HashMap<>(byOffset.size() * 2);
+        int write = 0;
+        for (Map.Entry<UUID, Slot> entry : byOffset) {
+            Slot slot = entry.getValue();
+            if (slot.offset() != write) {
+                arena.put(write, arena, slot.offset(), slot.length());
+            }
+            moved.put(entry.getKey(), new Slot(write, slot.length()));
+            write += slot.length();
+        }
+        // replaceAll không làm thay đổi thứ tự truy cập
+        index.replaceAll((playerId, slot) -> moved.get(playerId));
+        top = write;
+    }
+
+    /**
+     * Định dạng: categoryCount, rồi với mỗi danh mục: (ordinal << 1 | loaded), itemCount,
+     * rồi từng cặp (ordinal vật phẩm, số lượng)
+     */
+    private static byte[] encode(Map<ItemCategory.Category, Map<Material, Integer>> storage,
+            Set<ItemCategory.Category> loaded) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        ProfileCodec.writeVarInt(out, storage.size());
+        for (Map.Entry<ItemCategory.Category, Map<Material, Integer>> category : storage.entrySet()) {
+            boolean isLoaded = loaded != null && loaded.contains(category.getKey());
+            ProfileCodec.writeVarInt(out, category.getKey().ordinal() << 1 | (isLoaded ? 1 : 0));
+            ProfileCodec.writeVarInt(out, category.getValue().size());
+            for (Map.Entry<Material, Integer> item : category.getValue().entrySet()) {
+                ProfileCodec.writeVarInt(out, item.getKey().ordinal());
+                ProfileCodec.writeVarInt(out, item.getValue());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void decode(byte[] data, Map<ItemCategory.Category, Map<Material, Integer>> storage,
+            Set<ItemCategory.Category> loaded) {
+        ItemCategory.Category[] categories = ItemCategory.Category.values();
+        ByteBuffer in = ByteBuffer.wrap(data);
+        int categoryCount = ProfileCodec.readVarInt(in);
+        for (int i = 0; i < categoryCount; i++) {
+            int header = ProfileCodec.readVarInt(in);
+            ItemCategory.Category category = categories[header >>> 1];
+            if ((header & 1) != 0) {
+                loaded.add(category);
+            }
+
+            int itemCount = ProfileCodec.readVarInt(in);
+            Map<Material, Integer> items = new HashMap<>(Math.max(16, itemCount * 2));
+            for (int j = 0; j < itemCount; j++) {
+                Material material = MATERIALS[ProfileCodec.readVarInt(in)];
+                items.put(material, ProfileCodec.readVarInt(in));
+            }
+            storage.put(category, items);
+        }
+    }
+}
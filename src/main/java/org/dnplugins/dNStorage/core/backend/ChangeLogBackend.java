@@ -0,0 +1,79 @@
+package org.dnplugins.dNStorage.core.backend;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Backend có thể ghi lại các thay đổi vào bảng change-log để nhiều server dùng chung một database
+ * biết người chơi nào cần làm mới cache
+ */
+public interface ChangeLogBackend {
+
+    /**
+     * Một thay đổi trên kho của người chơi
+     *
+     * @param id         Id tăng dần của thay đổi
+     * @param serverId   Server đã ghi thay đổi
+     * @param playerUuid UUID người chơi
+     * @param category   Danh mục bị thay đổi (rỗng nếu là thiết lập auto-pickup)
+     */
+    record Change(long id, String serverId, String playerUuid, String category) {
+    }
+
+    /**
+     * Bắt đầu ghi change-log trong cùng transaction với mỗi lô thay đổi
+     */
+    void enableChangeLog(String serverId);
+
+    /**
+     * Id lớn nhất hiện có trong change-log (0 nếu trống)
+     */
+    long getLatestChangeId() throws StorageException;
+
+    /**
+     * Lấy các thay đổi có id lớn hơn afterId, theo thứ tự id
+     */
+    List<Change> pollChanges(long afterId, int limit) throws StorageException;
+
+    /**
+     * Lấy các thay đổi theo id (id chưa tồn tại bị bỏ qua)
+     */
+    List<Change> loadChanges(Collection<Long> ids) throws StorageException;
+
+    /**
+     * Xóa các thay đổi cũ hơn thời điểm cho trước (epoch millis)
+     */
+    void pruneChanges(long olderThan) throws StorageException;
+
+    /**
+     * Đánh dấu server này đang giữ dữ liệu của người chơi (tạo mới hoặc làm mới dấu của server này). Dấu chỉ
+     * được xóa khi mọi thay đổi của người chơi trên server này đã được ghi, để server khác chờ trước khi đọc.
+     */
+    void claimPlayer(String playerUuid, long now) throws StorageException;
+
+    /**
+     * Làm mới thời điểm của các dấu mà server này đang giữ
+     */
+    void refreshClaims(Collection<String> playerUuids, long now) throws StorageException;
+
+    /**
+     * Xóa dấu của server này nếu nó không được làm mới sau thời điểm cho trước
+     * (người chơi vào lại server sau đó thì dấu mới được giữ)
+     */
+    void releasePlayer(String playerUuid, long claimedBefore) throws StorageException;
+
+    /**
+     * Xóa các dấu của server này không được làm mới từ thời điểm cho trước (đăng nhập bị từ chối, ...)
+     */
+    void releaseStaleClaims(long olderThan) throws StorageException;
+
+    /**
+     * Người chơi có dấu của server này (còn lại từ lần chạy trước khi server-id cố định)
+     */
+    List<String> getClaimedPlayers() throws StorageException;
+
+    /**
+     * Server khác có đang giữ dữ liệu của người chơi không (chỉ tính các dấu được làm mới từ thời điểm since)
+     */
+    boolean isClaimedElsewhere(String playerUuid, long since) throws StorageException;
+}
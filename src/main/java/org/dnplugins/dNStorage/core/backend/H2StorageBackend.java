@@ -0,0 +1,141 @@
+package org.dnplugins.dNStorage.core.backend;
+
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.dnplugins.dNStorage.core.LanguageManager;
+import org.dnplugins.dNStorage.core.StorageMetrics;
+
+import java.sql.*;
+import java.util.logging.Level;
+
+/**
+ * Backend H2 (file database nhúng, chế độ tương thích MySQL)
+ */
+public class H2StorageBackend extends JdbcStorageBackend {
+
+    public H2StorageBackend(JavaPlugin plugin, LanguageManager languageManager, StorageMetrics metrics) {
+        super(plugin, languageManager, metrics);
+    }
+
+    @Override
+    public String getName() {
+        return "H2";
+    }
+
+    @Override
+    protected Connection openConnection() throws SQLException {
+        try {
+            // Load H2 driver class
+            Class.forName("org.h2.Driver");
+        } catch (ClassNotFoundException e) {
+            plugin.getLogger().log(Level.SEVERE,
+                    languageManager.getMessage("database.driver_not_found").replace("{driver}", "H2"), e);
+            throw new SQLException("H2 Driver not found", e);
+        }
+
+        FileConfiguration config = plugin.getConfig();
+        String file = config.getString("database.h2.file", "");
+        if (file == null || file.isEmpty()) {
+            file = plugin.getDataFolder().getAbsolutePath() + "/storage";
+        }
+
+        String url = "jdbc:h2:file:" + file + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE";
+        if (config.getBoolean("database.h2.auto-server", false)) {
+            // Server đầu tiên mở file sẽ mở cổng TCP, các server khác kết nối qua cổng đó
+            url += ";AUTO_SERVER=TRUE";
+        }
+        return DriverManager.getConnection(url);
+    }
+
+    @Override
+    protected void createTables(Statement statement) throws SQLException {
+        statement.execute("CREATE TABLE IF NOT EXISTS storage_items (" +
+                "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                "player_uuid VARCHAR(36) NOT NULL, " +
+                "category VARCHAR(20) NOT NULL, " +
+                "material VARCHAR(100) NOT NULL, " +
+                "amount INT NOT NULL DEFAULT 0, " +
+                "version BIGINT NOT NULL DEFAULT 0, " +
+                "UNIQUE (player_uuid, category, material)" +
+                ")");
+        // Database tạo trước khi có cột version
+        statement.execute("ALTER TABLE storage_items ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0");
+        statement.execute("CREATE TABLE IF NOT EXISTS player_settings (" +
+                "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                "player_uuid VARCHAR(36) NOT NULL UNIQUE, " +
+                "auto_pickup BOOLEAN NOT NULL DEFAULT FALSE" +
+                ")");
+        statement.execute("CREATE TABLE IF NOT EXISTS storage_journal (" +
+                "epoch BIGINT PRIMARY KEY, " +
+                "applied_seq BIGINT NOT NULL" +
+                ")");
+        statement.execute("CREATE TABLE IF NOT EXISTS item_definitions (" +
+                "id INT AUTO_INCREMENT PRIMARY KEY, " +
+                "hash CHAR(64) NOT NULL UNIQUE, " +
+                "data BLOB NOT NULL" +
+                ")");
+        statement.execute("CREATE TABLE IF NOT EXISTS storage_special_items (" +
+                "player_uuid VARCHAR(36) NOT NULL, " +
+                "definition_id INT NOT NULL, " +
+                "amount INT NOT NULL, " +
+                "PRIMARY KEY (player_uuid, definition_id)" +
+                ")");
+        statement.execute("CREATE TABLE IF NOT EXISTS storage_changes (" +
+                "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                "server_id VARCHAR(36) NOT NULL, " +
+                "player_uuid VARCHAR(36) NOT NULL, " +
+                "category VARCHAR(20) NOT NULL, " +
+                "created_at BIGINT NOT NULL" +
+                ")");
+        statement.execute("CREATE TABLE IF NOT EXISTS storage_handoff (" +
+                "player_uuid VARCHAR(36) NOT NULL, " +
+                "server_id VARCHAR(36) NOT NULL, " +
+                "claimed_at BIGINT NOT NULL, " +
+                "PRIMARY KEY (player_uuid, server_id)" +
+                ")");
+
+        try {
+            statement.execute("CREATE INDEX IF NOT EXISTS idx_player ON storage_items(player_uuid)");
+            statement.execute("CREATE INDEX IF NOT EXISTS idx_category ON storage_items(category)");
+            statement.execute("CREATE INDEX IF NOT EXISTS idx_player_settings ON player_settings(player_uuid)");
+            statement.execute("CREATE INDEX IF NOT EXISTS idx_changes_created ON storage_changes(created_at)");
+        } catch (SQLException e) {
+            // Index có thể đã tồn tại
+        }
+    }
+
+    @Override
+    protected String addItemsSql(int rows) {
+        // Tham số trong VALUES cần kiểu rõ ràng để H2 xác định kiểu cột của bảng nguồn
+        return "MERGE INTO storage_items t USING (VALUES " +
+                repeatRows("(CAST(? AS VARCHAR(36)), CAST(? AS VARCHAR(20)), CAST(? AS VARCHAR(100)), " +
+                        "CAST(? AS INT))", rows) +
+                ") AS s(player_uuid, category, material, amount) " +
+                "ON t.player_uuid = s.player_uuid AND t.category = s.category AND t.material = s.material " +
+                "WHEN MATCHED THEN UPDATE SET t.amount = t.amount + s.amount, t.version = t.version + 1 " +
+                "WHEN NOT MATCHED THEN INSERT (player_uuid, category, material, amount) " +
+                "VALUES (s.player_uuid, s.category, s.material, s.amount)";
+    }
+
+    @Override
+    protected String setItemsSql(int rows) {
+        return "MERGE INTO storage_items t USING (VALUES " +
+                repeatRows("(CAST(? AS VARCHAR(36)), CAST(? AS VARCHAR(20)), CAST(? AS VARCHAR(100)), " +
+                        "CAST(? AS INT))", rows) +
+                ") AS s(player_uuid, category, material, amount) " +
+                "ON t.player_uuid = s.player_uuid AND t.category = s.category AND t.material = s.material " +
+                "WHEN MATCHED THEN UPDATE SET t.amount = s.amount, t.version = t.version + 1 " +
+                "WHEN NOT MATCHED THEN INSERT (player_uuid, category, material, amount) " +
+                "VALUES (s.player_uuid, s.category, s.material, s.amount)";
+    }
+
+    @Override
+    protected void upsertAutoPickup(Connection conn, String playerUuid, boolean enabled) throws SQLException {
+        String sql = "MERGE INTO player_settings (player_uuid, auto_pickup) KEY (player_uuid) VALUES (?, ?)";
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setString(1, playerUuid);
+            statement.setBoolean(2, enabled);
+            statement.executeUpdate();
+        }
+    }
+}
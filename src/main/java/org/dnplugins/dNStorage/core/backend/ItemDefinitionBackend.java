@@ -0,0 +1,74 @@
+package org.dnplugins.dNStorage.core.backend;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Backend có thể lưu vật phẩm đặc biệt (có NBT: tên, phù phép, thuốc, ...)
+ * <p>
+ * Dữ liệu vật phẩm đã serialize chỉ được lưu một lần trong bảng định nghĩa, định danh theo hash nội dung;
+ * kho của người chơi chỉ lưu id định nghĩa và số lượng. Các phương thức đều là blocking và được gọi ngoài
+ * main thread; các thao tác ghi chỉ chạy trên luồng writer, giữa hai lô thay đổi, nên không bao giờ chạy
+ * bên trong transaction đang mở của {@link StorageBackend#applyBatch}.
+ */
+public interface ItemDefinitionBackend {
+
+    /**
+     * Nhận từng định nghĩa khi duyệt toàn bộ (xuất dữ liệu, sao lưu)
+     */
+    interface DefinitionVisitor {
+        void visit(int id, byte[] data);
+    }
+
+    /**
+     * Nhận từng dòng vật phẩm đặc biệt khi duyệt toàn bộ (xuất dữ liệu, sao lưu)
+     */
+    interface SpecialItemVisitor {
+        void visit(String playerUuid, int definitionId, int amount);
+    }
+
+    /**
+     * Lấy id của định nghĩa có hash cho trước, tạo mới nếu chưa có
+     *
+     * @param hash SHA-256 (hex) của data
+     * @param data Vật phẩm đã serialize (số lượng 1)
+     */
+    int defineItem(String hash, byte[] data) throws StorageException;
+
+    /**
+     * Lấy dữ liệu của các định nghĩa theo id (id không tồn tại bị bỏ qua)
+     */
+    Map<Integer, byte[]> loadDefinitions(Collection<Integer> ids) throws StorageException;
+
+    /**
+     * Lấy các vật phẩm đặc biệt của người chơi (id định nghĩa -> số lượng)
+     */
+    Map<Integer, Integer> loadSpecialItems(String playerUuid) throws StorageException;
+
+    /**
+     * Cộng thêm số lượng một vật phẩm đặc biệt (tạo dòng mới nếu chưa có)
+     */
+    void addSpecialItem(String playerUuid, int definitionId, int amount) throws StorageException;
+
+    /**
+     * Lấy vật phẩm đặc biệt ra chỉ khi còn đủ số lượng (atomic)
+     *
+     * @return true nếu đã trừ đủ số lượng
+     */
+    boolean withdrawSpecialItem(String playerUuid, int definitionId, int amount) throws StorageException;
+
+    /**
+     * Ghi đè số lượng một vật phẩm đặc biệt (nhập dữ liệu); số lượng 0 xóa dòng
+     */
+    void setSpecialItem(String playerUuid, int definitionId, int amount) throws StorageException;
+
+    /**
+     * Duyệt tuần tự mọi định nghĩa theo id
+     */
+    void forEachDefinition(DefinitionVisitor visitor) throws StorageException;
+
+    /**
+     * Duyệt tuần tự mọi vật phẩm đặc biệt, các dòng của cùng người chơi đứng liền nhau
+     */
+    void forEachSpecialItem(SpecialItemVisitor visitor) throws StorageException;
+}
@@ -0,0 +1,1189 @@
+package org.dnplugins.dNStorage.core.backend;
+
+import org.bukkit.plugin.java.JavaPlugin;
+import org.dnplugins.dNStorage.core.LanguageManager;
+import org.dnplugins.dNStorage.core.StorageDelta;
+import org.dnplugins.dNStorage.core.StorageMetrics;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+
+/**
+ * Phần chung của các backend JDBC (H2, MySQL). Các lớp con chỉ cần cung cấp kết nối,
+ * schema và câu lệnh upsert theo dialect.
+ */
+public abstract class JdbcStorageBackend implements StorageBackend, ChangeLogBackend, ItemDefinitionBackend {
+
+    // Số dòng tối đa trong một câu lệnh nhiều dòng
+    protected static final int MAX_ROWS_PER_STATEMENT = 256;
+    // Số lần thử compare-and-set tối đa cho một lô lấy ra
+    private static final int MAX_CAS_ATTEMPTS = 3;
+    // Mã lỗi "Lock wait timeout exceeded" của MySQL (SQLState HY000 nên không nhận ra được theo SQLState)
+    private static final int MYSQL_LOCK_WAIT_TIMEOUT = 1205;
+
+    protected final JavaPlugin plugin;
+    protected final LanguageManager languageManager;
+    protected final StorageMetrics metrics;
+    // Kết nối của luồng writer (transaction của các lô thay đổi)
+    private Connection connection;
+    // Các kết nối chỉ dùng để đọc đang rảnh; thao tác đọc chạy song song và không bao giờ dùng chung kết nối
+    // (và transaction đang mở) với luồng writer
+    private final BlockingQueue<Connection> idleReaders = new LinkedBlockingQueue<>();
+    // Số kết nối đọc tối đa (null = đọc qua kết nối của writer)
+    private final Semaphore readerPermits;
+    private volatile boolean closed;
+    // Seq journal đã commit của epoch hiện tại (-1 = chưa đọc)
+    private long journalWatermark = -1;
+    private long watermarkEpoch = -1;
+    // Server ghi change-log (null nếu không dùng chung database với server khác)
+    private volatile String changeLogServerId;
+
+    protected JdbcStorageBackend(JavaPlugin plugin, LanguageManager languageManager, StorageMetrics metrics) {
+        this.plugin = plugin;
+        this.languageManager = languageManager;
+        this.metrics = metrics;
+        int readConnections = plugin.getConfig().getInt("database.read-connections", 4);
+        this.readerPermits = readConnections > 0 ? new Semaphore(readConnections) : null;
+    }
+
+    /**
+     * Mở một kết nối mới tới database
+     */
+    protected abstract Connection openConnection() throws SQLException;
+
+    /**
+     * Tạo các bảng cần thiết
+     */
+    protected abstract void createTables(Statement statement) throws SQLException;
+
+    /**
+     * Câu lệnh cộng thêm số lượng cho nhiều vật phẩm cùng lúc (tạo dòng mới nếu chưa có).
+     * Mỗi dòng nhận 4 tham số theo thứ tự: player_uuid, category, material, amount.
+     * Dòng đã có phải được tăng version.
+     */
+    protected abstract String addItemsSql(int rows);
+
+    /**
+     * Câu lệnh ghi đè số lượng cho nhiều vật phẩm cùng lúc (tạo dòng mới nếu chưa có).
+     * Mỗi dòng nhận 4 tham số theo thứ tự: player_uuid, category, material, amount.
+     * Dòng đã có phải được tăng version.
+     */
+    protected abstract String setItemsSql(int rows);
+
+    /**
+     * Lưu trạng thái auto-pickup (tạo dòng mới nếu chưa có)
+     */
+    protected abstract void upsertAutoPickup(Connection conn, String playerUuid, boolean enabled)
+            throws SQLException;
+
+    /**
+     * Cấu hình statement để đọc kết quả theo luồng (không tải toàn bộ vào bộ nhớ)
+     */
+    protected void configureStreaming(Statement statement) throws SQLException {
+        statement.setFetchSize(1000);
+    }
+
+    @Override
+    public synchronized void open() throws StorageException {
+        closed = false;
+        try {
+            connection = openConnection();
+            try (Statement statement = connection.createStatement()) {
+                createTables(statement);
+            }
+        } catch (SQLException e) {
+            // Không giữ lại kết nối chưa tạo xong schema (open được gọi lại khi thử kết nối lại)
+            close();
+            throw wrap(e);
+        }
+    }
+
+    /**
+     * Lấy kết nối database (tự kết nối lại nếu bị đóng)
+     */
+    protected synchronized Connection getConnection() throws StorageException {
+        try {
+            if (connection == null || connection.isClosed()) {
+                connection = openConnection();
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, languageManager.getMessage("database.reconnect_failed"), e);
+            throw new StorageException(languageManager.getMessage("database.connection_null"), e, true);
+        }
+
+        return connection;
+    }
+
+    /**
+     * Kết nối đọc được mượn từ pool, trả lại pool khi đóng
+     */
+    protected final class ReadConnection implements AutoCloseable {
+        private final Connection connection;
+        private final boolean pooled;
+
+        private ReadConnection(Connection connection, boolean pooled) {
+            this.connection = connection;
+            this.pooled = pooled;
+        }
+
+        public Connection get() {
+            return connection;
+        }
+
+        @Override
+        public void close() {
+            if (pooled) {
+                releaseReader(connection);
+            }
+        }
+    }
+
+    /**
+     * Mượn một kết nối đọc (mở thêm nếu chưa đủ database.read-connections), chờ nếu tất cả đang bận.
+     * Chờ bằng Semaphore nên virtual thread không bị ghim vào carrier thread.
+     */
+    protected ReadConnection borrowReader() throws StorageException {
+        if (readerPermits == null) {
+            return new ReadConnection(getConnection(), false);
+        }
+        try {
+            readerPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while waiting for a database connection", e, false);
+        }
+
+        try {
+            Connection conn = idleReaders.poll();
+            while (conn != null && conn.isClosed()) {
+                conn = idleReaders.poll();
+            }
+            return new ReadConnection(conn != null ? conn : openConnection(), true);
+        } catch (SQLException e) {
+            readerPermits.release();
+            throw wrap(e);
+        }
+    }
+
+    private void releaseReader(Connection conn) {
+        if (closed) {
+            closeQuietly(conn);
+        } else {
+            idleReaders.offer(conn);
+        }
+        readerPermits.release();
+    }
+
+    /**
+     * Đóng các kết nối đọc đang rảnh (khi mất kết nối chúng cũng đã hỏng)
+     */
+    private void closeIdleReaders() {
+        Connection conn;
+        while ((conn = idleReaders.poll()) != null) {
+            closeQuietly(conn);
+        }
+    }
+
+    private static void closeQuietly(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException ignored) {
+            // Kết nối đã hỏng
+        }
+    }
+
+    @Override
+    public Map<String, Map<String, Integer>> loadProfile(String playerUuid) throws StorageException {
+        Map<String, Map<String, Integer>> profile = new HashMap<>();
+        String sql = "SELECT category, material, amount FROM storage_items WHERE player_uuid = ?";
+
+        try (ReadConnection conn = borrowReader();
+                PreparedStatement statement = conn.get().prepareStatement(sql)) {
+            statement.setString(1, playerUuid);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    profile.computeIfAbsent(resultSet.getString("category"), k -> new HashMap<>())
+                            .put(resultSet.getString("material"), resultSet.getInt("amount"));
+                }
+            }
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+        return profile;
+    }
+
+    @Override
+    public Map<String, Integer> loadCategory(String playerUuid, String category) throws StorageException {
+        Map<String, Integer> items = new HashMap<>();
+        String sql = "SELECT material, amount FROM storage_items " +
+                "WHERE player_uuid = ? AND category = ?";
+
+        try (ReadConnection conn = borrowReader();
+                PreparedStatement statement = conn.get().prepareStatement(sql)) {
+            statement.setString(1, playerUuid);
+            statement.setString(2, category);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    items.put(resultSet.getString("material"), resultSet.getInt("amount"));
+                }
+            }
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+        return items;
+    }
+
+    @Override
+    public int getItemAmount(String playerUuid, String category, String material) throws StorageException {
+        String sql = "SELECT amount FROM storage_items " +
+                "WHERE player_uuid = ? AND category = ? AND material = ?";
+
+        try (ReadConnection conn = borrowReader();
+                PreparedStatement statement = conn.get().prepareStatement(sql)) {
+            statement.setString(1, playerUuid);
+            statement.setString(2, category);
+            statement.setString(3, material);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt("amount") : 0;
+            }
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    @Override
+    public void applyBatch(List<StorageDelta> batch, long journalEpoch) throws StorageException {
+        Connection conn = getConnection();
+        try {
+            conn.setAutoCommit(false);
+            if (journalEpoch >= 0 && watermarkEpoch != journalEpoch) {
+                journalWatermark = loadJournalWatermark(conn, journalEpoch);
+                watermarkEpoch = journalEpoch;
+            }
+
+            long lastSeq = 0;
+            // Gộp các thay đổi trên cùng một vật phẩm thành một thay đổi cuối cùng
+            Map<ItemKey, PendingChange> changes = new LinkedHashMap<>();
+            Map<String, Boolean> autoPickup = new LinkedHashMap<>();
+            for (StorageDelta delta : batch) {
+                lastSeq = Math.max(lastSeq, delta.seq());
+                if (journalEpoch >= 0 && delta.seq() <= journalWatermark) {
+                    // Đã được commit trước khi server crash
+                    continue;
+                }
+                if (delta.op() == StorageDelta.Op.AUTO_PICKUP) {
+                    autoPickup.put(delta.playerUuid(), delta.amount() != 0);
+                    continue;
+                }
+
+                ItemKey key = new ItemKey(delta.playerUuid(), delta.category(), delta.material());
+                PendingChange change = changes.get(key);
+                if (change == null) {
+                    changes.put(key, new PendingChange(delta.op(), delta.amount()));
+                } else {
+                    change.merge(delta.op(), delta.amount());
+                }
+            }
+            writeChanges(conn, changes);
+            for (Map.Entry<String, Boolean> entry : autoPickup.entrySet()) {
+                upsertAutoPickup(conn, entry.getKey(), entry.getValue());
+            }
+            if (changeLogServerId != null) {
+                logChanges(conn, changes.keySet(), autoPickup.keySet());
+            }
+
+            if (journalEpoch >= 0 && lastSeq > journalWatermark) {
+                saveJournalWatermark(conn, journalEpoch, lastSeq);
+            }
+            conn.commit();
+
+            if (journalEpoch >= 0) {
+                journalWatermark = Math.max(journalWatermark, lastSeq);
+            }
+        } catch (SQLException e) {
+            rollback(conn);
+            throw wrap(e);
+        } finally {
+            resetAutoCommit(conn);
+        }
+    }
+
+    /**
+     * Ghi các thay đổi đã gộp: mỗi loại (cộng thêm, ghi đè, xóa) chỉ tốn một câu lệnh cho mỗi
+     * {@link #MAX_ROWS_PER_STATEMENT} dòng; các vật phẩm bị lấy ra được trừ bằng compare-and-set
+     */
+    private void writeChanges(Connection conn, Map<ItemKey, PendingChange> changes) throws SQLException {
+        List<Map.Entry<ItemKey, PendingChange>> adds = new ArrayList<>();
+        List<Map.Entry<ItemKey, PendingChange>> sets = new ArrayList<>();
+        List<Map.Entry<ItemKey, PendingChange>> deletes = new ArrayList<>();
+        Map<ItemKey, Integer> removes = new LinkedHashMap<>();
+        for (Map.Entry<ItemKey, PendingChange> entry : changes.entrySet()) {
+            PendingChange change = entry.getValue();
+            if (change.op == StorageDelta.Op.DELETE
+                    || (change.op == StorageDelta.Op.SET && change.amount <= 0)) {
+                deletes.add(entry);
+            } else if (change.op == StorageDelta.Op.SET) {
+                sets.add(entry);
+            } else if (change.amount > 0) {
+                adds.add(entry);
+            } else if (change.amount < 0) {
+                removes.put(entry.getKey(), -change.amount);
+            }
+        }
+
+        for (int from = 0; from < adds.size(); from += MAX_ROWS_PER_STATEMENT) {
+            List<Map.Entry<ItemKey, PendingChange>> chunk =
+                    adds.subList(from, Math.min(adds.size(), from + MAX_ROWS_PER_STATEMENT));
+            executeItemRows(conn, addItemsSql(chunk.size()), chunk);
+        }
+        for (int from = 0; from < sets.size(); from += MAX_ROWS_PER_STATEMENT) {
+            List<Map.Entry<ItemKey, PendingChange>> chunk =
+                    sets.subList(from, Math.min(sets.size(), from + MAX_ROWS_PER_STATEMENT));
+            executeItemRows(conn, setItemsSql(chunk.size()), chunk);
+        }
+        for (int from = 0; from < deletes.size(); from += MAX_ROWS_PER_STATEMENT) {
+            List<Map.Entry<ItemKey, PendingChange>> chunk =
+                    deletes.subList(from, Math.min(deletes.size(), from + MAX_ROWS_PER_STATEMENT));
+            deleteItems(conn, chunk);
+        }
+        if (!removes.isEmpty()) {
+            compareAndSetRemoves(conn, removes);
+        }
+    }
+
+    /**
+     * Trừ số lượng bằng compare-and-set: đọc (amount, version) rồi chỉ ghi số lượng mới khi version chưa
+     * đổi, nên thay đổi của server khác ghi chen vào giữa không bị ghi đè. Các dòng bị xung đột được đọc
+     * lại và thử lại; lần đọc lại dùng FOR UPDATE vì trong cùng transaction MySQL (REPEATABLE READ) vẫn
+     * trả về snapshot cũ.
+     *
+     * @param removes Vật phẩm -> số lượng lấy ra
+     */
+    private void compareAndSetRemoves(Connection conn, Map<ItemKey, Integer> removes) throws SQLException {
+        String updateSQL = "UPDATE storage_items SET amount = ?, version = version + 1 " +
+                "WHERE player_uuid = ? AND category = ? AND material = ? AND version = ?";
+        String deleteSQL = "DELETE FROM storage_items " +
+                "WHERE player_uuid = ? AND category = ? AND material = ? AND version = ?";
+
+        Map<ItemKey, Integer> pending = new LinkedHashMap<>(removes);
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            if (attempt >= MAX_CAS_ATTEMPTS) {
+                // Xung đột tạm thời: writer thử lại cả lô sau một khoảng nghỉ
+                throw new SQLTransactionRollbackException("Compare-and-set on storage_items failed after "
+                        + MAX_CAS_ATTEMPTS + " attempts for " + pending.size() + " rows", "40001");
+            }
+
+            Map<ItemKey, long[]> current = readVersions(conn, pending.keySet(), attempt > 0);
+            List<ItemKey> updated = new ArrayList<>();
+            List<ItemKey> deleted = new ArrayList<>();
+            try (PreparedStatement update = conn.prepareStatement(updateSQL);
+                    PreparedStatement delete = conn.prepareStatement(deleteSQL)) {
+                Iterator<Map.Entry<ItemKey, Integer>> iterator = pending.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<ItemKey, Integer> entry = iterator.next();
+                    ItemKey key = entry.getKey();
+                    long[] row = current.get(key);
+                    if (row == null) {
+                        // Dòng đã bị xóa (server khác đã lấy hết)
+                        recordOverdraft(key, entry.getValue(), 0);
+                        iterator.remove();
+                        continue;
+                    }
+
+                    long newAmount = row[0] - entry.getValue();
+                    PreparedStatement statement = newAmount > 0 ? update : delete;
+                    int index = 1;
+                    if (newAmount > 0) {
+                        statement.setLong(index++, newAmount);
+                    }
+                    statement.setString(index++, key.playerUuid());
+                    statement.setString(index++, key.category());
+                    statement.setString(index++, key.material());
+                    statement.setLong(index, row[1]);
+                    statement.addBatch();
+                    (newAmount > 0 ? updated : deleted).add(key);
+                }
+
+                completeCompareAndSet(update, updated, pending, current);
+                completeCompareAndSet(delete, deleted, pending, current);
+            }
+        }
+    }
+
+    /**
+     * Thực thi lô compare-and-set; dòng ghi thành công được bỏ khỏi pending, dòng bị xung đột được giữ lại
+     */
+    private void completeCompareAndSet(PreparedStatement statement, List<ItemKey> keys,
+            Map<ItemKey, Integer> pending, Map<ItemKey, long[]> current) throws SQLException {
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        int[] counts = statement.executeBatch();
+        for (int i = 0; i < keys.size(); i++) {
+            ItemKey key = keys.get(i);
+            // SUCCESS_NO_INFO (-2) cũng là thành công
+            if (counts[i] == 0) {
+                metrics.recordWriteConflict();
+                continue;
+            }
+            int removed = pending.remove(key);
+            long stored = current.get(key)[0];
+            if (stored < removed) {
+                recordOverdraft(key, removed, stored);
+            }
+        }
+    }
+
+    /**
+     * Đọc số lượng và version hiện tại của các vật phẩm
+     *
+     * @param lock Khóa các dòng đọc được (đọc bản mới nhất thay vì snapshot của transaction)
+     * @return Vật phẩm -> {amount, version}, không có vật phẩm chưa tồn tại
+     */
+    private Map<ItemKey, long[]> readVersions(Connection conn, Collection<ItemKey> keys, boolean lock)
+            throws SQLException {
+        Map<ItemKey, long[]> result = new HashMap<>();
+        List<ItemKey> list = new ArrayList<>(keys);
+        for (int from = 0; from < list.size(); from += MAX_ROWS_PER_STATEMENT) {
+            List<ItemKey> chunk = list.subList(from, Math.min(list.size(), from + MAX_ROWS_PER_STATEMENT));
+            String sql = "SELECT player_uuid, category, material, amount, version FROM storage_items " +
+                    "WHERE (player_uuid, category, material) IN (" + repeatRows("(?, ?, ?)", chunk.size()) + ")" +
+                    (lock ? " FOR UPDATE" : "");
+            try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                int index = 1;
+                for (ItemKey key : chunk) {
+                    statement.setString(index++, key.playerUuid());
+                    statement.setString(index++, key.category());
+                    statement.setString(index++, key.material());
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        result.put(new ItemKey(resultSet.getString(1), resultSet.getString(2),
+                                resultSet.getString(3)), new long[] { resultSet.getInt(4), resultSet.getLong(5) });
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lấy ra nhiều hơn số lượng còn trong database: vật phẩm đã được giao cho người chơi nên số lượng
+     * chỉ được giới hạn về 0
+     */
+    private void recordOverdraft(ItemKey key, int removed, long stored) {
+        metrics.recordOverdraft();
+        plugin.getLogger().warning("Storage withdrawal of " + removed + " " + key.material() + " by "
+                + key.playerUuid() + " exceeded the stored amount (" + stored + "), another server changed it");
+    }
+
+    /**
+     * Thực thi câu lệnh nhiều dòng với 4 tham số mỗi dòng
+     */
+    private void executeItemRows(Connection conn, String sql, List<Map.Entry<ItemKey, PendingChange>> rows)
+            throws SQLException {
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            int index = 1;
+            for (Map.Entry<ItemKey, PendingChange> row : rows) {
+                statement.setString(index++, row.getKey().playerUuid());
+                statement.setString(index++, row.getKey().category());
+                statement.setString(index++, row.getKey().material());
+                statement.setInt(index++, row.getValue().amount);
+            }
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Xóa nhiều vật phẩm bằng một câu lệnh
+     */
+    private void deleteItems(Connection conn, List<Map.Entry<ItemKey, PendingChange>> rows) throws SQLException {
+        String sql = "DELETE FROM storage_items WHERE (player_uuid, category, material) IN (" +
+                repeatRows("(?, ?, ?)", rows.size()) + ")";
+
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            int index = 1;
+            for (Map.Entry<ItemKey, PendingChange> row : rows) {
+                statement.setString(index++, row.getKey().playerUuid());
+                statement.setString(index++, row.getKey().category());
+                statement.setString(index++, row.getKey().material());
+            }
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Ghi các cặp (người chơi, danh mục) vừa thay đổi vào change-log
+     */
+    private void logChanges(Connection conn, Collection<ItemKey> items, Collection<String> settings)
+            throws SQLException {
+        Set<List<String>> touched = new LinkedHashSet<>();
+        for (ItemKey key : items) {
+            touched.add(List.of(key.playerUuid(), key.category()));
+        }
+        for (String playerUuid : settings) {
+            touched.add(List.of(playerUuid, ""));
+        }
+
+        List<List<String>> rows = new ArrayList<>(touched);
+        long now = System.currentTimeMillis();
+        for (int from = 0; from < rows.size(); from += MAX_ROWS_PER_STATEMENT) {
+            List<List<String>> chunk = rows.subList(from, Math.min(rows.size(), from + MAX_ROWS_PER_STATEMENT));
+            String sql = "INSERT INTO storage_changes (server_id, player_uuid, category, created_at) VALUES " +
+                    repeatRows("(?, ?, ?, ?)", chunk.size());
+            try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                int index = 1;
+                for (List<String> row : chunk) {
+                    statement.setString(index++, changeLogServerId);
+                    statement.setString(index++, row.get(0));
+                    statement.setString(index++, row.get(1));
+                    statement.setLong(index++, now);
+                }
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    @Override
+    public void enableChangeLog(String serverId) {
+        this.changeLogServerId = serverId;
+    }
+
+    @Override
+    public long getLatestChangeId() throws StorageException {
+        try (ReadConnection conn = borrowReader();
+                Statement statement = conn.get().createStatement();
+                ResultSet resultSet = statement.executeQuery("SELECT MAX(id) FROM storage_changes")) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    @Override
+    public List<Change> pollChanges(long afterId, int limit) throws StorageException {
+        List<Change> result = new ArrayList<>();
+        String sql = "SELECT id, server_id, player_uuid, category FROM storage_changes " +
+                "WHERE id > ? ORDER BY id LIMIT ?";
+
+        try (ReadConnection conn = borrowReader();
+                PreparedStatement statement = conn.get().prepareStatement(sql)) {
+            statement.setLong(1, afterId);
+            statement.setInt(2, limit);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    result.add(new Change(resultSet.getLong(1), resultSet.getString(2), resultSet.getString(3),
+                            resultSet.getString(4)));
+                }
+            }
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+        return result;
+    }
+
+    @Override
+    public List<Change> loadChanges(Collection<Long> ids) throws StorageException {
+        List<Change> result = new ArrayList<>();
+        List<Long> list = new ArrayList<>(ids);
+        for (int from = 0; from < list.size(); from += MAX_ROWS_PER_STATEMENT) {
+            List<Long> chunk = list.subList(from, Math.min(list.size(), from + MAX_ROWS_PER_STATEMENT));
+            String sql = "SELECT id, server_id, player_uuid, category FROM storage_changes WHERE id IN (" +
+                    String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            try (ReadConnection conn = borrowReader();
+                PreparedStatement statement = conn.get().prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setLong(i + 1, chunk.get(i));
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        result.add(new Change(resultSet.getLong(1), resultSet.getString(2),
+                                resultSet.getString(3), resultSet.getString(4)));
+                    }
+                }
+            } catch (SQLException e) {
+                throw wrap(e);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void pruneChanges(long olderThan) throws StorageException {
+        try (ReadConnection conn = borrowReader();
+                PreparedStatement statement = conn.get().prepareStatement(
+                "DELETE FROM storage_changes WHERE created_at < ?")) {
+            statement.setLong(1, olderThan);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    @Override
+    public void claimPlayer(String playerUuid, long now) throws StorageException {
+        try (ReadConnection conn = borrowReader()) {
+            try (PreparedStatement statement = conn.get().prepareStatement(
+                    "UPDATE storage_handoff SET claimed_at = ? WHERE player_uuid = ? AND server_id = ?")) {
+                statement.setLong(1, now);
+                statement.setString(2, playerUuid);
+                statement.setString(3, changeLogServerId);
+                if (statement.executeUpdate() > 0) {
+                    return;
+                }
+            }
+            try (PreparedStatement statement = conn.get().prepareStatement(
+                    "INSERT INTO storage_handoff (player_uuid, server_id, claimed_at) VALUES (?, ?, ?)")) {
+                statement.setString(1, playerUuid);
+                statement.setString(2, changeLogServerId);
+                statement.setLong(3, now);
+                statement.executeUpdate();
+            } catch (SQLIntegrityConstraintViolationException e) {
+                // Vừa được tạo bởi một lần đánh dấu khác của server này
+            }
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    @Override
+    public void refreshClaims(Collection<String> playerUuids, long now) throws StorageException {
+        List<String> list = new ArrayList<>(playerUuids);
+        for (int from = 0; from < list.size(); from += MAX_ROWS_PER_STATEMENT) {
+            List<String> chunk = list.subList(from, Math.min(list.size(), from + MAX_ROWS_PER_STATEMENT));
+            String sql = "UPDATE storage_handoff SET claimed_at = ? WHERE server_id = ? AND player_uuid IN (" +
+                    String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            try (ReadConnection conn = borrowReader();
+                    PreparedStatement statement = conn.get().prepareStatement(sql)) {
+                statement.setLong(1, now);
+                statement.setString(2, changeLogServerId);
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setString(i + 3, chunk.get(i));
+                }
+                statement.executeUpdate();
+            } catch (SQLException e) {
+                throw wrap(e);
+            }
+        }
+    }
+
+    @Override
+    public void releasePlayer(String playerUuid, long claimedBefore) throws StorageException {
+        try (ReadConnection conn = borrowReader();
+                PreparedStatement statement = conn.get().prepareStatement(
+                "DELETE FROM storage_handoff WHERE player_uuid = ? AND server_id = ? AND claimed_at < ?")) {
+            statement.setString(1, playerUuid);
+            statement.setString(2, changeLogServerId);
+            statement.setLong(3, claimedBefore);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    @Override
+    public void releaseStaleClaims(long olderThan) throws StorageException {
+        try (ReadConnection conn = borrowReader();
+                PreparedStatement statement = conn.get().prepareStatement(
+                "DELETE FROM storage_handoff WHERE server_id = ? AND claimed_at < ?")) {
+            statement.setString(1, changeLogServerId);
+            statement.setLong(2, olderThan);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    @Override
+    public List<String> getClaimedPlayers() throws StorageException {
+        List<String> result = new ArrayList<>();
+        try (ReadConnection conn = borrowReader();
+                PreparedStatement statement = conn.get().prepareStatement(
+                "SELECT player_uuid FROM storage_handoff WHERE server_id = ?")) {
+            statement.setString(1, changeLogServerId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    result.add(resultSet.getString(1));
+                }
+            }
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isClaimedElsewhere(String playerUuid, long since) throws StorageException {
+        try (ReadConnection conn = borrowReader();
+                PreparedStatement statement = conn.get().prepareStatement(
+                "SELECT 1 FROM storage_handoff WHERE player_uuid = ? AND server_id <> ? AND claimed_at >= ?")) {
+            statement.setString(1, playerUuid);
+            statement.setString(2, changeLogServerId);
+            statement.setLong(3, since);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    /**
+     * Lặp lại mẫu một dòng, phân cách bằng dấu phẩy (dùng khi sinh câu lệnh nhiều dòng)
+     */
+    protected static String repeatRows(String row, int rows) {
+        StringBuilder builder = new StringBuilder(rows * (row.length() + 2));
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(row);
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public int withdraw(String playerUuid, String category, String material, int amount)
+            throws StorageException {
+        Connection conn = getConnection();
+        ItemKey key = new ItemKey(playerUuid, category, material);
+        String updateSQL = "UPDATE storage_items SET amount = amount - ?, version = version + 1 " +
+                "WHERE player_uuid = ? AND category = ? AND material = ?";
+        String deleteSQL = "DELETE FROM storage_items WHERE player_uuid = ? AND category = ? AND material = ?";
+
+        try {
+            conn.setAutoCommit(false);
+            // Khóa dòng để server khác không lấy cùng số vật phẩm giữa lúc đọc và lúc trừ
+            long[] row = readVersions(conn, List.of(key), true).get(key);
+            int taken = row == null ? 0 : (int) Math.min(row[0], amount);
+            if (taken > 0) {
+                boolean empty = taken == row[0];
+                try (PreparedStatement statement = conn.prepareStatement(empty ? deleteSQL : updateSQL)) {
+                    int index = 1;
+                    if (!empty) {
+                        statement.setInt(index++, taken);
+                    }
+                    statement.setString(index++, playerUuid);
+                    statement.setString(index++, category);
+                    statement.setString(index, material);
+                    statement.executeUpdate();
+                }
+                if (changeLogServerId != null) {
+                    logChanges(conn, List.of(key), List.of());
+                }
+            }
+            conn.commit();
+            return taken;
+        } catch (SQLException e) {
+            rollback(conn);
+            throw wrap(e);
+        } finally {
+            resetAutoCommit(conn);
+        }
+    }
+
+    @Override
+    public int defineItem(String hash, byte[] data) throws StorageException {
+        Integer id = findDefinition(hash);
+        if (id != null) {
+            return id;
+        }
+
+        String sql = "INSERT INTO item_definitions (hash, data) VALUES (?, ?)";
+        try (PreparedStatement statement = getConnection().prepareStatement(sql)) {
+            statement.setString(1, hash);
+            statement.setBytes(2, data);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            // Server khác dùng chung database có thể vừa tạo cùng định nghĩa (trùng khóa hash)
+            if (e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+                throw wrap(e);
+            }
+        }
+
+        id = findDefinition(hash);
+        if (id == null) {
+            throw new StorageException("Item definition " + hash + " was not created", false);
+        }
+        return id;
+    }
+
+    private Integer findDefinition(String hash) throws StorageException {
+        String sql = "SELECT id FROM item_definitions WHERE hash = ?";
+        try (PreparedStatement statement = getConnection().prepareStatement(sql)) {
+            statement.setString(1, hash);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : null;
+            }
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    @Override
+    public Map<Integer, byte[]> loadDefinitions(Collection<Integer> ids) throws StorageException {
+        Map<Integer, byte[]> definitions = new HashMap<>();
+        List<Integer> remaining = new ArrayList<>(ids);
+        for (int start = 0; start < remaining.size(); start += MAX_ROWS_PER_STATEMENT) {
+            List<Integer> chunk = remaining.subList(start,
+                    Math.min(start + MAX_ROWS_PER_STATEMENT, remaining.size()));
+            String sql = "SELECT id, data FROM item_definitions WHERE id IN (" +
+                    String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            try (ReadConnection conn = borrowReader();
+                PreparedStatement statement = conn.get().prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setInt(i + 1, chunk.get(i));
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        definitions.put(resultSet.getInt(1), resultSet.getBytes(2));
+                    }
+                }
+            } catch (SQLException e) {
+                throw wrap(e);
+            }
+        }
+        return definitions;
+    }
+
+    @Override
+    public Map<Integer, Integer> loadSpecialItems(String playerUuid) throws StorageException {
+        Map<Integer, Integer> items = new LinkedHashMap<>();
+        String sql = "SELECT definition_id, amount FROM storage_special_items WHERE player_uuid = ? " +
+                "ORDER BY definition_id";
+
+        try (ReadConnection conn = borrowReader();
+                PreparedStatement statement = conn.get().prepareStatement(sql)) {
+            statement.setString(1, playerUuid);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    items.put(resultSet.getInt(1), resultSet.getInt(2));
+                }
+            }
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+        return items;
+    }
+
+    @Override
+    public void addSpecialItem(String playerUuid, int definitionId, int amount) throws StorageException {
+        String updateSql = "UPDATE storage_special_items SET amount = amount + ? " +
+                "WHERE player_uuid = ? AND definition_id = ?";
+        String insertSql = "INSERT INTO storage_special_items (player_uuid, definition_id, amount) " +
+                "VALUES (?, ?, ?)";
+
+        try {
+            Connection conn = getConnection();
+            // Thử lại một lần nếu server khác vừa tạo dòng này giữa UPDATE và INSERT
+            for (int attempt = 0; attempt < 2; attempt++) {
+                try (PreparedStatement statement = conn.prepareStatement(updateSql)) {
+                    statement.setInt(1, amount);
+                    statement.setString(2, playerUuid);
+                    statement.setInt(3, definitionId);
+                    if (statement.executeUpdate() > 0) {
+                        return;
+                    }
+                }
+                try (PreparedStatement statement = conn.prepareStatement(insertSql)) {
+                    statement.setString(1, playerUuid);
+                    statement.setInt(2, definitionId);
+                    statement.setInt(3, amount);
+                    statement.executeUpdate();
+                    return;
+                } catch (SQLException e) {
+                    if (attempt > 0 || e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+                        throw e;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    @Override
+    public boolean withdrawSpecialItem(String playerUuid, int definitionId, int amount) throws StorageException {
+        String sql = "UPDATE storage_special_items SET amount = amount - ? " +
+                "WHERE player_uuid = ? AND definition_id = ? AND amount >= ?";
+        String deleteSql = "DELETE FROM storage_special_items " +
+                "WHERE player_uuid = ? AND definition_id = ? AND amount <= 0";
+
+        Connection conn = getConnection();
+        try {
+            // UPDATE và DELETE dòng hết số lượng nằm trong cùng một transaction
+            conn.setAutoCommit(false);
+            int rows;
+            try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                statement.setInt(1, amount);
+                statement.setString(2, playerUuid);
+                statement.setInt(3, definitionId);
+                statement.setInt(4, amount);
+                rows = statement.executeUpdate();
+            }
+            if (rows > 0) {
+                try (PreparedStatement statement = conn.prepareStatement(deleteSql)) {
+                    statement.setString(1, playerUuid);
+                    statement.setInt(2, definitionId);
+                    statement.executeUpdate();
+                }
+            }
+            conn.commit();
+            return rows > 0;
+        } catch (SQLException e) {
+            rollback(conn);
+            throw wrap(e);
+        } finally {
+            resetAutoCommit(conn);
+        }
+    }
+
+    @Override
+    public void setSpecialItem(String playerUuid, int definitionId, int amount) throws StorageException {
+        String deleteSql = "DELETE FROM storage_special_items WHERE player_uuid = ? AND definition_id = ?";
+        String updateSql = "UPDATE storage_special_items SET amount = ? WHERE player_uuid = ? AND definition_id = ?";
+        String insertSql = "INSERT INTO storage_special_items (player_uuid, definition_id, amount) " +
+                "VALUES (?, ?, ?)";
+
+        try {
+            Connection conn = getConnection();
+            if (amount <= 0) {
+                try (PreparedStatement statement = conn.prepareStatement(deleteSql)) {
+                    statement.setString(1, playerUuid);
+                    statement.setInt(2, definitionId);
+                    statement.executeUpdate();
+                }
+                return;
+            }
+            // Thử lại một lần nếu server khác vừa tạo dòng này giữa UPDATE và INSERT
+            for (int attempt = 0; attempt < 2; attempt++) {
+                try (PreparedStatement statement = conn.prepareStatement(updateSql)) {
+                    statement.setInt(1, amount);
+                    statement.setString(2, playerUuid);
+                    statement.setInt(3, definitionId);
+                    if (statement.executeUpdate() > 0) {
+                        return;
+                    }
+                }
+                try (PreparedStatement statement = conn.prepareStatement(insertSql)) {
+                    statement.setString(1, playerUuid);
+                    statement.setInt(2, definitionId);
+                    statement.setInt(3, amount);
+                    statement.executeUpdate();
+                    return;
+                } catch (SQLException e) {
+                    if (attempt > 0 || e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+                        throw e;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    @Override
+    public void forEachDefinition(DefinitionVisitor visitor) throws StorageException {
+        String sql = "SELECT id, data FROM item_definitions ORDER BY id";
+
+        // Dùng kết nối riêng để việc đọc theo luồng không chặn các thao tác khác
+        try (Connection conn = openConnection();
+                Statement statement = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY)) {
+            configureStreaming(statement);
+            try (ResultSet resultSet = statement.executeQuery(sql)) {
+                while (resultSet.next()) {
+                    visitor.visit(resultSet.getInt(1), resultSet.getBytes(2));
+                }
+            }
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    @Override
+    public void forEachSpecialItem(SpecialItemVisitor visitor) throws StorageException {
+        String sql = "SELECT player_uuid, definition_id, amount FROM storage_special_items ORDER BY player_uuid";
+
+        try (Connection conn = openConnection();
+                Statement statement = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY)) {
+            configureStreaming(statement);
+            try (ResultSet resultSet = statement.executeQuery(sql)) {
+                while (resultSet.next()) {
+                    visitor.visit(resultSet.getString(1), resultSet.getInt(2), resultSet.getInt(3));
+                }
+            }
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    @Override
+    public boolean getAutoPickup(String playerUuid) throws StorageException {
+        String sql = "SELECT auto_pickup FROM player_settings WHERE player_uuid = ?";
+
+        try (ReadConnection conn = borrowReader();
+                PreparedStatement statement = conn.get().prepareStatement(sql)) {
+            statement.setString(1, playerUuid);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    return resultSet.getBoolean("auto_pickup");
+                }
+            }
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+        return false; // Mặc định là false
+    }
+
+    @Override
+    public void setAutoPickup(String playerUuid, boolean enabled) throws StorageException {
+        try {
+            upsertAutoPickup(getConnection(), playerUuid, enabled);
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    @Override
+    public void forEachItem(RowVisitor visitor) throws StorageException {
+        String sql = "SELECT player_uuid, category, material, amount FROM storage_items ORDER BY player_uuid";
+
+        // Dùng kết nối riêng để việc đọc theo luồng không chặn các thao tác khác
+        try (Connection conn = openConnection();
+                Statement statement = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY)) {
+            configureStreaming(statement);
+            try (ResultSet resultSet = statement.executeQuery(sql)) {
+                while (resultSet.next()) {
+                    visitor.visit(resultSet.getString(1), resultSet.getString(2), resultSet.getString(3),
+                            resultSet.getInt(4));
+                }
+            }
+        } catch (SQLException e) {
+            throw wrap(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        closeIdleReaders();
+        try {
+            if (connection != null && !connection.isClosed()) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, languageManager.getMessage("database.error.close"), e);
+        }
+        connection = null;
+    }
+
+    /**
+     * Lấy seq journal đã commit
+     */
+    private long loadJournalWatermark(Connection conn, long epoch) throws SQLException {
+        String sql = "SELECT applied_seq FROM storage_journal WHERE epoch = ?";
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setLong(1, epoch);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong("applied_seq") : 0;
+            }
+        }
+    }
+
+    /**
+     * Lưu seq journal đã commit (trong cùng transaction với các thay đổi)
+     */
+    private void saveJournalWatermark(Connection conn, long epoch, long seq) throws SQLException {
+        String updateSQL = "UPDATE storage_journal SET applied_seq = ? WHERE epoch = ?";
+        try (PreparedStatement updateStmt = conn.prepareStatement(updateSQL)) {
+            updateStmt.setLong(1, seq);
+            updateStmt.setLong(2, epoch);
+            if (updateStmt.executeUpdate() > 0) {
+                return;
+            }
+        }
+
+        String insertSQL = "INSERT INTO storage_journal (epoch, applied_seq) VALUES (?, ?)";
+        try (PreparedStatement insertStmt = conn.prepareStatement(insertSQL)) {
+            insertStmt.setLong(1, epoch);
+            insertStmt.setLong(2, seq);
+            insertStmt.executeUpdate();
+        }
+    }
+
+    protected void rollback(Connection conn) {
+        try {
+            conn.rollback();
+        } catch (SQLException rollbackEx) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to rollback transaction", rollbackEx);
+        }
+    }
+
+    protected void resetAutoCommit(Connection conn) {
+        try {
+            conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to reset auto-commit", e);
+        }
+    }
+
+    /**
+     * Bọc SQLException, phân biệt lỗi mất kết nối (có thể thử lại)
+     */
+    protected StorageException wrap(SQLException e) {
+        String sqlState = e.getSQLState();
+        boolean connectionError = e instanceof SQLTransientConnectionException || e instanceof SQLRecoverableException
+                || (sqlState != null && sqlState.startsWith("08"));
+        // 40xxx: deadlock/serialization failure, HYT00: hết thời gian chờ khóa (H2), 1205: lock wait timeout (MySQL)
+        boolean transientError = !connectionError && (e instanceof SQLTransientException
+                || (sqlState != null && (sqlState.startsWith("40") || sqlState.equals("HYT00")))
+                || e.getErrorCode() == MYSQL_LOCK_WAIT_TIMEOUT);
+        if (connectionError) {
+            closeIdleReaders();
+        }
+        return new StorageException(e.getMessage(), e, connectionError, transientError);
+    }
+
+    private record ItemKey(String playerUuid, String category, String material) {
+    }
+
+    /**
+     * Thay đổi cuối cùng của một vật phẩm sau khi gộp các delta trong lô
+     */
+    private static final class PendingChange {
+        private StorageDelta.Op op;
+        private int amount;
+
+        private PendingChange(StorageDelta.Op op, int amount) {
+            // Lấy ra được gộp như cộng thêm một số âm
+            this.op = op == StorageDelta.Op.REMOVE ? StorageDelta.Op.ADD : op;
+            this.amount = op == StorageDelta.Op.REMOVE ? -amount : amount;
+        }
+
+        private void merge(StorageDelta.Op next, int nextAmount) {
+            if (next == StorageDelta.Op.SET || next == StorageDelta.Op.DELETE) {
+                op = next;
+                amount = nextAmount;
+                return;
+            }
+
+            int delta = next == StorageDelta.Op.REMOVE ? -nextAmount : nextAmount;
+            if (op != StorageDelta.Op.DELETE) {
+                // Cộng dồn; ghi đè rồi lấy ra = ghi đè bằng số lượng còn lại
+                amount += delta;
+            } else if (delta > 0) {
+                // Xóa rồi thêm lại = ghi đè bằng số lượng mới
+                op = StorageDelta.Op.SET;
+                amount = delta;
+            }
+        }
+    }
+}
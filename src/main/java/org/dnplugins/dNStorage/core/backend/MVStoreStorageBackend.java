@@ -0,0 +1,371 @@
+package org.dnplugins.dNStorage.core.backend;
+
+import org.dnplugins.dNStorage.core.ProfileCodec;
+import org.dnplugins.dNStorage.core.StorageDelta;
+import org.dnplugins.dNStorage.core.StorageMetrics;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Backend key-value bằng MVStore (không qua tầng SQL của H2)
+ * <p>
+ * Mỗi người chơi được lưu thành một giá trị nhị phân duy nhất (xem {@link ProfileCodec})
+ * trong map "profiles", khóa là UUID người chơi. Vật phẩm đặc biệt nằm trong map "special_items" với khóa
+ * "UUID/id định nghĩa" để các vật phẩm của một người chơi đứng liền nhau.
+ * <p>
+ * Auto-commit nền của MVStore bị tắt: mỗi thao tác ghi tự commit một lần khi đã ghi xong (kể cả seq journal),
+ * hoặc rollback khi lỗi, nên sau khi crash không bao giờ có một lô chỉ được lưu một phần.
+ */
+public class MVStoreStorageBackend implements StorageBackend, ItemDefinitionBackend {
+
+    private final File file;
+    private final StorageMetrics metrics;
+    private MVStore store;
+    // UUID -> kho đã mã hóa
+    private MVMap<String, byte[]> profiles;
+    // UUID -> trạng thái auto-pickup
+    private MVMap<String, Boolean> settings;
+    // Epoch journal -> seq đã commit
+    private MVMap<Long, Long> journal;
+    // Id -> dữ liệu vật phẩm, hash -> id
+    private MVMap<Integer, byte[]> definitions;
+    private MVMap<String, Integer> definitionIds;
+    // "UUID/id định nghĩa" -> số lượng
+    private MVMap<String, Integer> specialItems;
+
+    public MVStoreStorageBackend(File file, StorageMetrics metrics) {
+        this.file = file;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String getName() {
+        return "MVStore";
+    }
+
+    @Override
+    public void open() throws StorageException {
+        try {
+            store = new MVStore.Builder()
+                    .fileName(file.getAbsolutePath())
+                    .compress()
+                    .autoCommitDisabled()
+                    .open();
+            profiles = store.openMap("profiles");
+            settings = store.openMap("player_settings");
+            journal = store.openMap("journal");
+            definitions = store.openMap("item_definitions");
+            definitionIds = store.openMap("item_definition_hashes");
+            specialItems = store.openMap("special_items");
+        } catch (RuntimeException e) {
+            // Không giữ lại file đang mở dở (open được gọi lại khi thử kết nối lại)
+            close();
+            store = null;
+            throw new StorageException(e.getMessage(), e, false);
+        }
+    }
+
+    @Override
+    public Map<String, Map<String, Integer>> loadProfile(String playerUuid) throws StorageException {
+        checkOpen();
+        return ProfileCodec.decode(profiles.get(playerUuid));
+    }
+
+    @Override
+    public Map<String, Integer> loadCategory(String playerUuid, String category) throws StorageException {
+        Map<String, Integer> items = loadProfile(playerUuid).get(category);
+        return items == null ? new HashMap<>() : items;
+    }
+
+    @Override
+    public int getItemAmount(String playerUuid, String category, String material) throws StorageException {
+        Map<String, Integer> items = loadProfile(playerUuid).get(category);
+        return items == null ? 0 : items.getOrDefault(material, 0);
+    }
+
+    /**
+     * Mỗi người chơi chỉ được giải mã/mã hóa một lần mỗi lô
+     */
+    @Override
+    public synchronized void applyBatch(List<StorageDelta> batch, long journalEpoch) throws StorageException {
+        checkOpen();
+        try {
+            long watermark = journalEpoch >= 0 ? journal.getOrDefault(journalEpoch, 0L) : -1;
+            Map<String, Map<String, Map<String, Integer>>> touched = new HashMap<>();
+            long lastSeq = 0;
+
+            for (StorageDelta delta : batch) {
+                lastSeq = Math.max(lastSeq, delta.seq());
+                if (delta.seq() <= watermark) {
+                    // Đã được commit trước khi server crash
+                    continue;
+                }
+                if (delta.op() == StorageDelta.Op.AUTO_PICKUP) {
+                    settings.put(delta.playerUuid(), delta.amount() != 0);
+                    continue;
+                }
+
+                Map<String, Integer> items = touched
+                        .computeIfAbsent(delta.playerUuid(), k -> ProfileCodec.decode(profiles.get(k)))
+                        .computeIfAbsent(delta.category(), k -> new HashMap<>());
+                switch (delta.op()) {
+                    case ADD -> items.merge(delta.material(), delta.amount(), Integer::sum);
+                    // Giống các backend JDBC: ghi đè tạo dòng mới nếu chưa có, số lượng <= 0 là xóa
+                    case SET -> {
+                        if (delta.amount() > 0) {
+                            items.put(delta.material(), delta.amount());
+                        } else {
+                            items.remove(delta.material());
+                        }
+                    }
+                    case DELETE -> items.remove(delta.material());
+                    // Chỉ có một luồng ghi nên không thể bị xung đột, chỉ cần giới hạn về 0
+                    case REMOVE -> {
+                        int current = items.getOrDefault(delta.material(), 0);
+                        if (current < delta.amount()) {
+                            metrics.recordOverdraft();
+                        }
+                        if (current > delta.amount()) {
+                            items.put(delta.material(), current - delta.amount());
+                        } else {
+                            items.remove(delta.material());
+                        }
+                    }
+                }
+            }
+
+            for (Map.Entry<String, Map<String, Map<String, Integer>>> entry : touched.entrySet()) {
+                saveProfile(entry.getKey(), entry.getValue());
+            }
+
+            if (journalEpoch >= 0 && lastSeq > watermark) {
+                journal.put(journalEpoch, lastSeq);
+            }
+            // Các thay đổi và seq journal được lưu cùng nhau
+            store.commit();
+        } catch (RuntimeException e) {
+            rollback();
+            throw new StorageException(e.getMessage(), e, false);
+        }
+    }
+
+    @Override
+    public synchronized int withdraw(String playerUuid, String category, String material, int amount)
+            throws StorageException {
+        Map<String, Map<String, Integer>> profile = loadProfile(playerUuid);
+        Map<String, Integer> items = profile.get(category);
+        int current = items == null ? 0 : items.getOrDefault(material, 0);
+        int taken = Math.min(current, amount);
+        if (taken <= 0) {
+            return 0;
+        }
+
+        if (current == taken) {
+            items.remove(material);
+        } else {
+            items.put(material, current - taken);
+        }
+        try {
+            saveProfile(playerUuid, profile);
+            store.commit();
+        } catch (RuntimeException e) {
+            rollback();
+            throw new StorageException(e.getMessage(), e, false);
+        }
+        return taken;
+    }
+
+    @Override
+    public boolean getAutoPickup(String playerUuid) throws StorageException {
+        checkOpen();
+        return settings.getOrDefault(playerUuid, false);
+    }
+
+    @Override
+    public synchronized void setAutoPickup(String playerUuid, boolean enabled) throws StorageException {
+        checkOpen();
+        try {
+            settings.put(playerUuid, enabled);
+            store.commit();
+        } catch (RuntimeException e) {
+            rollback();
+            throw new StorageException(e.getMessage(), e, false);
+        }
+    }
+
+    @Override
+    public void forEachItem(RowVisitor visitor) throws StorageException {
+        checkOpen();
+        Cursor<String, byte[]> cursor = profiles.cursor(null);
+        while (cursor.hasNext()) {
+            String playerUuid = cursor.next();
+            for (Map.Entry<String, Map<String, Integer>> category : ProfileCodec.decode(cursor.getValue())
+                    .entrySet()) {
+                for (Map.Entry<String, Integer> item : category.getValue().entrySet()) {
+                    visitor.visit(playerUuid, category.getKey(), item.getKey(), item.getValue());
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized int defineItem(String hash, byte[] data) throws StorageException {
+        checkOpen();
+        try {
+            Integer id = definitionIds.get(hash);
+            if (id == null) {
+                Integer last = definitions.lastKey();
+                id = last == null ? 1 : last + 1;
+                definitions.put(id, data);
+                definitionIds.put(hash, id);
+                store.commit();
+            }
+            return id;
+        } catch (RuntimeException e) {
+            rollback();
+            throw new StorageException(e.getMessage(), e, false);
+        }
+    }
+
+    @Override
+    public Map<Integer, byte[]> loadDefinitions(Collection<Integer> ids) throws StorageException {
+        checkOpen();
+        Map<Integer, byte[]> result = new HashMap<>();
+        for (int id : ids) {
+            byte[] data = definitions.get(id);
+            if (data != null) {
+                result.put(id, data);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<Integer, Integer> loadSpecialItems(String playerUuid) throws StorageException {
+        checkOpen();
+        Map<Integer, Integer> items = new TreeMap<>();
+        String prefix = playerUuid + "/";
+        Cursor<String, Integer> cursor = specialItems.cursor(prefix);
+        while (cursor.hasNext()) {
+            String key = cursor.next();
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            items.put(Integer.parseInt(key.substring(prefix.length())), cursor.getValue());
+        }
+        return items;
+    }
+
+    @Override
+    public synchronized void addSpecialItem(String playerUuid, int definitionId, int amount)
+            throws StorageException {
+        checkOpen();
+        try {
+            specialItems.merge(playerUuid + "/" + definitionId, amount, Integer::sum);
+            store.commit();
+        } catch (RuntimeException e) {
+            rollback();
+            throw new StorageException(e.getMessage(), e, false);
+        }
+    }
+
+    @Override
+    public synchronized boolean withdrawSpecialItem(String playerUuid, int definitionId, int amount)
+            throws StorageException {
+        checkOpen();
+        String key = playerUuid + "/" + definitionId;
+        int current = specialItems.getOrDefault(key, 0);
+        if (current < amount) {
+            return false;
+        }
+
+        try {
+            if (current == amount) {
+                specialItems.remove(key);
+            } else {
+                specialItems.put(key, current - amount);
+            }
+            store.commit();
+        } catch (RuntimeException e) {
+            rollback();
+            throw new StorageException(e.getMessage(), e, false);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void setSpecialItem(String playerUuid, int definitionId, int amount)
+            throws StorageException {
+        checkOpen();
+        try {
+            if (amount > 0) {
+                specialItems.put(playerUuid + "/" + definitionId, amount);
+            } else {
+                specialItems.remove(playerUuid + "/" + definitionId);
+            }
+            store.commit();
+        } catch (RuntimeException e) {
+            rollback();
+            throw new StorageException(e.getMessage(), e, false);
+        }
+    }
+
+    @Override
+    public void forEachDefinition(DefinitionVisitor visitor) throws StorageException {
+        checkOpen();
+        Cursor<Integer, byte[]> cursor = definitions.cursor(null);
+        while (cursor.hasNext()) {
+            int id = cursor.next();
+            visitor.visit(id, cursor.getValue());
+        }
+    }
+
+    @Override
+    public void forEachSpecialItem(SpecialItemVisitor visitor) throws StorageException {
+        checkOpen();
+        Cursor<String, Integer> cursor = specialItems.cursor(null);
+        while (cursor.hasNext()) {
+            String key = cursor.next();
+            int separator = key.lastIndexOf('/');
+            visitor.visit(key.substring(0, separator), Integer.parseInt(key.substring(separator + 1)),
+                    cursor.getValue());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (store != null && !store.isClosed()) {
+            store.close();
+        }
+    }
+
+    /**
+     * Bỏ các thay đổi chưa commit (lô ghi dở), để lần thử lại không áp dụng chúng hai lần
+     */
+    private void rollback() {
+        try {
+            store.rollback();
+        } catch (RuntimeException e) {
+            // Store đã hỏng/đóng: các thay đổi chưa commit không được lưu xuống file
+        }
+    }
+
+    private void saveProfile(String playerUuid, Map<String, Map<String, Integer>> profile) {
+        profile.values().removeIf(Map::isEmpty);
+        if (profile.isEmpty()) {
+            profiles.remove(playerUuid);
+        } else {
+            profiles.put(playerUuid, ProfileCodec.encode(profile));
+        }
+    }
+
+    private void checkOpen() throws StorageException {
+        if (store == null || store.isClosed()) {
+            throw new StorageException("MVStore is not open", true);
+        }
+    }
+}
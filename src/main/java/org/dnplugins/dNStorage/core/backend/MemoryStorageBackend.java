@@ -0,0 +1,247 @@
+package org.dnplugins.dNStorage.core.backend;
+
+import org.dnplugins.dNStorage.core.StorageDelta;
+import org.dnplugins.dNStorage.core.StorageMetrics;
+
+import java.util.*;
+
+/**
+ * Backend lưu trong bộ nhớ (không bền vững) - dùng để thử nghiệm và so sánh hiệu năng
+ */
+public class MemoryStorageBackend implements StorageBackend, ItemDefinitionBackend {
+
+    // UUID -> category -> material -> amount (sắp xếp theo UUID để duyệt giống các backend khác)
+    private final NavigableMap<String, Map<String, Map<String, Integer>>> profiles = new TreeMap<>();
+    private final Map<String, Boolean> settings = new HashMap<>();
+    private final Map<Long, Long> journal = new HashMap<>();
+    // Hash -> id định nghĩa, id -> dữ liệu vật phẩm
+    private final Map<String, Integer> definitionIds = new HashMap<>();
+    private final Map<Integer, byte[]> definitions = new HashMap<>();
+    // UUID -> id định nghĩa -> số lượng
+    private final Map<String, Map<Integer, Integer>> specialItems = new HashMap<>();
+    private final StorageMetrics metrics;
+
+    public MemoryStorageBackend(StorageMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String getName() {
+        return "Memory";
+    }
+
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public synchronized Map<String, Map<String, Integer>> loadProfile(String playerUuid) {
+        Map<String, Map<String, Integer>> copy = new HashMap<>();
+        Map<String, Map<String, Integer>> profile = profiles.get(playerUuid);
+        if (profile != null) {
+            profile.forEach((category, items) -> copy.put(category, new HashMap<>(items)));
+        }
+        return copy;
+    }
+
+    @Override
+    public synchronized Map<String, Integer> loadCategory(String playerUuid, String category) {
+        Map<String, Integer> items = loadProfile(playerUuid).get(category);
+        return items == null ? new HashMap<>() : items;
+    }
+
+    @Override
+    public synchronized int getItemAmount(String playerUuid, String category, String material) {
+        return loadCategory(playerUuid, category).getOrDefault(material, 0);
+    }
+
+    @Override
+    public synchronized void applyBatch(List<StorageDelta> batch, long journalEpoch) {
+        long watermark = journalEpoch >= 0 ? journal.getOrDefault(journalEpoch, 0L) : -1;
+        long lastSeq = 0;
+
+        for (StorageDelta delta : batch) {
+            lastSeq = Math.max(lastSeq, delta.seq());
+            if (delta.seq() <= watermark) {
+                continue;
+            }
+            if (delta.op() == StorageDelta.Op.AUTO_PICKUP) {
+                settings.put(delta.playerUuid(), delta.amount() != 0);
+                continue;
+            }
+
+            Map<String, Integer> items = profiles.computeIfAbsent(delta.playerUuid(), k -> new HashMap<>())
+                    .computeIfAbsent(delta.category(), k -> new HashMap<>());
+            switch (delta.op()) {
+                case ADD -> items.merge(delta.material(), delta.amount(), Integer::sum);
+                case SET -> {
+                    if (delta.amount() > 0) {
+                        items.put(delta.material(), delta.amount());
+                    } else {
+                        items.remove(delta.material());
+                    }
+                }
+                case DELETE -> items.remove(delta.material());
+                case REMOVE -> remove(items, delta.material(), delta.amount());
+            }
+            cleanup(delta.playerUuid(), delta.category());
+        }
+
+        if (journalEpoch >= 0 && lastSeq > watermark) {
+            journal.put(journalEpoch, lastSeq);
+        }
+    }
+
+    @Override
+    public synchronized int withdraw(String playerUuid, String category, String material, int amount) {
+        Map<String, Map<String, Integer>> profile = profiles.get(playerUuid);
+        Map<String, Integer> items = profile == null ? null : profile.get(category);
+        int current = items == null ? 0 : items.getOrDefault(material, 0);
+        int taken = Math.min(current, amount);
+        if (taken <= 0) {
+            return 0;
+        }
+
+        items.put(material, current - taken);
+        if (current == taken) {
+            items.remove(material);
+        }
+        cleanup(playerUuid, category);
+        return taken;
+    }
+
+    @Override
+    public synchronized boolean getAutoPickup(String playerUuid) {
+        return settings.getOrDefault(playerUuid, false);
+    }
+
+    @Override
+    public synchronized void setAutoPickup(String playerUuid, boolean enabled) {
+        settings.put(playerUuid, enabled);
+    }
+
+    @Override
+    public synchronized void forEachItem(RowVisitor visitor) {
+        for (Map.Entry<String, Map<String, Map<String, Integer>>> profile : profiles.entrySet()) {
+            for (Map.Entry<String, Map<String, Integer>> category : profile.getValue().entrySet()) {
+                for (Map.Entry<String, Integer> item : category.getValue().entrySet()) {
+                    visitor.visit(profile.getKey(), category.getKey(), item.getKey(), item.getValue());
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized int defineItem(String hash, byte[] data) {
+        return definitionIds.computeIfAbsent(hash, k -> {
+            int id = definitions.size() + 1;
+            definitions.put(id, data.clone());
+            return id;
+        });
+    }
+
+    @Override
+    public synchronized Map<Integer, byte[]> loadDefinitions(Collection<Integer> ids) {
+        Map<Integer, byte[]> result = new HashMap<>();
+        for (int id : ids) {
+            byte[] data = definitions.get(id);
+            if (data != null) {
+                result.put(id, data.clone());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized Map<Integer, Integer> loadSpecialItems(String playerUuid) {
+        return new TreeMap<>(specialItems.getOrDefault(playerUuid, Collections.emptyMap()));
+    }
+
+    @Override
+    public synchronized void addSpecialItem(String playerUuid, int definitionId, int amount) {
+        specialItems.computeIfAbsent(playerUuid, k -> new HashMap<>()).merge(definitionId, amount, Integer::sum);
+    }
+
+    @Override
+    public synchronized boolean withdrawSpecialItem(String playerUuid, int definitionId, int amount) {
+        Map<Integer, Integer> items = specialItems.get(playerUuid);
+        int current = items == null ? 0 : items.getOrDefault(definitionId, 0);
+        if (current < amount) {
+            return false;
+        }
+
+        if (current == amount) {
+            items.remove(definitionId);
+            if (items.isEmpty()) {
+                specialItems.remove(playerUuid);
+            }
+        } else {
+            items.put(definitionId, current - amount);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void setSpecialItem(String playerUuid, int definitionId, int amount) {
+        if (amount > 0) {
+            specialItems.computeIfAbsent(playerUuid, k -> new HashMap<>()).put(definitionId, amount);
+            return;
+        }
+        Map<Integer, Integer> items = specialItems.get(playerUuid);
+        if (items != null) {
+            items.remove(definitionId);
+            if (items.isEmpty()) {
+                specialItems.remove(playerUuid);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void forEachDefinition(DefinitionVisitor visitor) {
+        for (Map.Entry<Integer, byte[]> definition : new TreeMap<>(definitions).entrySet()) {
+            visitor.visit(definition.getKey(), definition.getValue().clone());
+        }
+    }
+
+    @Override
+    public synchronized void forEachSpecialItem(SpecialItemVisitor visitor) {
+        for (Map.Entry<String, Map<Integer, Integer>> player : new TreeMap<>(specialItems).entrySet()) {
+            for (Map.Entry<Integer, Integer> item : player.getValue().entrySet()) {
+                visitor.visit(player.getKey(), item.getKey(), item.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Trừ số lượng, giới hạn về 0 (chỉ có một luồng ghi nên không thể bị xung đột)
+     */
+    private void remove(Map<String, Integer> items, String material, int amount) {
+        int current = items.getOrDefault(material, 0);
+        if (current < amount) {
+            metrics.recordOverdraft();
+        }
+        if (current > amount) {
+            items.put(material, current - amount);
+        } else {
+            items.remove(material);
+        }
+    }
+
+    private void cleanup(String playerUuid, String category) {
+        Map<String, Map<String, Integer>> profile = profiles.get(playerUuid);
+        if (profile == null) {
+            return;
+        }
+        Map<String, Integer> items = profile.get(category);
+        if (items != null && items.isEmpty()) {
+            profile.remove(category);
+        }
+        if (profile.isEmpty()) {
+            profiles.remove(playerUuid);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.dnplugins.dNStorage.core.backend;
+
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.dnplugins.dNStorage.core.LanguageManager;
+import org.dnplugins.dNStorage.core.StorageMetrics;
+
+import java.sql.*;
+import java.util.logging.Level;
+
+/**
+ * Backend MySQL
+ */
+public class MySQLStorageBackend extends JdbcStorageBackend {
+
+    public MySQLStorageBackend(JavaPlugin plugin, LanguageManager languageManager, StorageMetrics metrics) {
+        super(plugin, languageManager, metrics);
+    }
+
+    @Override
+    public String getName() {
+        return "MySQL";
+    }
+
+    @Override
+    protected Connection openConnection() throws SQLException {
+        try {
+            // Load MySQL driver class
+            Class.forName("com.mysql.cj.jdbc.Driver");
+        } catch (ClassNotFoundException e) {
+            plugin.getLogger().log(Level.SEVERE,
+                    languageManager.getMessage("database.driver_not_found").replace("{driver}", "MySQL"), e);
+            throw new SQLException("MySQL Driver not found", e);
+        }
+
+        FileConfiguration config = plugin.getConfig();
+
+        String host = config.getString("database.mysql.host", "localhost");
+        int port = config.getInt("database.mysql.port", 3306);
+        String database = config.getString("database.mysql.database", "dnstorage");
+        String username = config.getString("database.mysql.username", "root");
+        String password = config.getString("database.mysql.password", "");
+
+        String url = String.format("jdbc:mysql://%s:%d/%s?useSSL=false&allowPublicKeyRetrieval=true",
+                host, port, database);
+
+        return DriverManager.getConnection(url, username, password);
+    }
+
+    @Override
+    protected void createTables(Statement statement) throws SQLException {
+        statement.execute("CREATE TABLE IF NOT EXISTS storage_items (" +
+                "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                "player_uuid VARCHAR(36) NOT NULL, " +
+                "category VARCHAR(20) NOT NULL, " +
+                "material VARCHAR(100) NOT NULL, " +
+                "amount INT NOT NULL DEFAULT 0, " +
+                "version BIGINT NOT NULL DEFAULT 0, " +
+                "UNIQUE KEY unique_storage (player_uuid, category, material), " +
+                "INDEX idx_player (player_uuid), " +
+                "INDEX idx_category (category)" +
+                ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+        addVersionColumn(statement);
+        statement.execute("CREATE TABLE IF NOT EXISTS player_settings (" +
+                "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                "player_uuid VARCHAR(36) NOT NULL UNIQUE, " +
+                "auto_pickup BOOLEAN NOT NULL DEFAULT FALSE, " +
+                "INDEX idx_player (player_uuid)" +
+                ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+        statement.execute("CREATE TABLE IF NOT EXISTS storage_journal (" +
+                "epoch BIGINT PRIMARY KEY, " +
+                "applied_seq BIGINT NOT NULL" +
+                ") ENGINE=InnoDB");
+        statement.execute("CREATE TABLE IF NOT EXISTS item_definitions (" +
+                "id INT AUTO_INCREMENT PRIMARY KEY, " +
+                "hash CHAR(64) NOT NULL UNIQUE, " +
+                "data MEDIUMBLOB NOT NULL" +
+                ") ENGINE=InnoDB");
+        statement.execute("CREATE TABLE IF NOT EXISTS storage_special_items (" +
+                "player_uuid VARCHAR(36) NOT NULL, " +
+                "definition_id INT NOT NULL, " +
+                "amount INT NOT NULL, " +
+                "PRIMARY KEY (player_uuid, definition_id)" +
+                ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+        statement.execute("CREATE TABLE IF NOT EXISTS storage_changes (" +
+                "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                "server_id VARCHAR(36) NOT NULL, " +
+                "player_uuid VARCHAR(36) NOT NULL, " +
+                "category VARCHAR(20) NOT NULL, " +
+                "created_at BIGINT NOT NULL, " +
+                "INDEX idx_created (created_at)" +
+                ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+        statement.execute("CREATE TABLE IF NOT EXISTS storage_handoff (" +
+                "player_uuid VARCHAR(36) NOT NULL, " +
+                "server_id VARCHAR(36) NOT NULL, " +
+                "claimed_at BIGINT NOT NULL, " +
+                "PRIMARY KEY (player_uuid, server_id)" +
+                ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+    }
+
+    /**
+     * Thêm cột version cho database tạo trước khi có cột này (MySQL không có ADD COLUMN IF NOT EXISTS)
+     */
+    private void addVersionColumn(Statement statement) throws SQLException {
+        try (ResultSet columns = statement.getConnection().getMetaData()
+                .getColumns(statement.getConnection().getCatalog(), null, "storage_items", "version")) {
+            if (columns.next()) {
+                return;
+            }
+        }
+        statement.execute("ALTER TABLE storage_items ADD COLUMN version BIGINT NOT NULL DEFAULT 0");
+    }
+
+    @Override
+    protected void configureStreaming(Statement statement) throws SQLException {
+        // MySQL Connector/J chỉ đọc theo luồng khi fetch size = Integer.MIN_VALUE
+        statement.setFetchSize(Integer.MIN_VALUE);
+    }
+
+    @Override
+    protected String addItemsSql(int rows) {
+        return "INSERT INTO storage_items (player_uuid, category, material, amount) VALUES " +
+                repeatRows("(?, ?, ?, ?)", rows) +
+                " ON DUPLICATE KEY UPDATE amount = amount + VALUES(amount), version = version + 1";
+    }
+
+    @Override
+    protected String setItemsSql(int rows) {
+        return "INSERT INTO storage_items (player_uuid, category, material, amount) VALUES " +
+                repeatRows("(?, ?, ?, ?)", rows) +
+                " ON DUPLICATE KEY UPDATE amount = VALUES(amount), version = version + 1";
+    }
+
+    @Override
+    protected void upsertAutoPickup(Connection conn, String playerUuid, boolean enabled) throws SQLException {
+        // MySQL - sử dụng INSERT ... ON DUPLICATE KEY UPDATE
+        String sql = "INSERT INTO player_settings (player_uuid, auto_pickup) VALUES (?, ?) " +
+                "ON DUPLICATE KEY UPDATE auto_pickup = ?";
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setString(1, playerUuid);
+            statement.setBoolean(2, enabled);
+            statement.setBoolean(3, enabled);
+            statement.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.dnplugins.dNStorage.core.backend;
+
+import org.dnplugins.dNStorage.core.StorageDelta;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Backend lưu trữ dữ liệu kho (H2, MySQL, MVStore, bộ nhớ, ...)
+ * <p>
+ * Các phương thức đều là blocking và được gọi ngoài main thread. Các thay đổi chỉ được ghi qua
+ * {@link #applyBatch(List, long)} từ luồng writer duy nhất của DatabaseManager.
+ */
+public interface StorageBackend {
+
+    /**
+     * Duyệt từng dòng dữ liệu kho
+     */
+    @FunctionalInterface
+    interface RowVisitor {
+        void visit(String playerUuid, String category, String material, int amount);
+    }
+
+    /**
+     * Tên backend (dùng cho log)
+     */
+    String getName();
+
+    /**
+     * Kết nối và tạo schema nếu cần
+     */
+    void open() throws StorageException;
+
+    /**
+     * Đóng backend
+     */
+    void close();
+
+    /**
+     * Lấy toàn bộ kho của người chơi (category -> material -> amount)
+     */
+    Map<String, Map<String, Integer>> loadProfile(String playerUuid) throws StorageException;
+
+    /**
+     * Lấy tất cả vật phẩm trong một danh mục
+     */
+    Map<String, Integer> loadCategory(String playerUuid, String category) throws StorageException;
+
+    /**
+     * Lấy số lượng một vật phẩm
+     */
+    int getItemAmount(String playerUuid, String category, String material) throws StorageException;
+
+    /**
+     * Ghi một lô thay đổi trong một transaction. Các thay đổi có seq nhỏ hơn hoặc bằng seq đã commit
+     * của journal sẽ được bỏ qua (replay idempotent).
+     *
+     * @param journalEpoch Epoch của journal (-1 nếu journal bị tắt)
+     */
+    void applyBatch(List<StorageDelta> batch, long journalEpoch) throws StorageException;
+
+    /**
+     * Lấy tối đa amount vật phẩm ra khỏi kho (atomic, một transaction riêng). Chỉ được gọi trên luồng writer
+     * ({@link org.dnplugins.dNStorage.core.DatabaseManager#submitWrite}) để không chen vào transaction của
+     * {@link #applyBatch}.
+     *
+     * @return Số lượng đã thực sự lấy ra (0 nếu kho không còn vật phẩm này)
+     */
+    int withdraw(String playerUuid, String category, String material, int amount) throws StorageException;
+
+    /**
+     * Lấy trạng thái auto-pickup
+     */
+    boolean getAutoPickup(String playerUuid) throws StorageException;
+
+    /**
+     * Lưu trạng thái auto-pickup
+     */
+    void setAutoPickup(String playerUuid, boolean enabled) throws StorageException;
+
+    /**
+     * Duyệt toàn bộ dữ liệu kho, sắp xếp theo người chơi, không tải toàn bộ vào bộ nhớ
+     */
+    void forEachItem(RowVisitor visitor) throws StorageException;
+}
@@ -0,0 +1,38 @@
+package org.dnplugins.dNStorage.core.backend;
+
+/**
+ * Lỗi khi thao tác với backend lưu trữ
+ */
+public class StorageException extends Exception {
+
+    private final boolean connectionError;
+    private final boolean transientError;
+
+    public StorageException(String message, Throwable cause, boolean connectionError, boolean transientError) {
+        super(message, cause);
+        this.connectionError = connectionError;
+        this.transientError = transientError;
+    }
+
+    public StorageException(String message, Throwable cause, boolean connectionError) {
+        this(message, cause, connectionError, false);
+    }
+
+    public StorageException(String message, boolean connectionError) {
+        this(message, null, connectionError);
+    }
+
+    /**
+     * Lỗi do mất kết nối (có thể thử lại) hay lỗi dữ liệu
+     */
+    public boolean isConnectionError() {
+        return connectionError;
+    }
+
+    /**
+     * Lỗi tạm thời khi kết nối vẫn còn (xung đột ghi, hết thời gian chờ khóa, deadlock): thử lại sau là đủ
+     */
+    public boolean isTransient() {
+        return transientError;
+    }
+}
@@ -0,0 +1,19 @@
+package org.dnplugins.dNStorage.enums;
+
+/**
+ * Nguồn gốc của một thay đổi trên kho (ghi vào nhật ký giao dịch)
+ */
+public enum ChangeSource {
+    /** Tự động nhặt vật phẩm */
+    PICKUP,
+    /** Thao tác trong GUI kho */
+    GUI,
+    /** Lệnh /kho */
+    COMMAND,
+    /** Plugin khác qua API */
+    API,
+    /** Quản trị viên sửa kho của người chơi khác (/kho admin view) */
+    ADMIN,
+    /** Cất/lấy vật phẩm trong kho đặc biệt (/kho special) */
+    SPECIAL
+}
@@ -0,0 +1,269 @@
+package org.dnplugins.dNStorage.gui;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.dnplugins.dNStorage.core.LanguageManager;
+import org.dnplugins.dNStorage.core.SoundManager;
+import org.dnplugins.dNStorage.core.SpecialItemStore;
+import org.dnplugins.dNStorage.core.StorageManager;
+import org.dnplugins.dNStorage.enums.ChangeSource;
+import org.dnplugins.dNStorage.enums.ItemCategory;
+
+import java.util.*;
+
+/**
+ * Giao diện xem và sửa kho của người chơi khác (/kho admin view), online hoặc offline
+ * <p>
+ * Kho được đọc một lần khi mở (người chơi offline không được đưa vào cache) và hiển thị theo cùng cách
+ * phân trang với GUI danh mục. Nếu người chơi đang online, mọi thay đổi đi qua phiên đang chạy của họ trong
+ * {@link StorageManager} nên không ghi đè lên thao tác của chính người chơi.
+ */
+@SuppressWarnings("deprecation")
+public class AdminStorageGUI implements Listener {
+
+    private final StorageManager storageManager;
+    private final StorageGUI storageGUI;
+    private final LanguageManager languageManager;
+    private final SoundManager soundManager;
+    // Kho đang được xem theo người xem
+    private final Map<UUID, AdminView> openViews = new HashMap<>();
+
+    private static final class AdminView {
+        private final UUID targetId;
+        private final String targetName;
+        // Chỉ hiển thị một danh mục (null = tất cả)
+        private final ItemCategory.Category category;
+        private Map<Material, Integer> items;
+        private int page;
+        private String title;
+
+        private AdminView(UUID targetId, String targetName, ItemCategory.Category category) {
+            this.targetId = targetId;
+            this.targetName = targetName;
+            this.category = category;
+        }
+    }
+
+    public AdminStorageGUI(JavaPlugin plugin, StorageManager storageManager, StorageGUI storageGUI,
+            LanguageManager languageManager, SoundManager soundManager) {
+        this.storageManager = storageManager;
+        this.storageGUI = storageGUI;
+        this.languageManager = languageManager;
+        this.soundManager = soundManager;
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+    }
+
+    /**
+     * Mở kho của một người chơi cho quản trị viên
+     *
+     * @param category Chỉ hiển thị danh mục này (null = tất cả)
+     */
+    public void open(Player viewer, UUID targetId, String targetName, ItemCategory.Category category) {
+        viewer.sendMessage(languageManager.getMessage("message.storage.loading"));
+        AdminView view = new AdminView(targetId, targetName, category);
+        reload(viewer, view);
+    }
+
+    /**
+     * Đọc lại kho rồi mở trang hiện tại
+     */
+    private void reload(Player viewer, AdminView view) {
+        storageManager.loadSnapshotAsync(view.targetId, items -> {
+            if (items == null) {
+                viewer.sendMessage(languageManager.getMessage("command.admin.view.failed")
+                        .replace("{player}", view.targetName));
+                return;
+            }
+            if (!viewer.isOnline()) {
+                return;
+            }
+            if (view.category != null) {
+                items.keySet().removeIf(material -> ItemCategory.getCategory(material) != view.category);
+            }
+            view.items = items;
+            openPage(viewer, view, view.page);
+        });
+    }
+
+    private void openPage(Player viewer, AdminView view, int page) {
+        int totalPages = StorageGUI.getPageCount(view.items.size());
+        view.page = Math.max(0, Math.min(page, totalPages - 1));
+        view.title = languageManager.getMessage("gui.admin_view.title")
+                .replace("{player}", view.targetName)
+                .replace("{page}", String.valueOf(view.page + 1))
+                .replace("{total}", String.valueOf(totalPages));
+        List<String> actionLore = List.of(
+                " ",
+                languageManager.getMessage("lore.item.click_left"),
+                languageManager.getMessage("lore.item.shift_click"),
+                " ",
+                languageManager.getMessage("lore.admin_view.deposit"));
+
+        openViews.put(viewer.getUniqueId(), view);
+        viewer.openInventory(storageGUI.createItemPage(view.title, view.items, view.page, totalPages, actionLore));
+    }
+
+    @EventHandler
+    public void onInventoryClick(InventoryClickEvent event) {
+        if (!(event.getWhoClicked() instanceof Player)) {
+            return;
+        }
+        Player viewer = (Player) event.getWhoClicked();
+        AdminView view = openViews.get(viewer.getUniqueId());
+        if (view == null || view.title == null || !event.getView().getTitle().equals(view.title)) {
+            return;
+        }
+        event.setCancelled(true);
+
+        int slot = event.getRawSlot();
+        if (slot < 0 || slot >= 54) {
+            return;
+        }
+        ItemStack clicked = event.getCurrentItem();
+        ItemStack cursor = event.getCursor();
+
+        // Đưa vật phẩm trên cursor vào kho của người chơi
+        if (event.isRightClick() && slot < 45 && cursor != null && cursor.getType() != Material.AIR) {
+            deposit(viewer, view, cursor);
+            return;
+        }
+        if (clicked == null || clicked.getType() == Material.AIR) {
+            return;
+        }
+
+        if (clicked.getType() == Material.ARROW && (slot == 48 || slot == 50)) {
+            openPage(viewer, view, slot == 48 ? view.page - 1 : view.page + 1);
+        } else if (clicked.getType() == Material.BARRIER && slot == 49) {
+            viewer.closeInventory();
+        } else if (slot < 45 && !event.isRightClick() && (cursor == null || cursor.getType() == Material.AIR)) {
+            withdraw(viewer, view, clicked.getType(), event.isShiftClick());
+        }
+    }
+
+    /**
+     * Lấy vật phẩm từ kho của người chơi vào túi đồ của quản trị viên (1 stack hoặc tất cả)
+     */
+    private void withdraw(Player viewer, AdminView view, Material material, boolean all) {
+        int available = view.items.getOrDefault(material, 0);
+        if (available <= 0) {
+            viewer.sendMessage(languageManager.getMessage("message.item.not_found"));
+            return;
+        }
+
+        int amount = all ? available : Math.min(material.getMaxStackSize(), available);
+        // Chỉ đưa vật phẩm sau khi biết số lượng thực sự đã lấy ra khỏi kho
+        storageManager.takeItem(view.targetId, material, amount, ChangeSource.ADMIN, taken -> {
+            if (!viewer.isOnline()) {
+                storageManager.giveItem(view.targetId, material, taken, ChangeSource.ADMIN);
+                return;
+            }
+            if (taken <= 0) {
+                viewer.sendMessage(languageManager.getMessage("message.item.not_found"));
+                reload(viewer, view);
+                return;
+            }
+            give(viewer, view, material, taken, amount);
+        });
+    }
+
+    /**
+     * Đưa số vật phẩm đã lấy ra khỏi kho vào túi đồ của quản trị viên, trả lại kho phần không vừa
+     *
+     * @param requested Số lượng đã yêu cầu (nhiều hơn taken nghĩa là bản đang xem đã cũ)
+     */
+    private void give(Player viewer, AdminView view, Material material, int taken, int requested) {
+        int given = taken;
+        int maxStackSize = material.getMaxStackSize();
+        for (int remaining = taken; remaining > 0; remaining -= maxStackSize) {
+            int stackAmount = Math.min(remaining, maxStackSize);
+            for (ItemStack leftover : viewer.getInventory().addItem(new ItemStack(material, stackAmount)).values()) {
+                given -= leftover.getAmount();
+            }
+        }
+        if (given < taken) {
+            // Trả lại phần không vừa túi đồ
+            storageManager.giveItem(view.targetId, material, taken - given, ChangeSource.ADMIN);
+            viewer.sendMessage(languageManager.getMessage("message.inventory.full"));
+        }
+        if (given > 0) {
+            soundManager.playItemRemoveSound(viewer);
+            viewer.sendMessage(languageManager.getMessage("command.admin.view.taken")
+                    .replace("{amount}", storageGUI.formatNumber(given))
+                    .replace("{item}", storageGUI.getMaterialDisplayName(material))
+                    .replace("{player}", view.targetName));
+        }
+        if (openViews.get(viewer.getUniqueId()) != view || !viewer.getOpenInventory().getTitle().equals(view.title)) {
+            // Quản trị viên đã đóng kho này trong lúc chờ
+            return;
+        }
+        if (taken < requested) {
+            reload(viewer, view);
+        } else {
+            applyChange(viewer, view, material, -given);
+        }
+    }
+
+    /**
+     * Đưa vật phẩm trên cursor của quản trị viên vào kho của người chơi
+     */
+    private void deposit(Player viewer, AdminView view, ItemStack cursor) {
+        Material material = cursor.getType();
+        ItemCategory.Category category = ItemCategory.getCategory(material);
+        if (category == null) {
+            viewer.sendMessage(languageManager.getMessage("message.item.not_storable"));
+            return;
+        }
+        if (SpecialItemStore.isSpecial(cursor)) {
+            viewer.sendMessage(languageManager.getMessage("message.item.use_special"));
+            return;
+        }
+        if (view.category != null && category != view.category) {
+            viewer.sendMessage(languageManager.getMessage("message.item.wrong_category")
+                    .replace("{category}", languageManager.getCategoryName(category)));
+            return;
+        }
+
+        int added = storageManager.giveItem(view.targetId, material, cursor.getAmount(), ChangeSource.ADMIN);
+        if (added <= 0) {
+            return;
+        }
+        viewer.setItemOnCursor(null);
+        soundManager.playItemAddSound(viewer);
+        viewer.sendMessage(languageManager.getMessage("command.admin.view.added")
+                .replace("{amount}", storageGUI.formatNumber(added))
+                .replace("{item}", storageGUI.getMaterialDisplayName(material))
+                .replace("{player}", view.targetName));
+        applyChange(viewer, view, material, added);
+    }
+
+    /**
+     * Cập nhật trang đang xem sau một thay đổi. Người chơi online có thể vừa thay đổi kho của chính họ nên
+     * được đọc lại từ phiên đang chạy (không truy vấn database); kho offline được cập nhật tại chỗ để không
+     * phải đọc lại database sau mỗi click.
+     */
+    private void applyChange(Player viewer, AdminView view, Material material, int delta) {
+        if (Bukkit.getPlayer(view.targetId) != null) {
+            reload(viewer, view);
+            return;
+        }
+        int amount = view.items.getOrDefault(material, 0) + delta;
+        if (amount > 0) {
+            view.items.put(material, amount);
+        } else {
+            view.items.remove(material);
+        }
+        openPage(viewer, view, view.page);
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        openViews.remove(event.getPlayer().getUniqueId());
+    }
+}
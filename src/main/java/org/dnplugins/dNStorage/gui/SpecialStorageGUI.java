@@ -0,0 +1,343 @@
+package org.dnplugins.dNStorage.gui;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.dnplugins.dNStorage.core.LanguageManager;
+import org.dnplugins.dNStorage.core.SoundManager;
+import org.dnplugins.dNStorage.core.SpecialItemStore;
+
+import java.util.*;
+
+/**
+ * Giao diện kho vật phẩm đặc biệt (/kho special)
+ * <p>
+ * Click vào vật phẩm có NBT trong túi đồ để cất nguyên stack vào kho; click trái vào vật phẩm trong kho để lấy
+ * 1 stack, shift + click để lấy tất cả. Mọi thao tác đều đọc/ghi trực tiếp database nên trang được đọc lại sau
+ * mỗi thay đổi. Stack chỉ được lấy khỏi túi đồ sau khi đã lưu xong; vật phẩm lấy ra mà không trả được cho người
+ * chơi đã thoát được giữ lại và trả khi họ vào server lần sau.
+ */
+@SuppressWarnings("deprecation")
+public class SpecialStorageGUI implements Listener {
+
+    private final SpecialItemStore specialItemStore;
+    private final StorageGUI storageGUI;
+    private final LanguageManager languageManager;
+    private final SoundManager soundManager;
+    // Trang đang mở theo người chơi
+    private final Map<UUID, SpecialView> openViews = new HashMap<>();
+    // Người chơi đang chờ một thao tác database (bỏ qua click cho đến khi xong)
+    private final Set<UUID> pending = new HashSet<>();
+
+    private static final class SpecialView {
+        private List<SpecialItemStore.StoredItem> items;
+        private int page;
+        private String title;
+    }
+
+    public SpecialStorageGUI(JavaPlugin plugin, SpecialItemStore specialItemStore, StorageGUI storageGUI,
+            LanguageManager languageManager, SoundManager soundManager) {
+        this.specialItemStore = specialItemStore;
+        this.storageGUI = storageGUI;
+        this.languageManager = languageManager;
+        this.soundManager = soundManager;
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+    }
+
+    /**
+     * Mở kho đặc biệt của người chơi
+     */
+    public void open(Player player) {
+        if (!specialItemStore.isEnabled()) {
+            player.sendMessage(languageManager.getMessage("message.special.disabled"));
+            return;
+        }
+        player.sendMessage(languageManager.getMessage("message.storage.loading"));
+        SpecialView view = new SpecialView();
+        reload(player, view, true);
+    }
+
+    /**
+     * Đọc lại kho rồi mở trang hiện tại
+     */
+    private void reload(Player player, SpecialView view, boolean announce) {
+        pending.add(player.getUniqueId());
+        specialItemStore.loadAsync(player.getUniqueId(), items -> {
+            pending.remove(player.getUniqueId());
+            if (!player.isOnline()) {
+                return;
+            }
+            if (items == null) {
+                player.sendMessage(languageManager.getMessage("message.special.failed"));
+                return;
+            }
+            if (announce && items.isEmpty()) {
+                player.sendMessage(languageManager.getMessage("message.special.empty"));
+            }
+            view.items = items;
+            openPage(player, view, view.page);
+        });
+    }
+
+    private void openPage(Player player, SpecialView view, int page) {
+        int totalPages = StorageGUI.getPageCount(view.items.size());
+        view.page = Math.max(0, Math.min(page, totalPages - 1));
+        view.title = languageManager.getMessage("gui.special.title")
+                .replace("{page}", String.valueOf(view.page + 1))
+                .replace("{total}", String.valueOf(totalPages));
+
+        Inventory gui = Bukkit.createInventory(null, 54, view.title);
+        int start = view.page * StorageGUI.ITEMS_PER_PAGE;
+        int end = Math.min(start + StorageGUI.ITEMS_PER_PAGE, view.items.size());
+        for (int i = start; i < end; i++) {
+            gui.setItem(i - start, createDisplayItem(view.items.get(i)));
+        }
+        storageGUI.addPageControls(gui, view.page, totalPages);
+
+        openViews.put(player.getUniqueId(), view);
+        player.openInventory(gui);
+    }
+
+    /**
+     * Vật phẩm hiển thị: giữ nguyên NBT, thêm số lượng và hướng dẫn vào cuối lore
+     */
+    private ItemStack createDisplayItem(SpecialItemStore.StoredItem stored) {
+        ItemStack item = stored.item().clone();
+        item.setAmount(Math.max(1, Math.min(stored.amount(), item.getMaxStackSize())));
+        ItemMeta meta = item.getItemMeta();
+        if (meta == null) {
+            return item;
+        }
+
+        List<String> lore = meta.hasLore() ? new ArrayList<>(meta.getLore()) : new ArrayList<>();
+        lore.add(" ");
+        lore.add(languageManager.getMessage("lore.item.amount")
+                .replace("{amount}", storageGUI.formatNumber(stored.amount())));
+        lore.add(" ");
+        lore.add(languageManager.getMessage("lore.item.click_left"));
+        lore.add(languageManager.getMessage("lore.item.shift_click"));
+        lore.add(languageManager.getMessage("lore.special.deposit"));
+        meta.setLore(lore);
+        item.setItemMeta(meta);
+        return item;
+    }
+
+    @EventHandler
+    public void onInventoryClick(InventoryClickEvent event) {
+        if (!(event.getWhoClicked() instanceof Player)) {
+            return;
+        }
+        Player player = (Player) event.getWhoClicked();
+        SpecialView view = openViews.get(player.getUniqueId());
+        if (view == null || view.title == null || !event.getView().getTitle().equals(view.title)) {
+            return;
+        }
+        event.setCancelled(true);
+        if (pending.contains(player.getUniqueId())) {
+            return;
+        }
+
+        int slot = event.getRawSlot();
+        ItemStack clicked = event.getCurrentItem();
+        if (clicked == null || clicked.getType() == Material.AIR) {
+            return;
+        }
+
+        // Click vào túi đồ: cất stack đó vào kho
+        if (slot >= 54) {
+            if (!SpecialItemStore.isSpecial(clicked)) {
+                player.sendMessage(languageManager.getMessage("message.special.not_special"));
+                return;
+            }
+            deposit(player, view, event.getSlot(), clicked.clone());
+            return;
+        }
+
+        if (clicked.getType() == Material.ARROW && (slot == 48 || slot == 50)) {
+            openPage(player, view, slot == 48 ? view.page - 1 : view.page + 1);
+        } else if (clicked.getType() == Material.BARRIER && slot == 49) {
+            player.closeInventory();
+        } else if (slot < StorageGUI.ITEMS_PER_PAGE && event.isLeftClick()) {
+            int index = view.page * StorageGUI.ITEMS_PER_PAGE + slot;
+            if (index < view.items.size()) {
+                withdraw(player, view, view.items.get(index), event.isShiftClick());
+            }
+        }
+    }
+
+    /**
+     * Cất một stack trong túi đồ vào kho. Stack vẫn nằm trong túi đồ cho đến khi đã lưu xong; phần không còn lấy
+     * được khỏi túi đồ lúc đó được lấy lại khỏi kho.
+     *
+     * @param slot Ô của stack trong túi đồ người chơi
+     */
+    private void deposit(Player player, SpecialView view, int slot, ItemStack stack) {
+        pending.add(player.getUniqueId());
+        specialItemStore.deposit(player.getUniqueId(), stack, stored -> {
+            pending.remove(player.getUniqueId());
+            if (!stored) {
+                player.sendMessage(languageManager.getMessage("message.special.failed"));
+                return;
+            }
+            int missing = stack.getAmount() - takeFromInventory(player, slot, stack);
+            if (missing > 0) {
+                specialItemStore.undoDeposit(player.getUniqueId(), stack, missing);
+                if (missing == stack.getAmount()) {
+                    if (player.isOnline()) {
+                        reload(player, view, false);
+                    }
+                    return;
+                }
+            }
+            soundManager.playItemAddSound(player);
+            player.sendMessage(languageManager.getMessage("message.item.added")
+                    .replace("{amount}", storageGUI.formatNumber(stack.getAmount() - missing))
+                    .replace("{item}", getDisplayName(stack)));
+            if (player.isOnline()) {
+                reload(player, view, false);
+            }
+        });
+    }
+
+    /**
+     * Lấy vật phẩm ra (1 stack hoặc tất cả); phần không vừa túi đồ được cất lại vào kho
+     */
+    private void withdraw(Player player, SpecialView view, SpecialItemStore.StoredItem stored, boolean all) {
+        ItemStack template = stored.item();
+        int amount = all ? stored.amount() : Math.min(stored.amount(), template.getMaxStackSize());
+        pending.add(player.getUniqueId());
+        specialItemStore.withdraw(player.getUniqueId(), stored.definitionId(), amount, taken -> {
+            pending.remove(player.getUniqueId());
+            if (!taken) {
+                player.sendMessage(languageManager.getMessage("message.item.not_found"));
+                if (player.isOnline()) {
+                    reload(player, view, false);
+                }
+                return;
+            }
+            int given = player.isOnline() ? amount - addToInventory(player, template, amount) : 0;
+            int rest = amount - given;
+            if (rest > 0) {
+                // Phần không vừa túi đồ (hoặc người chơi vừa thoát) được cất lại vào kho
+                specialItemStore.deposit(player.getUniqueId(), template.asQuantity(rest), restored -> {
+                    if (!restored) {
+                        giveItems(player, template.asQuantity(rest));
+                    }
+                });
+                player.sendMessage(languageManager.getMessage("message.inventory.full"));
+            }
+            if (given > 0) {
+                soundManager.playItemRemoveSound(player);
+                player.sendMessage(languageManager.getMessage("message.item.removed")
+                        .replace("{amount}", storageGUI.formatNumber(given))
+                        .replace("{item}", getDisplayName(template)));
+            }
+            if (player.isOnline()) {
+                reload(player, view, false);
+            }
+        });
+    }
+
+    /**
+     * Lấy stack vừa cất khỏi túi đồ, ưu tiên ô đã click
+     *
+     * @return Số lượng đã lấy được (0 nếu người chơi đã thoát)
+     */
+    private int takeFromInventory(Player player, int slot, ItemStack stack) {
+        // Người chơi có thể đã thoát rồi vào lại trong lúc chờ (đối tượng Player mới)
+        Player online = Bukkit.getPlayer(player.getUniqueId());
+        if (online == null) {
+            return 0;
+        }
+        Inventory inventory = online.getInventory();
+        int needed = stack.getAmount();
+        ItemStack current = inventory.getItem(slot);
+        if (current != null && current.isSimilar(stack)) {
+            int taken = Math.min(needed, current.getAmount());
+            current.setAmount(current.getAmount() - taken);
+            inventory.setItem(slot, current.getAmount() > 0 ? current : null);
+            needed -= taken;
+        }
+        if (needed > 0) {
+            // Stack đã bị chuyển sang ô khác trong lúc chờ
+            int leftover = 0;
+            for (ItemStack rest : inventory.removeItem(stack.asQuantity(needed)).values()) {
+                leftover += rest.getAmount();
+            }
+            needed = leftover;
+        }
+        return stack.getAmount() - needed;
+    }
+
+    /**
+     * Đưa vật phẩm vào túi đồ, thả phần còn lại xuống đất. Người chơi đã thoát thì giữ lại để trả khi họ vào
+     * server lần sau.
+     */
+    private void giveItems(Player player, ItemStack stack) {
+        Player online = Bukkit.getPlayer(player.getUniqueId());
+        if (online == null) {
+            specialItemStore.holdForReturn(player.getUniqueId(), stack);
+            return;
+        }
+        int leftover = addToInventory(online, stack, stack.getAmount());
+        if (leftover > 0) {
+            online.getWorld().dropItemNaturally(online.getLocation(), stack.asQuantity(leftover));
+        }
+    }
+
+    /**
+     * Đưa vật phẩm vào túi đồ theo từng stack
+     *
+     * @return Số lượng không vừa túi đồ
+     */
+    private int addToInventory(Player player, ItemStack template, int amount) {
+        int leftover = 0;
+        int maxStackSize = Math.max(1, template.getMaxStackSize());
+        for (int remaining = amount; remaining > 0; remaining -= maxStackSize) {
+            ItemStack stack = template.asQuantity(Math.min(remaining, maxStackSize));
+            for (ItemStack rest : player.getInventory().addItem(stack).values()) {
+                leftover += rest.getAmount();
+            }
+        }
+        return leftover;
+    }
+
+    private String getDisplayName(ItemStack item) {
+        ItemMeta meta = item.getItemMeta();
+        if (meta != null && meta.hasDisplayName()) {
+            return meta.getDisplayName();
+        }
+        return storageGUI.getMaterialDisplayName(item.getType());
+    }
+
+    /**
+     * Trả các vật phẩm đang được giữ cho người chơi
+     */
+    @EventHandler
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        List<ItemStack> held = specialItemStore.takeReturns(player.getUniqueId());
+        if (held.isEmpty()) {
+            return;
+        }
+        for (ItemStack stack : held) {
+            giveItems(player, stack);
+        }
+        player.sendMessage(languageManager.getMessage("message.special.returned"));
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        openViews.remove(event.getPlayer().getUniqueId());
+        pending.remove(event.getPlayer().getUniqueId());
+    }
+}
@@ -7,17 +7,25 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.player.AsyncPlayerChatEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.dnplugins.dNStorage.core.InventorySortEngine;
 import org.dnplugins.dNStorage.core.LanguageManager;
+import org.dnplugins.dNStorage.core.SearchIndex;
 import org.dnplugins.dNStorage.core.SoundManager;
+import org.dnplugins.dNStorage.core.SpecialItemStore;
 import org.dnplugins.dNStorage.core.StorageManager;
+import org.dnplugins.dNStorage.enums.ChangeSource;
 import org.dnplugins.dNStorage.enums.ItemCategory;
 import org.dnplugins.dNStorage.listeners.AutoPickupListener;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Giao diện GUI chính cho kho chứa
@@ -30,10 +38,37 @@ public class StorageGUI implements Listener {
     private final LanguageManager languageManager;
     private final SoundManager soundManager;
     private final JavaPlugin plugin;
+    private final SearchIndex searchIndex;
+    private final InventorySortEngine sortEngine;
+    // Danh mục theo slot của GUI chính đang mở (tra cứu trực tiếp khi click)
+    private final Map<UUID, ItemCategory.Category[]> mainMenuSlots = new HashMap<>();
+    // Trang hiện tại của GUI chính
+    private final Map<UUID, Integer> mainMenuPages = new HashMap<>();
+    // Danh mục và trang đang mở của GUI danh mục
+    private final Map<UUID, CategoryView> openCategoryViews = new HashMap<>();
+    // Kết quả tìm kiếm đang mở
+    private final Map<UUID, SearchView> openSearchViews = new HashMap<>();
+    // Người chơi vừa bấm nút tìm kiếm, tin nhắn chat tiếp theo là từ khóa (đọc từ luồng chat async)
+    private final Set<UUID> awaitingSearch = ConcurrentHashMap.newKeySet();
+
+    // Số danh mục tối đa trên một trang GUI chính (4 hàng x 7 cột)
+    private static final int CATEGORIES_PER_MAIN_PAGE = 28;
+    private static final int CATEGORIES_PER_ROW = 7;
+    // Số vật phẩm trên một trang GUI danh mục (5 hàng)
+    static final int ITEMS_PER_PAGE = 45;
+
+    private record CategoryView(ItemCategory.Category category, int page) {
+    }
+
+    private record SearchView(String query, String title, int page) {
+    }
 
     public StorageGUI(JavaPlugin plugin, StorageManager storageManager, AutoPickupListener autoPickupListener,
-            LanguageManager languageManager, SoundManager soundManager) {
+            LanguageManager languageManager, SoundManager soundManager, SearchIndex searchIndex,
+            InventorySortEngine sortEngine) {
         this.plugin = plugin;
+        this.searchIndex = searchIndex;
+        this.sortEngine = sortEngine;
         this.storageManager = storageManager;
         this.autoPickupListener = autoPickupListener;
         this.languageManager = languageManager;
@@ -65,21 +100,84 @@ public class StorageGUI implements Listener {
      * Mở GUI chính với các danh mục
      */
     public void openMainGUI(Player player) {
-        Inventory gui = Bukkit.createInventory(null, 27, getMainTitle());
+        openMainGUI(player, mainMenuPages.getOrDefault(player.getUniqueId(), 0));
+    }
+
+    /**
+     * Mở một trang của GUI chính. Các danh mục của trang được tải trước bằng một truy vấn (async); nếu database
+     * đang mất kết nối thì nút danh mục chỉ hiển thị số lượng đang có trong cache.
+     */
+    private void openMainGUI(Player player, int page) {
+        ItemCategory.Category[] categories = ItemCategory.Category.values();
+        int totalPages = Math.max(1, (int) Math.ceil(categories.length / (double) CATEGORIES_PER_MAIN_PAGE));
+        int shownPage = Math.max(0, Math.min(page, totalPages - 1));
+        int start = shownPage * CATEGORIES_PER_MAIN_PAGE;
+        int count = Math.min(CATEGORIES_PER_MAIN_PAGE, categories.length - start);
+
+        storageManager.loadCategoriesAsync(player.getUniqueId(),
+                Arrays.asList(categories).subList(start, start + count), loaded -> {
+                    if (player.isOnline()) {
+                        showMainGUI(player, shownPage, totalPages);
+                    }
+                });
+    }
 
-        // Đặt các nút danh mục
-        gui.setItem(10, createCategoryButton(ItemCategory.Category.ORE, player));
-        gui.setItem(13, createCategoryButton(ItemCategory.Category.BUILDING, player));
-        gui.setItem(16, createCategoryButton(ItemCategory.Category.WOOD, player));
+    /**
+     * Hiển thị một trang của GUI chính. Số hàng danh mục thay đổi theo số danh mục (tối đa 4 hàng mỗi trang),
+     * hàng đầu chứa các nút chức năng và hàng cuối chứa nút đóng/chuyển trang.
+     */
+    private void showMainGUI(Player player, int page, int totalPages) {
+        ItemCategory.Category[] categories = ItemCategory.Category.values();
+        int start = page * CATEGORIES_PER_MAIN_PAGE;
+        int count = Math.min(CATEGORIES_PER_MAIN_PAGE, categories.length - start);
+        int rows = Math.max(1, (int) Math.ceil(count / (double) CATEGORIES_PER_ROW));
+        int size = (rows + 2) * 9;
+        Inventory gui = Bukkit.createInventory(null, size, getMainTitle());
+        ItemCategory.Category[] slots = new ItemCategory.Category[size];
+
+        // Đặt các nút danh mục, căn giữa từng hàng (hàng ít nút thì giãn cách rộng hơn)
+        for (int row = 0; row < rows; row++) {
+            int inRow = Math.min(CATEGORIES_PER_ROW, count - row * CATEGORIES_PER_ROW);
+            int step = inRow <= 3 ? 3 : inRow == 4 ? 2 : 1;
+            int startColumn = (8 - step * (inRow - 1)) / 2;
+            for (int i = 0; i < inRow; i++) {
+                ItemCategory.Category category = categories[start + row * CATEGORIES_PER_ROW + i];
+                int slot = (row + 1) * 9 + startColumn + i * step;
+                gui.setItem(slot, createCategoryButton(category, player));
+                slots[slot] = category;
+            }
+        }
+
+        // Nút tìm kiếm
+        gui.setItem(0, createSearchButton());
 
         // Nút tự động nhặt
         gui.setItem(4, createAutoPickupButton(player));
 
+        // Nút đưa mọi vật phẩm vào kho
+        gui.setItem(6, createDepositAllButton());
+
         // Nút sắp xếp inventory
         gui.setItem(8, createSortButton());
 
         // Nút đóng
-        gui.setItem(22, createCloseButton());
+        gui.setItem(size - 5, createCloseButton());
+
+        // Nút trang trước/sau
+        if (page > 0) {
+            ItemStack prevButton = new ItemStack(Material.ARROW);
+            ItemMeta prevMeta = prevButton.getItemMeta();
+            prevMeta.setDisplayName(languageManager.getMessage("button.prev_page"));
+            prevButton.setItemMeta(prevMeta);
+            gui.setItem(size - 9, prevButton);
+        }
+        if (page < totalPages - 1) {
+            ItemStack nextButton = new ItemStack(Material.ARROW);
+            ItemMeta nextMeta = nextButton.getItemMeta();
+            nextMeta.setDisplayName(languageManager.getMessage("button.next_page"));
+            nextButton.setItemMeta(nextMeta);
+            gui.setItem(size - 1, nextButton);
+        }
 
         // Đặt các vật phẩm trang trí
         ItemStack glass = new ItemStack(Material.GRAY_STAINED_GLASS_PANE);
@@ -87,12 +185,14 @@ public class StorageGUI implements Listener {
         glassMeta.setDisplayName(" ");
         glass.setItemMeta(glassMeta);
 
-        for (int i = 0; i < 27; i++) {
+        for (int i = 0; i < size; i++) {
             if (gui.getItem(i) == null) {
                 gui.setItem(i, glass);
             }
         }
 
+        mainMenuSlots.put(player.getUniqueId(), slots);
+        mainMenuPages.put(player.getUniqueId(), page);
         soundManager.playGUIOpenSound(player);
         player.openInventory(gui);
     }
@@ -107,12 +207,7 @@ public class StorageGUI implements Listener {
         // Load items async (Lazy loading)
         storageManager.getCategoryItemsAsync(player.getUniqueId(), category, items -> {
             // Tính số trang cần thiết (45 items mỗi trang)
-            int totalItems = items.size();
-            int pages = (int) Math.ceil(totalItems / 45.0);
-            if (pages == 0)
-                pages = 1;
-
-            openCategoryPage(player, category, items, 0, pages);
+            openCategoryPage(player, category, items, 0, getPageCount(items.size()));
         });
     }
 
@@ -121,17 +216,79 @@ public class StorageGUI implements Listener {
      */
     private void openCategoryPage(Player player, ItemCategory.Category category,
             Map<Material, Integer> items, int page, int totalPages) {
-        String categoryName = languageManager.getMessage("category." + category.name().toLowerCase());
-        Inventory gui = Bukkit.createInventory(null, 54,
-                getCategoryTitle(categoryName, page + 1, totalPages));
+        String categoryName = languageManager.getCategoryName(category);
+        List<String> actionLore = List.of(
+                " ",
+                languageManager.getMessage("lore.item.click_left"),
+                languageManager.getMessage("lore.item.click_right_item"),
+                languageManager.getMessage("lore.item.shift_click"),
+                " ",
+                languageManager.getMessage("lore.item.click_right_empty"));
+        Inventory gui = createItemPage(getCategoryTitle(categoryName, page + 1, totalPages), items, page,
+                totalPages, actionLore);
+
+        // Nút quay lại
+        ItemStack backButton = new ItemStack(Material.ARROW);
+        ItemMeta backMeta = backButton.getItemMeta();
+        backMeta.setDisplayName(languageManager.getMessage("button.back"));
+        backButton.setItemMeta(backMeta);
+        gui.setItem(45, backButton);
 
+        // Nút thêm từ túi đồ
+        ItemStack addFromInventoryButton = new ItemStack(Material.CHEST);
+        ItemMeta addMeta = addFromInventoryButton.getItemMeta();
+        addMeta.setDisplayName(languageManager.getMessage("button.add_from_inventory"));
+        List<String> addLore = new ArrayList<>();
+        String description = languageManager.getMessage("lore.add_from_inventory.description");
+        // Split description thành các dòng (sử dụng \n)
+        String[] descLines = description.split("\n");
+        for (String line : descLines) {
+            if (!line.trim().isEmpty()) {
+                addLore.add(line.trim());
+            }
+        }
+        addLore.add(" ");
+        addLore.add(languageManager.getMessage("lore.add_from_inventory.click"));
+        addMeta.setLore(addLore);
+        addFromInventoryButton.setItemMeta(addMeta);
+        gui.setItem(46, addFromInventoryButton);
+
+        openCategoryViews.put(player.getUniqueId(), new CategoryView(category, page));
+        player.openInventory(gui);
+    }
+
+    /**
+     * Số trang cần để hiển thị một số vật phẩm (ít nhất 1 trang)
+     */
+    static int getPageCount(int itemCount) {
+        return Math.max(1, (int) Math.ceil(itemCount / (double) ITEMS_PER_PAGE));
+    }
+
+    /**
+     * Tạo một trang danh sách vật phẩm sắp xếp theo tên: 45 vật phẩm mỗi trang, nút trang trước (48), đóng
+     * (49), trang sau (50) và hàng cuối trang trí. Dùng chung cho GUI danh mục và giao diện xem kho của
+     * quản trị viên.
+     *
+     * @param actionLore Các dòng lore hướng dẫn thêm vào dưới số lượng của mỗi vật phẩm
+     */
+    Inventory createItemPage(String title, Map<Material, Integer> items, int page, int totalPages,
+            List<String> actionLore) {
         // Sắp xếp vật phẩm theo tên
         List<Map.Entry<Material, Integer>> sortedItems = new ArrayList<>(items.entrySet());
         sortedItems.sort(Comparator.comparing(entry -> entry.getKey().name()));
+        return createItemPage(title, sortedItems, page, totalPages, actionLore);
+    }
+
+    /**
+     * Tạo một trang danh sách vật phẩm theo đúng thứ tự cho trước (ví dụ kết quả tìm kiếm)
+     */
+    private Inventory createItemPage(String title, List<Map.Entry<Material, Integer>> sortedItems, int page,
+            int totalPages, List<String> actionLore) {
+        Inventory gui = Bukkit.createInventory(null, 54, title);
 
         // Hiển thị 45 vật phẩm mỗi trang
-        int startIndex = page * 45;
-        int endIndex = Math.min(startIndex + 45, sortedItems.size());
+        int startIndex = page * ITEMS_PER_PAGE;
+        int endIndex = Math.min(startIndex + ITEMS_PER_PAGE, sortedItems.size());
 
         int slot = 0;
         for (int i = startIndex; i < endIndex; i++) {
@@ -148,12 +305,7 @@ public class StorageGUI implements Listener {
 
             List<String> lore = new ArrayList<>();
             lore.add(languageManager.getMessage("lore.item.amount").replace("{amount}", formatNumber(amount)));
-            lore.add(" ");
-            lore.add(languageManager.getMessage("lore.item.click_left"));
-            lore.add(languageManager.getMessage("lore.item.click_right_item"));
-            lore.add(languageManager.getMessage("lore.item.shift_click"));
-            lore.add(" ");
-            lore.add(languageManager.getMessage("lore.item.click_right_empty"));
+            lore.addAll(actionLore);
 
             meta.setLore(lore);
             item.setItemMeta(meta);
@@ -163,32 +315,14 @@ public class StorageGUI implements Listener {
             slot++;
         }
 
-        // Nút quay lại
-        ItemStack backButton = new ItemStack(Material.ARROW);
-        ItemMeta backMeta = backButton.getItemMeta();
-        backMeta.setDisplayName(languageManager.getMessage("button.back"));
-        backButton.setItemMeta(backMeta);
-        gui.setItem(45, backButton);
-
-        // Nút thêm từ túi đồ
-        ItemStack addFromInventoryButton = new ItemStack(Material.CHEST);
-        ItemMeta addMeta = addFromInventoryButton.getItemMeta();
-        addMeta.setDisplayName(languageManager.getMessage("button.add_from_inventory"));
-        List<String> addLore = new ArrayList<>();
-        String description = languageManager.getMessage("lore.add_from_inventory.description");
-        // Split description thành các dòng (sử dụng \n)
-        String[] descLines = description.split("\n");
-        for (String line : descLines) {
-            if (!line.trim().isEmpty()) {
-                addLore.add(line.trim());
-            }
-        }
-        addLore.add(" ");
-        addLore.add(languageManager.getMessage("lore.add_from_inventory.click"));
-        addMeta.setLore(addLore);
-        addFromInventoryButton.setItemMeta(addMeta);
-        gui.setItem(46, addFromInventoryButton);
+        addPageControls(gui, page, totalPages);
+        return gui;
+    }
 
+    /**
+     * Thêm hàng nút cuối của một trang vật phẩm (trang trước 48, đóng 49, trang sau 50, còn lại là kính)
+     */
+    void addPageControls(Inventory gui, int page, int totalPages) {
         // Nút trang trước
         if (page > 0) {
             ItemStack prevButton = new ItemStack(Material.ARROW);
@@ -225,22 +359,117 @@ public class StorageGUI implements Listener {
                 gui.setItem(i, glass);
             }
         }
+    }
+
+    /**
+     * Tìm vật phẩm trong kho của người chơi ở mọi danh mục và mở trang kết quả đầu tiên
+     */
+    public void openSearch(Player player, String query) {
+        openSearch(player, query, 0, true);
+    }
+
+    /**
+     * Mở một trang kết quả tìm kiếm. Các vật phẩm khớp được lấy từ chỉ mục trong memory, chỉ những danh mục
+     * chứa chúng được tải (một truy vấn), và chỉ vật phẩm đang có trong kho được hiển thị.
+     *
+     * @param announce Gửi số kết quả cho người chơi (chỉ khi tìm mới, không gửi khi làm mới trang)
+     */
+    private void openSearch(Player player, String query, int page, boolean announce) {
+        List<Material> matches = searchIndex.search(query);
+        if (matches.isEmpty()) {
+            player.sendMessage(languageManager.getMessage("message.search.no_results"));
+            return;
+        }
+
+        Set<ItemCategory.Category> categories = new HashSet<>();
+        for (Material material : matches) {
+            categories.add(ItemCategory.getCategory(material));
+        }
+        storageManager.loadCategoriesAsync(player.getUniqueId(), categories, loaded -> {
+            if (!loaded) {
+                player.sendMessage(languageManager.getMessage("message.storage.load_failed"));
+                return;
+            }
+            if (!player.isOnline()) {
+                return;
+            }
+
+            // Giữ thứ tự xếp hạng của chỉ mục
+            Map<Material, Integer> amounts = storageManager.getLoadedAmounts(player.getUniqueId(), matches);
+            List<Map.Entry<Material, Integer>> results = new ArrayList<>();
+            for (Material material : matches) {
+                int amount = amounts.get(material);
+                if (amount > 0) {
+                    results.add(Map.entry(material, amount));
+                }
+            }
+            if (results.isEmpty()) {
+                player.sendMessage(languageManager.getMessage("message.search.no_results"));
+                if (!announce) {
+                    player.closeInventory();
+                }
+                return;
+            }
+            if (announce) {
+                player.sendMessage(languageManager.getMessage("message.search.results")
+                        .replace("{count}", formatNumber(results.size())));
+            }
+            openSearchPage(player, query, results, page);
+        });
+    }
+
+    private void openSearchPage(Player player, String query, List<Map.Entry<Material, Integer>> results,
+            int page) {
+        int totalPages = getPageCount(results.size());
+        page = Math.max(0, Math.min(page, totalPages - 1));
+        String title = languageManager.getMessage("gui.search.title")
+                .replace("{category}", query)
+                .replace("{count}", formatNumber(results.size()));
+        List<String> actionLore = List.of(
+                " ",
+                languageManager.getMessage("lore.item.click_left"),
+                languageManager.getMessage("lore.item.shift_click"));
+        Inventory gui = createItemPage(title, results, page, totalPages, actionLore);
 
+        // Nút quay lại
+        ItemStack backButton = new ItemStack(Material.ARROW);
+        ItemMeta backMeta = backButton.getItemMeta();
+        backMeta.setDisplayName(languageManager.getMessage("button.back"));
+        backButton.setItemMeta(backMeta);
+        gui.setItem(45, backButton);
+
+        openSearchViews.put(player.getUniqueId(), new SearchView(query, title, page));
         player.openInventory(gui);
     }
 
     /**
-     * Tạo nút danh mục (với lazy loading)
+     * Tạo nút tìm kiếm
+     */
+    private ItemStack createSearchButton() {
+        ItemStack button = new ItemStack(Material.COMPASS);
+        ItemMeta meta = button.getItemMeta();
+        meta.setDisplayName(languageManager.getMessage("button.search"));
+        List<String> lore = new ArrayList<>();
+        lore.add(languageManager.getMessage("lore.search.description"));
+        lore.add(" ");
+        lore.add(languageManager.getMessage("lore.search.click"));
+        meta.setLore(lore);
+        button.setItemMeta(meta);
+        return button;
+    }
+
+    /**
+     * Tạo nút danh mục
      */
     private ItemStack createCategoryButton(ItemCategory.Category category, Player player) {
         ItemStack button = new ItemStack(category.getIcon());
         ItemMeta meta = button.getItemMeta();
 
-        String categoryName = languageManager.getMessage("category." + category.name().toLowerCase());
+        String categoryName = languageManager.getCategoryName(category);
         meta.setDisplayName("§6§l" + categoryName);
 
-        // Lazy loading - chỉ load khi cần hiển thị
-        Map<Material, Integer> items = storageManager.getCategoryItems(player.getUniqueId(), category);
+        // Danh mục đã được tải trước khi mở GUI chính (không truy vấn database trên main thread)
+        Map<Material, Integer> items = storageManager.getLoadedCategoryItems(player.getUniqueId(), category);
         int totalItems = items.size();
         int totalAmount = 0;
         for (int amount : items.values()) {
@@ -304,22 +533,14 @@ public class StorageGUI implements Listener {
     /**
      * Lấy tên hiển thị của vật phẩm
      */
-    private String getMaterialDisplayName(Material material) {
-        String name = material.name().toLowerCase().replace("_", " ");
-        String[] words = name.split(" ");
-        StringBuilder result = new StringBuilder();
-        for (String word : words) {
-            if (result.length() > 0)
-                result.append(" ");
-            result.append(word.substring(0, 1).toUpperCase()).append(word.substring(1));
-        }
-        return result.toString();
+    String getMaterialDisplayName(Material material) {
+        return languageManager.getItemName(material);
     }
 
     /**
      * Định dạng số với dấu phẩy
      */
-    private String formatNumber(int number) {
+    String formatNumber(int number) {
         return String.format("%,d", number);
     }
 
@@ -340,16 +561,26 @@ public class StorageGUI implements Listener {
             }
 
             ItemStack clicked = event.getCurrentItem();
+            int slot = event.getRawSlot();
+            int size = event.getView().getTopInventory().getSize();
+            if (slot >= size) {
+                return;
+            }
 
             // Kiểm tra nút danh mục
-            if (clicked.getType() == ItemCategory.Category.ORE.getIcon()) {
-                openCategoryGUI(player, ItemCategory.Category.ORE);
-            } else if (clicked.getType() == ItemCategory.Category.BUILDING.getIcon()) {
-                openCategoryGUI(player, ItemCategory.Category.BUILDING);
-            } else if (clicked.getType() == ItemCategory.Category.WOOD.getIcon()) {
-                openCategoryGUI(player, ItemCategory.Category.WOOD);
+            ItemCategory.Category[] slots = mainMenuSlots.get(player.getUniqueId());
+            if (slots != null && slot < slots.length && slots[slot] != null) {
+                openCategoryGUI(player, slots[slot]);
+            } else if (clicked.getType() == Material.ARROW) {
+                int page = mainMenuPages.getOrDefault(player.getUniqueId(), 0);
+                openMainGUI(player, slot == size - 9 ? page - 1 : page + 1);
             } else if (clicked.getType() == Material.BARRIER) {
                 player.closeInventory();
+            } else if (clicked.getType() == Material.COMPASS) {
+                // Nút tìm kiếm: tin nhắn chat tiếp theo là từ khóa
+                awaitingSearch.add(player.getUniqueId());
+                player.closeInventory();
+                player.sendMessage(languageManager.getMessage("message.search.prompt"));
             } else if (clicked.getType() == Material.LIME_DYE || clicked.getType() == Material.GRAY_DYE) {
                 // Nút tự động nhặt
                 UUID playerId = player.getUniqueId();
@@ -361,6 +592,9 @@ public class StorageGUI implements Listener {
 
                 // Cập nhật GUI
                 openMainGUI(player);
+            } else if (clicked.getType() == Material.ENDER_CHEST) {
+                // Nút đưa mọi vật phẩm vào kho, cập nhật GUI sau khi xong
+                depositAll(player, () -> openMainGUI(player));
             } else if (clicked.getType() == Material.HOPPER) {
                 // Nút sắp xếp inventory
                 sortPlayerInventory(player);
@@ -378,7 +612,7 @@ public class StorageGUI implements Listener {
             // Cho phép click chuột phải vào slot trống hoặc vào item trong GUI
             if (event.isRightClick() && event.getSlot() < 45) {
                 // Lấy category hiện tại của GUI
-                ItemCategory.Category currentCategory = getCategoryFromTitle(title);
+                ItemCategory.Category currentCategory = getOpenCategory(player);
                 if (currentCategory == null) {
                     return;
                 }
@@ -393,12 +627,15 @@ public class StorageGUI implements Listener {
                         player.sendMessage(languageManager.getMessage("message.item.not_storable"));
                         return;
                     }
+                    if (SpecialItemStore.isSpecial(item)) {
+                        player.sendMessage(languageManager.getMessage("message.item.use_special"));
+                        return;
+                    }
 
                     // Kiểm tra category có khớp không
                     ItemCategory.Category itemCategory = ItemCategory.getCategory(material);
                     if (itemCategory != currentCategory) {
-                        String categoryName = languageManager
-                                .getMessage("category." + itemCategory.name().toLowerCase());
+                        String categoryName = languageManager.getCategoryName(itemCategory);
                         player.sendMessage(languageManager.getMessage("message.item.wrong_category")
                                 .replace("{category}", categoryName));
                         return;
@@ -406,11 +643,18 @@ public class StorageGUI implements Listener {
 
                     // Category đúng, cho phép đưa vào kho
                     int amount = item.getAmount();
-                    int added = storageManager.addItem(player.getUniqueId(), material, amount);
+                    int added = storageManager.addItem(player.getUniqueId(), material, amount, ChangeSource.GUI);
 
                     if (added > 0) {
-                        item.setAmount(0);
-                        player.setItemOnCursor(null);
+                        if (added < amount) {
+                            // Phần vượt hạn mức được giữ lại trên cursor
+                            item.setAmount(amount - added);
+                            player.setItemOnCursor(item);
+                            player.sendMessage(languageManager.getMessage("message.quota.full"));
+                        } else {
+                            item.setAmount(0);
+                            player.setItemOnCursor(null);
+                        }
                         soundManager.playItemAddSound(player);
                         player.sendMessage(languageManager.getMessage("message.item.added")
                                 .replace("{amount}", formatNumber(added))
@@ -419,7 +663,7 @@ public class StorageGUI implements Listener {
                         // Cập nhật GUI
                         openCategoryGUI(player, currentCategory);
                     } else {
-                        player.sendMessage(languageManager.getMessage("message.item.not_storable"));
+                        player.sendMessage(languageManager.getMessage("message.quota.full"));
                     }
                     return;
                 }
@@ -431,18 +675,24 @@ public class StorageGUI implements Listener {
                     for (ItemStack invItem : player.getInventory().getContents()) {
                         if (invItem != null && invItem.getType() != Material.AIR) {
                             ItemCategory.Category itemCategory = ItemCategory.getCategory(invItem.getType());
-                            if (itemCategory == currentCategory) {
+                            if (itemCategory == currentCategory && !SpecialItemStore.isSpecial(invItem)) {
                                 Material material = invItem.getType();
                                 int amount = invItem.getAmount();
-                                int added = storageManager.addItem(player.getUniqueId(), material, amount);
+                                int added = storageManager.addItem(player.getUniqueId(), material, amount,
+                                        ChangeSource.GUI);
 
                                 if (added > 0) {
-                                    invItem.setAmount(0);
+                                    invItem.setAmount(amount - added);
+                                    if (added < amount) {
+                                        player.sendMessage(languageManager.getMessage("message.quota.full"));
+                                    }
                                     soundManager.playItemAddSound(player);
                                     player.sendMessage(languageManager.getMessage("message.item.added")
                                             .replace("{amount}", formatNumber(added))
                                             .replace("{item}", getMaterialDisplayName(material)));
                                     openCategoryGUI(player, currentCategory);
+                                } else {
+                                    player.sendMessage(languageManager.getMessage("message.quota.full"));
                                 }
                                 break;
                             }
@@ -462,7 +712,7 @@ public class StorageGUI implements Listener {
                             }
 
                             // Lấy 1 cái
-                            int taken = storageManager.removeItem(player.getUniqueId(), material, 1);
+                            int taken = storageManager.removeItem(player.getUniqueId(), material, 1, ChangeSource.GUI);
 
                             if (taken > 0) {
                                 ItemStack item = new ItemStack(material, 1);
@@ -470,7 +720,8 @@ public class StorageGUI implements Listener {
 
                                 if (!leftover.isEmpty()) {
                                     // Trả lại vào kho nếu inventory đầy
-                                    storageManager.addItem(player.getUniqueId(), material, leftover.get(0).getAmount());
+                                    storageManager.restoreItem(player.getUniqueId(), material,
+                                            leftover.get(0).getAmount(), ChangeSource.GUI);
                                     player.sendMessage(languageManager.getMessage("message.inventory.full"));
                                 } else {
                                     soundManager.playItemRemoveSound(player);
@@ -506,8 +757,7 @@ public class StorageGUI implements Listener {
             if (clicked.getType() == Material.CHEST && event.getSlot() == 46) {
                 event.setCancelled(true);
 
-                // Parse category từ title
-                ItemCategory.Category category = getCategoryFromTitle(title);
+                ItemCategory.Category category = getOpenCategory(player);
                 if (category != null) {
                     addItemsFromInventory(player, category);
                 }
@@ -525,39 +775,15 @@ public class StorageGUI implements Listener {
             if (clicked.getType() == Material.ARROW && (event.getSlot() == 48 || event.getSlot() == 50)) {
                 event.setCancelled(true);
 
-                // Parse category và page từ title
-                ItemCategory.Category category = getCategoryFromTitle(title);
-                if (category != null) {
-                    // Parse page number
-                    int parsedPage = 0;
-                    try {
-                        // Tìm pattern "(Page " hoặc "(Trang "
-                        int pageStart = title.indexOf("(");
-                        if (pageStart > 0) {
-                            String pagePart = title.substring(pageStart);
-                            // Tìm số trang
-                            String[] parts = pagePart.split("/");
-                            if (parts.length > 0) {
-                                String pageStr = parts[0].replaceAll("[^0-9]", "");
-                                if (!pageStr.isEmpty()) {
-                                    parsedPage = Integer.parseInt(pageStr) - 1;
-                                }
-                            }
-                        }
-                    } catch (Exception e) {
-                        // Nếu không parse được, dùng page 0
-                        parsedPage = 0;
-                    }
-
-                    final int currentPage = parsedPage; // Final để sử dụng trong lambda
+                CategoryView view = openCategoryViews.get(player.getUniqueId());
+                if (view != null) {
+                    ItemCategory.Category category = view.category();
+                    final int currentPage = view.page(); // Final để sử dụng trong lambda
                     final int slot = event.getSlot(); // Final để sử dụng trong lambda
 
                     // Load items async (Lazy loading)
                     storageManager.getCategoryItemsAsync(player.getUniqueId(), category, items -> {
-                        int totalItems = items.size();
-                        int totalPages = (int) Math.ceil(totalItems / 45.0);
-                        if (totalPages == 0)
-                            totalPages = 1;
+                        int totalPages = getPageCount(items.size());
 
                         int newPage = currentPage;
                         if (slot == 48) {
@@ -590,138 +816,177 @@ public class StorageGUI implements Listener {
                     return;
                 }
 
-                // Kiểm tra vật phẩm có trong kho không (async với lazy loading)
-                storageManager.getItemAmountAsync(player.getUniqueId(), material, availableAmount -> {
-                    if (availableAmount <= 0) {
-                        player.sendMessage(languageManager.getMessage("message.item.not_found"));
-                        return;
-                    }
-
-                    int amountToTake;
-                    if (event.isShiftClick()) {
-                        // Shift + Click trái: Lấy tất cả
-                        amountToTake = availableAmount;
-                    } else {
-                        // Click trái: Lấy 1 stack
-                        amountToTake = Math.min(material.getMaxStackSize(), availableAmount);
-                    }
-
-                    int taken = storageManager.removeItem(player.getUniqueId(), material, amountToTake);
+                takeFromStorage(player, material, event.isShiftClick(), () -> openCategoryGUI(player, category));
+            }
+        }
+        // Xử lý GUI kết quả tìm kiếm
+        else if (isSearchGUI(player, title)) {
+            event.setCancelled(true);
+            handleSearchClick(player, event);
+        }
+    }
 
-                    if (taken > 0) {
-                        ItemStack item = new ItemStack(material, taken);
-                        HashMap<Integer, ItemStack> leftover = player.getInventory().addItem(item);
+    private boolean isSearchGUI(Player player, String title) {
+        SearchView view = openSearchViews.get(player.getUniqueId());
+        return view != null && view.title().equals(title);
+    }
 
-                        if (!leftover.isEmpty()) {
-                            // Trả lại vào kho nếu inventory đầy
-                            storageManager.addItem(player.getUniqueId(), material, leftover.get(0).getAmount());
-                            player.sendMessage(languageManager.getMessage("message.inventory.full"));
-                        } else {
-                            soundManager.playItemRemoveSound(player);
-                            player.sendMessage(languageManager.getMessage("message.item.removed")
-                                    .replace("{amount}", formatNumber(taken))
-                                    .replace("{item}", getMaterialDisplayName(material)));
-                        }
+    /**
+     * Xử lý click trong GUI kết quả tìm kiếm
+     */
+    private void handleSearchClick(Player player, InventoryClickEvent event) {
+        SearchView view = openSearchViews.get(player.getUniqueId());
+        ItemStack clicked = event.getCurrentItem();
+        int slot = event.getRawSlot();
+        if (clicked == null || clicked.getType() == Material.AIR || slot >= 54) {
+            return;
+        }
 
-                        // Cập nhật GUI (async)
-                        openCategoryGUI(player, category);
-                    } else {
-                        player.sendMessage(languageManager.getMessage("message.item.not_found"));
-                    }
-                });
-            }
+        if (clicked.getType() == Material.ARROW && slot == 45) {
+            openMainGUI(player);
+        } else if (clicked.getType() == Material.BARRIER && slot == 49) {
+            player.closeInventory();
+        } else if (clicked.getType() == Material.ARROW && (slot == 48 || slot == 50)) {
+            openSearch(player, view.query(), slot == 48 ? view.page() - 1 : view.page() + 1, false);
+        } else if (slot < 45 && !event.isRightClick()
+                && (event.getCursor() == null || event.getCursor().getType() == Material.AIR)) {
+            takeFromStorage(player, clicked.getType(), event.isShiftClick(),
+                    () -> openSearch(player, view.query(), view.page(), false));
         }
     }
 
     /**
-     * Lấy category từ title của GUI
+     * Lấy vật phẩm từ kho vào túi đồ (1 stack, hoặc tất cả khi shift-click), trả lại phần không vừa túi đồ
+     *
+     * @param refresh Cập nhật GUI đang mở sau khi lấy
      */
-    private ItemCategory.Category getCategoryFromTitle(String title) {
-        if (!isCategoryGUI(title)) {
-            return null;
-        }
+    private void takeFromStorage(Player player, Material material, boolean all, Runnable refresh) {
+        // Kiểm tra vật phẩm có trong kho không (async với lazy loading)
+        storageManager.getItemAmountAsync(player.getUniqueId(), material, availableAmount -> {
+            if (availableAmount <= 0) {
+                player.sendMessage(languageManager.getMessage("message.item.not_found"));
+                return;
+            }
 
-        // Parse category name từ title
-        // Format: "§6§lKHO CHỨA - {category} §7(Trang {page}/{total})"
-        String categoryTitlePattern = languageManager.getMessage("gui.category.title");
-        String prefix = categoryTitlePattern.substring(0, categoryTitlePattern.indexOf("{category}"));
-        prefix = prefix.replace("&", "§");
+            int amountToTake;
+            if (all) {
+                // Shift + Click trái: Lấy tất cả
+                amountToTake = availableAmount;
+            } else {
+                // Click trái: Lấy 1 stack
+                amountToTake = Math.min(material.getMaxStackSize(), availableAmount);
+            }
 
-        String categoryName = title.replace(prefix, "");
-        // Tìm vị trí của " §7(" hoặc " (Page " tùy ngôn ngữ
-        int pageIndex = categoryName.indexOf(" §7(");
-        if (pageIndex < 0) {
-            pageIndex = categoryName.indexOf(" (Page ");
-        }
-        if (pageIndex > 0) {
-            categoryName = categoryName.substring(0, pageIndex);
-        }
+            int taken = storageManager.removeItem(player.getUniqueId(), material, amountToTake, ChangeSource.GUI);
+
+            if (taken > 0) {
+                ItemStack item = new ItemStack(material, taken);
+                HashMap<Integer, ItemStack> leftover = player.getInventory().addItem(item);
 
-        // So sánh với tên category trong các ngôn ngữ
-        for (ItemCategory.Category cat : ItemCategory.Category.values()) {
-            String viName = languageManager.getMessage("category." + cat.name().toLowerCase());
-            if (categoryName.equals(viName) || categoryName.equals(cat.getDisplayName())) {
-                return cat;
+                if (!leftover.isEmpty()) {
+                    // Trả lại vào kho nếu inventory đầy
+                    storageManager.restoreItem(player.getUniqueId(), material, leftover.get(0).getAmount(),
+                            ChangeSource.GUI);
+                    player.sendMessage(languageManager.getMessage("message.inventory.full"));
+                } else {
+                    soundManager.playItemRemoveSound(player);
+                    player.sendMessage(languageManager.getMessage("message.item.removed")
+                            .replace("{amount}", formatNumber(taken))
+                            .replace("{item}", getMaterialDisplayName(material)));
+                }
+
+                // Cập nhật GUI (async)
+                refresh.run();
+            } else {
+                player.sendMessage(languageManager.getMessage("message.item.not_found"));
             }
-        }
+        });
+    }
 
-        return null;
+    /**
+     * Lấy danh mục của GUI danh mục mà người chơi đang mở
+     */
+    private ItemCategory.Category getOpenCategory(Player player) {
+        CategoryView view = openCategoryViews.get(player.getUniqueId());
+        return view != null ? view.category() : null;
     }
 
     /**
-     * Thêm tất cả vật phẩm từ inventory vào kho theo danh mục (sử dụng batch
-     * operations)
+     * Kết quả của một lần đưa vật phẩm từ túi đồ vào kho
+     *
+     * @param requested Tổng số vật phẩm phù hợp trong túi đồ
+     * @param added     Tổng số vật phẩm đã vào kho (ít hơn requested nếu vượt hạn mức)
+     * @param types     Số loại vật phẩm đã vào kho
      */
-    private void addItemsFromInventory(Player player, ItemCategory.Category category) {
-        // Thu thập tất cả items cần thêm (Batch operations)
-        Map<Material, Integer> itemsToAdd = new HashMap<>();
+    private record DepositResult(int requested, int added, int types) {
+    }
 
-        for (ItemStack item : player.getInventory().getContents()) {
+    /**
+     * Đưa vật phẩm trong túi đồ vào kho: quét túi đồ một lần, ghi mọi vật phẩm (kể cả khác danh mục) xuống
+     * database trong một transaction, rồi trừ khỏi đúng các stack đã quét
+     *
+     * @param category Chỉ lấy vật phẩm thuộc danh mục này (null = mọi vật phẩm lưu được)
+     */
+    private DepositResult depositFromInventory(Player player, ItemCategory.Category category) {
+        Map<Material, Integer> itemsToAdd = new HashMap<>();
+        List<ItemStack> stacks = new ArrayList<>();
+        for (ItemStack item : player.getInventory().getStorageContents()) {
             if (item == null || item.getType() == Material.AIR) {
                 continue;
             }
 
-            Material material = item.getType();
-            ItemCategory.Category itemCategory = ItemCategory.getCategory(material);
-
-            if (itemCategory == category) {
-                int amount = item.getAmount();
-                itemsToAdd.put(material, itemsToAdd.getOrDefault(material, 0) + amount);
+            // Vật phẩm có NBT được giữ lại trong túi đồ (cất bằng /kho special)
+            ItemCategory.Category itemCategory = ItemCategory.getCategory(item.getType());
+            if (itemCategory != null && (category == null || itemCategory == category)
+                    && !SpecialItemStore.isSpecial(item)) {
+                itemsToAdd.merge(item.getType(), item.getAmount(), Integer::sum);
+                stacks.add(item);
             }
         }
-
         if (itemsToAdd.isEmpty()) {
-            String categoryName = languageManager.getMessage("category." + category.name().toLowerCase());
-            player.sendMessage(languageManager.getMessage("message.items.none_in_inventory")
-                    .replace("{category}", categoryName));
-            return;
+            return new DepositResult(0, 0, 0);
         }
 
-        // Sử dụng batch operations để thêm tất cả items cùng lúc
-        storageManager.batchAddItems(player.getUniqueId(), itemsToAdd);
+        Map<Material, Integer> accepted = storageManager.batchAddItems(player.getUniqueId(), itemsToAdd,
+                ChangeSource.GUI);
+        int types = accepted.size();
 
-        // Xóa items khỏi inventory
+        // Xóa khỏi túi đồ đúng số lượng đã vào kho
         int totalAdded = 0;
-        int itemsCount = itemsToAdd.size();
-        for (ItemStack item : player.getInventory().getContents()) {
-            if (item == null || item.getType() == Material.AIR) {
-                continue;
+        for (ItemStack item : stacks) {
+            int remaining = accepted.getOrDefault(item.getType(), 0);
+            if (remaining > 0) {
+                int taken = Math.min(remaining, item.getAmount());
+                accepted.put(item.getType(), remaining - taken);
+                totalAdded += taken;
+                item.setAmount(item.getAmount() - taken);
             }
+        }
+        return new DepositResult(sum(itemsToAdd), totalAdded, types);
+    }
 
-            Material material = item.getType();
-            if (itemsToAdd.containsKey(material)) {
-                totalAdded += item.getAmount();
-                item.setAmount(0);
-            }
+    /**
+     * Thêm tất cả vật phẩm từ inventory vào kho theo danh mục (sử dụng batch
+     * operations)
+     */
+    private void addItemsFromInventory(Player player, ItemCategory.Category category) {
+        DepositResult result = depositFromInventory(player, category);
+        String categoryName = languageManager.getCategoryName(category);
+        if (result.requested() == 0) {
+            player.sendMessage(languageManager.getMessage("message.items.none_in_inventory")
+                    .replace("{category}", categoryName));
+            return;
         }
 
-        String categoryName = languageManager.getMessage("category." + category.name().toLowerCase());
-        if (totalAdded > 0) {
+        if (result.added() < result.requested()) {
+            player.sendMessage(languageManager.getMessage("message.quota.full"));
+        }
+        if (result.added() > 0) {
             soundManager.playItemAddSound(player);
         }
         player.sendMessage(languageManager.getMessage("message.items.added_from_inventory")
-                .replace("{total}", formatNumber(totalAdded))
-                .replace("{count}", String.valueOf(itemsCount))
+                .replace("{total}", formatNumber(result.added()))
+                .replace("{count}", String.valueOf(result.types()))
                 .replace("{category}", categoryName));
 
         // Cập nhật GUI (async)
@@ -729,93 +994,95 @@ public class StorageGUI implements Listener {
     }
 
     /**
-     * Sắp xếp tất cả vật phẩm trong inventory
-     * Sắp xếp theo: số lượng giảm dần -> tên bảng chữ cái -> item ID tăng dần
+     * Đưa mọi vật phẩm lưu được trong túi đồ vào kho (/kho deposit)
      */
-    public void sortPlayerInventory(Player player) {
-        // Thu thập và gộp các items cùng loại từ inventory
-        Map<Material, Integer> itemsMap = new HashMap<>();
-        Map<Material, ItemStack> itemStackMap = new HashMap<>();
-        
-        for (ItemStack item : player.getInventory().getContents()) {
-            if (item != null && item.getType() != Material.AIR) {
-                Material material = item.getType();
-                itemsMap.put(material, itemsMap.getOrDefault(material, 0) + item.getAmount());
-                // Lưu một ItemStack mẫu (với metadata) để giữ nguyên thông tin
-                if (!itemStackMap.containsKey(material)) {
-                    itemStackMap.put(material, item.clone());
-                }
-            }
-        }
+    public void depositAll(Player player) {
+        depositAll(player, () -> {
+        });
+    }
 
-        if (itemsMap.isEmpty()) {
-            player.sendMessage(languageManager.getMessage("message.sort.no_items"));
+    /**
+     * Đưa mọi vật phẩm lưu được trong túi đồ vào kho. Kho được tải đầy đủ trước (một truy vấn, bỏ qua nếu đã
+     * có trong cache) để cache không chỉ chứa phần vừa thêm vào.
+     *
+     * @param then Chạy sau khi đã đưa vật phẩm vào kho (ví dụ mở lại GUI)
+     */
+    private void depositAll(Player player, Runnable then) {
+        storageManager.loadCategoriesAsync(player.getUniqueId(), Arrays.asList(ItemCategory.Category.values()),
+                loaded -> {
+                    if (!loaded) {
+                        player.sendMessage(languageManager.getMessage("message.storage.load_failed"));
+                    } else if (player.isOnline()) {
+                        sendDepositAllResult(player, depositFromInventory(player, null));
+                        then.run();
+                    }
+                });
+    }
+
+    private void sendDepositAllResult(Player player, DepositResult result) {
+        if (result.requested() == 0) {
+            player.sendMessage(languageManager.getMessage("message.deposit_all.none"));
             return;
         }
 
-        // Chuyển đổi sang List để sắp xếp
-        List<Map.Entry<Material, Integer>> itemsList = new ArrayList<>(itemsMap.entrySet());
-
-        // Sắp xếp items theo thứ tự:
-        // 1. Số lượng giảm dần (descending order of quantity)
-        // 2. Tên bảng chữ cái (alphabetical order)
-        // 3. Item ID tăng dần (ascending order of item ID)
-        itemsList.sort((entry1, entry2) -> {
-            Material mat1 = entry1.getKey();
-            Material mat2 = entry2.getKey();
-            int amount1 = entry1.getValue();
-            int amount2 = entry2.getValue();
-
-            // So sánh theo số lượng (giảm dần)
-            int amountCompare = Integer.compare(amount2, amount1);
-            if (amountCompare != 0) {
-                return amountCompare;
-            }
+        if (result.added() < result.requested()) {
+            player.sendMessage(languageManager.getMessage("message.quota.full"));
+        }
+        if (result.added() > 0) {
+            soundManager.playItemAddSound(player);
+        }
+        player.sendMessage(languageManager.getMessage("message.deposit_all.success")
+                .replace("{total}", formatNumber(result.added()))
+                .replace("{count}", String.valueOf(result.types())));
+    }
 
-            // Nếu số lượng bằng nhau, so sánh theo tên (bảng chữ cái)
-            String name1 = getMaterialDisplayName(mat1);
-            String name2 = getMaterialDisplayName(mat2);
-            int nameCompare = name1.compareToIgnoreCase(name2);
-            if (nameCompare != 0) {
-                return nameCompare;
-            }
+    private static int sum(Map<Material, Integer> items) {
+        int total = 0;
+        for (int amount : items.values()) {
+            total += amount;
+        }
+        return total;
+    }
 
-            // Nếu tên giống nhau, so sánh theo item ID (tăng dần)
-            return mat1.name().compareTo(mat2.name());
-        });
+    /**
+     * Tạo nút đưa mọi vật phẩm vào kho
+     */
+    private ItemStack createDepositAllButton() {
+        ItemStack button = new ItemStack(Material.ENDER_CHEST);
+        ItemMeta meta = button.getItemMeta();
+        meta.setDisplayName(languageManager.getMessage("button.deposit_all"));
+        List<String> lore = new ArrayList<>();
+        lore.add(languageManager.getMessage("lore.deposit_all.description"));
+        lore.add(" ");
+        lore.add(languageManager.getMessage("lore.deposit_all.click"));
+        meta.setLore(lore);
+        button.setItemMeta(meta);
+        return button;
+    }
 
-        // Xóa tất cả items khỏi inventory
-        player.getInventory().clear();
+    /**
+     * Sắp xếp các ô chứa đồ của inventory (không gồm giáp và tay phụ) theo thứ tự trong config (sort.order).
+     * Chỉ các ô thay đổi được đặt lại.
+     */
+    public void sortPlayerInventory(Player player) {
+        PlayerInventory inventory = player.getInventory();
+        InventorySortEngine.Plan plan = sortEngine.plan(inventory.getStorageContents());
+        if (plan.groups() == 0) {
+            player.sendMessage(languageManager.getMessage("message.sort.no_items"));
+            return;
+        }
 
-        // Đặt lại items đã sắp xếp vào inventory
-        int slot = 0;
-        for (Map.Entry<Material, Integer> entry : itemsList) {
-            Material material = entry.getKey();
-            int totalAmount = entry.getValue();
-            ItemStack template = itemStackMap.get(material);
-            
-            // Chia thành các stack (tối đa maxStackSize mỗi stack)
-            int maxStackSize = material.getMaxStackSize();
-            while (totalAmount > 0 && slot < player.getInventory().getSize()) {
-                ItemStack stack = template.clone();
-                int stackAmount = Math.min(totalAmount, maxStackSize);
-                stack.setAmount(stackAmount);
-                player.getInventory().setItem(slot, stack);
-                totalAmount -= stackAmount;
-                slot++;
-            }
-            
-            // Nếu còn items nhưng inventory đầy, thả xuống đất
-            if (totalAmount > 0) {
-                ItemStack leftover = template.clone();
-                leftover.setAmount(totalAmount);
-                player.getWorld().dropItemNaturally(player.getLocation(), leftover);
-            }
+        for (Map.Entry<Integer, ItemStack> change : plan.changes().entrySet()) {
+            inventory.setItem(change.getKey(), change.getValue());
+        }
+        // Nếu còn items nhưng inventory đầy, thả xuống đất
+        for (ItemStack leftover : plan.overflow()) {
+            player.getWorld().dropItemNaturally(player.getLocation(), leftover);
         }
 
         soundManager.playItemAddSound(player);
         player.sendMessage(languageManager.getMessage("message.sort.success")
-                .replace("{total}", formatNumber(itemsList.size())));
+                .replace("{total}", formatNumber(plan.groups())));
     }
 
     /**
@@ -841,9 +1108,36 @@ public class StorageGUI implements Listener {
             String title = event.getView().getTitle();
             
             // Chỉ phát sound khi đóng GUI chính hoặc category GUI
-            if (title.equals(getMainTitle()) || isCategoryGUI(title)) {
+            if (title.equals(getMainTitle()) || isCategoryGUI(title) || isSearchGUI(player, title)) {
                 soundManager.playGUICloseSound(player);
             }
         }
     }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        UUID playerId = event.getPlayer().getUniqueId();
+        mainMenuSlots.remove(playerId);
+        mainMenuPages.remove(playerId);
+        openCategoryViews.remove(playerId);
+        openSearchViews.remove(playerId);
+        awaitingSearch.remove(playerId);
+    }
+
+    @EventHandler(ignoreCancelled = true)
+    public void onPlayerChat(AsyncPlayerChatEvent event) {
+        Player player = event.getPlayer();
+        if (!awaitingSearch.remove(player.getUniqueId())) {
+            return;
+        }
+
+        // Từ khóa tìm kiếm không được gửi lên kênh chat
+        event.setCancelled(true);
+        String query = event.getMessage();
+        Bukkit.getScheduler().runTask(plugin, () -> {
+            if (player.isOnline()) {
+                openSearch(player, query);
+            }
+        });
+    }
 }
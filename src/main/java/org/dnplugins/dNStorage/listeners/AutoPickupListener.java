@@ -1,84 +1,169 @@
 package org.dnplugins.dNStorage.listeners;
 
+import org.bukkit.Bukkit;
 import org.bukkit.Material;
 import org.bukkit.entity.Item;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockDropItemEvent;
 import org.bukkit.event.entity.EntityPickupItemEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.dnplugins.dNStorage.core.DatabaseManager;
 import org.dnplugins.dNStorage.core.LanguageManager;
+import org.dnplugins.dNStorage.core.SpecialItemStore;
 import org.dnplugins.dNStorage.core.StorageManager;
+import org.dnplugins.dNStorage.core.backend.StorageException;
+import org.dnplugins.dNStorage.enums.ChangeSource;
 import org.dnplugins.dNStorage.enums.ItemCategory;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
 
 /**
  * Listener tự động nhặt vật phẩm rơi trên đất vào kho
  */
 public class AutoPickupListener implements Listener {
 
+    private final JavaPlugin plugin;
     private final StorageManager storageManager;
     private final DatabaseManager databaseManager;
     private final LanguageManager languageManager;
-    // Cache trong memory để tăng hiệu suất
-    private final Map<UUID, Boolean> autoPickupCache;
+    // Người chơi đang bật tự động nhặt (đọc từ nhiều luồng, không cần truy vấn database trong event)
+    private final Set<UUID> enabledPlayers = ConcurrentHashMap.newKeySet();
+    // Người chơi đã được tải trạng thái từ database. Trạng thái được giữ lại sau khi người chơi thoát cho đến khi
+    // mọi thay đổi của họ đã được ghi: lần bật/tắt cuối có thể vẫn đang chờ trong hàng đợi ghi, đọc lại database
+    // lúc đó sẽ thấy trạng thái cũ.
+    private final Set<UUID> loadedPlayers = ConcurrentHashMap.newKeySet();
+    // Tăng mỗi lần bật/tắt (chỉ đổi khi giữ lock của loadedPlayers): lần đọc lại nào thấy nó thay đổi thì bị bỏ
+    private long toggles;
+    // Đưa vật phẩm rơi từ block thẳng vào kho (không tạo entity Item)
+    private boolean directBlockDrops;
 
     public AutoPickupListener(JavaPlugin plugin, StorageManager storageManager, DatabaseManager databaseManager,
             LanguageManager languageManager) {
+        this.plugin = plugin;
         this.storageManager = storageManager;
         this.databaseManager = databaseManager;
         this.languageManager = languageManager;
-        this.autoPickupCache = new HashMap<>();
+        loadConfig();
         plugin.getServer().getPluginManager().registerEvents(this, plugin);
+
+        // Tải trạng thái cho người chơi đang online (khi plugin được reload), và tải lại cho những người chơi
+        // vào server lúc database chưa sẵn sàng
+        loadOnlinePlayers();
+        databaseManager.addReadyListener(this::loadOnlinePlayers);
+    }
+
+    private void loadOnlinePlayers() {
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            UUID playerId = player.getUniqueId();
+            if (!loadedPlayers.contains(playerId)) {
+                databaseManager.runAsync(() -> loadAutoPickup(playerId));
+            }
+        }
+    }
+
+    /**
+     * Tải cấu hình auto-pickup từ config.yml
+     */
+    public void loadConfig() {
+        directBlockDrops = plugin.getConfig().getBoolean("autopickup.direct-block-drops", false);
     }
 
     /**
      * Bật/tắt tự động nhặt cho người chơi
      */
     public void setAutoPickup(UUID playerId, boolean enabled) {
-        // Lưu vào database
-        databaseManager.setAutoPickup(playerId.toString(), enabled);
-        // Cập nhật cache
-        autoPickupCache.put(playerId, enabled);
+        // Cập nhật trạng thái trong memory và lưu vào database (async qua hàng đợi ghi) trong cùng một lock, để
+        // lần đọc lại đang chạy thấy được thay đổi này chưa ghi
+        synchronized (loadedPlayers) {
+            if (enabled) {
+                enabledPlayers.add(playerId);
+            } else {
+                enabledPlayers.remove(playerId);
+            }
+            loadedPlayers.add(playerId);
+            toggles++;
+            databaseManager.setAutoPickup(playerId.toString(), enabled);
+        }
     }
 
     /**
-     * Kiểm tra tự động nhặt có bật không
+     * Kiểm tra tự động nhặt có bật không (chỉ đọc trong memory)
      */
     public boolean isAutoPickupEnabled(UUID playerId) {
-        // Kiểm tra cache trước
-        if (autoPickupCache.containsKey(playerId)) {
-            return autoPickupCache.get(playerId);
-        }
-
-        // Nếu không có trong cache, lấy từ database
-        boolean enabled = databaseManager.getAutoPickup(playerId.toString());
-        // Cập nhật cache
-        autoPickupCache.put(playerId, enabled);
-        return enabled;
+        return enabledPlayers.contains(playerId);
     }
 
     /**
-     * Load trạng thái auto-pickup từ database (gọi khi player join)
+     * Load trạng thái auto-pickup từ database (blocking, không gọi trên main thread)
+     * <p>
+     * Chỉ đọc database khi trạng thái chưa có trong memory: các lần bật/tắt sau đó có thể vẫn đang chờ
+     * trong hàng đợi ghi. Nếu không đọc được (database chưa sẵn sàng, hoặc server khác chưa ghi xong),
+     * người chơi chưa được coi là đã tải và được tải lại khi database sẵn sàng.
      */
     public void loadAutoPickup(UUID playerId) {
-        boolean enabled = databaseManager.getAutoPickup(playerId.toString());
-        autoPickupCache.put(playerId, enabled);
+        if (loadedPlayers.contains(playerId) || !databaseManager.canLoad(playerId)) {
+            return;
+        }
+
+        boolean enabled;
+        try {
+            enabled = databaseManager.getBackend().getAutoPickup(playerId.toString());
+        } catch (StorageException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to load auto-pickup setting of " + playerId, e);
+            return;
+        }
+        // Người chơi có thể đã bật/tắt trong lúc đang đọc database
+        synchronized (loadedPlayers) {
+            if (loadedPlayers.add(playerId) && enabled) {
+                enabledPlayers.add(playerId);
+            }
+        }
     }
 
     /**
-     * Xóa cache của player (khi player logout)
+     * Đọc lại trạng thái auto-pickup từ database kể cả khi đã tải (khi server khác vừa thay đổi),
+     * blocking, không gọi trên main thread. Không đọc khi server này còn thay đổi chưa ghi của người chơi:
+     * database lúc đó chưa có trạng thái mới nhất.
+     *
+     * @return false nếu chưa đọc lại được và cần thử lại sau (database không sẵn sàng, còn thay đổi chưa ghi,
+     *         hoặc có người bật/tắt trong lúc đọc)
      */
-    public void clearCache(UUID playerId) {
-        autoPickupCache.remove(playerId);
+    public boolean refreshAutoPickup(UUID playerId) {
+        long version;
+        synchronized (loadedPlayers) {
+            if (!databaseManager.canLoad(playerId) || databaseManager.hasUnwrittenChanges(playerId)) {
+                return false;
+            }
+            version = toggles;
+        }
+        boolean enabled;
+        try {
+            enabled = databaseManager.getBackend().getAutoPickup(playerId.toString());
+        } catch (StorageException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to load auto-pickup setting of " + playerId, e);
+            return false;
+        }
+        synchronized (loadedPlayers) {
+            if (toggles != version) {
+                return false;
+            }
+            if (enabled) {
+                enabledPlayers.add(playerId);
+            } else {
+                enabledPlayers.remove(playerId);
+            }
+            loadedPlayers.add(playerId);
+        }
+        return true;
     }
 
     /**
@@ -93,8 +178,8 @@ public class AutoPickupListener implements Listener {
         Player player = (Player) event.getEntity();
         UUID playerId = player.getUniqueId();
 
-        // Kiểm tra tự động nhặt có bật không
-        if (!isAutoPickupEnabled(playerId)) {
+        // Kiểm tra tự động nhặt có bật không; khi database đang kết nối, vật phẩm được nhặt vào túi đồ như thường
+        if (!isAutoPickupEnabled(playerId) || !databaseManager.isReady()) {
             return;
         }
 
@@ -102,20 +187,26 @@ public class AutoPickupListener implements Listener {
         ItemStack itemStack = item.getItemStack();
         Material material = itemStack.getType();
 
-        // Kiểm tra vật phẩm có thuộc danh mục nào không
-        if (!ItemCategory.isCategorized(material)) {
+        // Kiểm tra vật phẩm có thuộc danh mục nào không; vật phẩm có NBT được nhặt bình thường để không mất dữ liệu
+        if (!ItemCategory.isCategorized(material) || SpecialItemStore.isSpecial(itemStack)) {
             return;
         }
 
         int amount = itemStack.getAmount();
 
         // Thêm vào kho
-        int added = storageManager.addItem(playerId, material, amount);
+        int added = storageManager.addItem(playerId, material, amount, ChangeSource.PICKUP);
 
         if (added > 0) {
             // Hủy sự kiện nhặt vật phẩm (vật phẩm đã vào kho)
             event.setCancelled(true);
-            item.remove();
+            if (added < amount) {
+                // Kho đầy: phần còn lại nằm trên đất và được nhặt bình thường ở lần sau
+                itemStack.setAmount(amount - added);
+                item.setItemStack(itemStack);
+            } else {
+                item.remove();
+            }
 
             // Gửi thông báo
             player.sendMessage(languageManager.getMessage("autopickup.item_picked")
@@ -125,21 +216,101 @@ public class AutoPickupListener implements Listener {
     }
 
     /**
-     * Load trạng thái auto-pickup khi player join
+     * Đưa vật phẩm rơi khi đào block thẳng vào kho, trước khi entity Item được tạo.
+     * Danh sách drop của sự kiện đã tính Fortune/Silk Touch nên số lượng giữ nguyên.
+     */
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onBlockDropItem(BlockDropItemEvent event) {
+        if (!directBlockDrops) {
+            return;
+        }
+
+        Player player = event.getPlayer();
+        UUID playerId = player.getUniqueId();
+        if (!isAutoPickupEnabled(playerId) || !databaseManager.isReady()) {
+            return;
+        }
+
+        // Gom các drop cùng loại và bỏ chúng khỏi danh sách để không được spawn
+        Map<Material, Integer> routed = new LinkedHashMap<>();
+        List<Item> removed = new ArrayList<>();
+        Iterator<Item> iterator = event.getItems().iterator();
+        while (iterator.hasNext()) {
+            Item item = iterator.next();
+            Material material = item.getItemStack().getType();
+            if (!ItemCategory.isCategorized(material) || SpecialItemStore.isSpecial(item.getItemStack())) {
+                continue;
+            }
+
+            routed.merge(material, item.getItemStack().getAmount(), Integer::sum);
+            removed.add(item);
+            iterator.remove();
+        }
+
+        if (routed.isEmpty()) {
+            return;
+        }
+
+        Map<Material, Integer> accepted = storageManager.batchAddItems(playerId, routed, ChangeSource.PICKUP);
+
+        // Phần vượt hạn mức được trả lại danh sách drop để rơi ra đất như bình thường
+        Map<Material, Integer> remaining = new HashMap<>(accepted);
+        for (Item item : removed) {
+            ItemStack itemStack = item.getItemStack();
+            int stored = Math.min(remaining.getOrDefault(itemStack.getType(), 0), itemStack.getAmount());
+            remaining.merge(itemStack.getType(), -stored, Integer::sum);
+            if (stored < itemStack.getAmount()) {
+                itemStack.setAmount(itemStack.getAmount() - stored);
+                item.setItemStack(itemStack);
+                event.getItems().add(item);
+            }
+        }
+
+        for (Map.Entry<Material, Integer> entry : accepted.entrySet()) {
+            player.sendMessage(languageManager.getMessage("autopickup.item_picked")
+                    .replace("{amount}", formatNumber(entry.getValue()))
+                    .replace("{item}", getMaterialDisplayName(entry.getKey())));
+        }
+    }
+
+    /**
+     * Load trạng thái auto-pickup trước khi player vào server (chạy trên luồng async)
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+        loadAutoPickup(event.getUniqueId());
+    }
+
+    /**
+     * Tải lại trạng thái nếu nó đã bị bỏ khỏi memory giữa lúc đăng nhập và lúc vào server
      */
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
-        Player player = event.getPlayer();
-        loadAutoPickup(player.getUniqueId());
+        UUID playerId = event.getPlayer().getUniqueId();
+        if (!loadedPlayers.contains(playerId)) {
+            databaseManager.runAsync(() -> loadAutoPickup(playerId));
+        }
     }
 
     /**
-     * Clear cache khi player quit
+     * Chuyển kho sang cache warm khi player quit, và bỏ trạng thái auto-pickup khỏi memory sau khi mọi thay
+     * đổi của người chơi đã được ghi xuống database
      */
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent event) {
-        Player player = event.getPlayer();
-        clearCache(player.getUniqueId());
+        UUID playerId = event.getPlayer().getUniqueId();
+        storageManager.demoteProfile(playerId);
+        databaseManager.whenWritten(playerId, () -> {
+            if (Bukkit.getPlayer(playerId) == null) {
+                synchronized (loadedPlayers) {
+                    loadedPlayers.remove(playerId);
+                    enabledPlayers.remove(playerId);
+                }
+            }
+        });
     }
 
     /**